@@ -0,0 +1,230 @@
+package com.hp.it.perf.monitor.files.hub;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import com.hp.it.perf.monitor.files.FileSet;
+import com.hp.it.perf.monitor.files.FileStatistics;
+
+public class FileMonitorStatistics implements FileMonitorStatisticsMXBean {
+
+	private final FileStatistics statistics;
+
+	private final List<FileSet> fileSets = new CopyOnWriteArrayList<FileSet>();
+
+	public FileMonitorStatistics(FileStatistics statistics) {
+		this.statistics = statistics;
+	}
+
+	public static ObjectName getObjectName() {
+		try {
+			return ObjectName.getInstance("com.hp.it.perf.monitor.files",
+					"type", "FileMonitorStatistics");
+		} catch (MalformedObjectNameException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	// read statistics are aggregated on monitored file sets
+	public void addFileSet(FileSet fileSet) {
+		fileSets.add(fileSet);
+	}
+
+	@Override
+	public int getFileInstanceCount() {
+		return statistics.fileInstanceCount().get();
+	}
+
+	@Override
+	public int getFileSetCount() {
+		return statistics.fileSetCount().get();
+	}
+
+	@Override
+	public int getFileClusterCount() {
+		return statistics.fileClusterCount().get();
+	}
+
+	@Override
+	public int getIoReaderCount() {
+		return statistics.ioReaderCount().get();
+	}
+
+	@Override
+	public int getIoResourceCount() {
+		return statistics.ioResourceCount().get();
+	}
+
+	@Override
+	public long getHandlePoolHitCount() {
+		return statistics.handlePoolStatistics().hitCount();
+	}
+
+	@Override
+	public long getHandlePoolMissCount() {
+		return statistics.handlePoolStatistics().missCount();
+	}
+
+	@Override
+	public long getHandlePoolEvictionCount() {
+		return statistics.handlePoolStatistics().evictionCount();
+	}
+
+	@Override
+	public long getHandlePoolOverCapCount() {
+		return statistics.handlePoolStatistics().overCapCount();
+	}
+
+	@Override
+	public long getSignatureHitCount() {
+		return statistics.signatureStatistics().hitCount();
+	}
+
+	@Override
+	public long getSignatureMissCount() {
+		return statistics.signatureStatistics().missCount();
+	}
+
+	@Override
+	public long getSignatureBytesRead() {
+		return statistics.signatureStatistics().bytesRead();
+	}
+
+	@Override
+	public long getBytesBehind() {
+		long sum = 0;
+		for (FileSet fileSet : fileSets) {
+			sum += statistics.readStatistics(fileSet).bytesBehind();
+		}
+		return sum;
+	}
+
+	@Override
+	public long getLineCount() {
+		long sum = 0;
+		for (FileSet fileSet : fileSets) {
+			sum += statistics.readStatistics(fileSet).lineCount();
+		}
+		return sum;
+	}
+
+	@Override
+	public long getByteCount() {
+		long sum = 0;
+		for (FileSet fileSet : fileSets) {
+			sum += statistics.readStatistics(fileSet).byteCount();
+		}
+		return sum;
+	}
+
+	@Override
+	public double getLinesPerSecond() {
+		double sum = 0;
+		for (FileSet fileSet : fileSets) {
+			sum += statistics.readStatistics(fileSet).linesPerSecond();
+		}
+		return sum;
+	}
+
+	@Override
+	public double getBytesPerSecond() {
+		double sum = 0;
+		for (FileSet fileSet : fileSets) {
+			sum += statistics.readStatistics(fileSet).bytesPerSecond();
+		}
+		return sum;
+	}
+
+	@Override
+	public long getReopenCount() {
+		long sum = 0;
+		for (FileSet fileSet : fileSets) {
+			sum += statistics.readStatistics(fileSet).reopenCount();
+		}
+		return sum;
+	}
+
+	@Override
+	public long getTruncateCount() {
+		long sum = 0;
+		for (FileSet fileSet : fileSets) {
+			sum += statistics.readStatistics(fileSet).truncateCount();
+		}
+		return sum;
+	}
+
+	@Override
+	public LatencyInfo getWatchDispatchLatency() {
+		return LatencyInfo.of(statistics.watchDispatchLatency());
+	}
+
+	@Override
+	public LatencyInfo getDispatchReadLatency() {
+		return LatencyInfo.of(statistics.dispatchReadLatency());
+	}
+
+	@Override
+	public LatencyInfo getReadLineLatency() {
+		return LatencyInfo.of(statistics.readLineLatency());
+	}
+
+	@Override
+	public int getDispatchQueueDepth() {
+		int sum = 0;
+		for (FileSet fileSet : fileSets) {
+			sum += statistics.dispatchStatistics(fileSet).queueDepth();
+		}
+		return sum;
+	}
+
+	@Override
+	public long getWatchEventCount() {
+		long sum = 0;
+		for (FileSet fileSet : fileSets) {
+			sum += statistics.dispatchStatistics(fileSet).eventCount();
+		}
+		return sum;
+	}
+
+	@Override
+	public long getCoalescedEventCount() {
+		long sum = 0;
+		for (FileSet fileSet : fileSets) {
+			sum += statistics.dispatchStatistics(fileSet).coalescedCount();
+		}
+		return sum;
+	}
+
+	@Override
+	public double getEventCoalesceRatio() {
+		long eventCount = getWatchEventCount();
+		return eventCount == 0 ? 0 : (double) getCoalescedEventCount()
+				/ eventCount;
+	}
+
+	@Override
+	public Map<String, Integer> getFolderDispatchQueueDepth() {
+		Map<String, Integer> depths = new LinkedHashMap<String, Integer>();
+		for (FileSet fileSet : fileSets) {
+			depths.put(fileSet.getPath(), statistics
+					.dispatchStatistics(fileSet).queueDepth());
+		}
+		return depths;
+	}
+
+	@Override
+	public Map<String, LatencyInfo> getFolderDispatchLatency() {
+		Map<String, LatencyInfo> latencies = new LinkedHashMap<String, LatencyInfo>();
+		for (FileSet fileSet : fileSets) {
+			latencies.put(fileSet.getPath(), LatencyInfo.of(statistics
+					.dispatchStatistics(fileSet).processLatency()));
+		}
+		return latencies;
+	}
+
+}
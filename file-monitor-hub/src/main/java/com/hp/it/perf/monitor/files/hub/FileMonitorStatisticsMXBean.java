@@ -0,0 +1,65 @@
+package com.hp.it.perf.monitor.files.hub;
+
+import java.util.Map;
+
+public interface FileMonitorStatisticsMXBean {
+
+	public int getFileInstanceCount();
+
+	public int getFileSetCount();
+
+	public int getFileClusterCount();
+
+	public int getIoReaderCount();
+
+	public int getIoResourceCount();
+
+	public long getBytesBehind();
+
+	public long getLineCount();
+
+	public long getByteCount();
+
+	public double getLinesPerSecond();
+
+	public double getBytesPerSecond();
+
+	public long getReopenCount();
+
+	public long getTruncateCount();
+
+	public long getHandlePoolHitCount();
+
+	public long getHandlePoolMissCount();
+
+	public long getHandlePoolEvictionCount();
+
+	public long getHandlePoolOverCapCount();
+
+	public long getSignatureHitCount();
+
+	public long getSignatureMissCount();
+
+	public long getSignatureBytesRead();
+
+	public LatencyInfo getWatchDispatchLatency();
+
+	public LatencyInfo getDispatchReadLatency();
+
+	public LatencyInfo getReadLineLatency();
+
+	public int getDispatchQueueDepth();
+
+	public long getWatchEventCount();
+
+	public long getCoalescedEventCount();
+
+	// coalesced events in received watch events
+	public double getEventCoalesceRatio();
+
+	// keyed by folder path
+	public Map<String, Integer> getFolderDispatchQueueDepth();
+
+	public Map<String, LatencyInfo> getFolderDispatchLatency();
+
+}
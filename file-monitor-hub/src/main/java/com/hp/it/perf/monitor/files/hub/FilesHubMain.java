@@ -1,6 +1,7 @@
 package com.hp.it.perf.monitor.files.hub;
 
 import java.io.Closeable;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
@@ -22,6 +23,7 @@ import org.slf4j.LoggerFactory;
 
 import com.hp.it.perf.monitor.files.ContentLine;
 import com.hp.it.perf.monitor.files.ContentLineSourceObserver;
+import com.hp.it.perf.monitor.files.ContentLineTruncateObserver;
 import com.hp.it.perf.monitor.files.FileInstance;
 import com.hp.it.perf.monitor.files.FileInstanceFactory;
 import com.hp.it.perf.monitor.files.FileMetadata;
@@ -38,7 +40,8 @@ import com.hp.it.perf.monitor.hub.internal.InternalMonitorHub;
 import com.hp.it.perf.monitor.hub.jmx.HubJMX;
 import com.hp.it.perf.monitor.hub.jmx.MonitorHubService;
 
-public class FilesHubMain implements ContentLineSourceObserver {
+public class FilesHubMain implements ContentLineSourceObserver,
+		ContentLineTruncateObserver {
 
 	private MonitorEndpoint endpoint;
 	private FileInstanceFactory fileFactory;
@@ -46,12 +49,22 @@ public class FilesHubMain implements ContentLineSourceObserver {
 	private HubPublisher publisher;
 	private JMXConnectorServer connectorServer;
 	private InternalMonitorHub coreHub;
+	private FileMonitorStatistics statistics;
+	// monitor sub-folders of given folders
+	private boolean recursive = Boolean.getBoolean("monitor.file.recursive");
 
 	private static Logger log = LoggerFactory.getLogger(FilesHubMain.class);
 
-	public FilesHubMain(String domain, String name, String includePattern) {
+	public FilesHubMain(String domain, String name, String includePattern)
+			throws IOException {
 		this.endpoint = new MonitorEndpoint(domain, name);
-		this.fileFactory = new MonitorFileFactory();
+		MonitorFileFactory monitorFileFactory = new MonitorFileFactory();
+		String checkpointFile = System.getProperty("monitor.checkpoint.file");
+		if (checkpointFile != null) {
+			log.info("Use read offset checkpoint file: {}", checkpointFile);
+			monitorFileFactory.setCheckpointFile(new File(checkpointFile));
+		}
+		this.fileFactory = monitorFileFactory;
 		if (includePattern != null) {
 			final Pattern pattern = Pattern.compile(includePattern);
 			log.info("Use include pattern: {}", pattern.pattern());
@@ -64,8 +77,10 @@ public class FilesHubMain implements ContentLineSourceObserver {
 			});
 		}
 		this.superSetStream = new SuperSetContentLineStream(
-				new FileOpenOptionBuilder().lazyMode().tailMode().build());
+				new FileOpenOptionBuilder().lazyMode().tailMode()
+						.sharedBufferMode().build());
 		this.superSetStream.setSourceObserver(this);
+		this.statistics = new FileMonitorStatistics(fileFactory.getStatistics());
 	}
 
 	public void startPublish() throws JMException {
@@ -80,6 +95,10 @@ public class FilesHubMain implements ContentLineSourceObserver {
 		jmxHub.setNotificationOpenTypeDefault(true);
 		ManagementFactory.getPlatformMBeanServer().registerMBean(jmxHub,
 				HubJMX.getHubObjectName());
+		ManagementFactory.getPlatformMBeanServer().registerMBean(statistics,
+				FileMonitorStatistics.getObjectName());
+		ManagementFactory.getPlatformMBeanServer().registerMBean(coreHub,
+				InternalMonitorHub.getObjectName());
 	}
 
 	public void setupJMXConnectorServer() throws IOException {
@@ -104,8 +123,10 @@ public class FilesHubMain implements ContentLineSourceObserver {
 
 	public void addMonitorFolder(String folder) throws FileNotFoundException,
 			IOException {
-		FileSet fileSet = fileFactory.getFileSet(folder);
+		FileSet fileSet = recursive ? fileFactory.getFileTree(folder, null)
+				: fileFactory.getFileSet(folder);
 		superSetStream.addFileSet(fileSet);
+		statistics.addFileSet(fileSet);
 	}
 
 	/**
@@ -120,8 +141,14 @@ public class FilesHubMain implements ContentLineSourceObserver {
 					.println("ERROR: Need 'domain', and 'name' as first two arguements, like \"'hpsc' 'production'\".");
 			return;
 		}
-		FilesHubMain hubMain = new FilesHubMain(args[0], args[1],
-				System.getProperty("monitor.file.include"));
+		FilesHubMain hubMain;
+		try {
+			hubMain = new FilesHubMain(args[0], args[1],
+					System.getProperty("monitor.file.include"));
+		} catch (IOException e) {
+			log.error("Init file monitor error", e);
+			return;
+		}
 		try {
 			if (args.length == 2) {
 				args = new String[] { args[0], args[1], "." };
@@ -174,7 +201,12 @@ public class FilesHubMain implements ContentLineSourceObserver {
 					filePath = getFilePath(fileInstance);
 				}
 				lastLineCount++;
-				hubMain.publish(line, filePath);
+				try {
+					hubMain.publish(line, filePath);
+				} finally {
+					// line buffer can be recycled after post
+					line.release();
+				}
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -203,7 +235,8 @@ public class FilesHubMain implements ContentLineSourceObserver {
 	public void publish(ContentLine line, String source) {
 		GatewayPayload payload = new GatewayPayload();
 		payload.setContentId(line.getPosition());
-		payload.setContent(line.getLine());
+		payload.setContent(line.getLineBuffer(), line.getLineOffset(),
+				line.getLineLength());
 		payload.setContentSource(source);
 		// TODO how to use this content type in hub
 		payload.setContentType(1);
@@ -256,4 +289,13 @@ public class FilesHubMain implements ContentLineSourceObserver {
 		log.info("Deleted: {}", status.getContext());
 	}
 
+	@Override
+	public void sourceFileTruncated(FileInstance file, Object provider) {
+		GatewayStatus status = new GatewayStatus();
+		status.setStatus(2); // truncated
+		status.setContext(getFilePath(file));
+		publisher.update(status);
+		log.info("Truncated: {}", status.getContext());
+	}
+
 }
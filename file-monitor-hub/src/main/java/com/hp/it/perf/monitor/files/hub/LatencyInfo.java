@@ -0,0 +1,81 @@
+package com.hp.it.perf.monitor.files.hub;
+
+import java.util.concurrent.TimeUnit;
+
+import com.hp.it.perf.monitor.files.FileStatistics.Histogram;
+
+// latency snapshot in microseconds
+public class LatencyInfo {
+
+	private long count;
+
+	private double mean;
+
+	private long max;
+
+	private long p50;
+
+	private long p90;
+
+	private long p99;
+
+	public static LatencyInfo of(Histogram histogram) {
+		LatencyInfo info = new LatencyInfo();
+		info.setCount(histogram.count());
+		info.setMean(histogram.mean() / TimeUnit.MICROSECONDS.toNanos(1));
+		info.setMax(TimeUnit.NANOSECONDS.toMicros(histogram.max()));
+		info.setP50(TimeUnit.NANOSECONDS.toMicros(histogram.percentile(50)));
+		info.setP90(TimeUnit.NANOSECONDS.toMicros(histogram.percentile(90)));
+		info.setP99(TimeUnit.NANOSECONDS.toMicros(histogram.percentile(99)));
+		return info;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public void setCount(long count) {
+		this.count = count;
+	}
+
+	public double getMean() {
+		return mean;
+	}
+
+	public void setMean(double mean) {
+		this.mean = mean;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	public void setMax(long max) {
+		this.max = max;
+	}
+
+	public long getP50() {
+		return p50;
+	}
+
+	public void setP50(long p50) {
+		this.p50 = p50;
+	}
+
+	public long getP90() {
+		return p90;
+	}
+
+	public void setP90(long p90) {
+		this.p90 = p90;
+	}
+
+	public long getP99() {
+		return p99;
+	}
+
+	public void setP99(long p99) {
+		this.p99 = p99;
+	}
+
+}
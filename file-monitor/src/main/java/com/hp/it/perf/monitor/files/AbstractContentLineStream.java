@@ -4,6 +4,8 @@ import java.io.Closeable;
 import java.io.EOFException;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.List;
+import java.util.ListIterator;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
@@ -22,6 +24,31 @@ abstract class AbstractContentLineStream<T> implements ContentLineStream {
 
 	private volatile boolean closed;
 
+	// set on opened sub-streams, created and deleted are known by change
+	// queue already
+	protected final ContentLineSourceObserver truncateObserver = new TruncateObserver();
+
+	private class TruncateObserver implements ContentLineSourceObserver,
+			ContentLineTruncateObserver {
+
+		@Override
+		public void sourceFileCreated(FileInstance file, Object provider) {
+		}
+
+		@Override
+		public void sourceFileDeleted(FileInstance file, Object provider) {
+		}
+
+		@Override
+		public void sourceFileTruncated(FileInstance file, Object provider) {
+			ContentLineSourceObserver observer = sourceObserver;
+			if (observer instanceof ContentLineTruncateObserver) {
+				((ContentLineTruncateObserver) observer).sourceFileTruncated(
+						file, provider);
+			}
+		}
+	}
+
 	public void setSourceObserver(ContentLineSourceObserver sourceObserver) {
 		this.sourceObserver = sourceObserver;
 	}
@@ -43,7 +70,8 @@ abstract class AbstractContentLineStream<T> implements ContentLineStream {
 			content = stream.poll();
 			if (content != null) {
 				// still not finished
-				fileUpdateNotifier.pushBack(event);
+				fileUpdateNotifier.reschedule(event, 1,
+						content.getLineLength());
 			}
 		}
 		return content;
@@ -99,15 +127,20 @@ abstract class AbstractContentLineStream<T> implements ContentLineStream {
 			FileInstance file = event.getInstance();
 			log.trace("fetch one line for updated file {}", file);
 			ContentLineStream stream = getContentStream(event);
+			// limit lines by schedule policy
+			int quota = Math.max(
+					Math.min(maxSize, fileUpdateNotifier.remainingLines(event)),
+					1);
 			// TODO queue full
-			int len = stream.drainTo(list, maxSize);
+			int len = stream.drainTo(list, quota);
 			if (len > 0) {
 				totalLen += len;
 				maxSize -= len;
-				if (maxSize <= 0) {
+				if (len == quota) {
 					// still not finished
 					log.trace("read {} line from {}", len, file);
-					fileUpdateNotifier.pushBack(event);
+					fileUpdateNotifier.reschedule(event, len,
+							sizeOfLast(list, len));
 				}
 			} else if (len == 0) {
 				// no data loaded
@@ -144,7 +177,8 @@ abstract class AbstractContentLineStream<T> implements ContentLineStream {
 			if (content != null) {
 				// still not finished
 				log.trace("read 1 line from {}", file);
-				fileUpdateNotifier.pushBack(event);
+				fileUpdateNotifier.reschedule(event, 1,
+						content.getLineLength());
 				return content;
 			} else {
 				// no data loaded
@@ -179,7 +213,8 @@ abstract class AbstractContentLineStream<T> implements ContentLineStream {
 			if (content != null) {
 				// still not finished
 				log.trace("read 1 line from {}", file);
-				fileUpdateNotifier.pushBack(event);
+				fileUpdateNotifier.reschedule(event, 1,
+						content.getLineLength());
 				return content;
 			} else {
 				// no data loaded
@@ -192,6 +227,22 @@ abstract class AbstractContentLineStream<T> implements ContentLineStream {
 		return null;
 	}
 
+	// bytes of last added lines, 0 if not known
+	private static long sizeOfLast(Collection<?> list, int len) {
+		if (!(list instanceof List)) {
+			return 0;
+		}
+		long size = 0;
+		ListIterator<?> it = ((List<?>) list).listIterator(list.size());
+		for (int i = 0; i < len && it.hasPrevious(); i++) {
+			Object line = it.previous();
+			if (line instanceof ContentLine) {
+				size += ((ContentLine) line).getLineLength();
+			}
+		}
+		return size;
+	}
+
 	protected abstract ContentLineStream getContentStream(ChangeEvent<T> event)
 			throws IOException;
 
@@ -46,6 +46,7 @@ public class CompositeInstanceContentLineStream extends
 			}
 
 		};
+		fileUpdateNotifier.setSchedulePolicy(openOption.schedulePolicy());
 		fileUpdateNotifier.addFileInstanceChangeAware(instanceChange);
 	}
 
@@ -65,6 +66,7 @@ public class CompositeInstanceContentLineStream extends
 				.getClientProperty(streamTracker);
 		if (stream == null) {
 			stream = streamDelegator.openLineStream(file, openOption);
+			stream.setSourceObserver(truncateObserver);
 			file.putClientProperty(streamTracker, stream);
 		}
 		return stream;
@@ -24,6 +24,24 @@ public class ContentLine {
 		this.line = line;
 	}
 
+	// backed buffer of line content, which may be shared with other lines
+	public byte[] getLineBuffer() {
+		return line;
+	}
+
+	public int getLineOffset() {
+		return 0;
+	}
+
+	public int getLineLength() {
+		return line == null ? 0 : line.length;
+	}
+
+	// recycle shared line buffer, line content is not accessible after it
+	public void release() {
+		// no-op for non-shared line
+	}
+
 	public FileInstance getFileInstance() {
 		return fileInstance;
 	}
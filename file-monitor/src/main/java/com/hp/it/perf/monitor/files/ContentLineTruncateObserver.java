@@ -0,0 +1,9 @@
+package com.hp.it.perf.monitor.files;
+
+// optional for source observer, notified if it is also implemented
+public interface ContentLineTruncateObserver {
+
+	// file shrank or head changed (e.g. copytruncate), read from start again
+	public void sourceFileTruncated(FileInstance file, Object provider);
+
+}
@@ -1,6 +1,12 @@
 package com.hp.it.perf.monitor.files;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class DefaultFileStatistics implements FileStatistics {
 
@@ -34,11 +40,415 @@ public class DefaultFileStatistics implements FileStatistics {
 
 	}
 
+	public static class FileReadCount implements ReadStatistics {
+
+		private final FileInstance instance;
+
+		private final StripedCounter lineCount = new StripedCounter();
+
+		private final StripedCounter byteCount = new StripedCounter();
+
+		private final StripedCounter reopenCount = new StripedCounter();
+
+		private final StripedCounter truncateCount = new StripedCounter();
+
+		private volatile long readPosition = -1;
+
+		private volatile long lastChangeTime = -1;
+
+		// dispatched change not read yet, 0 for none
+		private final AtomicLong pendingChangeNanoTime = new AtomicLong();
+
+		private final LatencyHistogram dispatchReadLatency;
+
+		// last rate sample
+		private long sampleNanoTime = System.nanoTime();
+		private long sampleLines;
+		private long sampleBytes;
+		private double lineRate;
+		private double byteRate;
+
+		FileReadCount(FileInstance instance,
+				LatencyHistogram dispatchReadLatency) {
+			this.instance = instance;
+			this.dispatchReadLatency = dispatchReadLatency;
+		}
+
+		// called in read path after lines loaded
+		public void read(int lines, long bytes, long position) {
+			lineCount.add(lines);
+			byteCount.add(bytes);
+			readPosition = position;
+			if (lines > 0 && pendingChangeNanoTime.get() != 0) {
+				long changeTime = pendingChangeNanoTime.getAndSet(0);
+				if (changeTime != 0) {
+					dispatchReadLatency.record(System.nanoTime() - changeTime);
+				}
+			}
+		}
+
+		public long readPosition() {
+			return readPosition;
+		}
+
+		public void reopened() {
+			reopenCount.increment();
+		}
+
+		public void truncated() {
+			truncateCount.increment();
+		}
+
+		public void changed() {
+			lastChangeTime = System.currentTimeMillis();
+			long now = System.nanoTime();
+			// only track first change since last read
+			pendingChangeNanoTime.compareAndSet(0, now == 0 ? 1 : now);
+		}
+
+		@Override
+		public long bytesBehind() {
+			long position = readPosition;
+			if (position < 0) {
+				// not read yet
+				return 0;
+			}
+			long length;
+			try {
+				// last known length, only refreshed after change event, as
+				// it is polled for all files
+				length = Long.parseLong(instance.getMetadata(false).getLength());
+			} catch (NumberFormatException e) {
+				return 0;
+			}
+			return Math.max(length - position, 0);
+		}
+
+		@Override
+		public long lineCount() {
+			return lineCount.sum();
+		}
+
+		@Override
+		public long byteCount() {
+			return byteCount.sum();
+		}
+
+		@Override
+		public double linesPerSecond() {
+			sample();
+			return lineRate;
+		}
+
+		@Override
+		public double bytesPerSecond() {
+			sample();
+			return byteRate;
+		}
+
+		private synchronized void sample() {
+			long now = System.nanoTime();
+			long duration = now - sampleNanoTime;
+			if (duration < TimeUnit.SECONDS.toNanos(1)) {
+				return;
+			}
+			long lines = lineCount.sum();
+			long bytes = byteCount.sum();
+			double seconds = duration / (double) TimeUnit.SECONDS.toNanos(1);
+			lineRate = (lines - sampleLines) / seconds;
+			byteRate = (bytes - sampleBytes) / seconds;
+			sampleNanoTime = now;
+			sampleLines = lines;
+			sampleBytes = bytes;
+		}
+
+		@Override
+		public long idleTime() {
+			long changeTime = lastChangeTime;
+			return changeTime < 0 ? -1 : System.currentTimeMillis()
+					- changeTime;
+		}
+
+		@Override
+		public long reopenCount() {
+			return reopenCount.sum();
+		}
+
+		@Override
+		public long truncateCount() {
+			return truncateCount.sum();
+		}
+
+		@Override
+		public String toString() {
+			return String
+					.format("%s: behind=%s, lines=%s, bytes=%s, idle=%sms, reopen=%s, truncate=%s",
+							instance.getName(), bytesBehind(), lineCount(),
+							byteCount(), idleTime(), reopenCount(),
+							truncateCount());
+		}
+
+	}
+
+	public static class HandlePoolCount implements HandlePoolStatistics {
+
+		private final StripedCounter hitCount = new StripedCounter();
+
+		private final StripedCounter missCount = new StripedCounter();
+
+		private final StripedCounter evictionCount = new StripedCounter();
+
+		private final StripedCounter overCapCount = new StripedCounter();
+
+		public void hit() {
+			hitCount.increment();
+		}
+
+		public void missed() {
+			missCount.increment();
+		}
+
+		public void evicted() {
+			evictionCount.increment();
+		}
+
+		public void overCap() {
+			overCapCount.increment();
+		}
+
+		@Override
+		public long hitCount() {
+			return hitCount.sum();
+		}
+
+		@Override
+		public long missCount() {
+			return missCount.sum();
+		}
+
+		@Override
+		public long evictionCount() {
+			return evictionCount.sum();
+		}
+
+		@Override
+		public long overCapCount() {
+			return overCapCount.sum();
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"handle-pool: hit=%s, miss=%s, eviction=%s, over-cap=%s",
+					hitCount, missCount, evictionCount, overCapCount);
+		}
+
+	}
+
+	public static class SignatureCount implements SignatureStatistics {
+
+		private final StripedCounter hitCount = new StripedCounter();
+
+		private final StripedCounter missCount = new StripedCounter();
+
+		private final StripedCounter bytesRead = new StripedCounter();
+
+		public void hit() {
+			hitCount.increment();
+		}
+
+		public void missed() {
+			missCount.increment();
+		}
+
+		public void read(long bytes) {
+			bytesRead.add(bytes);
+		}
+
+		@Override
+		public long hitCount() {
+			return hitCount.sum();
+		}
+
+		@Override
+		public long missCount() {
+			return missCount.sum();
+		}
+
+		@Override
+		public long bytesRead() {
+			return bytesRead.sum();
+		}
+
+		@Override
+		public String toString() {
+			return String.format("signature: hit=%s, miss=%s, bytes=%s",
+					hitCount, missCount, bytesRead);
+		}
+
+	}
+
+	public static class FolderDispatchCount implements DispatchStatistics {
+
+		private final AtomicInteger queueDepth = new AtomicInteger();
+
+		private final LatencyHistogram processLatency;
+
+		private final AtomicLong eventCount = new AtomicLong();
+
+		private final AtomicLong coalescedCount = new AtomicLong();
+
+		FolderDispatchCount(String path) {
+			processLatency = new LatencyHistogram("dispatch-process " + path);
+		}
+
+		public void received(int events) {
+			eventCount.addAndGet(events);
+		}
+
+		public void coalesced(int events) {
+			coalescedCount.addAndGet(events);
+		}
+
+		public void queued() {
+			queueDepth.incrementAndGet();
+		}
+
+		public void processed(long nanos) {
+			// recorded before leaving queue, so it is seen once queue is empty
+			processLatency.record(nanos);
+			queueDepth.decrementAndGet();
+		}
+
+		@Override
+		public int queueDepth() {
+			return queueDepth.get();
+		}
+
+		@Override
+		public LatencyHistogram processLatency() {
+			return processLatency;
+		}
+
+		@Override
+		public long eventCount() {
+			return eventCount.get();
+		}
+
+		@Override
+		public long coalescedCount() {
+			return coalescedCount.get();
+		}
+
+	}
+
+	// instances are listed on each read, as list of file set is snapshot
+	private static abstract class AggregateReadStatistics implements
+			ReadStatistics {
+
+		private final DefaultFileStatistics statistics;
+
+		AggregateReadStatistics(DefaultFileStatistics statistics) {
+			this.statistics = statistics;
+		}
+
+		abstract List<? extends FileInstance> instances();
+
+		@Override
+		public long bytesBehind() {
+			long sum = 0;
+			for (FileInstance instance : instances()) {
+				sum += statistics.readCount(instance).bytesBehind();
+			}
+			return sum;
+		}
+
+		@Override
+		public long lineCount() {
+			long sum = 0;
+			for (FileInstance instance : instances()) {
+				sum += statistics.readCount(instance).lineCount();
+			}
+			return sum;
+		}
+
+		@Override
+		public long byteCount() {
+			long sum = 0;
+			for (FileInstance instance : instances()) {
+				sum += statistics.readCount(instance).byteCount();
+			}
+			return sum;
+		}
+
+		@Override
+		public double linesPerSecond() {
+			double sum = 0;
+			for (FileInstance instance : instances()) {
+				sum += statistics.readCount(instance).linesPerSecond();
+			}
+			return sum;
+		}
+
+		@Override
+		public double bytesPerSecond() {
+			double sum = 0;
+			for (FileInstance instance : instances()) {
+				sum += statistics.readCount(instance).bytesPerSecond();
+			}
+			return sum;
+		}
+
+		@Override
+		public long idleTime() {
+			// most recent changed file
+			long idle = -1;
+			for (FileInstance instance : instances()) {
+				long time = statistics.readCount(instance).idleTime();
+				if (time >= 0 && (idle < 0 || time < idle)) {
+					idle = time;
+				}
+			}
+			return idle;
+		}
+
+		@Override
+		public long reopenCount() {
+			long sum = 0;
+			for (FileInstance instance : instances()) {
+				sum += statistics.readCount(instance).reopenCount();
+			}
+			return sum;
+		}
+
+		@Override
+		public long truncateCount() {
+			long sum = 0;
+			for (FileInstance instance : instances()) {
+				sum += statistics.readCount(instance).truncateCount();
+			}
+			return sum;
+		}
+
+	}
+
+	private final Object readTracker = new Object();
+
 	private WriteableCount instanceCount = new WriteableCount("file-instance");
 	private WriteableCount setCount = new WriteableCount("file-set");
 	private WriteableCount clusterCount = new WriteableCount("file-cluster");
 	private WriteableCount ioReaderCount = new WriteableCount("io-reader");
 	private WriteableCount ioResourceCount = new WriteableCount("io-resource");
+	private HandlePoolCount handlePoolCount = new HandlePoolCount();
+	private SignatureCount signatureCount = new SignatureCount();
+	private Map<FileSet, FolderDispatchCount> dispatchCounts = Collections
+			.synchronizedMap(new WeakHashMap<FileSet, FolderDispatchCount>());
+	private LatencyHistogram watchDispatchLatency = new LatencyHistogram(
+			"watch-dispatch");
+	private LatencyHistogram dispatchReadLatency = new LatencyHistogram(
+			"dispatch-read");
+	private LatencyHistogram readLineLatency = new LatencyHistogram(
+			"read-line");
 
 	@Override
 	public WriteableCount fileInstanceCount() {
@@ -65,4 +475,97 @@ public class DefaultFileStatistics implements FileStatistics {
 		return ioResourceCount;
 	}
 
+	public HandlePoolCount handlePoolCount() {
+		return handlePoolCount;
+	}
+
+	@Override
+	public HandlePoolCount handlePoolStatistics() {
+		return handlePoolCount;
+	}
+
+	public SignatureCount signatureCount() {
+		return signatureCount;
+	}
+
+	@Override
+	public SignatureCount signatureStatistics() {
+		return signatureCount;
+	}
+
+	public FileReadCount readCount(FileInstance instance) {
+		FileReadCount readCount = (FileReadCount) instance
+				.getClientProperty(readTracker);
+		if (readCount == null) {
+			synchronized (instance) {
+				readCount = (FileReadCount) instance
+						.getClientProperty(readTracker);
+				if (readCount == null) {
+					readCount = new FileReadCount(instance,
+							dispatchReadLatency);
+					instance.putClientProperty(readTracker, readCount);
+				}
+			}
+		}
+		return readCount;
+	}
+
+	@Override
+	public FileReadCount readStatistics(FileInstance instance) {
+		return readCount(instance);
+	}
+
+	@Override
+	public ReadStatistics readStatistics(final FileCluster cluster) {
+		return new AggregateReadStatistics(this) {
+
+			@Override
+			List<? extends FileInstance> instances() {
+				return cluster.listInstances();
+			}
+		};
+	}
+
+	@Override
+	public ReadStatistics readStatistics(final FileSet fileSet) {
+		return new AggregateReadStatistics(this) {
+
+			@Override
+			List<? extends FileInstance> instances() {
+				return fileSet.listInstances();
+			}
+		};
+	}
+
+	public FolderDispatchCount dispatchCount(FileSet fileSet) {
+		synchronized (dispatchCounts) {
+			FolderDispatchCount dispatchCount = dispatchCounts.get(fileSet);
+			if (dispatchCount == null) {
+				dispatchCount = new FolderDispatchCount(fileSet.getPath());
+				dispatchCounts.put(fileSet, dispatchCount);
+			}
+			return dispatchCount;
+		}
+	}
+
+	@Override
+	public FolderDispatchCount dispatchStatistics(FileSet fileSet) {
+		return dispatchCount(fileSet);
+	}
+
+	@Override
+	public LatencyHistogram watchDispatchLatency() {
+		return watchDispatchLatency;
+	}
+
+	@Override
+	public LatencyHistogram dispatchReadLatency() {
+		return dispatchReadLatency;
+	}
+
+	@Override
+	public LatencyHistogram readLineLatency() {
+		return readLineLatency;
+	}
+
 }
@@ -4,12 +4,12 @@ import java.io.Closeable;
 import java.io.EOFException;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.BitSet;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,30 +23,45 @@ class FileChangeQueue<T> implements Closeable {
 
 	private final Object instanceTracker = new Object();
 
-	private AtomicInteger instanceSeqGen = new AtomicInteger();
-
-	private BitSet instanceChangeMask = new BitSet();
-
-	private BitSet instanceDeleteMask = new BitSet();
-
 	private ConcurrentHashMap<T, ContentChangeListener> contentChangeListeners = new ConcurrentHashMap<T, ContentChangeListener>();
 
 	private ConcurrentHashMap<T, InstanceChangeListener> instanceChangeListeners = new ConcurrentHashMap<T, InstanceChangeListener>();
 
 	private List<FileInstance> monitorInstances = null;
 
-	// accessed by different threads
-	private LinkedBlockingDeque<ChangeEvent<T>> queue = new LinkedBlockingDeque<ChangeEvent<T>>();
+	private ReadSchedulePolicy schedulePolicy = ReadSchedulePolicies.greedy();
+
+	// accessed by different threads, without lock on offer and poll
+	private ConcurrentLinkedDeque<ChangeEvent<T>> queue = new ConcurrentLinkedDeque<ChangeEvent<T>>();
+
+	// one permit per queued event, only block consumer if queue is empty
+	private Semaphore queueSize = new Semaphore(0);
 
 	public enum ChangeMode {
 		Created, Deleted, Changed, Empty, Closed;
 	}
 
+	// queue state per file instance, instead of shared mask
+	static class InstanceState {
+		// true if one change event is in queue
+		private final AtomicBoolean queued = new AtomicBoolean();
+
+		private volatile boolean deleted;
+
+		// lines and bytes read in current turn
+		private volatile int turnLines;
+
+		private volatile long turnBytes;
+
+		// when change event is added on tail, 0 if not
+		private volatile long queuedNanoTime;
+	}
+
 	public static class ChangeEvent<T> {
 		private final T provider;
 		private final FileInstance instance;
 		private final ChangeMode mode;
-		private int instanceSeq;
+		private InstanceState instanceState;
 
 		public ChangeEvent(T provider, FileInstance instance, ChangeMode mode) {
 			this.provider = provider;
@@ -54,12 +69,12 @@ class FileChangeQueue<T> implements Closeable {
 			this.mode = mode;
 		}
 
-		int getInstanceSeq() {
-			return instanceSeq;
+		InstanceState getInstanceState() {
+			return instanceState;
 		}
 
-		void setInstanceSeq(int instanceSeq) {
-			this.instanceSeq = instanceSeq;
+		void setInstanceState(InstanceState instanceState) {
+			this.instanceState = instanceState;
 		}
 
 		public T getProvider() {
@@ -163,12 +178,10 @@ class FileChangeQueue<T> implements Closeable {
 		if (closed) {
 			return;
 		}
-		prepareInstanceSeq(event);
+		prepareInstanceState(event);
 		// handle delete/create first
 		if (event.getMode() == ChangeMode.Deleted) {
-			synchronized (instanceDeleteMask) {
-				instanceDeleteMask.set(event.getInstanceSeq());
-			}
+			event.getInstanceState().deleted = true;
 			if (monitorInstances != null) {
 				monitorInstances.remove(event.getInstance());
 			}
@@ -252,55 +265,70 @@ class FileChangeQueue<T> implements Closeable {
 	}
 
 	private void offerEvent(ChangeEvent<T> event, boolean tail) {
-		if (event.getInstanceSeq() != 0
-				&& event.getMode() == ChangeMode.Changed) {
+		InstanceState state = event.getInstanceState();
+		if (state != null && event.getMode() == ChangeMode.Changed) {
 			// check and accumulate duplicate change event
-			boolean newEvent = false;
-			synchronized (instanceChangeMask) {
-				if (!instanceChangeMask.get(event.getInstanceSeq())) {
-					instanceChangeMask.set(event.getInstanceSeq());
-					newEvent = true;
-				}
+			if (!state.queued.compareAndSet(false, true)) {
+				return;
 			}
-			if (newEvent) {
-				if (tail) {
-					log.trace("add event {} for file {}", event.getMode(),
-							event.getInstance());
-					queue.offer(event);
-				} else {
-					log.trace("push event {} for file {}", event.getMode(),
-							event.getInstance());
-					queue.offerFirst(event);
-				}
+			if (tail) {
+				// start new turn
+				state.turnLines = 0;
+				state.turnBytes = 0;
+				state.queuedNanoTime = System.nanoTime();
+				log.trace("add event {} for file {}", event.getMode(),
+						event.getInstance());
+			} else {
+				log.trace("push event {} for file {}", event.getMode(),
+						event.getInstance());
 			}
 		} else {
 			if (tail) {
 				log.trace("add event {} ({})", event.getMode(),
 						event.getInstance());
-				queue.offer(event);
 			} else {
 				log.trace("push event {} ({})", event.getMode(),
 						event.getInstance());
-				queue.offerFirst(event);
 			}
 		}
+		if (tail) {
+			queue.offerLast(event);
+		} else {
+			queue.offerFirst(event);
+		}
+		queueSize.release();
 	}
 
 	private void clearChangeMask(ChangeEvent<T> event) {
-		if (event.getInstanceSeq() != 0
-				&& event.getMode() == ChangeMode.Changed) {
-			// check and accumulate duplicate change event
-			synchronized (instanceChangeMask) {
-				instanceChangeMask.clear(event.getInstanceSeq());
+		InstanceState state = event.getInstanceState();
+		if (state != null && event.getMode() == ChangeMode.Changed) {
+			long queuedNanoTime = state.queuedNanoTime;
+			if (queuedNanoTime != 0) {
+				state.queuedNanoTime = 0;
+				ScheduleLag.track(event.getInstance()).record(
+						System.nanoTime() - queuedNanoTime);
 			}
+			// accept new change event from now
+			state.queued.set(false);
+		}
+	}
+
+	// caller should acquire one permit before
+	private ChangeEvent<T> pollQueue() {
+		ChangeEvent<T> event = queue.pollFirst();
+		if (event == null) {
+			// should not happen as permit is acquired
+			throw new IllegalStateException("change queue out of sync");
 		}
+		return event;
 	}
 
 	public ChangeEvent<T> take() throws InterruptedException, IOException,
 			EOFException {
 		checkClosed();
 		while (true) {
-			ChangeEvent<T> event = queue.take();
+			queueSize.acquire();
+			ChangeEvent<T> event = pollQueue();
 			if (event != null) {
 				log.trace("take event {} ({})", event.getMode(),
 						event.getInstance());
@@ -336,8 +364,10 @@ class FileChangeQueue<T> implements Closeable {
 		long totalNanoTimeout = unit.toNanos(timeout);
 		long nanoTimeout = totalNanoTimeout;
 		while (nanoTimeout > 0) {
-			ChangeEvent<T> event = queue
-					.poll(nanoTimeout, TimeUnit.NANOSECONDS);
+			ChangeEvent<T> event = null;
+			if (queueSize.tryAcquire(nanoTimeout, TimeUnit.NANOSECONDS)) {
+				event = pollQueue();
+			}
 			if (event != null) {
 				log.trace("timed poll event {} ({})", event.getMode(),
 						event.getInstance());
@@ -368,21 +398,19 @@ class FileChangeQueue<T> implements Closeable {
 	}
 
 	private boolean wasDeletedInstance(ChangeEvent<T> event) {
-		if (event.getMode() == ChangeMode.Changed) {
-			synchronized (instanceDeleteMask) {
-				if (instanceDeleteMask.get(event.getInstanceSeq())) {
-					return true;
-				}
-			}
-		}
-		return false;
+		InstanceState state = event.getInstanceState();
+		return event.getMode() == ChangeMode.Changed && state != null
+				&& state.deleted;
 	}
 
 	public ChangeEvent<T> poll(boolean errorIfEof) throws IOException,
 			EOFException {
 		checkClosed();
 		while (true) {
-			ChangeEvent<T> event = queue.poll();
+			ChangeEvent<T> event = null;
+			if (queueSize.tryAcquire()) {
+				event = pollQueue();
+			}
 			if (event != null) {
 				log.trace("poll event {} ({})", event.getMode(),
 						event.getInstance());
@@ -417,6 +445,30 @@ class FileChangeQueue<T> implements Closeable {
 		offerEvent(event, false);
 	}
 
+	// lines can be read from event file in current turn
+	public int remainingLines(ChangeEvent<T> event) {
+		InstanceState state = event.getInstanceState();
+		if (state == null) {
+			return Integer.MAX_VALUE;
+		}
+		return Math.max(schedulePolicy.remainingLines(event.getInstance(),
+				state.turnLines, state.turnBytes), 0);
+	}
+
+	// put back on head if file still has turn, or on tail for next turn
+	public void reschedule(ChangeEvent<T> event, int lines, long bytes) {
+		InstanceState state = event.getInstanceState();
+		if (state != null) {
+			state.turnLines += lines;
+			state.turnBytes += bytes;
+		}
+		offerEvent(event, remainingLines(event) == 0);
+	}
+
+	public void setSchedulePolicy(ReadSchedulePolicy schedulePolicy) {
+		this.schedulePolicy = schedulePolicy;
+	}
+
 	public void addMonitorInstance(FileInstance instance) {
 		log.trace("add file {} into monitored list", instance);
 		monitorInstances.add(instance);
@@ -426,19 +478,20 @@ class FileChangeQueue<T> implements Closeable {
 		ChangeEvent<T> event = new ChangeEvent<T>(provider, instance,
 				ChangeMode.Changed);
 		if (instance != null) {
-			prepareInstanceSeq(event);
+			prepareInstanceState(event);
 		}
 		offerEvent(event, true);
 	}
 
-	private void prepareInstanceSeq(ChangeEvent<T> event) {
+	private void prepareInstanceState(ChangeEvent<T> event) {
 		FileInstance file = event.getInstance();
-		Object instanceSeq = file.getClientProperty(instanceTracker);
-		if (instanceSeq == null) {
-			instanceSeq = instanceSeqGen.incrementAndGet();
-			file.putClientProperty(instanceTracker, instanceSeq);
+		InstanceState state = (InstanceState) file
+				.getClientProperty(instanceTracker);
+		if (state == null) {
+			state = new InstanceState();
+			file.putClientProperty(instanceTracker, state);
 		}
-		event.setInstanceSeq((Integer) instanceSeq);
+		event.setInstanceState(state);
 	}
 
 	private void checkClosed() throws IOException {
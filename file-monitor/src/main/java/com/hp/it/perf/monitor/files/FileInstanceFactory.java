@@ -15,6 +15,10 @@ public interface FileInstanceFactory extends Closeable {
 	public FileSet getFileSet(String path, FilenameFilter filter) throws IOException,
 		FileNotFoundException;
 
+	// include all sub-folders, also created later
+	public FileSet getFileTree(String path, FilenameFilter filter)
+			throws IOException, FileNotFoundException;
+
 	public void setFileClusterStrategy(FileClusterStrategy strategy);
 
 	public void setGlobalFilenameFilter(FilenameFilter nameFilter);
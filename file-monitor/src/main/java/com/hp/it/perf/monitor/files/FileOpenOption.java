@@ -8,4 +8,13 @@ public interface FileOpenOption {
 
 	public boolean monitor();
 
+	// scan lines in memory mapped file region
+	public boolean memoryMapped();
+
+	// return lines as views of pooled buffer, which need release after use
+	public boolean sharedBuffer();
+
+	// how lines are read across files in folder or set
+	public ReadSchedulePolicy schedulePolicy();
+
 }
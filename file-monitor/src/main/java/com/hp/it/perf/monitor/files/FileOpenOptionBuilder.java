@@ -8,6 +8,12 @@ public class FileOpenOptionBuilder {
 
 	private boolean noMonitor;
 
+	private boolean mappedMode;
+
+	private boolean sharedBufferMode;
+
+	private ReadSchedulePolicy schedulePolicy = ReadSchedulePolicies.greedy();
+
 	public FileOpenOptionBuilder tailMode() {
 		talMode = true;
 		return this;
@@ -36,6 +42,21 @@ public class FileOpenOptionBuilder {
 				return !noMonitor;
 			}
 
+			@Override
+			public boolean memoryMapped() {
+				return mappedMode;
+			}
+
+			@Override
+			public boolean sharedBuffer() {
+				return sharedBufferMode;
+			}
+
+			@Override
+			public ReadSchedulePolicy schedulePolicy() {
+				return schedulePolicy;
+			}
+
 		};
 	}
 
@@ -44,4 +65,22 @@ public class FileOpenOptionBuilder {
 		return this;
 	}
 
+	public FileOpenOptionBuilder mappedMode() {
+		mappedMode = true;
+		return this;
+	}
+
+	public FileOpenOptionBuilder sharedBufferMode() {
+		sharedBufferMode = true;
+		return this;
+	}
+
+	public FileOpenOptionBuilder schedulePolicy(ReadSchedulePolicy policy) {
+		if (policy == null) {
+			throw new NullPointerException("null schedule policy");
+		}
+		schedulePolicy = policy;
+		return this;
+	}
+
 }
@@ -16,4 +16,100 @@ public interface FileStatistics {
 
 	public Count ioResourceCount();
 
+	public interface ReadStatistics {
+		// bytes not read yet, as file length minus read position
+		public long bytesBehind();
+
+		public long lineCount();
+
+		public long byteCount();
+
+		// rate in last sample interval (at least one second)
+		public double linesPerSecond();
+
+		public double bytesPerSecond();
+
+		// milliseconds since last change event, -1 if no change
+		public long idleTime();
+
+		public long reopenCount();
+
+		// read again from start as file truncated
+		public long truncateCount();
+	}
+
+	public interface HandlePoolStatistics {
+		// read on open handle
+		public long hitCount();
+
+		// open (or re-open) handle
+		public long missCount();
+
+		// handle closed because of max open files
+		public long evictionCount();
+
+		// handle opened over max open files, as all others are in reading
+		public long overCapCount();
+	}
+
+	public HandlePoolStatistics handlePoolStatistics();
+
+	public interface SignatureStatistics {
+		// signature found in cache (or loading by others)
+		public long hitCount();
+
+		// signature loaded from file head
+		public long missCount();
+
+		public long bytesRead();
+	}
+
+	// content signatures for file key detection (in poll mode)
+	public SignatureStatistics signatureStatistics();
+
+	public ReadStatistics readStatistics(FileInstance instance);
+
+	// aggregated from all instances in cluster or set
+	public ReadStatistics readStatistics(FileCluster cluster);
+
+	public ReadStatistics readStatistics(FileSet fileSet);
+
+	// latency distribution in nanoseconds
+	public interface Histogram {
+		public long count();
+
+		public double mean();
+
+		public long max();
+
+		// percentile in 0-100
+		public long percentile(double percentile);
+	}
+
+	public interface DispatchStatistics {
+		// watch event batches waiting for processing
+		public int queueDepth();
+
+		// time to process one batch of watch events
+		public Histogram processLatency();
+
+		// watch events received on folder
+		public long eventCount();
+
+		// watch events merged into others before processing
+		public long coalescedCount();
+	}
+
+	// watch event processing of one folder
+	public DispatchStatistics dispatchStatistics(FileSet fileSet);
+
+	// from watch event received to content change dispatched
+	public Histogram watchDispatchLatency();
+
+	// from content change dispatched to first line read
+	public Histogram dispatchReadLatency();
+
+	// time to read one line
+	public Histogram readLineLatency();
+
 }
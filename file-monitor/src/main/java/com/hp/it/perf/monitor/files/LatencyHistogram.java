@@ -0,0 +1,119 @@
+package com.hp.it.perf.monitor.files;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.hp.it.perf.monitor.files.FileStatistics.Histogram;
+
+// log-linear buckets (4 sub-buckets per power of 2) of nanoseconds,
+// so percentile error is within 25%
+public class LatencyHistogram implements Histogram {
+
+	private static final int SUB_BITS = 2;
+
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+
+	private static final int BUCKETS = (63 - SUB_BITS + 1) * SUB_COUNT;
+
+	private final String name;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+	private final StripedCounter count = new StripedCounter();
+
+	private final StripedCounter sum = new StripedCounter();
+
+	private final AtomicLong max = new AtomicLong();
+
+	public LatencyHistogram(String name) {
+		this.name = name;
+	}
+
+	public void record(long nanos) {
+		record(nanos, 1);
+	}
+
+	// record same value for multiple times, like per-line time in batch
+	public void record(long nanos, int times) {
+		if (times <= 0) {
+			return;
+		}
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		buckets.getAndAdd(indexOf(nanos), times);
+		count.add(times);
+		sum.add(nanos * times);
+		long current;
+		while (nanos > (current = max.get())) {
+			if (max.compareAndSet(current, nanos)) {
+				break;
+			}
+		}
+	}
+
+	static int indexOf(long value) {
+		if (value < SUB_COUNT) {
+			return (int) value;
+		}
+		int exp = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_COUNT - 1);
+		return ((exp - SUB_BITS + 1) << SUB_BITS) + sub;
+	}
+
+	// max value in bucket
+	static long upperBoundOf(int index) {
+		if (index < SUB_COUNT) {
+			return index;
+		}
+		int exp = (index >>> SUB_BITS) + SUB_BITS - 1;
+		int sub = index & (SUB_COUNT - 1);
+		long lower = ((long) (SUB_COUNT + sub)) << (exp - SUB_BITS);
+		return lower + (1L << (exp - SUB_BITS)) - 1;
+	}
+
+	@Override
+	public long count() {
+		return count.sum();
+	}
+
+	@Override
+	public double mean() {
+		long total = count.sum();
+		return total == 0 ? 0 : (double) sum.sum() / total;
+	}
+
+	@Override
+	public long max() {
+		return max.get();
+	}
+
+	@Override
+	public long percentile(double percentile) {
+		long total = 0;
+		long[] snapshot = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = buckets.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(total * Math.min(percentile, 100) / 100);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= Math.max(rank, 1)) {
+				return Math.min(upperBoundOf(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: count=%s, mean=%.0fns, p99=%sns, max=%sns",
+				name, count(), mean(), percentile(99), max());
+	}
+
+}
@@ -0,0 +1,78 @@
+package com.hp.it.perf.monitor.files;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public final class ReadSchedulePolicies {
+
+	private ReadSchedulePolicies() {
+	}
+
+	// read file until no more data (default)
+	public static ReadSchedulePolicy greedy() {
+		return new ReadSchedulePolicy() {
+
+			@Override
+			public int remainingLines(FileInstance instance, int turnLines,
+					long turnBytes) {
+				return Integer.MAX_VALUE;
+			}
+
+			@Override
+			public String toString() {
+				return "greedy";
+			}
+		};
+	}
+
+	// one line per file in each turn
+	public static ReadSchedulePolicy roundRobin() {
+		return quantum(1, Long.MAX_VALUE);
+	}
+
+	// at most maxLines or maxBytes per file in each turn
+	public static ReadSchedulePolicy quantum(int maxLines, long maxBytes) {
+		return weighted(maxLines, maxBytes, new HashMap<String, Integer>());
+	}
+
+	// quantum multiplied by weight of file cluster (by name, default 1)
+	public static ReadSchedulePolicy weighted(final int maxLines,
+			final long maxBytes, Map<String, Integer> clusterWeights) {
+		if (maxLines <= 0 || maxBytes <= 0) {
+			throw new IllegalArgumentException("invalid quantum: " + maxLines
+					+ " lines, " + maxBytes + " bytes");
+		}
+		final Map<String, Integer> weights = new HashMap<String, Integer>(
+				clusterWeights);
+		return new ReadSchedulePolicy() {
+
+			@Override
+			public int remainingLines(FileInstance instance, int turnLines,
+					long turnBytes) {
+				int weight = getWeight(instance);
+				long lines = (long) maxLines * weight - turnLines;
+				if (lines <= 0 || turnBytes >= maxBytes * weight) {
+					return 0;
+				}
+				return (int) Math.min(lines, Integer.MAX_VALUE);
+			}
+
+			private int getWeight(FileInstance instance) {
+				if (weights.isEmpty()) {
+					return 1;
+				}
+				FileCluster cluster = instance.getFileCluster();
+				Integer weight = cluster == null ? null : weights.get(cluster
+						.getName());
+				return weight == null ? 1 : Math.max(weight, 1);
+			}
+
+			@Override
+			public String toString() {
+				return "quantum(" + maxLines + " lines, " + maxBytes
+						+ " bytes, weights=" + weights + ")";
+			}
+		};
+	}
+
+}
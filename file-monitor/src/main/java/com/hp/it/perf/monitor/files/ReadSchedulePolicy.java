@@ -0,0 +1,10 @@
+package com.hp.it.perf.monitor.files;
+
+// decide how many lines can be read from one file before switching to others
+public interface ReadSchedulePolicy {
+
+	// lines can still be read in current turn, 0 to yield to other files
+	public int remainingLines(FileInstance instance, int turnLines,
+			long turnBytes);
+
+}
@@ -0,0 +1,62 @@
+package com.hp.it.perf.monitor.files;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// time of file waiting in change queue before it is read
+public class ScheduleLag {
+
+	private static final Object LagTracker = new Object();
+
+	private final AtomicLong count = new AtomicLong();
+
+	private final AtomicLong totalNanos = new AtomicLong();
+
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	void record(long nanos) {
+		count.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+		long max;
+		while ((max = maxNanos.get()) < nanos
+				&& !maxNanos.compareAndSet(max, nanos)) {
+			// retry
+		}
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getAverage(TimeUnit unit) {
+		long c = count.get();
+		return c == 0 ? 0 : unit.convert(totalNanos.get() / c,
+				TimeUnit.NANOSECONDS);
+	}
+
+	public long getMax(TimeUnit unit) {
+		return unit.convert(maxNanos.get(), TimeUnit.NANOSECONDS);
+	}
+
+	// null if file is never scheduled
+	public static ScheduleLag of(FileInstance instance) {
+		return (ScheduleLag) instance.getClientProperty(LagTracker);
+	}
+
+	static ScheduleLag track(FileInstance instance) {
+		ScheduleLag lag = of(instance);
+		if (lag == null) {
+			lag = new ScheduleLag();
+			instance.putClientProperty(LagTracker, lag);
+		}
+		return lag;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("schedule-lag=%s(avg %sms, max %sms)",
+				getCount(), getAverage(TimeUnit.MILLISECONDS),
+				getMax(TimeUnit.MILLISECONDS));
+	}
+
+}
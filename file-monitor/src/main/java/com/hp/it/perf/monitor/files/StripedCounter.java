@@ -0,0 +1,73 @@
+package com.hp.it.perf.monitor.files;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// low overhead counter for hot path, only stripe cells when contended
+public class StripedCounter {
+
+	private static final int STRIPES;
+
+	// 8 longs (64 bytes) per cell to avoid false sharing
+	private static final int CELL_PADDING = 8;
+
+	static {
+		int stripes = 1;
+		while (stripes < Runtime.getRuntime().availableProcessors()) {
+			stripes <<= 1;
+		}
+		STRIPES = Math.min(stripes, 64);
+	}
+
+	private final AtomicLong base = new AtomicLong();
+
+	private volatile AtomicLongArray cells;
+
+	public void add(long x) {
+		AtomicLongArray cs = cells;
+		if (cs == null) {
+			long b = base.get();
+			if (base.compareAndSet(b, b + x)) {
+				return;
+			}
+			// contended
+			cs = initCells();
+		}
+		cs.getAndAdd(cellIndex(), x);
+	}
+
+	public void increment() {
+		add(1L);
+	}
+
+	public long sum() {
+		long sum = base.get();
+		AtomicLongArray cs = cells;
+		if (cs != null) {
+			for (int i = 0; i < STRIPES; i++) {
+				sum += cs.get(i * CELL_PADDING);
+			}
+		}
+		return sum;
+	}
+
+	private synchronized AtomicLongArray initCells() {
+		if (cells == null) {
+			cells = new AtomicLongArray(STRIPES * CELL_PADDING);
+		}
+		return cells;
+	}
+
+	private static int cellIndex() {
+		long id = Thread.currentThread().getId();
+		int h = (int) (id ^ (id >>> 32));
+		h ^= (h >>> 16);
+		return (h & (STRIPES - 1)) * CELL_PADDING;
+	}
+
+	@Override
+	public String toString() {
+		return Long.toString(sum());
+	}
+
+}
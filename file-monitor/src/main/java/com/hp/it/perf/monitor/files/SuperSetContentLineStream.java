@@ -26,6 +26,7 @@ public class SuperSetContentLineStream extends
 		this.openOption = openOption;
 		this.fileUpdateNotifier = new FileChangeQueue<ContentLineStreamProvider>(
 				false);
+		this.fileUpdateNotifier.setSchedulePolicy(openOption.schedulePolicy());
 	}
 
 	public void addFileSet(FileSet fileSet) throws IOException {
@@ -73,6 +74,7 @@ public class SuperSetContentLineStream extends
 		ContentLineStream stream = allInstances.get(provider);
 		if (stream == null) {
 			stream = provider.open(openOption);
+			stream.setSourceObserver(truncateObserver);
 			allInstances.put(provider, stream);
 		}
 		return stream;
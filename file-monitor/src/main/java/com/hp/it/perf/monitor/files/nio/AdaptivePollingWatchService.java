@@ -0,0 +1,620 @@
+package com.hp.it.perf.monitor.files.nio;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchEvent.Kind;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Polling watch service for file stores without native notification (like
+// fuse). Each folder has its own poll interval, which is shortened to the
+// minimal one once a change is found, and doubled on each idle poll up to max
+// interval. Known files are backed off in the same way, but past max interval
+// up to idle interval, so append to a quiet file is found in its own interval,
+// not in each poll like jdk polling. Files backed off past max interval are
+// read in one batch when any of them is due, so quiet files are checked in the
+// same folder cycle.
+// Folder is listed again only if its modified time is changed recently, or in
+// idle interval (for file systems not updating folder time). Only net changes
+// are signalled, and created or deleted files are held until folder is quiet,
+// so rename (copy and delete) is in one batch for key detector.
+class AdaptivePollingWatchService implements WatchService {
+
+	private static final Logger log = LoggerFactory
+			.getLogger(AdaptivePollingWatchService.class);
+
+	static final int MIN_INTERVAL = Integer.getInteger(
+			"monitor.poll.minInterval", 500);
+
+	// max poll interval of folder and active files, same as high (or medium if
+	// slow) sensitivity of jdk polling
+	static final int MAX_INTERVAL = Integer.getInteger(
+			"monitor.poll.maxInterval",
+			Boolean.getBoolean("monitor.nio.slow") ? 10000 : 2000);
+
+	// folder is listed in this interval, even if its modified time is same,
+	// and quiet files are backed off up to it
+	static final int IDLE_INTERVAL = Integer.getInteger(
+			"monitor.poll.idleInterval",
+			Boolean.getBoolean("monitor.nio.slow") ? 60000 : 30000);
+
+	// modified time of folder may be in seconds, so list folder again until
+	// it is not changed in this period
+	private static final long LIST_SETTLE_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+	private static class PollingWatchEvent implements WatchEvent<Path> {
+
+		private final Kind<Path> kind;
+
+		private final Path context;
+
+		private int count = 1;
+
+		PollingWatchEvent(Kind<Path> kind, Path context) {
+			this.kind = kind;
+			this.context = context;
+		}
+
+		@Override
+		public Kind<Path> kind() {
+			return kind;
+		}
+
+		@Override
+		public int count() {
+			return count;
+		}
+
+		@Override
+		public Path context() {
+			return context;
+		}
+
+	}
+
+	private class FileState {
+
+		// resolved once, not the listed one with cached attributes
+		private final Path file;
+
+		private long lastModified;
+
+		private long size;
+
+		private final boolean directory;
+
+		// last poll which sees this file
+		private long pollCount;
+
+		private long checkedNanoTime;
+
+		private long intervalNanos = minIntervalNanos;
+
+		FileState(Path file, BasicFileAttributes attrs, long pollCount,
+				long now) {
+			this.file = file;
+			this.lastModified = attrs.lastModifiedTime().toMillis();
+			this.size = attrs.size();
+			this.directory = attrs.isDirectory();
+			this.pollCount = pollCount;
+			this.checkedNanoTime = now;
+		}
+
+		boolean isIdle() {
+			return intervalNanos > maxIntervalNanos;
+		}
+
+		boolean isDue(long now) {
+			return now - checkedNanoTime >= intervalNanos;
+		}
+
+		long dueNanoTime() {
+			return checkedNanoTime + intervalNanos;
+		}
+
+		// idle file is read a bit earlier in batch, so files backed off
+		// together are kept in same folder cycle
+		boolean isDue(long now, boolean batch) {
+			return isDue(now)
+					|| (batch && isIdle() && now - checkedNanoTime >= intervalNanos
+							- intervalNanos / 4);
+		}
+
+		boolean update(BasicFileAttributes attrs, long pollCount, long now) {
+			this.pollCount = pollCount;
+			this.checkedNanoTime = now;
+			long newLastModified = attrs.lastModifiedTime().toMillis();
+			long newSize = attrs.size();
+			if (newLastModified != lastModified || newSize != size) {
+				lastModified = newLastModified;
+				size = newSize;
+				intervalNanos = minIntervalNanos;
+				return true;
+			} else {
+				// back off on quiet file, past max interval of folder
+				intervalNanos = Math.min(intervalNanos * 2, idleIntervalNanos);
+				return false;
+			}
+		}
+
+	}
+
+	class PollingWatchKey implements WatchKey {
+
+		private final Path path;
+
+		private final Set<Kind<?>> kinds;
+
+		private volatile boolean valid = true;
+
+		// guarded by this
+		private List<WatchEvent<?>> events = new ArrayList<WatchEvent<?>>();
+
+		// guarded by this
+		private boolean signalled;
+
+		// following are only accessed by poll thread after registered
+		private final Map<Path, FileState> files = new HashMap<Path, FileState>();
+
+		private long pollCount;
+
+		private long folderModified = Long.MIN_VALUE;
+
+		private long folderChangedNanoTime;
+
+		private long sweepNanoTime;
+
+		// files not backed off past max interval, updated when all are walked
+		private final List<FileState> activeFiles = new ArrayList<FileState>();
+
+		private long nextIdleDueNanoTime;
+
+		long intervalNanos = minIntervalNanos;
+
+		long nextPollNanoTime;
+
+		// net change of each file not signalled yet, in changed order
+		private final Map<Path, Kind<Path>> changes = new LinkedHashMap<Path, Kind<Path>>();
+
+		private long holdNanoTime;
+
+		PollingWatchKey(Path path, Set<Kind<?>> kinds) {
+			this.path = path;
+			this.kinds = kinds;
+		}
+
+		// return true if any change is found
+		boolean scan(long now, boolean notify) throws IOException {
+			BasicFileAttributes folderAttrs = readAttributes(path);
+			long modified = folderAttrs.lastModifiedTime().toMillis();
+			if (modified != folderModified) {
+				folderModified = modified;
+				folderChangedNanoTime = now;
+			}
+			pollCount++;
+			boolean sweep = now - sweepNanoTime >= idleIntervalNanos || !notify;
+			boolean list = now - folderChangedNanoTime < LIST_SETTLE_NANOS
+					|| sweep;
+			boolean changed = false;
+			// any idle file is due, then read all idle ones near due in batch
+			boolean batch = now - nextIdleDueNanoTime >= 0;
+			if (!list) {
+				// only active files are walked until idle ones are due
+				for (FileState state : batch ? files.values() : activeFiles) {
+					if (!state.isDue(now, batch)) {
+						continue;
+					}
+					BasicFileAttributes attrs;
+					try {
+						attrs = readAttributes(state.file);
+					} catch (IOException e) {
+						// removed but folder modified time is not changed, so
+						// check again by listing
+						folderChangedNanoTime = now;
+						return scan(now, notify);
+					}
+					if (state.update(attrs, pollCount, now) && !state.directory) {
+						changed |= change(StandardWatchEventKinds.ENTRY_MODIFY,
+								state.file.getFileName(), now);
+					}
+					if (!batch && state.isIdle()) {
+						nextIdleDueNanoTime = earlier(nextIdleDueNanoTime,
+								state.dueNanoTime());
+					}
+				}
+				if (batch) {
+					updateActiveFiles(now);
+				}
+				// all known files are seen
+				return changed;
+			}
+			for (Path file : listFiles()) {
+				Path name = file.getFileName();
+				FileState state = files.get(name);
+				if (state != null && notify && !state.isDue(now, batch)) {
+					// checked recently, and still there if listed
+					state.pollCount = pollCount;
+					continue;
+				}
+				BasicFileAttributes attrs;
+				try {
+					attrs = readAttributes(file);
+				} catch (IOException e) {
+					// removed after listed
+					continue;
+				}
+				if (state == null) {
+					files.put(name, new FileState(path.resolve(name), attrs,
+							pollCount, now));
+					changed |= notify
+							&& change(StandardWatchEventKinds.ENTRY_CREATE, name,
+									now);
+				} else if (state.update(attrs, pollCount, now)
+						&& !state.directory) {
+					changed |= notify
+							&& change(StandardWatchEventKinds.ENTRY_MODIFY, name,
+									now);
+				}
+			}
+			if (sweep) {
+				sweepNanoTime = now;
+			}
+			for (Iterator<Map.Entry<Path, FileState>> i = files.entrySet()
+					.iterator(); i.hasNext();) {
+				Map.Entry<Path, FileState> entry = i.next();
+				if (entry.getValue().pollCount != pollCount) {
+					i.remove();
+					changed |= notify
+							&& change(StandardWatchEventKinds.ENTRY_DELETE,
+									entry.getKey(), now);
+				}
+			}
+			updateActiveFiles(now);
+			return changed;
+		}
+
+		private void updateActiveFiles(long now) {
+			activeFiles.clear();
+			nextIdleDueNanoTime = now + idleIntervalNanos;
+			for (FileState state : files.values()) {
+				if (state.isIdle()) {
+					nextIdleDueNanoTime = earlier(nextIdleDueNanoTime,
+							state.dueNanoTime());
+				} else {
+					activeFiles.add(state);
+				}
+			}
+		}
+
+		// keep path from stream, which has attributes cached on some platform
+		// (like windows)
+		private List<Path> listFiles() throws IOException {
+			List<Path> listed = new ArrayList<Path>();
+			DirectoryStream<Path> stream = Files.newDirectoryStream(path);
+			try {
+				for (Path file : stream) {
+					listed.add(file);
+				}
+			} finally {
+				stream.close();
+			}
+			return listed;
+		}
+
+		void poll(long now) {
+			boolean changed;
+			try {
+				changed = scan(now, true);
+			} catch (IOException e) {
+				log.debug("cancel polling on folder {}: {}", path, e.toString());
+				cancel();
+				synchronized (this) {
+					signalKey();
+				}
+				return;
+			}
+			if (changed) {
+				intervalNanos = minIntervalNanos;
+			} else {
+				// back off on idle folder
+				intervalNanos = Math.min(intervalNanos * 2, maxIntervalNanos);
+			}
+			nextPollNanoTime = now + intervalNanos;
+			if (changes.isEmpty()) {
+				return;
+			}
+			if (!changed || !hasCreatedOrDeleted()
+					|| now - holdNanoTime >= maxIntervalNanos) {
+				signalChanges();
+			}
+		}
+
+		private boolean hasCreatedOrDeleted() {
+			return changes.containsValue(StandardWatchEventKinds.ENTRY_CREATE)
+					|| changes.containsValue(StandardWatchEventKinds.ENTRY_DELETE);
+		}
+
+		// merge into net change
+		private boolean change(Kind<Path> kind, Path name, long now) {
+			if (changes.isEmpty()) {
+				holdNanoTime = now;
+			}
+			Kind<Path> previous = changes.get(name);
+			if (previous == null) {
+				changes.put(name, kind);
+			} else if (previous == StandardWatchEventKinds.ENTRY_CREATE) {
+				if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+					changes.remove(name);
+				}
+			} else if (previous == StandardWatchEventKinds.ENTRY_DELETE) {
+				// deleted and created again
+				changes.put(name, StandardWatchEventKinds.ENTRY_MODIFY);
+			} else if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+				changes.put(name, StandardWatchEventKinds.ENTRY_DELETE);
+			}
+			return true;
+		}
+
+		// same order as native: created and modified files, then deleted
+		private void signalChanges() {
+			List<PollingWatchEvent> deleted = new ArrayList<PollingWatchEvent>();
+			synchronized (this) {
+				for (Map.Entry<Path, Kind<Path>> change : changes.entrySet()) {
+					Kind<Path> kind = change.getValue();
+					if (!kinds.contains(kind)) {
+						continue;
+					}
+					if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+						deleted.add(new PollingWatchEvent(kind, change.getKey()));
+					} else {
+						addEvent(new PollingWatchEvent(kind, change.getKey()));
+					}
+				}
+				for (PollingWatchEvent event : deleted) {
+					addEvent(event);
+				}
+				if (!events.isEmpty()) {
+					signalKey();
+				}
+			}
+			changes.clear();
+		}
+
+		// guarded by this
+		private void addEvent(PollingWatchEvent event) {
+			int size = events.size();
+			PollingWatchEvent last = size > 0 ? (PollingWatchEvent) events
+					.get(size - 1) : null;
+			if (last != null && last.kind == event.kind
+					&& last.context.equals(event.context)) {
+				// not polled yet
+				last.count++;
+			} else {
+				events.add(event);
+			}
+		}
+
+		// guarded by this
+		private void signalKey() {
+			if (!signalled) {
+				signalled = true;
+				pendingKeys.offer(this);
+			}
+		}
+
+		@Override
+		public boolean isValid() {
+			return valid;
+		}
+
+		@Override
+		public synchronized List<WatchEvent<?>> pollEvents() {
+			List<WatchEvent<?>> result = events;
+			events = new ArrayList<WatchEvent<?>>();
+			return result;
+		}
+
+		@Override
+		public synchronized boolean reset() {
+			if (!valid) {
+				return false;
+			}
+			if (signalled) {
+				if (events.isEmpty()) {
+					signalled = false;
+				} else {
+					// events after poll events
+					pendingKeys.offer(this);
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public void cancel() {
+			valid = false;
+			keys.remove(path, this);
+		}
+
+		@Override
+		public Path watchable() {
+			return path;
+		}
+
+		@Override
+		public String toString() {
+			return "PollingWatchKey[" + path + "]";
+		}
+
+	}
+
+	private final long minIntervalNanos;
+
+	private final long maxIntervalNanos;
+
+	private final long idleIntervalNanos;
+
+	private final BlockingQueue<WatchKey> pendingKeys = new LinkedBlockingQueue<WatchKey>();
+
+	private final Map<Path, PollingWatchKey> keys = new ConcurrentHashMap<Path, PollingWatchKey>();
+
+	private final ScheduledExecutorService pollService;
+
+	private volatile boolean closed;
+
+	// for measurement, not exact if registered out of poll thread
+	private volatile long statCount;
+
+	// wake up waiting take
+	private final WatchKey closeKey = new PollingWatchKey(null,
+			Collections.<Kind<?>> emptySet());
+
+	AdaptivePollingWatchService(int minIntervalMillis, int maxIntervalMillis,
+			int idleIntervalMillis) {
+		this.minIntervalNanos = TimeUnit.MILLISECONDS
+				.toNanos(minIntervalMillis);
+		this.maxIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(
+				minIntervalMillis, maxIntervalMillis));
+		this.idleIntervalNanos = Math.max(maxIntervalNanos,
+				TimeUnit.MILLISECONDS.toNanos(idleIntervalMillis));
+		pollService = Executors
+				.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "Polling watch thread");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		pollService.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					pollAll();
+				} catch (RuntimeException e) {
+					log.warn("polling watch got error", e);
+				}
+			}
+		}, minIntervalMillis, minIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	WatchKey register(Path path, Kind<?>... kinds) throws IOException {
+		checkOpen();
+		PollingWatchKey key = keys.get(path);
+		if (key != null) {
+			return key;
+		}
+		key = new PollingWatchKey(path, new HashSet<Kind<?>>(
+				Arrays.asList(kinds)));
+		long now = System.nanoTime();
+		// snapshot of current files
+		key.scan(now, false);
+		key.nextPollNanoTime = now + key.intervalNanos;
+		keys.put(path, key);
+		log.debug("register polling watch on {} with {} files", path,
+				key.files.size());
+		return key;
+	}
+
+	// nano time may overflow
+	private static long earlier(long nanoTime1, long nanoTime2) {
+		return nanoTime1 - nanoTime2 <= 0 ? nanoTime1 : nanoTime2;
+	}
+
+	private BasicFileAttributes readAttributes(Path file) throws IOException {
+		statCount++;
+		return Files.readAttributes(file, BasicFileAttributes.class);
+	}
+
+	// attributes read since created
+	long statCount() {
+		return statCount;
+	}
+
+	private void pollAll() {
+		long now = System.nanoTime();
+		for (PollingWatchKey key : keys.values()) {
+			if (key.valid && now - key.nextPollNanoTime >= 0) {
+				key.poll(now);
+			}
+		}
+	}
+
+	private void checkOpen() {
+		if (closed) {
+			throw new ClosedWatchServiceException();
+		}
+	}
+
+	private WatchKey checkKey(WatchKey key) {
+		if (key == closeKey) {
+			// for other waiting take
+			pendingKeys.offer(closeKey);
+			throw new ClosedWatchServiceException();
+		}
+		return key;
+	}
+
+	@Override
+	public WatchKey poll() {
+		checkOpen();
+		return checkKey(pendingKeys.poll());
+	}
+
+	@Override
+	public WatchKey poll(long timeout, TimeUnit unit)
+			throws InterruptedException {
+		checkOpen();
+		return checkKey(pendingKeys.poll(timeout, unit));
+	}
+
+	@Override
+	public WatchKey take() throws InterruptedException {
+		checkOpen();
+		return checkKey(pendingKeys.take());
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		pollService.shutdownNow();
+		for (PollingWatchKey key : keys.values()) {
+			key.valid = false;
+		}
+		keys.clear();
+		pendingKeys.clear();
+		pendingKeys.offer(closeKey);
+	}
+
+}
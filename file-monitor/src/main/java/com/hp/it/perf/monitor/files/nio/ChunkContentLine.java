@@ -0,0 +1,72 @@
+package com.hp.it.perf.monitor.files.nio;
+
+import java.util.Arrays;
+
+import com.hp.it.perf.monitor.files.ContentLine;
+
+// line view on shared chunk, byte[] is only created if getLine() is called
+class ChunkContentLine extends ContentLine {
+
+	private volatile LineChunk chunk;
+
+	private final int offset;
+
+	private final int length;
+
+	ChunkContentLine(LineChunk chunk, int offset, int length) {
+		chunk.retain();
+		this.chunk = chunk;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	@Override
+	public byte[] getLine() {
+		byte[] line = super.getLine();
+		if (line == null) {
+			LineChunk lChunk = chunk;
+			if (lChunk == null) {
+				throw new IllegalStateException("line is released");
+			}
+			line = Arrays.copyOfRange(lChunk.data(), offset, offset + length);
+			super.setLine(line);
+		}
+		return line;
+	}
+
+	@Override
+	public void setLine(byte[] line) {
+		// replace content, so view is not needed
+		super.setLine(line);
+		release();
+	}
+
+	@Override
+	public byte[] getLineBuffer() {
+		LineChunk lChunk = chunk;
+		return lChunk == null ? getLine() : lChunk.data();
+	}
+
+	@Override
+	public int getLineOffset() {
+		return chunk == null ? 0 : offset;
+	}
+
+	@Override
+	public int getLineLength() {
+		return chunk == null ? getLine().length : length;
+	}
+
+	@Override
+	public void release() {
+		LineChunk lChunk;
+		synchronized (this) {
+			lChunk = chunk;
+			chunk = null;
+		}
+		if (lChunk != null) {
+			lChunk.release();
+		}
+	}
+
+}
@@ -0,0 +1,151 @@
+package com.hp.it.perf.monitor.files.nio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hp.it.perf.monitor.files.ContentLine;
+
+// read file into pooled chunks, and return lines as views on chunk
+class ChunkFileReader extends RandomAccessFileReader {
+
+	private static Logger log = LoggerFactory.getLogger(ChunkFileReader.class);
+
+	private LineChunk chunk;
+
+	// chunk offset of next line start (mapping to position)
+	private int lineOffset;
+
+	// chunk offset of loaded data end
+	private int fillOffset;
+
+	// chunk offset until which no new line found after lineOffset
+	private int scanOffset;
+
+	public ChunkFileReader(File file) {
+		super(file);
+	}
+
+	@Override
+	protected void resetBuffer() {
+		if (chunk != null) {
+			chunk.release();
+			chunk = null;
+		}
+		lineOffset = 0;
+		fillOffset = 0;
+		scanOffset = 0;
+	}
+
+	@Override
+	protected byte[] readLine0() throws IOException {
+		ContentLine line = readContentLine0();
+		if (line == null) {
+			return null;
+		}
+		byte[] data = line.getLine();
+		line.release();
+		return data;
+	}
+
+	@Override
+	protected ContentLine readContentLine0() throws IOException {
+		log.trace("chunk readline for {}", file);
+		RandomAccessFile lAccess = getAccess();
+		int newLineIndex;
+		while ((newLineIndex = indexOfNewLine()) < 0) {
+			prepareChunk();
+			int readLen = lAccess.read(chunk.data(), fillOffset,
+					chunk.capacity() - fillOffset);
+			if (readLen == -1) {
+				// no data read till now
+				tryKeepAlive();
+				// return -1
+				return null;
+			}
+			fillOffset += readLen;
+		}
+		int len = newLineIndex + 1 - lineOffset;
+		ChunkContentLine line = new ChunkContentLine(chunk, lineOffset, len);
+		line.setPosition(position);
+		lineOffset += len;
+		scanOffset = lineOffset;
+		position += len;
+		return line;
+	}
+
+	// index of '\n' in chunk after lineOffset, -1 if not found
+	private int indexOfNewLine() {
+		if (chunk == null) {
+			return -1;
+		}
+		byte[] data = chunk.data();
+		for (int i = Math.max(lineOffset, scanOffset); i < fillOffset; i++) {
+			if (data[i] == '\n') {
+				return i;
+			}
+		}
+		scanOffset = fillOffset;
+		return -1;
+	}
+
+	// make sure chunk has free space for read
+	private void prepareChunk() {
+		if (chunk == null) {
+			chunk = LineChunk.allocate(LineChunk.CHUNK_SIZE);
+			lineOffset = fillOffset = scanOffset = 0;
+		} else if (lineOffset == fillOffset && chunk.isExclusive()) {
+			// all lines consumed and released, reuse from start
+			lineOffset = fillOffset = scanOffset = 0;
+		} else if (fillOffset == chunk.capacity()) {
+			// move partial line to new chunk, and grow for long line
+			int remaining = fillOffset - lineOffset;
+			LineChunk newChunk = LineChunk
+					.allocate(remaining < LineChunk.CHUNK_SIZE / 2 ? LineChunk.CHUNK_SIZE
+							: remaining * 2);
+			System.arraycopy(chunk.data(), lineOffset, newChunk.data(), 0,
+					remaining);
+			chunk.release();
+			chunk = newChunk;
+			scanOffset -= lineOffset;
+			lineOffset = 0;
+			fillOffset = remaining;
+		}
+	}
+
+	@Override
+	protected int readContentLines0(List<ContentLine> lines, int maxSize)
+			throws IOException {
+		// each chunk read already contains many lines
+		return readEachContentLine(lines, maxSize);
+	}
+
+	@Override
+	protected void pushBackLine0(ContentLine line) {
+		int len = line.getLineLength();
+		if (chunk != null && lineOffset >= len) {
+			// line content is still in chunk
+			lineOffset -= len;
+			scanOffset = lineOffset;
+			position -= len;
+		} else {
+			// chunk was recycled, load line again from file
+			resetBuffer();
+			position -= len;
+			RandomAccessFile lAccess = getAccess();
+			if (lAccess != null) {
+				// or seek when re-open
+				try {
+					lAccess.seek(position);
+				} catch (IOException e) {
+					log.warn("seek file {} got error: {}", file, e.toString());
+				}
+			}
+		}
+	}
+
+}
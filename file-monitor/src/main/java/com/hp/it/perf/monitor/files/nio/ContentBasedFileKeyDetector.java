@@ -2,7 +2,6 @@ package com.hp.it.perf.monitor.files.nio;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardWatchEventKinds;
@@ -14,7 +13,6 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.zip.Adler32;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,9 +24,19 @@ class ContentBasedFileKeyDetector implements FileKeyDetector {
 
 	private Path watchPath;
 
+	private SignatureCache signatureCache;
+
+	// pair files by modified/length index instead of scan all pairs
+	private boolean indexedMatch = !Boolean.getBoolean("monitor.matcher.scan");
+
+	// max currents checked by rename proposal for one history, so leftover
+	// entries of a rotation storm are not checked in all pairs
+	private static final int MAX_PROPOSAL_CHECKS = Integer.getInteger(
+			"monitor.matcher.proposalChecks", 256);
+
 	private Map<Path, FileInfoEntry> cachedEntries = new HashMap<Path, FileInfoEntry>();
 
-	private FileRenameProposal renameProposal = new FileRenameProposal() {
+	private static final FileRenameProposal DEFAULT_RENAME_PROPOSAL = new FileRenameProposal() {
 
 		@Override
 		public boolean isRenamed(File fromFile, long fromModified,
@@ -58,111 +66,11 @@ class ContentBasedFileKeyDetector implements FileKeyDetector {
 		}
 	};
 
-	private static class ContentSignature {
-		private byte[] signature;
-		private long offset = -1;
-		private int length = -1;
-		private long checksum;
-
-		public void sign(Path name, int offset, int len, boolean resign) {
-			if (signature != null && !resign) {
-				// has content, and not resign required
-				if (length >= len) {
-					// content is not changed
-					return;
-				}
-			}
-			signature = new byte[len];
-			this.offset = offset;
-			RandomAccessFile file = null;
-			try {
-				file = new RandomAccessFile(name.toFile(), "r");
-				if (offset > 0) {
-					file.seek(offset);
-				}
-				int index = 0;
-				int size;
-				while (index < len
-						&& (size = file.read(signature, index, len - index)) >= 0) {
-					index += size;
-				}
-				length = index;
-				Adler32 adler32Checksum = new Adler32();
-				adler32Checksum.update(signature, 0, length);
-				checksum = adler32Checksum.getValue();
-				log.debug(
-						"load file '{}' from offset {} with first {} bytes for signature - checksum {}",
-						new Object[] { name, offset, length,
-								Long.toHexString(checksum) });
-			} catch (IOException e) {
-				length = -1;
-			} finally {
-				if (file != null) {
-					try {
-						file.close();
-					} catch (IOException ignored) {
-					}
-				}
-			}
-		}
-
-		public boolean isPartial() {
-			// TODO constant
-			return length < 1024;
-		}
-
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = 1;
-			result = prime * result + length;
-			result = prime * result + (int) (offset ^ (offset >>> 32));
-			result = prime * result + (int) checksum;
-			return result;
-		}
-
-		@Override
-		public boolean equals(Object obj) {
-			if (this == obj)
-				return true;
-			if (obj == null)
-				return false;
-			if (!(obj instanceof ContentSignature))
-				return false;
-			ContentSignature other = (ContentSignature) obj;
-			if (length != other.length)
-				return false;
-			if (offset != other.offset)
-				return false;
-			if (checksum != other.checksum)
-				return false;
-			if (!Arrays.equals(signature, other.signature))
-				return false;
-			return true;
-		}
-
-		boolean partialMatch(ContentSignature other) {
-			if (offset != other.offset) {
-				return false;
-			}
-			if (length == other.length) {
-				// not partial match (maybe full or not)
-				return false;
-			}
-			byte[] b1 = signature;
-			byte[] b2 = other.signature;
-			for (int i = 0, n = Math.min(length, other.length); i < n; i++)
-				if (b1[i] != b2[i])
-					return false;
-			return true;
-		}
-
-	}
+	private FileRenameProposal renameProposal = DEFAULT_RENAME_PROPOSAL;
 
 	private class FileInfoEntry implements Comparable<FileInfoEntry> {
 		private long modified;
 		private long length;
-		private long lastUpdated;
 		private ContentSignature headSignature;
 		private Path name;
 		private FileKey nativeKey;
@@ -177,9 +85,12 @@ class ContentBasedFileKeyDetector implements FileKeyDetector {
 		}
 
 		public void setFileAttributes() throws IOException {
-			lastUpdated = System.currentTimeMillis();
-			BasicFileAttributes attr = Files.readAttributes(name,
-					BasicFileAttributes.class);
+			setFileAttributes(Files.readAttributes(name,
+					BasicFileAttributes.class));
+		}
+
+		public void setFileAttributes(BasicFileAttributes attr)
+				throws IOException {
 			modified = attr.lastModifiedTime().toMillis();
 			length = attr.size();
 			Object fileKey = attr.fileKey();
@@ -191,32 +102,21 @@ class ContentBasedFileKeyDetector implements FileKeyDetector {
 			return regularFile;
 		}
 
+		// use attributes read in same detection, as signature is cached by
+		// them (not stat file again)
 		public void loadSignature() {
-			if (headSignature == null) {
-				// TODO constant
-				if (System.currentTimeMillis() - lastUpdated > 2000) {
-					try {
-						setFileAttributes();
-					} catch (IOException e) {
-						return;
-					}
+			if (headSignature == null || headSignature.isPartial()) {
+				if (headSignature != null
+						&& headSignature.getLength() >= Math.min(
+								ContentSignature.HEAD_SIZE, length)) {
+					// partial content is not changed
+					return;
 				}
-				headSignature = new ContentSignature();
-				// TODO constant
-				headSignature.sign(name, 0, (int) Math.min(1024, length), true);
-			} else if (headSignature.isPartial()) {
-				// try to reload more
-				// TODO constant
-				if (System.currentTimeMillis() - lastUpdated > 2000) {
-					try {
-						setFileAttributes();
-					} catch (IOException e) {
-						return;
-					}
+				ContentSignature signature = signatureCache.sign(name,
+						nativeKey, modified, length);
+				if (signature != null) {
+					headSignature = signature;
 				}
-				// TODO constant
-				headSignature
-						.sign(name, 0, (int) Math.min(1024, length), false);
 			}
 		}
 
@@ -259,20 +159,40 @@ class ContentBasedFileKeyDetector implements FileKeyDetector {
 
 	}
 
-	public ContentBasedFileKeyDetector(Path watchPath) {
+	public ContentBasedFileKeyDetector(Path watchPath,
+			SignatureCache signatureCache) {
 		this.watchPath = watchPath;
+		this.signatureCache = signatureCache;
 	}
 
 	public void setFileRenameProposal(FileRenameProposal renameProposal) {
 		this.renameProposal = renameProposal;
 	}
 
+	void setIndexedMatch(boolean indexedMatch) {
+		this.indexedMatch = indexedMatch;
+	}
+
 	@Override
 	public FileKey detectFileKey(Path path) {
 		FileInfoEntry infoEntry = detectFileInfoEntry(path, true);
 		return toNativeFileKey(infoEntry);
 	}
 
+	@Override
+	public FileKey detectFileKey(Path path, BasicFileAttributes attributes) {
+		try {
+			FileInfoEntry fileInfo = new FileInfoEntry(path);
+			fileInfo.setFileAttributes(attributes);
+			if (fileInfo.isRegularFile()) {
+				cachedEntries.put(path, fileInfo);
+			}
+			return fileInfo.nativeKey;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
 	private FileInfoEntry detectFileInfoEntry(Path path, boolean addToCache) {
 		try {
 			FileInfoEntry fileInfo = new FileInfoEntry(path);
@@ -454,20 +374,24 @@ class ContentBasedFileKeyDetector implements FileKeyDetector {
 		// }
 		// step 2: match possible same modified/size (only unique)
 		// possible not load signature at all (for many rotated files)
-		for (int i = 0; i < size; i++) {
-			if (matcher.currentUnknown(i)) {
-				FileInfoEntry cInfo = currentEntries[i];
-				for (int j = 0; j < size; j++) {
-					if (matcher.historyUnknown(j)) {
-						FileInfoEntry hInfo = historyEntries[j];
-						if (cInfo.compareTo(hInfo) == 0) {
-							matcher.setPossibleMatched(j, i);
+		if (indexedMatch) {
+			matchUniqueAttributes(matcher, historyEntries, currentEntries);
+		} else {
+			for (int i = 0; i < size; i++) {
+				if (matcher.currentUnknown(i)) {
+					FileInfoEntry cInfo = currentEntries[i];
+					for (int j = 0; j < size; j++) {
+						if (matcher.historyUnknown(j)) {
+							FileInfoEntry hInfo = historyEntries[j];
+							if (cInfo.compareTo(hInfo) == 0) {
+								matcher.setPossibleMatched(j, i);
+							}
 						}
 					}
 				}
 			}
+			matcher.setUniqueMatched();
 		}
-		matcher.setUniqueMatched();
 		// step 3: match signature
 		// prepare current signatures for not matched
 		Map<ContentSignature, Integer> signIdxes = new HashMap<ContentSignature, Integer>();
@@ -508,7 +432,10 @@ class ContentBasedFileKeyDetector implements FileKeyDetector {
 		}
 		// step 3: match partial signature
 		// rare case for partial sign in history
-		if (historyPartialSignCount > 0) {
+		if (historyPartialSignCount > 0 && indexedMatch) {
+			matchPartialSignatures(matcher, historyEntries, currentEntries,
+					signIdxes);
+		} else if (historyPartialSignCount > 0) {
 			for (int i = 0; i < size; i++) {
 				FileInfoEntry hInfo = historyEntries[i];
 				if (matcher.historyUnknown(i) && hInfo.headSignature != null
@@ -547,18 +474,22 @@ class ContentBasedFileKeyDetector implements FileKeyDetector {
 			}
 		}
 		// step 5: check rename proposal
-		for (int i = 0; i < size; i++) {
-			if (matcher.historyUnknown(i)) {
-				FileInfoEntry hInfo = historyEntries[i];
-				for (int j = 0; j < size; j++) {
-					if (matcher.currentUnknown(j)) {
-						FileInfoEntry cInfo = currentEntries[j];
-						if (renameProposal.isRenamed(hInfo.name.toFile(),
-								hInfo.modified, hInfo.length,
-								cInfo.name.toFile(), cInfo.modified,
-								cInfo.length)) {
-							matcher.setMatched(i, j);
-							break;
+		if (indexedMatch) {
+			matchRenameProposal(matcher, historyEntries, currentEntries);
+		} else {
+			for (int i = 0; i < size; i++) {
+				if (matcher.historyUnknown(i)) {
+					FileInfoEntry hInfo = historyEntries[i];
+					for (int j = 0; j < size; j++) {
+						if (matcher.currentUnknown(j)) {
+							FileInfoEntry cInfo = currentEntries[j];
+							if (renameProposal.isRenamed(hInfo.name.toFile(),
+									hInfo.modified, hInfo.length,
+									cInfo.name.toFile(), cInfo.modified,
+									cInfo.length)) {
+								matcher.setMatched(i, j);
+								break;
+							}
 						}
 					}
 				}
@@ -579,6 +510,267 @@ class ContentBasedFileKeyDetector implements FileKeyDetector {
 		return matcher;
 	}
 
+	// only one history and one current has same modified/size, then they are
+	// unique matched. it is same as scan all pairs, but in linear time.
+	private static void matchUniqueAttributes(FileInfoMatcher matcher,
+			FileInfoEntry[] historyEntries, FileInfoEntry[] currentEntries) {
+		int size = historyEntries.length;
+		Map<AttributesKey, Integer> historyIdxes = new HashMap<AttributesKey, Integer>(
+				size * 2);
+		for (int i = 0; i < size; i++) {
+			if (matcher.historyUnknown(i)) {
+				indexUnique(historyIdxes, new AttributesKey(historyEntries[i]), i);
+			}
+		}
+		if (historyIdxes.isEmpty()) {
+			return;
+		}
+		Map<AttributesKey, Integer> currentIdxes = new HashMap<AttributesKey, Integer>(
+				size * 2);
+		for (int i = 0; i < size; i++) {
+			if (matcher.currentUnknown(i)) {
+				indexUnique(currentIdxes, new AttributesKey(currentEntries[i]), i);
+			}
+		}
+		for (Map.Entry<AttributesKey, Integer> entry : currentIdxes.entrySet()) {
+			int current = entry.getValue();
+			Integer history = historyIdxes.get(entry.getKey());
+			if (current >= 0 && history != null && history >= 0) {
+				matcher.setMatched(history, current);
+			}
+		}
+	}
+
+	// partial signature matches if one is prefix of the other. index both
+	// sides by length and hash of whole signature, then look up by the hash
+	// of every indexed length of prefix (longest first, as it is the most
+	// specific), so one signature is checked in its head size (not all pairs)
+	private static void matchPartialSignatures(FileInfoMatcher matcher,
+			FileInfoEntry[] historyEntries, FileInfoEntry[] currentEntries,
+			Map<ContentSignature, Integer> signIdxes) {
+		int size = historyEntries.length;
+		int[] hashes = null;
+		Map<Long, Integer> historyIdxes = new HashMap<Long, Integer>();
+		int[] historyChain = new int[size];
+		boolean[] historyLengths = new boolean[ContentSignature.HEAD_SIZE + 1];
+		for (int i = 0; i < size; i++) {
+			if (matcher.historyUnknown(i)) {
+				ContentSignature hSign = historyEntries[i].headSignature;
+				if (hSign != null && hSign.isPartial() && hSign.getLength() >= 0) {
+					int length = hSign.getLength();
+					hashes = hSign.prefixHashes(hashes);
+					historyChain[i] = indexChain(historyIdxes,
+							prefixKey(length, hashes[length]), i);
+					historyLengths[length] = true;
+				}
+			}
+		}
+		if (historyIdxes.isEmpty()) {
+			return;
+		}
+		Map<Long, Integer> currentIdxes = new HashMap<Long, Integer>();
+		int[] currentChain = new int[size];
+		boolean[] currentLengths = new boolean[ContentSignature.HEAD_SIZE + 1];
+		for (Map.Entry<ContentSignature, Integer> entry : signIdxes.entrySet()) {
+			ContentSignature cSign = entry.getKey();
+			int current = entry.getValue();
+			if (cSign != null && matcher.currentUnknown(current)
+					&& cSign.getLength() >= 0) {
+				int length = cSign.getLength();
+				hashes = cSign.prefixHashes(hashes);
+				currentChain[current] = indexChain(currentIdxes,
+						prefixKey(length, hashes[length]), current);
+				currentLengths[length] = true;
+			}
+		}
+		// current signature is prefix of history one
+		for (int i = 0; i < size; i++) {
+			if (!matcher.historyUnknown(i)
+					|| historyEntries[i].headSignature == null) {
+				continue;
+			}
+			ContentSignature hSign = historyEntries[i].headSignature;
+			if (!hSign.isPartial() || hSign.getLength() < 0) {
+				continue;
+			}
+			hashes = hSign.prefixHashes(hashes);
+			for (int length = hSign.getLength() - 1; length >= 0
+					&& matcher.historyUnknown(i); length--) {
+				if (!currentLengths[length]) {
+					continue;
+				}
+				Integer head = currentIdxes.get(prefixKey(length,
+						hashes[length]));
+				for (int j = head == null ? -1 : head; j >= 0; j = currentChain[j]) {
+					if (matcher.currentUnknown(j)
+							&& currentEntries[j].headSignature
+									.partialMatch(hSign)) {
+						// partial match found
+						matcher.setMatched(i, j);
+						break;
+					}
+				}
+			}
+		}
+		// history signature is prefix of current one
+		for (Map.Entry<ContentSignature, Integer> entry : signIdxes.entrySet()) {
+			ContentSignature cSign = entry.getKey();
+			int current = entry.getValue();
+			if (cSign == null || cSign.getLength() < 0) {
+				continue;
+			}
+			hashes = cSign.prefixHashes(hashes);
+			for (int length = cSign.getLength() - 1; length >= 0
+					&& matcher.currentUnknown(current); length--) {
+				if (!historyLengths[length]) {
+					continue;
+				}
+				Integer head = historyIdxes.get(prefixKey(length,
+						hashes[length]));
+				for (int j = head == null ? -1 : head; j >= 0; j = historyChain[j]) {
+					if (matcher.historyUnknown(j)
+							&& cSign.partialMatch(historyEntries[j].headSignature)) {
+						// partial match found
+						matcher.setMatched(j, current);
+						break;
+					}
+				}
+			}
+		}
+	}
+
+	private static Long prefixKey(int length, int hash) {
+		return ((long) length << 32) | (hash & 0xffffffffL);
+	}
+
+	// index is chained to previous one of same key, return previous index
+	private static <K> int indexChain(Map<K, Integer> idxes, K key, int index) {
+		Integer previous = idxes.put(key, index);
+		return previous == null ? -1 : previous.intValue();
+	}
+
+	// check rename proposal in same order as scan all pairs (first unknown
+	// current proposed), but default proposal only checks currents with same
+	// modified/length or same first name char, and every history checks at
+	// most MAX_PROPOSAL_CHECKS currents
+	private void matchRenameProposal(FileInfoMatcher matcher,
+			FileInfoEntry[] historyEntries, FileInfoEntry[] currentEntries) {
+		int size = historyEntries.length;
+		boolean byName = renameProposal == DEFAULT_RENAME_PROPOSAL;
+		Map<Object, Integer> groupIdxes = new HashMap<Object, Integer>();
+		Map<AttributesKey, Integer> attrIdxes = new HashMap<AttributesKey, Integer>();
+		int[] groupChain = new int[size];
+		int[] attrChain = new int[size];
+		// chain in reverse, so first index is head of chain
+		for (int i = size - 1; i >= 0; i--) {
+			if (matcher.currentUnknown(i)) {
+				FileInfoEntry cInfo = currentEntries[i];
+				Object group = byName ? nameGroup(cInfo) : Boolean.TRUE;
+				groupChain[i] = group == null ? -1 : indexChain(groupIdxes,
+						group, i);
+				if (byName) {
+					attrChain[i] = indexChain(attrIdxes, new AttributesKey(
+							cInfo), i);
+				}
+			}
+		}
+		if (groupIdxes.isEmpty() && attrIdxes.isEmpty()) {
+			return;
+		}
+		for (int i = 0; i < size; i++) {
+			if (!matcher.historyUnknown(i)) {
+				continue;
+			}
+			FileInfoEntry hInfo = historyEntries[i];
+			int proposed = -1;
+			if (byName) {
+				// same modified/length is always proposed
+				AttributesKey attrKey = new AttributesKey(hInfo);
+				Integer head = attrIdxes.get(attrKey);
+				for (int j = head == null ? -1 : head; j >= 0; j = attrChain[j]) {
+					if (matcher.currentUnknown(j)) {
+						proposed = j;
+						break;
+					}
+					// skip matched head
+					attrIdxes.put(attrKey, attrChain[j]);
+				}
+			}
+			Object group = byName ? nameGroup(hInfo) : Boolean.TRUE;
+			Integer head = group == null ? null : groupIdxes.get(group);
+			int previous = -1;
+			int checks = 0;
+			for (int j = head == null ? -1 : head; j >= 0
+					&& (proposed < 0 || j < proposed); j = groupChain[j]) {
+				if (!matcher.currentUnknown(j)) {
+					// unlink matched current
+					if (previous < 0) {
+						groupIdxes.put(group, groupChain[j]);
+					} else {
+						groupChain[previous] = groupChain[j];
+					}
+					continue;
+				}
+				if (checks++ >= MAX_PROPOSAL_CHECKS) {
+					log.debug(
+							"stop rename proposal of {} after {} checks",
+							hInfo, MAX_PROPOSAL_CHECKS);
+					break;
+				}
+				FileInfoEntry cInfo = currentEntries[j];
+				if (renameProposal.isRenamed(hInfo.name.toFile(),
+						hInfo.modified, hInfo.length, cInfo.name.toFile(),
+						cInfo.modified, cInfo.length)) {
+					proposed = j;
+					break;
+				}
+				previous = j;
+			}
+			if (proposed >= 0) {
+				matcher.setMatched(i, proposed);
+			}
+		}
+	}
+
+	// default proposal requires same name prefix
+	private static Character nameGroup(FileInfoEntry infoEntry) {
+		String name = infoEntry.name.toFile().getName();
+		return name.isEmpty() ? null : Character.valueOf(name.charAt(0));
+	}
+
+	private static void indexUnique(Map<AttributesKey, Integer> idxes,
+			AttributesKey key, int index) {
+		if (idxes.put(key, index) != null) {
+			// more than one
+			idxes.put(key, FileInfoMatcher.INVALID);
+		}
+	}
+
+	private static class AttributesKey {
+		private final long modified;
+		private final long length;
+
+		AttributesKey(FileInfoEntry infoEntry) {
+			this.modified = infoEntry.modified;
+			this.length = infoEntry.length;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (modified ^ (modified >>> 32)) * 31
+					+ (int) (length ^ (length >>> 32));
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof AttributesKey)) {
+				return false;
+			}
+			AttributesKey other = (AttributesKey) obj;
+			return modified == other.modified && length == other.length;
+		}
+	}
+
 	private List<WatchEventKeys> evaluteEvents(FileInfoMatcher matcher,
 			List<WatchEvent<?>> events, FileInfoEntry[] historyEntries,
 			FileInfoEntry[] currentEntries) {
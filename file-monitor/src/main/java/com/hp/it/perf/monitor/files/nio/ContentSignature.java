@@ -0,0 +1,151 @@
+package com.hp.it.perf.monitor.files.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.Adler32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// head content signature with Adler32 checksum
+class ContentSignature {
+
+	private static final Logger log = LoggerFactory
+			.getLogger(ContentSignature.class);
+
+	// signature size of file head
+	static final int HEAD_SIZE = 1024;
+
+	private byte[] signature;
+	private long offset = -1;
+	private int length = -1;
+	private long checksum;
+
+	public void sign(Path name, int offset, int len, boolean resign) {
+		if (signature != null && !resign) {
+			// has content, and not resign required
+			if (length >= len) {
+				// content is not changed
+				return;
+			}
+		}
+		if (!sign(name, offset, len, ByteBuffer.allocate(len))) {
+			length = -1;
+		}
+	}
+
+	// read head content with one positional read (usually) into buffer
+	public boolean sign(Path name, long offset, int len, ByteBuffer buffer) {
+		FileChannel channel = null;
+		try {
+			channel = FileChannel.open(name, StandardOpenOption.READ);
+			buffer.clear();
+			buffer.limit(len);
+			while (buffer.hasRemaining()
+					&& channel.read(buffer, offset + buffer.position()) > 0) {
+				// until head is full or end of file
+			}
+			buffer.flip();
+			signature = new byte[buffer.remaining()];
+			buffer.get(signature);
+			this.offset = offset;
+			length = signature.length;
+			Adler32 adler32Checksum = new Adler32();
+			adler32Checksum.update(signature, 0, length);
+			checksum = adler32Checksum.getValue();
+			log.debug(
+					"load file '{}' from offset {} with first {} bytes for signature - checksum {}",
+					new Object[] { name, offset, length,
+							Long.toHexString(checksum) });
+			return true;
+		} catch (IOException e) {
+			log.trace("cannot load signature from file {}: {}", name, e);
+			return false;
+		} finally {
+			if (channel != null) {
+				try {
+					channel.close();
+				} catch (IOException ignored) {
+				}
+			}
+		}
+	}
+
+	public boolean isPartial() {
+		return length < HEAD_SIZE;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	public long getChecksum() {
+		return checksum;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + length;
+		result = prime * result + (int) (offset ^ (offset >>> 32));
+		result = prime * result + (int) checksum;
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (!(obj instanceof ContentSignature))
+			return false;
+		ContentSignature other = (ContentSignature) obj;
+		if (length != other.length)
+			return false;
+		if (offset != other.offset)
+			return false;
+		if (checksum != other.checksum)
+			return false;
+		if (!Arrays.equals(signature, other.signature))
+			return false;
+		return true;
+	}
+
+	boolean partialMatch(ContentSignature other) {
+		if (offset != other.offset) {
+			return false;
+		}
+		if (length == other.length) {
+			// not partial match (maybe full or not)
+			return false;
+		}
+		byte[] b1 = signature;
+		byte[] b2 = other.signature;
+		for (int i = 0, n = Math.min(length, other.length); i < n; i++)
+			if (b1[i] != b2[i])
+				return false;
+		return true;
+	}
+
+	// hash of every head prefix (hashes[i] is for first i bytes), so partial
+	// match can be indexed by length and prefix hash (buffer is reused)
+	int[] prefixHashes(int[] hashes) {
+		if (hashes == null || hashes.length <= length) {
+			hashes = new int[Math.max(length, HEAD_SIZE) + 1];
+		}
+		int hash = 0;
+		hashes[0] = hash;
+		for (int i = 0; i < length; i++) {
+			hash = 31 * hash + signature[i];
+			hashes[i + 1] = hash;
+		}
+		return hashes;
+	}
+
+}
@@ -0,0 +1,106 @@
+package com.hp.it.perf.monitor.files.nio;
+
+import java.io.FileNotFoundException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hp.it.perf.monitor.files.DefaultFileStatistics.HandlePoolCount;
+
+// Lease file handles to readers, and cap total open handles. If it is full,
+// least recently read idle handle is evicted, and its reader will re-open
+// at saved position on next read. The cap is soft: handle in reading is not
+// evicted, so open never blocks, and it is counted as over cap instead.
+class FileHandlePool {
+
+	private static final Logger log = LoggerFactory
+			.getLogger(FileHandlePool.class);
+
+	private volatile int maxOpen;
+
+	private final HandlePoolCount count;
+
+	// guarded by itself, in access order
+	private final LinkedHashMap<RandomAccessFileReader, RandomAccessFile> leases = new LinkedHashMap<RandomAccessFileReader, RandomAccessFile>(
+			16, 0.75f, true);
+
+	// 0 for no limit
+	FileHandlePool(int maxOpen, HandlePoolCount count) {
+		this.maxOpen = maxOpen;
+		this.count = count;
+	}
+
+	void setMaxOpen(int maxOpen) {
+		this.maxOpen = maxOpen;
+	}
+
+	int getMaxOpen() {
+		return maxOpen;
+	}
+
+	// open new handle for reader, and evict others if exceed
+	RandomAccessFile lease(RandomAccessFileReader reader)
+			throws FileNotFoundException {
+		count.missed();
+		RandomAccessFile handle = new RandomAccessFile(reader.file, "r");
+		List<RandomAccessFileReader> evictReaders = null;
+		int overflow;
+		synchronized (leases) {
+			leases.put(reader, handle);
+			overflow = maxOpen > 0 ? leases.size() - maxOpen : 0;
+			if (overflow > 0) {
+				evictReaders = new ArrayList<RandomAccessFileReader>(overflow);
+				// eldest first
+				for (Iterator<RandomAccessFileReader> i = leases.keySet()
+						.iterator(); i.hasNext()
+						&& evictReaders.size() < overflow;) {
+					RandomAccessFileReader leaseReader = i.next();
+					if (leaseReader != reader && !leaseReader.isBusy()) {
+						evictReaders.add(leaseReader);
+					}
+				}
+			}
+		}
+		if (overflow > 0) {
+			int evicted = 0;
+			// close out of lock, as it will be released into pool
+			for (RandomAccessFileReader evictReader : evictReaders) {
+				if (evictReader.tryOffline()) {
+					log.debug("evict least recently read file handle: {}",
+							evictReader.file);
+					count.evicted();
+					evicted++;
+				}
+			}
+			if (evicted < overflow) {
+				log.debug("open file {} over max open files {}", reader.file,
+						maxOpen);
+				count.overCap();
+			}
+		}
+		return handle;
+	}
+
+	// reader still holds handle
+	void hit(RandomAccessFileReader reader) {
+		count.hit();
+		if (maxOpen > 0) {
+			synchronized (leases) {
+				// move to last in access order
+				leases.get(reader);
+			}
+		}
+	}
+
+	void release(RandomAccessFileReader reader) {
+		synchronized (leases) {
+			leases.remove(reader);
+		}
+	}
+
+}
@@ -1,6 +1,7 @@
 package com.hp.it.perf.monitor.files.nio;
 
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.WatchEvent;
 import java.util.List;
 
@@ -29,6 +30,9 @@ interface FileKeyDetector {
 
 	public FileKey detectFileKey(Path path);
 
+	// attributes are already read (by folder scan)
+	public FileKey detectFileKey(Path path, BasicFileAttributes attributes);
+
 	public List<WatchEventKeys> detectWatchEvents(List<WatchEvent<?>> events);
 
 }
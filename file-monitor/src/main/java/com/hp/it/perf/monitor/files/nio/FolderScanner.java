@@ -0,0 +1,129 @@
+package com.hp.it.perf.monitor.files.nio;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.hp.it.perf.monitor.files.FilenameFilter;
+
+// List folder by directory stream and read attributes only once for each
+// entry. Attributes of large folder are read in fork-join pool, as each one
+// is a round trip on network file system.
+class FolderScanner {
+
+	// 1 to read in caller thread only
+	static final int PARALLELISM = Integer.getInteger(
+			"monitor.scan.parallelism",
+			Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+	// entries read in one task
+	private static final int BATCH_SIZE = 256;
+
+	private static ForkJoinPool scanPool;
+
+	static class Entry {
+		final Path path;
+		final BasicFileAttributes attributes;
+		// symbolic link, and attributes are of target
+		final boolean linked;
+
+		Entry(Path path, BasicFileAttributes attributes, boolean linked) {
+			this.path = path;
+			this.attributes = attributes;
+			this.linked = linked;
+		}
+	}
+
+	private static class ReadTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<Path> paths;
+		private final Entry[] entries;
+		private final int from;
+		private final int to;
+
+		ReadTask(List<Path> paths, Entry[] entries, int from, int to) {
+			this.paths = paths;
+			this.entries = entries;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= BATCH_SIZE) {
+				readEntries(paths, entries, from, to);
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new ReadTask(paths, entries, from, middle),
+						new ReadTask(paths, entries, middle, to));
+			}
+		}
+	}
+
+	// entries with name not accepted by filter are skipped without reading
+	// attributes, in directory order
+	static List<Entry> scan(Path folder, FilenameFilter nameFilter)
+			throws IOException {
+		List<Path> paths = new ArrayList<Path>();
+		DirectoryStream<Path> stream = Files.newDirectoryStream(folder);
+		try {
+			for (Path path : stream) {
+				if (nameFilter == null
+						|| nameFilter.accept(path.getFileName().toString())) {
+					paths.add(path);
+				}
+			}
+		} finally {
+			stream.close();
+		}
+		Entry[] entries = new Entry[paths.size()];
+		if (PARALLELISM > 1 && paths.size() > BATCH_SIZE) {
+			scanPool().invoke(new ReadTask(paths, entries, 0, paths.size()));
+		} else {
+			readEntries(paths, entries, 0, paths.size());
+		}
+		List<Entry> list = new ArrayList<Entry>(entries.length);
+		for (Entry entry : entries) {
+			if (entry != null) {
+				list.add(entry);
+			}
+		}
+		return list;
+	}
+
+	private static void readEntries(List<Path> paths, Entry[] entries,
+			int from, int to) {
+		for (int i = from; i < to; i++) {
+			Path path = paths.get(i);
+			try {
+				BasicFileAttributes attributes = Files.readAttributes(path,
+						BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+				boolean linked = attributes.isSymbolicLink();
+				if (linked) {
+					attributes = Files.readAttributes(path,
+							BasicFileAttributes.class);
+				}
+				entries[i] = new Entry(path, attributes, linked);
+			} catch (IOException e) {
+				// deleted or broken link
+			}
+		}
+	}
+
+	private static synchronized ForkJoinPool scanPool() {
+		if (scanPool == null) {
+			scanPool = new ForkJoinPool(PARALLELISM);
+		}
+		return scanPool;
+	}
+
+}
@@ -0,0 +1,78 @@
+package com.hp.it.perf.monitor.files.nio;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// shared byte chunk for line views, recycled when all references released
+class LineChunk {
+
+	// default 64K per chunk
+	static final int CHUNK_SIZE = Integer.getInteger(
+			"monitor.reader.chunkSize", 64 * 1024);
+
+	// default 256 idle chunks (16M) in pool
+	private static final int POOL_SIZE = Integer.getInteger(
+			"monitor.reader.chunkPoolSize", 256);
+
+	private static final Queue<LineChunk> pool = new ConcurrentLinkedQueue<LineChunk>();
+
+	private static final AtomicInteger poolCount = new AtomicInteger();
+
+	private final byte[] data;
+
+	private final AtomicInteger refCount = new AtomicInteger();
+
+	private LineChunk(int size) {
+		this.data = new byte[size];
+	}
+
+	// one reference is hold by caller
+	static LineChunk allocate(int minSize) {
+		LineChunk chunk = null;
+		if (minSize <= CHUNK_SIZE) {
+			chunk = pool.poll();
+			if (chunk != null) {
+				poolCount.decrementAndGet();
+			} else {
+				chunk = new LineChunk(CHUNK_SIZE);
+			}
+		} else {
+			// not pooled for long line
+			chunk = new LineChunk(minSize);
+		}
+		chunk.refCount.set(1);
+		return chunk;
+	}
+
+	byte[] data() {
+		return data;
+	}
+
+	int capacity() {
+		return data.length;
+	}
+
+	void retain() {
+		refCount.incrementAndGet();
+	}
+
+	// true if no other references
+	boolean isExclusive() {
+		return refCount.get() == 1;
+	}
+
+	void release() {
+		int count = refCount.decrementAndGet();
+		if (count == 0 && data.length == CHUNK_SIZE) {
+			if (poolCount.incrementAndGet() <= POOL_SIZE) {
+				pool.offer(this);
+			} else {
+				poolCount.decrementAndGet();
+			}
+		} else if (count < 0) {
+			throw new IllegalStateException("chunk over released");
+		}
+	}
+
+}
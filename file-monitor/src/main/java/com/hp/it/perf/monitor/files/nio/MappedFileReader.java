@@ -0,0 +1,215 @@
+package com.hp.it.perf.monitor.files.nio;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hp.it.perf.monitor.files.ContentLine;
+
+// scan lines directly in mapped file region, instead of read buffer copying.
+// Only backlog is mapped, in one window at a time which is reused while
+// position stays inside; small appended tail is read as random access file,
+// so tailing does not map a new region for each append.
+class MappedFileReader extends RandomAccessFileReader {
+
+	private static Logger log = LoggerFactory.getLogger(MappedFileReader.class);
+
+	// default 16M for one mapped window
+	private static final int MAP_SIZE = Integer.getInteger(
+			"monitor.reader.mapSize", 16 * 1024 * 1024);
+
+	// unread data less than it is read without mapping, default 64K
+	private static final int MIN_MAP_SIZE = Integer.getInteger(
+			"monitor.reader.minMapSize", 64 * 1024);
+
+	private MappedByteBuffer mappedBuf;
+
+	// file offset of mapped region start
+	private long mappedOffset;
+
+	// file offset until which no new line found after position
+	private long scannedOffset;
+
+	// reading as random access file
+	private boolean streaming;
+
+	// mapping got error, always read as random access file
+	private boolean mapFailed;
+
+	public MappedFileReader(File file) {
+		super(file);
+	}
+
+	@Override
+	protected void resetBuffer() {
+		super.resetBuffer();
+		// also on rewind, region of old content may be beyond new end and is
+		// never touched again; mapped region will be released by GC
+		mappedBuf = null;
+		mappedOffset = 0;
+		scannedOffset = 0;
+		streaming = false;
+	}
+
+	@Override
+	protected byte[] readLine0() throws IOException {
+		log.trace("mapped readline for {}", file);
+		try {
+			if (!streaming || startMapping()) {
+				byte[] line = readMappedLine();
+				if (!streaming) {
+					return line;
+				}
+			}
+		} catch (InternalError e) {
+			// fault on mapped region, e.g. file truncated under it
+			log.warn("mapped read of file {} failed, read without mapping: {}",
+					file, e.toString());
+			mapFailed = true;
+			stopMapping();
+		}
+		return super.readLine0();
+	}
+
+	// null if no line, or switched to streaming
+	private byte[] readMappedLine() throws IOException {
+		int newLineIndex;
+		while (true) {
+			newLineIndex = indexOfNewLine();
+			if (newLineIndex >= 0) {
+				break;
+			}
+			if (!remap()) {
+				// no data read till now
+				tryKeepAlive();
+				// return -1
+				return null;
+			}
+			if (streaming) {
+				return null;
+			}
+		}
+		int lineIndex = (int) (position - mappedOffset);
+		byte[] buf = new byte[newLineIndex + 1 - lineIndex];
+		mappedBuf.position(lineIndex);
+		mappedBuf.get(buf);
+		position += buf.length;
+		scannedOffset = position;
+		if (newLineIndex + 1 == mappedBuf.limit()) {
+			// all mapped data consumed, check if more data
+			if (getAccess().getChannel().size() == position) {
+				tryKeepAlive();
+			}
+		}
+		return buf;
+	}
+
+	// index of '\n' in mapped buffer after position, -1 if not found
+	private int indexOfNewLine() {
+		MappedByteBuffer buf = mappedBuf;
+		if (buf == null || position < mappedOffset) {
+			return -1;
+		}
+		int limit = buf.limit();
+		int start = (int) (Math.max(position, scannedOffset) - mappedOffset);
+		for (int i = start; i < limit; i++) {
+			if (buf.get(i) == '\n') {
+				return i;
+			}
+		}
+		scannedOffset = mappedOffset + limit;
+		return -1;
+	}
+
+	// true if new window is mapped, or switched to streaming
+	private boolean remap() throws IOException {
+		FileChannel channel = getAccess().getChannel();
+		long size = channel.size();
+		long mappedEnd = mappedBuf == null ? -1 : mappedOffset
+				+ mappedBuf.limit();
+		if (size <= position
+				|| (mappedBuf != null && position >= mappedOffset && size <= mappedEnd)) {
+			// file is not grown
+			return false;
+		}
+		// map from line start, and grow for long line which cross window
+		long scanned = Math.max(scannedOffset, position) - position;
+		if (mapFailed || size - position - scanned < MIN_MAP_SIZE) {
+			// small tail
+			stopMapping();
+			return true;
+		}
+		long mapSize = Math.min(size - position,
+				Math.max(MAP_SIZE, scanned * 2));
+		mapSize = Math.min(mapSize, Integer.MAX_VALUE);
+		mappedBuf = channel.map(MapMode.READ_ONLY, position, mapSize);
+		mappedOffset = position;
+		log.trace("map file {} region [{}, {})", new Object[] { file,
+				mappedOffset, mappedOffset + mapSize });
+		return true;
+	}
+
+	// continue reading from position as random access file
+	private void stopMapping() throws IOException {
+		mappedBuf = null;
+		scannedOffset = position;
+		if (!streaming) {
+			streaming = true;
+			getAccess().seek(position);
+		}
+	}
+
+	// true if switched back from streaming for large backlog
+	private boolean startMapping() throws IOException {
+		if (mapFailed || !isBufferEmpty()
+				|| getAccess().getChannel().size() - position < MIN_MAP_SIZE) {
+			return false;
+		}
+		streaming = false;
+		return true;
+	}
+
+	@Override
+	protected int readContentLines0(List<ContentLine> lines, int maxSize)
+			throws IOException {
+		// once for each batch, as file may be truncated before stream finds it
+		if (mappedBuf != null) {
+			checkMappedRegion(getAccess().getChannel().size());
+		}
+		// lines are scanned in mapped region without read call
+		return readEachContentLine(lines, maxSize);
+	}
+
+	// single line read is checked by length of change event only, not stat
+	// for each line
+	@Override
+	protected void lengthChanged0(long length) throws IOException {
+		checkMappedRegion(length);
+	}
+
+	private void checkMappedRegion(long length) throws IOException {
+		if (mappedBuf != null && length < mappedOffset + mappedBuf.limit()) {
+			// truncated under mapped window, never touch it
+			log.debug("file {} truncated under mapped region", file);
+			stopMapping();
+		}
+	}
+
+	@Override
+	protected void pushBackLine0(ContentLine line) {
+		if (streaming) {
+			super.pushBackLine0(line);
+			return;
+		}
+		// content still in mapped region or file
+		position -= line.getLineLength();
+		scannedOffset = position;
+	}
+
+}
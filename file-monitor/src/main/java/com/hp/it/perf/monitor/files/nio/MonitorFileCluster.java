@@ -26,7 +26,7 @@ class MonitorFileCluster implements FileCluster, ContentLineStreamProvider,
 
 	private final String name;
 
-	private final List<FileInstance> instanceList = new CopyOnWriteArrayList<FileInstance>();
+	private final CopyOnWriteArrayList<FileInstance> instanceList = new CopyOnWriteArrayList<FileInstance>();
 
 	private final File folder;
 
@@ -62,11 +62,11 @@ class MonitorFileCluster implements FileCluster, ContentLineStreamProvider,
 	}
 
 	void addFileInstance(MonitorFileInstance fileInstance) {
-		instanceList.add(fileInstance);
+		instanceList.addIfAbsent(fileInstance);
 	}
 
 	void removeFileInstance(MonitorFileInstance fileInstance) {
-		instanceList.add(fileInstance);
+		instanceList.remove(fileInstance);
 	}
 
 	@Override
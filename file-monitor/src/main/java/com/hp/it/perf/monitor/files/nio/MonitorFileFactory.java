@@ -5,9 +5,6 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URL;
 import java.nio.file.FileStore;
-import java.nio.file.Path;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 import com.hp.it.perf.monitor.files.DefaultFileStatistics;
 import com.hp.it.perf.monitor.files.FileClusterStrategy;
@@ -28,6 +25,11 @@ public class MonitorFileFactory implements FileInstanceFactory {
 				return super.isFuseType(store);
 			}
 		}
+
+		@Override
+		protected SignatureCache getSignatureCache() {
+			return signatureCache;
+		}
 	};
 
 	// initial as default strategy
@@ -39,14 +41,23 @@ public class MonitorFileFactory implements FileInstanceFactory {
 		}
 	};
 
-	private Map<Path, MonitorFileFolder> folders = new ConcurrentHashMap<Path, MonitorFileFolder>();
-
 	private DefaultFileStatistics statistics = new DefaultFileStatistics();
 
 	private boolean forcePollMode;
 
 	private FilenameFilter globalNameFilter;
 
+	private OffsetCheckpointStore checkpointStore;
+
+	// 0 for no limit
+	private FileHandlePool handlePool = new FileHandlePool(Integer.getInteger(
+			"monitor.reader.maxOpen", 0), statistics.handlePoolCount());
+
+	// shared by content based file key detectors and file streams of all
+	// folders
+	private SignatureCache signatureCache = new SignatureCache(
+			SignatureCache.CACHE_SIZE, statistics.signatureCount());
+
 	@Override
 	public FileInstance getFileInstance(String path) throws IOException,
 			FileNotFoundException {
@@ -68,13 +79,11 @@ public class MonitorFileFactory implements FileInstanceFactory {
 		// TODO check IO performance
 		File requestFolder = new File(path);
 		File canonicalFolder = requestFolder.getCanonicalFile();
-		MonitorFileFolder fileFolder = folders.get(canonicalFolder);
-		if (fileFolder == null && isInclude(canonicalFolder)
-				&& requestFolder.isDirectory()) {
-			fileFolder = new MonitorFileFolder(requestFolder, strategy,
-					statistics,
-					multiMonitorService.getMonitorService(requestFolder));
-			fileFolder.setFilenameFilter(prepareFilenameFilter(nameFilter));
+		// not the folder of tree (which has tree's name filter), but watch
+		// key of same folder is shared
+		if (isInclude(canonicalFolder) && requestFolder.isDirectory()) {
+			MonitorFileFolder fileFolder = createFileFolder(requestFolder,
+					prepareFilenameFilter(nameFilter));
 			fileFolder.init();
 			statistics.fileSetCount().increment();
 			return fileFolder;
@@ -83,6 +92,32 @@ public class MonitorFileFactory implements FileInstanceFactory {
 		}
 	}
 	
+	@Override
+	public FileSet getFileTree(String path, FilenameFilter nameFilter)
+			throws IOException, FileNotFoundException {
+		File requestFolder = new File(path);
+		if (isInclude(requestFolder.getCanonicalFile())
+				&& requestFolder.isDirectory()) {
+			MonitorFileTree fileTree = new MonitorFileTree(requestFolder,
+					prepareFilenameFilter(nameFilter), this);
+			fileTree.init();
+			return fileTree;
+		} else {
+			throw new FileNotFoundException(path);
+		}
+	}
+
+	MonitorFileFolder createFileFolder(File folder, FilenameFilter nameFilter)
+			throws IOException {
+		MonitorFileFolder fileFolder = new MonitorFileFolder(folder, strategy,
+				statistics, multiMonitorService.getMonitorService(folder));
+		fileFolder.setFilenameFilter(nameFilter);
+		fileFolder.setCheckpointStore(checkpointStore);
+		fileFolder.setHandlePool(handlePool);
+		fileFolder.setSignatureCache(signatureCache);
+		return fileFolder;
+	}
+
 	private FilenameFilter prepareFilenameFilter(final FilenameFilter nameFilter) {
 		if (nameFilter == null) {
 			return globalNameFilter;
@@ -119,6 +154,9 @@ public class MonitorFileFactory implements FileInstanceFactory {
 	@Override
 	public void close() throws IOException {
 		multiMonitorService.close();
+		if (checkpointStore != null) {
+			checkpointStore.close();
+		}
 	}
 
 	@Override
@@ -126,6 +164,34 @@ public class MonitorFileFactory implements FileInstanceFactory {
 		return statistics;
 	}
 
+	// persist read offsets into given file, and resume from it when open
+	public void setCheckpointFile(File checkpointFile) throws IOException {
+		if (checkpointStore != null) {
+			checkpointStore.close();
+		}
+		checkpointStore = new OffsetCheckpointStore(checkpointFile);
+	}
+
+	// max open files for all readers, 0 for no limit
+	public void setMaxOpenFiles(int maxOpenFiles) {
+		handlePool.setMaxOpen(maxOpenFiles);
+	}
+
+	public int getMaxOpenFiles() {
+		return handlePool.getMaxOpen();
+	}
+
+	// milliseconds to collect watch events of folder before processing, so
+	// modify events of frequently flushed file are merged, 0 for no delay.
+	// Apply to folders monitored later.
+	public void setCoalesceWindow(int coalesceWindow) {
+		multiMonitorService.setCoalesceWindow(coalesceWindow);
+	}
+
+	public int getCoalesceWindow() {
+		return multiMonitorService.getCoalesceWindow();
+	}
+
 	public void setForcePollMode(boolean forcePollMode) {
 		this.forcePollMode = forcePollMode;
 	}
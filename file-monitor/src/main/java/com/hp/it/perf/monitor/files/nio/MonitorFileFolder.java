@@ -2,13 +2,19 @@ package com.hp.it.perf.monitor.files.nio;
 
 import java.io.File;
 import java.io.IOException;
-import java.net.MalformedURLException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent.Kind;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,7 +45,23 @@ class MonitorFileFolder implements FileSet, ContentLineStreamProvider,
 
 	private final File folder;
 
-	private final List<FileInstance> instanceList = new CopyOnWriteArrayList<FileInstance>();
+	// in added order, guarded by itself
+	private final Set<FileInstance> instanceSet = new LinkedHashSet<FileInstance>();
+
+	// rebuilt on next list after instance added or removed
+	private volatile List<FileInstance> instanceSnapshot = Collections
+			.emptyList();
+
+	private boolean snapshotValid = true;
+
+	private final Map<String, FileInstance> nameIndex = new ConcurrentHashMap<String, FileInstance>();
+
+	// shared with folder entry which maintains it by watch events
+	private final Map<FileKey, FileInstance> keyIndex = new ConcurrentHashMap<FileKey, FileInstance>();
+
+	// file is gone when key is detected (e.g. modify before delete), and
+	// kept for the following event with no key
+	private volatile FileInstance unknownKeyInstance;
 
 	private final Map<String, MonitorFileCluster> clusterMap = new ConcurrentHashMap<String, MonitorFileCluster>();
 
@@ -53,6 +75,16 @@ class MonitorFileFolder implements FileSet, ContentLineStreamProvider,
 
 	private FilenameFilter nameFilter;
 
+	private OffsetCheckpointStore checkpointStore;
+
+	private FileHandlePool handlePool;
+
+	private SignatureCache signatureCache;
+
+	private MonitorFileTree fileTree;
+
+	private Map<FileInstance, BasicFileAttributes> scanAttributes;
+
 	private static final Logger log = LoggerFactory
 			.getLogger(MonitorFileFolder.class);
 
@@ -66,22 +98,129 @@ class MonitorFileFolder implements FileSet, ContentLineStreamProvider,
 	}
 
 	FileInstance getFileInstance(String name) {
-		for (FileInstance instance : instanceList) {
-			if (instance.getName().equals(name)) {
-				return instance;
+		return nameIndex.get(name);
+	}
+
+	FileInstance getFileInstance(FileKey fileKey) {
+		return fileKey == null ? unknownKeyInstance : keyIndex.get(fileKey);
+	}
+
+	void putFileKey(FileKey fileKey, FileInstance instance) {
+		if (fileKey == null) {
+			unknownKeyInstance = instance;
+		} else if (instance == null) {
+			keyIndex.remove(fileKey);
+		} else {
+			keyIndex.put(fileKey, instance);
+			if (instance instanceof MonitorFileInstance) {
+				((MonitorFileInstance) instance).setFileKey(fileKey);
 			}
 		}
-		return null;
 	}
 
-	void init() throws IOException {
-		// make sure list file first
-		for (File file : folder.listFiles()) {
-			if (file.isFile() && isIncluded(file)) {
-				addInstance(makeFileInstance(file));
-			}
+	void removeFileKey(FileKey fileKey) {
+		if (fileKey == null) {
+			unknownKeyInstance = null;
+		} else {
+			keyIndex.remove(fileKey);
 		}
+	}
+
+	int getFileKeyCount() {
+		return keyIndex.size() + (unknownKeyInstance == null ? 0 : 1);
+	}
+
+	// return sub-folders
+	List<File> init() throws IOException {
+		// watch before scan, so file created during scan is not missed
 		this.folderWatchEntry = this.monitorService.registerWatch(this);
+		List<File> subFolders = new ArrayList<File>();
+		List<MonitorFileInstance> instances = new ArrayList<MonitorFileInstance>();
+		scanAttributes = new HashMap<FileInstance, BasicFileAttributes>();
+		try {
+			// make sure list file first, and sub-folders are needed by tree
+			for (FolderScanner.Entry entry : FolderScanner.scan(
+					folder.toPath(), fileTree == null ? nameFilter : null)) {
+				File file = entry.path.toFile();
+				if (entry.attributes.isRegularFile()) {
+					if (isIncluded(file)) {
+						MonitorFileInstance instance = makeFileInstance(file);
+						registerInstance(instance, entry.attributes);
+						scanAttributes.put(instance, entry.attributes);
+						instances.add(instance);
+					}
+				} else if (entry.attributes.isDirectory() && !entry.linked) {
+					// not follow linked folder (maybe loop)
+					subFolders.add(file);
+				}
+			}
+			synchronized (instanceSet) {
+				for (MonitorFileInstance instance : instances) {
+					indexInstance(instance);
+				}
+			}
+			folderWatchEntry.start();
+		} catch (IOException e) {
+			unregisterWatch();
+			throw e;
+		} finally {
+			scanAttributes = null;
+		}
+		return subFolders;
+	}
+
+	// stop watching (e.g. folder is removed from tree)
+	void unregisterWatch() {
+		if (folderWatchEntry != null) {
+			monitorService.unregisterWatch(folderWatchEntry);
+		}
+	}
+
+	MonitorFolderEntry getWatchEntry() {
+		return folderWatchEntry;
+	}
+
+	// attributes read by init, only available during watch registration
+	BasicFileAttributes getScanAttributes(FileInstance instance) {
+		return scanAttributes == null ? null : scanAttributes.get(instance);
+	}
+
+	// notify instances found by init as created (folder created later in
+	// tree), and read them from start
+	void announceInstances() {
+		for (FileInstance instance : listInstances()) {
+			MonitorFileStream.saveReadOffset(instance, 0L);
+			instanceChangeProxy.onFileInstanceCreated(instance,
+					new FileChangeOption());
+			onContentChanged(instance);
+		}
+	}
+
+	// not follow linked folder (maybe loop)
+	private static boolean isSubFolder(File file) {
+		return file.isDirectory() && !Files.isSymbolicLink(file.toPath());
+	}
+
+	// sub-folder is not file instance, and it is passed to tree if recursive
+	boolean onFolderEvent(Kind<?> kind, Path name) {
+		File file = new File(folder, name.toString());
+		if (kind == StandardWatchEventKinds.ENTRY_CREATE) {
+			if (!file.isDirectory()) {
+				return false;
+			}
+			if (fileTree != null && isSubFolder(file)) {
+				fileTree.onFolderCreated(file);
+			}
+			return true;
+		} else if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+			if (fileTree == null || !fileTree.isMonitored(file)) {
+				return false;
+			}
+			fileTree.onFolderDeleted(file);
+			return true;
+		} else {
+			return false;
+		}
 	}
 
 	boolean isIncluded(File file) {
@@ -89,13 +228,8 @@ class MonitorFileFolder implements FileSet, ContentLineStreamProvider,
 	}
 
 	MonitorFileInstance makeFileInstance(File file) {
-		String clusterName;
-		try {
-			clusterName = clusterNameStrategy.getClusterName(file.getName(),
-					file.toURI().toURL());
-		} catch (MalformedURLException e) {
-			throw new RuntimeException(e);
-		}
+		String clusterName = clusterNameStrategy.getClusterName(
+				file.getName(), MonitorFileInstance.toURL(file));
 		MonitorFileCluster fileCluster = clusterMap.get(clusterName);
 		if (fileCluster == null) {
 			fileCluster = new MonitorFileCluster(clusterName, folder, this);
@@ -125,7 +259,40 @@ class MonitorFileFolder implements FileSet, ContentLineStreamProvider,
 
 	@Override
 	public List<? extends FileInstance> listInstances() {
-		return Collections.unmodifiableList(instanceList);
+		List<FileInstance> snapshot = instanceSnapshot;
+		synchronized (instanceSet) {
+			if (!snapshotValid) {
+				snapshot = Collections
+						.unmodifiableList(new ArrayList<FileInstance>(
+								instanceSet));
+				instanceSnapshot = snapshot;
+				snapshotValid = true;
+			}
+		}
+		return snapshot;
+	}
+
+	// caller holds instance set lock
+	private void indexInstance(FileInstance instance) {
+		if (instanceSet.add(instance)) {
+			nameIndex.put(instance.getName(), instance);
+			snapshotValid = false;
+		}
+	}
+
+	// return false if removed already
+	private boolean unindexInstance(FileInstance instance) {
+		synchronized (instanceSet) {
+			if (instanceSet.remove(instance)) {
+				// same name may be reused by new instance already
+				if (nameIndex.get(instance.getName()) == instance) {
+					nameIndex.remove(instance.getName());
+				}
+				snapshotValid = false;
+				return true;
+			}
+			return false;
+		}
 	}
 
 	@Override
@@ -137,7 +304,7 @@ class MonitorFileFolder implements FileSet, ContentLineStreamProvider,
 	public ContentLineStream open(FileOpenOption option) throws IOException {
 		final CompositeInstanceContentLineStream contentStream = new CompositeInstanceContentLineStream(
 				"folder " + folder, option, this, this);
-		for (FileInstance instance : instanceList) {
+		for (FileInstance instance : listInstances()) {
 			contentStream.addFileInstance(instance);
 		}
 		return contentStream;
@@ -160,6 +327,11 @@ class MonitorFileFolder implements FileSet, ContentLineStreamProvider,
 	}
 
 	void onFileInstanceDeleted(FileInstance instance, FileChangeOption option) {
+		// claimed by one of folder entry and tree (folder is removed)
+		if (!unindexInstance(instance)) {
+			log.debug("file instance {} is deleted already", instance);
+			return;
+		}
 		List<FileInstanceChangeListener> removingListeners = preRemoveInstance(instance);
 		instanceChangeProxy.onFileInstanceDeleted(instance, option);
 		postRemoveInstance(instance, removingListeners);
@@ -178,7 +350,6 @@ class MonitorFileFolder implements FileSet, ContentLineStreamProvider,
 		removeFileContentChangeListener(fileCluster);
 		fileInstance.metadata().invalid();
 		contentChangeProxy.removeFileInstance(instance);
-		instanceList.remove(fileInstance);
 		if (fileCluster.isEmpty()) {
 			clusterMap.remove(fileCluster.getName());
 			internalListeners.add(fileCluster);
@@ -197,10 +368,22 @@ class MonitorFileFolder implements FileSet, ContentLineStreamProvider,
 	}
 
 	protected void addInstance(FileInstance newInstance) {
-		log.debug("adding file instance {}", newInstance);
 		MonitorFileInstance fileInstance = (MonitorFileInstance) newInstance;
-		instanceList.add(fileInstance);
-		fileInstance.getMetadata(true);
+		registerInstance(fileInstance, null);
+		synchronized (instanceSet) {
+			indexInstance(fileInstance);
+		}
+	}
+
+	// attributes is null if not known yet
+	private void registerInstance(MonitorFileInstance fileInstance,
+			BasicFileAttributes attributes) {
+		log.debug("adding file instance {}", fileInstance);
+		if (attributes == null) {
+			fileInstance.getMetadata(true);
+		} else {
+			fileInstance.metadata().setAttributes(attributes);
+		}
 		((MonitorFileCluster) fileInstance.getFileCluster())
 				.addFileInstance(fileInstance);
 		contentChangeProxy.addFileInstance(fileInstance);
@@ -211,6 +394,7 @@ class MonitorFileFolder implements FileSet, ContentLineStreamProvider,
 	void onContentChanged(FileInstance instance) {
 		MonitorFileInstance fileInstance = (MonitorFileInstance) instance;
 		fileInstance.metadata().markUpdated();
+		statistics.readCount(instance).changed();
 		contentChangeProxy.onContentChanged(instance);
 	}
 
@@ -245,6 +429,34 @@ class MonitorFileFolder implements FileSet, ContentLineStreamProvider,
 		return folder.getPath();
 	}
 
+	void setCheckpointStore(OffsetCheckpointStore checkpointStore) {
+		this.checkpointStore = checkpointStore;
+	}
+
+	OffsetCheckpointStore getCheckpointStore() {
+		return checkpointStore;
+	}
+
+	void setHandlePool(FileHandlePool handlePool) {
+		this.handlePool = handlePool;
+	}
+
+	FileHandlePool getHandlePool() {
+		return handlePool;
+	}
+
+	void setSignatureCache(SignatureCache signatureCache) {
+		this.signatureCache = signatureCache;
+	}
+
+	SignatureCache getSignatureCache() {
+		return signatureCache;
+	}
+
+	void setFileTree(MonitorFileTree fileTree) {
+		this.fileTree = fileTree;
+	}
+
 	public void setFilenameFilter(FilenameFilter nameFilter) {
 		this.nameFilter = nameFilter;
 	}
@@ -3,6 +3,9 @@ package com.hp.it.perf.monitor.files.nio;
 import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -36,25 +39,44 @@ class MonitorFileInstance implements FileInstance, ContentLineStreamProvider {
 
 	private final MonitorFileMetadata metadata;
 
+	// native key detected on last event, shared with signature cache
+	private volatile FileKey fileKey;
+
 	public MonitorFileInstance(String fileName, String clusterName,
 			MonitorFileFolder fileSet) {
 		this.file = new File(fileSet.getFolder(), fileName);
 		this.clusterName = clusterName;
 		this.fileSet = fileSet;
-		String realPath;
-		try {
-			realPath = file.getCanonicalPath();
-		} catch (IOException e) {
-			realPath = file.getAbsolutePath();
+		this.metadata = new MonitorFileMetadata(fileName, file, toURL(file));
+	}
+
+	// same as file.toURI().toURL() for regular file, but not check if it is
+	// directory (one more file system call)
+	static URL toURL(File file) {
+		String path = file.getAbsolutePath();
+		if (File.separatorChar != '/') {
+			path = path.replace(File.separatorChar, '/');
+		}
+		if (!path.startsWith("/")) {
+			path = "/" + path;
 		}
 		try {
-			this.metadata = new MonitorFileMetadata(fileName, file.getPath(),
-					realPath, file.toURI().toURL());
+			return new URI("file", null, path, null).toURL();
+		} catch (URISyntaxException e) {
+			throw new IllegalArgumentException(e);
 		} catch (MalformedURLException e) {
 			throw new IllegalArgumentException(e);
 		}
 	}
 
+	void setFileKey(FileKey fileKey) {
+		this.fileKey = fileKey;
+	}
+
+	FileKey getFileKey() {
+		return fileKey;
+	}
+
 	FileContentChangeListener getContentChangeListener() {
 		return contentChangeProxy;
 	}
@@ -110,12 +132,16 @@ class MonitorFileInstance implements FileInstance, ContentLineStreamProvider {
 	@Override
 	public ContentLineStream open(FileOpenOption option) throws IOException {
 		Long savedOffset = MonitorFileStream.loadReadOffset(this);
+		OffsetCheckpointStore checkpointStore = fileSet.getCheckpointStore();
+		if (savedOffset == null && checkpointStore != null) {
+			// resume from last run
+			savedOffset = checkpointStore.resumeOffset(this);
+		}
 		long offset = option.openOnTail() ? -1 : 0;
 		if (savedOffset != null) {
 			offset = savedOffset;
 		}
-		MonitorFileStream stream = new MonitorFileStream(this, offset,
-				option.lazyOpen(), option.monitor());
+		MonitorFileStream stream = new MonitorFileStream(this, offset, option);
 		return stream;
 	}
 
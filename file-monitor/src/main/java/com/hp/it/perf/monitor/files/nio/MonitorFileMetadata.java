@@ -1,23 +1,48 @@
 package com.hp.it.perf.monitor.files.nio;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.URL;
+import java.nio.file.attribute.BasicFileAttributes;
 
 import com.hp.it.perf.monitor.files.FileMetadata;
 
 class MonitorFileMetadata implements FileMetadata {
 
+	// canonical path is resolved on first use, and shared by copies
+	private static class RealPath {
+		private final File file;
+		private volatile String path;
+
+		RealPath(File file) {
+			this.file = file;
+		}
+
+		String get() {
+			String realPath = path;
+			if (realPath == null) {
+				try {
+					realPath = file.getCanonicalPath();
+				} catch (IOException e) {
+					realPath = file.getAbsolutePath();
+				}
+				path = realPath;
+			}
+			return realPath;
+		}
+	}
+
 	private final URL url;
 	private final String name;
 	private final String path;
-	private final String realPath;
+	private final RealPath realPath;
 	private long lastModifiedDate = -1;
 	private long length = 0;
 
-	public MonitorFileMetadata(String name, String path, String realPath,
-			URL url) {
+	public MonitorFileMetadata(String name, File file, URL url) {
 		this.name = name;
-		this.path = path;
-		this.realPath = realPath;
+		this.path = file.getPath();
+		this.realPath = new RealPath(file);
 		this.url = url;
 	}
 
@@ -59,6 +84,11 @@ class MonitorFileMetadata implements FileMetadata {
 		this.length = length;
 	}
 
+	void setAttributes(BasicFileAttributes attributes) {
+		this.length = attributes.size();
+		this.lastModifiedDate = attributes.lastModifiedTime().toMillis();
+	}
+
 	@Override
 	public URL toURL() {
 		return url;
@@ -66,7 +96,7 @@ class MonitorFileMetadata implements FileMetadata {
 	
 	@Override
 	public String getRealPath() {
-		return realPath;
+		return realPath.get();
 	}
 
 	@Override
@@ -9,6 +9,7 @@ import java.nio.file.WatchEvent;
 import java.nio.file.WatchEvent.Kind;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -16,9 +17,14 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,9 +46,24 @@ class MonitorFileService implements Closeable, Runnable {
 
 	private ExecutorService eventProcess;
 
+	// folder events are processed in order by per-folder serial executor
+	private ThreadPoolExecutor dispatchProcess;
+
+	// milliseconds to collect folder events, 0 for no delay
+	private volatile int coalesceWindow;
+
+	// created when first folder with coalesce window is registered
+	private ScheduledExecutorService coalesceTimer;
+
+	private static final int DISPATCH_THREADS = Integer.getInteger(
+			"monitor.nio.dispatchThreads",
+			Math.min(4, Runtime.getRuntime().availableProcessors()));
+
 	private Semaphore startGuard = new Semaphore(0);
 
-	private Map<WatchKey, MonitorFolderEntry> watchKeys = new HashMap<WatchKey, MonitorFolderEntry>();
+	// same folder may be watched by more than one file set (e.g. tree and
+	// plain file set), which share the watch key
+	private Map<WatchKey, List<MonitorFolderEntry>> watchKeys = new HashMap<WatchKey, List<MonitorFolderEntry>>();
 
 	private FileKeyDetectorFactory fileKeyDetectorFactory = new FileKeyDetectorFactory() {
 
@@ -69,6 +90,21 @@ class MonitorFileService implements Closeable, Runnable {
 				return thread;
 			}
 		});
+		final AtomicInteger dispatchThreadIndex = new AtomicInteger();
+		dispatchProcess = new ThreadPoolExecutor(DISPATCH_THREADS,
+				DISPATCH_THREADS, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = Executors.defaultThreadFactory()
+								.newThread(r);
+						thread.setName("NIO File Dispatch [" + watchEntryName
+								+ "] #" + dispatchThreadIndex.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		dispatchProcess.allowCoreThreadTimeOut(true);
 		eventProcess.submit(this);
 		startGuard.acquireUninterruptibly();
 	}
@@ -76,27 +112,79 @@ class MonitorFileService implements Closeable, Runnable {
 	protected MonitorFolderEntry registerWatch(MonitorFileFolder fileSet)
 			throws IOException {
 		Path basePath = fileSet.getFolder().toPath();
-		WatchKey watchKey = basePath.register(watchService, new Kind<?>[] {
-				StandardWatchEventKinds.ENTRY_CREATE,
+		Kind<?>[] kinds = new Kind<?>[] { StandardWatchEventKinds.ENTRY_CREATE,
 				StandardWatchEventKinds.ENTRY_MODIFY,
-				StandardWatchEventKinds.ENTRY_DELETE },
-				slowSensitivity ? SensitivityWatchEventModifier.MEDIUM
-						: SensitivityWatchEventModifier.HIGH);
-		log.debug("register watch on path {}", basePath);
+				StandardWatchEventKinds.ENTRY_DELETE };
 		FileKeyDetector fileKeyDetector = fileKeyDetectorFactory
 				.create(basePath);
 		log.debug("use file key detector {}", fileKeyDetector);
 		MonitorFolderEntry folderEntry = new MonitorFolderEntry(fileSet,
-				fileKeyDetector);
-		watchKeys.put(watchKey, folderEntry);
+				fileKeyDetector, dispatchProcess, coalesceWindow,
+				coalesceWindow > 0 ? getCoalesceTimer() : null);
+		// events are looked up after registered
+		synchronized (this) {
+			WatchKey watchKey;
+			if (watchService instanceof AdaptivePollingWatchService) {
+				// not provided by file system
+				watchKey = ((AdaptivePollingWatchService) watchService)
+						.register(basePath, kinds);
+			} else {
+				watchKey = basePath.register(watchService, kinds,
+						slowSensitivity ? SensitivityWatchEventModifier.MEDIUM
+								: SensitivityWatchEventModifier.HIGH);
+			}
+			log.debug("register watch on path {}", basePath);
+			List<MonitorFolderEntry> folderEntries = watchKeys.get(watchKey);
+			if (folderEntries == null) {
+				folderEntries = new ArrayList<MonitorFolderEntry>(1);
+				watchKeys.put(watchKey, folderEntries);
+			}
+			folderEntries.add(folderEntry);
+		}
 		return folderEntry;
 	}
 
+	protected synchronized void unregisterWatch(MonitorFolderEntry folderEntry) {
+		for (WatchKey watchKey : new ArrayList<WatchKey>(watchKeys.keySet())) {
+			List<MonitorFolderEntry> folderEntries = watchKeys.get(watchKey);
+			// cancel key when not watched by others
+			if (folderEntries.remove(folderEntry) && folderEntries.isEmpty()) {
+				log.debug("unregister watch on path {}", watchKey.watchable());
+				closeWatchEntry(watchKey);
+			}
+		}
+	}
+
+	private synchronized ScheduledExecutorService getCoalesceTimer() {
+		if (coalesceTimer == null) {
+			coalesceTimer = Executors
+					.newSingleThreadScheduledExecutor(new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread thread = Executors.defaultThreadFactory()
+									.newThread(r);
+							thread.setName("NIO File Coalesce ["
+									+ watchEntryName + "]");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		}
+		return coalesceTimer;
+	}
+
 	public void close() throws IOException {
 		eventProcess.shutdownNow();
-		while (!eventProcess.isTerminated()) {
+		synchronized (this) {
+			if (coalesceTimer != null) {
+				coalesceTimer.shutdownNow();
+			}
+		}
+		dispatchProcess.shutdownNow();
+		while (!eventProcess.isTerminated() || !dispatchProcess.isTerminated()) {
 			try {
 				eventProcess.awaitTermination(1, TimeUnit.SECONDS);
+				dispatchProcess.awaitTermination(1, TimeUnit.SECONDS);
 			} catch (InterruptedException e) {
 				Thread.currentThread().interrupt();
 				break;
@@ -111,6 +199,7 @@ class MonitorFileService implements Closeable, Runnable {
 		}
 	}
 
+	// caller holds lock
 	private void closeWatchEntry(WatchKey watchEntry) {
 		watchEntry.cancel();
 		watchKeys.remove(watchEntry);
@@ -132,12 +221,18 @@ class MonitorFileService implements Closeable, Runnable {
 					log.info("watch thread is interrupted");
 					break;
 				}
+				long eventTime = System.nanoTime();
 				log.trace("take watch key for path '{}'", key.watchable());
 				if (!key.isValid()) {
 					continue;
 				}
 				Path path = (Path) key.watchable();
-				MonitorFolderEntry watchEntry = watchKeys.get(key);
+				List<MonitorFolderEntry> watchEntries;
+				synchronized (this) {
+					watchEntries = watchKeys.get(key);
+					watchEntries = watchEntries == null ? null
+							: new ArrayList<MonitorFolderEntry>(watchEntries);
+				}
 				List<WatchEvent<?>> events = key.pollEvents();
 				if (log.isTraceEnabled()) {
 					log.trace("poll {} watch events", events.size());
@@ -149,13 +244,23 @@ class MonitorFileService implements Closeable, Runnable {
 				}
 				// reset key to retrieve pending events
 				if (!key.reset()) {
-					log.debug("close invalid watch entry {}", watchEntry);
-					closeWatchEntry(key);
+					log.debug("close invalid watch entry {}", watchEntries);
+					synchronized (this) {
+						closeWatchEntry(key);
+					}
 				}
 				// processing events
-				if (watchEntry != null) {
-					log.trace("dispatch event to watch entry {}", watchEntry);
-					watchEntry.processEvent(events);
+				if (watchEntries != null) {
+					try {
+						for (MonitorFolderEntry watchEntry : watchEntries) {
+							log.trace("dispatch event to watch entry {}",
+									watchEntry);
+							watchEntry.submitEvent(events, eventTime);
+						}
+					} catch (RejectedExecutionException e) {
+						log.info("dispatch process is shutdown");
+						break;
+					}
 				}
 			}
 		} catch (Throwable t) {
@@ -167,6 +272,11 @@ class MonitorFileService implements Closeable, Runnable {
 		}
 	}
 
+	// apply to folders registered later
+	void setCoalesceWindow(int coalesceWindow) {
+		this.coalesceWindow = coalesceWindow;
+	}
+
 	void setKeyDetectorFactory(FileKeyDetectorFactory fileKeyDetectorFactory) {
 		this.fileKeyDetectorFactory = fileKeyDetectorFactory;
 	}
@@ -2,7 +2,11 @@ package com.hp.it.perf.monitor.files.nio;
 
 import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
@@ -14,9 +18,14 @@ import org.slf4j.LoggerFactory;
 import com.hp.it.perf.monitor.files.ContentLine;
 import com.hp.it.perf.monitor.files.ContentLineSourceObserver;
 import com.hp.it.perf.monitor.files.ContentLineStream;
+import com.hp.it.perf.monitor.files.ContentLineTruncateObserver;
+import com.hp.it.perf.monitor.files.DefaultFileStatistics.FileReadCount;
 import com.hp.it.perf.monitor.files.FileContentChangeListener;
 import com.hp.it.perf.monitor.files.FileInstance;
 import com.hp.it.perf.monitor.files.FileInstanceChangeListener;
+import com.hp.it.perf.monitor.files.FileMetadata;
+import com.hp.it.perf.monitor.files.FileOpenOption;
+import com.hp.it.perf.monitor.files.LatencyHistogram;
 
 class MonitorFileStream implements ContentLineStream,
 		FileContentChangeListener, FileInstanceChangeListener {
@@ -39,6 +48,37 @@ class MonitorFileStream implements ContentLineStream,
 
 	private ContentLineSourceObserver sourceObserver;
 
+	private FileReadCount readCount;
+
+	private LatencyHistogram readLineLatency;
+
+	private OffsetCheckpointStore checkpointStore;
+
+	// end of last line handed to caller, as checkpoint of this stream
+	private volatile long takenPosition;
+
+	// check truncation on next read, set by change event
+	private volatile boolean changed;
+
+	// head read before, compared on change to detect truncated and written
+	// over position again
+	private ContentSignature headSignature;
+
+	// file length and modified time on last check, -1 before first check
+	private long lastLength = -1;
+
+	private long lastModified;
+
+	// most bytes appended between two checks
+	private long peakGrowth;
+
+	// writing over position in one check is taken as possible only if it is
+	// within some times of growth seen before
+	private static final int REWRITE_FACTOR = 4;
+
+	private static final boolean headCheck = !Boolean
+			.getBoolean("monitor.reader.noHeadCheck");
+
 	// default 600 seconds
 	private int idleTimeout = Integer.getInteger("monitor.reader.idleTimeout",
 			600);
@@ -47,14 +87,30 @@ class MonitorFileStream implements ContentLineStream,
 			.getLogger(MonitorFileStream.class);
 
 	public MonitorFileStream(MonitorFileInstance fileInstance, long initOffset,
-			boolean lazyOpen, boolean monitorable) throws IOException {
+			FileOpenOption option) throws IOException {
 		this.fileInstance = fileInstance;
-		this.monitorable = monitorable;
-		reader = new RandomAccessFileReader(fileInstance.getFile());
+		this.monitorable = option.monitor();
+		if (option.memoryMapped()) {
+			reader = new MappedFileReader(fileInstance.getFile());
+		} else if (option.sharedBuffer()) {
+			reader = new ChunkFileReader(fileInstance.getFile());
+		} else {
+			reader = new RandomAccessFileReader(fileInstance.getFile());
+		}
 		fileInstance.getStatistics().ioReaderCount().increment();
+		readCount = fileInstance.getStatistics().readCount(fileInstance);
+		readLineLatency = fileInstance.getStatistics().readLineLatency();
 		reader.setStatisticis(fileInstance.getStatistics());
+		reader.setReadCount(readCount);
+		reader.setHandlePool(fileInstance.getFileSet().getHandlePool());
 		reader.setKeepAlive(idleTimeout);
-		reader.open(initOffset, lazyOpen);
+		reader.open(initOffset, option.lazyOpen());
+		readCount.read(0, 0, reader.position());
+		takenPosition = reader.position();
+		checkpointStore = fileInstance.getFileSet().getCheckpointStore();
+		if (checkpointStore != null) {
+			checkpointStore.track(fileInstance, this);
+		}
 		fileInstance.addFileInstanceChangeListener(this);
 		if (monitorable) {
 			fileInstance.addFileContentChangeListener(this);
@@ -76,15 +132,18 @@ class MonitorFileStream implements ContentLineStream,
 			}
 			return null;
 		} else {
+			checkTruncated();
 			log.trace("fetch one line from file {}", fileInstance);
-			byte[] line = reader.readLine();
-			if (line == null) {
+			long startTime = System.nanoTime();
+			ContentLine contentLine = reader.readContentLine();
+			if (contentLine == null) {
 				return null;
 			}
-			ContentLine contentLine = new ContentLine();
-			contentLine.setPosition(reader.position() - line.length);
-			contentLine.setLine(line);
+			readLineLatency.record(System.nanoTime() - startTime);
 			contentLine.setFileInstance(fileInstance);
+			readCount.read(1, contentLine.getLineLength(), reader.position());
+			takenPosition = contentLine.getPosition()
+					+ contentLine.getLineLength();
 			return contentLine;
 		}
 	}
@@ -144,30 +203,49 @@ class MonitorFileStream implements ContentLineStream,
 	@Override
 	public int drainTo(Collection<? super ContentLine> list, int maxSize)
 			throws IOException {
-		int totalLength = 0;
-		while (maxSize > 0) {
-			ContentLine content = poll();
-			if (content == null) {
-				if (monitorable || totalLength > 0) {
-					break;
-				} else {
-					return -1;
-				}
-			} else {
-				boolean addSuccess = false;
-				try {
-					list.add(content);
-					addSuccess = true;
-				} finally {
-					if (!addSuccess) {
-						reader.pushBackLine(content.getLine());
+		if (maxSize <= 0) {
+			return 0;
+		}
+		if (closed || stopRead) {
+			// check close or notify deleted by poll
+			poll();
+			return monitorable ? 0 : -1;
+		}
+		checkTruncated();
+		log.trace("fetch lines from file {}", fileInstance);
+		List<ContentLine> lines = new ArrayList<ContentLine>(Math.min(maxSize,
+				256));
+		long startTime = System.nanoTime();
+		int lineCount = reader.readContentLines(lines, maxSize);
+		if (lineCount == 0) {
+			return monitorable ? 0 : -1;
+		}
+		// average line read time in batch
+		readLineLatency.record((System.nanoTime() - startTime) / lineCount,
+				lineCount);
+		long totalBytes = 0;
+		for (int i = 0; i < lineCount; i++) {
+			ContentLine content = lines.get(i);
+			content.setFileInstance(fileInstance);
+			totalBytes += content.getLineLength();
+			boolean addSuccess = false;
+			try {
+				list.add(content);
+				addSuccess = true;
+				takenPosition = content.getPosition()
+						+ content.getLineLength();
+			} finally {
+				if (!addSuccess) {
+					// push back not added lines in reverse order
+					for (int j = lineCount - 1; j >= i; j--) {
+						reader.pushBackLine(lines.get(j));
+						lines.get(j).release();
 					}
 				}
-				maxSize--;
-				totalLength++;
 			}
 		}
-		return totalLength;
+		readCount.read(lineCount, totalBytes, reader.position());
+		return lineCount;
 	}
 
 	@Override
@@ -175,6 +253,9 @@ class MonitorFileStream implements ContentLineStream,
 		if (!closed) {
 			closed = true;
 			reader.close();
+			if (checkpointStore != null) {
+				checkpointStore.untrack(this);
+			}
 			fileInstance.getStatistics().ioReaderCount().decrement();
 			fileInstance.removeFileInstanceChangeListener(this);
 			closeMonitor();
@@ -194,11 +275,90 @@ class MonitorFileStream implements ContentLineStream,
 		}
 	}
 
+	// use metadata refreshed once after change event, not stat on each read.
+	// Shrink is found by length; head is read (by shared signature cache)
+	// only if it is possible to be truncated and written over position again
+	// since last check
+	private void checkTruncated() throws IOException {
+		if (!changed) {
+			return;
+		}
+		changed = false;
+		FileMetadata metadata = fileInstance.getMetadata(false);
+		long length = Long.parseLong(metadata.getLength());
+		long modified = metadata.getLastModifiedDate();
+		if (length < 0) {
+			// deleted
+			return;
+		}
+		reader.lengthChanged(length);
+		long position = reader.position();
+		boolean truncated = length < position || length < lastLength;
+		if (!truncated && headCheck && position > 0
+				&& (length != lastLength || modified != lastModified)) {
+			long growth = lastLength < 0 ? 0 : length - lastLength;
+			if (headSignature == null
+					|| modified < lastModified
+					|| position <= Math.max(ContentSignature.HEAD_SIZE,
+							REWRITE_FACTOR * Math.max(peakGrowth, growth))) {
+				ContentSignature signature = signHead(length, modified);
+				if (signature != null) {
+					// head grows with position in small file
+					truncated = headSignature != null
+							&& !headSignature.equals(signature)
+							&& !headSignature.partialMatch(signature);
+					headSignature = signature;
+				}
+			}
+			if (!truncated) {
+				peakGrowth = Math.max(peakGrowth, growth);
+			}
+		}
+		lastLength = length;
+		lastModified = modified;
+		if (truncated) {
+			log.info("file {} truncated to {} bytes (read offset {})",
+					new Object[] { fileInstance, length, position });
+			headSignature = null;
+			peakGrowth = 0;
+			reader.rewind();
+			readCount.truncated();
+			readCount.read(0, 0, reader.position());
+			takenPosition = reader.position();
+			if (checkpointStore != null) {
+				checkpointStore.truncated(this);
+			}
+			if (sourceObserver instanceof ContentLineTruncateObserver) {
+				((ContentLineTruncateObserver) sourceObserver)
+						.sourceFileTruncated(fileInstance, fileInstance);
+			}
+		}
+	}
+
+	// same signature as key detector got for this change, if any
+	private ContentSignature signHead(long length, long modified) {
+		Path path = fileInstance.getFile().toPath();
+		SignatureCache signatureCache = fileInstance.getFileSet()
+				.getSignatureCache();
+		if (signatureCache == null) {
+			ContentSignature signature = new ContentSignature();
+			int headSize = (int) Math.min(ContentSignature.HEAD_SIZE, length);
+			return signature.sign(path, 0, headSize,
+					ByteBuffer.allocate(headSize)) ? signature : null;
+		}
+		FileKey fileKey = fileInstance.getFileKey();
+		if (fileKey == null) {
+			fileKey = new FileKey(path.toString());
+		}
+		return signatureCache.sign(path, fileKey, modified, length);
+	}
+
 	@Override
 	public void onContentChanged(FileInstance instance) {
 		if (instance != fileInstance) {
 			return;
 		}
+		changed = true;
 		lock.lock();
 		try {
 			noChanged.signalAll();
@@ -242,6 +402,10 @@ class MonitorFileStream implements ContentLineStream,
 		return offset;
 	}
 
+	long takenPosition() {
+		return takenPosition;
+	}
+
 	@Override
 	public void setSourceObserver(ContentLineSourceObserver sourceObserver) {
 		this.sourceObserver = sourceObserver;
@@ -0,0 +1,278 @@
+package com.hp.it.perf.monitor.files.nio;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hp.it.perf.monitor.files.CompositeInstanceContentLineStream;
+import com.hp.it.perf.monitor.files.ContentLineStream;
+import com.hp.it.perf.monitor.files.ContentLineStreamProvider;
+import com.hp.it.perf.monitor.files.ContentLineStreamProviderDelegator;
+import com.hp.it.perf.monitor.files.FileCluster;
+import com.hp.it.perf.monitor.files.FileContentChangeListener;
+import com.hp.it.perf.monitor.files.FileInstance;
+import com.hp.it.perf.monitor.files.FileInstanceChangeListener;
+import com.hp.it.perf.monitor.files.FileInstanceChangeListener.FileChangeOption;
+import com.hp.it.perf.monitor.files.FileOpenOption;
+import com.hp.it.perf.monitor.files.FileSet;
+import com.hp.it.perf.monitor.files.FilenameFilter;
+
+// Folder and all its sub-folders (including created later). Each folder is
+// a subtree file set watched by monitor service of its store, and listeners
+// on tree are registered on all of them.
+class MonitorFileTree implements FileSet, ContentLineStreamProvider,
+		ContentLineStreamProviderDelegator {
+
+	private static final Logger log = LoggerFactory
+			.getLogger(MonitorFileTree.class);
+
+	// threads for initial walk of sub-folders
+	static final int WALK_THREADS = Integer.getInteger(
+			"monitor.tree.walkThreads", Runtime.getRuntime()
+					.availableProcessors());
+
+	private final File root;
+
+	private final FilenameFilter nameFilter;
+
+	private final MonitorFileFactory factory;
+
+	// in path order
+	private final Map<File, MonitorFileFolder> folders = new ConcurrentSkipListMap<File, MonitorFileFolder>();
+
+	private final List<FileInstanceChangeListener> instanceListeners = new CopyOnWriteArrayList<FileInstanceChangeListener>();
+
+	private final List<FileContentChangeListener> contentListeners = new CopyOnWriteArrayList<FileContentChangeListener>();
+
+	private class WalkTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<File> subFolders;
+
+		WalkTask(List<File> subFolders) {
+			this.subFolders = subFolders;
+		}
+
+		@Override
+		protected void compute() {
+			List<WalkTask> tasks = new ArrayList<WalkTask>(subFolders.size());
+			for (File subFolder : subFolders) {
+				try {
+					List<File> children = addFolder(subFolder, false);
+					if (!children.isEmpty()) {
+						tasks.add(new WalkTask(children));
+					}
+				} catch (IOException e) {
+					// maybe deleted during walk
+					log.warn("cannot monitor folder {}: {}", subFolder, e);
+				}
+			}
+			invokeAll(tasks);
+		}
+	}
+
+	MonitorFileTree(File root, FilenameFilter nameFilter,
+			MonitorFileFactory factory) {
+		this.root = root;
+		this.nameFilter = nameFilter;
+		this.factory = factory;
+	}
+
+	void init() throws IOException {
+		List<File> subFolders = addFolder(root, false);
+		if (subFolders.isEmpty()) {
+			return;
+		}
+		ForkJoinPool walkPool = new ForkJoinPool(WALK_THREADS);
+		try {
+			walkPool.invoke(new WalkTask(subFolders));
+		} finally {
+			walkPool.shutdown();
+		}
+		log.debug("monitor {} folders in tree {}", folders.size(), root);
+	}
+
+	// return sub-folders to be added
+	private List<File> addFolder(File folder, boolean created)
+			throws IOException {
+		if (folders.containsKey(folder)) {
+			return Collections.emptyList();
+		}
+		MonitorFileFolder fileFolder = factory.createFileFolder(folder,
+				nameFilter);
+		fileFolder.setFileTree(this);
+		synchronized (this) {
+			if (folders.containsKey(folder)) {
+				return Collections.emptyList();
+			}
+			for (FileInstanceChangeListener listener : instanceListeners) {
+				fileFolder.addFileInstanceChangeListener(listener);
+			}
+			for (FileContentChangeListener listener : contentListeners) {
+				fileFolder.addFileContentChangeListener(listener);
+			}
+			folders.put(folder, fileFolder);
+		}
+		List<File> subFolders;
+		try {
+			subFolders = fileFolder.init();
+		} catch (IOException e) {
+			folders.remove(folder);
+			throw e;
+		}
+		fileFolder.getStatistics().fileSetCount().increment();
+		if (created) {
+			fileFolder.announceInstances();
+		}
+		return subFolders;
+	}
+
+	// called in dispatch thread of parent folder
+	void onFolderCreated(File folder) {
+		log.debug("add created folder {} in tree {}", folder, root);
+		try {
+			for (File subFolder : addFolder(folder, true)) {
+				onFolderCreated(subFolder);
+			}
+		} catch (IOException e) {
+			log.warn("cannot monitor created folder {}: {}", folder, e);
+		}
+	}
+
+	void onFolderDeleted(File folder) {
+		log.debug("remove deleted folder {} in tree {}", folder, root);
+		String prefix = folder.getPath() + File.separator;
+		for (File path : new ArrayList<File>(folders.keySet())) {
+			if (path.equals(folder) || path.getPath().startsWith(prefix)) {
+				// claimed by one of concurrent deletes
+				MonitorFileFolder fileFolder = folders.remove(path);
+				if (fileFolder != null) {
+					removeFolder(fileFolder);
+				}
+			}
+		}
+	}
+
+	private void removeFolder(MonitorFileFolder fileFolder) {
+		// notify instances not deleted yet (e.g. poll mode), and ones
+		// deleted by folder entry are skipped
+		for (FileInstance instance : fileFolder.listInstances()) {
+			fileFolder.onFileInstanceDeleted(instance, new FileChangeOption());
+		}
+		synchronized (this) {
+			for (FileInstanceChangeListener listener : instanceListeners) {
+				fileFolder.removeFileInstanceChangeListener(listener);
+			}
+			for (FileContentChangeListener listener : contentListeners) {
+				fileFolder.removeFileContentChangeListener(listener);
+			}
+		}
+		fileFolder.unregisterWatch();
+		fileFolder.getStatistics().fileSetCount().decrement();
+	}
+
+	boolean isMonitored(File folder) {
+		return folders.containsKey(folder);
+	}
+
+	@Override
+	public synchronized void addFileInstanceChangeListener(
+			FileInstanceChangeListener listener) {
+		instanceListeners.add(listener);
+		for (MonitorFileFolder fileFolder : folders.values()) {
+			fileFolder.addFileInstanceChangeListener(listener);
+		}
+	}
+
+	@Override
+	public synchronized void removeFileInstanceChangeListener(
+			FileInstanceChangeListener listener) {
+		instanceListeners.remove(listener);
+		for (MonitorFileFolder fileFolder : folders.values()) {
+			fileFolder.removeFileInstanceChangeListener(listener);
+		}
+	}
+
+	@Override
+	public synchronized void addFileContentChangeListener(
+			FileContentChangeListener listener) {
+		contentListeners.add(listener);
+		for (MonitorFileFolder fileFolder : folders.values()) {
+			fileFolder.addFileContentChangeListener(listener);
+		}
+	}
+
+	@Override
+	public synchronized void removeFileContentChangeListener(
+			FileContentChangeListener listener) {
+		contentListeners.remove(listener);
+		for (MonitorFileFolder fileFolder : folders.values()) {
+			fileFolder.removeFileContentChangeListener(listener);
+		}
+	}
+
+	@Override
+	public List<? extends FileInstance> listInstances() {
+		List<FileInstance> instances = new ArrayList<FileInstance>();
+		for (MonitorFileFolder fileFolder : folders.values()) {
+			instances.addAll(fileFolder.listInstances());
+		}
+		return Collections.unmodifiableList(instances);
+	}
+
+	// cluster name is prefixed by relative path in sub-folder
+	@Override
+	public Map<String, ? extends FileCluster> listClusters() {
+		Map<String, FileCluster> clusters = new HashMap<String, FileCluster>();
+		for (MonitorFileFolder fileFolder : folders.values()) {
+			String prefix = root.equals(fileFolder.getFolder()) ? "" : root
+					.toPath().relativize(fileFolder.getFolder().toPath())
+					+ "/";
+			for (Map.Entry<String, ? extends FileCluster> entry : fileFolder
+					.listClusters().entrySet()) {
+				clusters.put(prefix + entry.getKey(), entry.getValue());
+			}
+		}
+		return Collections.unmodifiableMap(clusters);
+	}
+
+	@Override
+	public String getPath() {
+		return root.getPath();
+	}
+
+	@Override
+	public ContentLineStream open(FileOpenOption option) throws IOException {
+		final CompositeInstanceContentLineStream contentStream = new CompositeInstanceContentLineStream(
+				"folder tree " + root, option, this, this);
+		for (FileInstance instance : listInstances()) {
+			contentStream.addFileInstance(instance);
+		}
+		return contentStream;
+	}
+
+	@Override
+	public ContentLineStream openLineStream(FileInstance fileInstance,
+			FileOpenOption option) throws IOException {
+		return ((MonitorFileInstance) fileInstance).open(option);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("MonitorFileTree [root=%s, folders=%s]", root,
+				folders.size());
+	}
+
+}
@@ -4,16 +4,23 @@ import java.nio.file.Path;
 import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchEvent;
 import java.nio.file.WatchEvent.Kind;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.hp.it.perf.monitor.files.DefaultFileStatistics.FolderDispatchCount;
 import com.hp.it.perf.monitor.files.FileInstance;
 import com.hp.it.perf.monitor.files.FileInstanceChangeListener.FileChangeOption;
 import com.hp.it.perf.monitor.files.nio.FileKeyDetector.WatchEventKeys;
@@ -27,7 +34,49 @@ class MonitorFolderEntry {
 
 	private FileKeyDetector fileKeyDetector;
 
-	private Map<FileKey, FileInstance> keyMapping = new HashMap<FileKey, FileInstance>();
+	// keep events in order for this folder
+	private final SerialExecutor eventExecutor;
+
+	private final FolderDispatchCount dispatchCount;
+
+	// milliseconds to collect watch events before processing, 0 to process
+	// each poll of watch key
+	private final int coalesceWindow;
+
+	// null if not coalesce
+	private final ScheduledExecutorService coalesceTimer;
+
+	private final List<WatchEvent<?>> pendingEvents = new ArrayList<WatchEvent<?>>();
+
+	// guarded by pending events, events before started (null after started)
+	private List<WatchEvent<?>> heldEvents = new ArrayList<WatchEvent<?>>();
+
+	private long heldNanoTime;
+
+	private boolean flushScheduled;
+
+	private long pendingNanoTime;
+
+	private final Runnable flushTask = new Runnable() {
+
+		@Override
+		public void run() {
+			List<WatchEvent<?>> events;
+			long eventNanoTime;
+			synchronized (pendingEvents) {
+				events = new ArrayList<WatchEvent<?>>(pendingEvents);
+				pendingEvents.clear();
+				flushScheduled = false;
+				eventNanoTime = pendingNanoTime;
+			}
+			try {
+				dispatchEvents(events, eventNanoTime);
+			} catch (RejectedExecutionException e) {
+				log.debug("drop {} pending events as dispatch is shutdown",
+						events.size());
+			}
+		}
+	};
 
 	public static final WatchEvent.Kind<Path> ENTRY_RENAME_TO = new RenameWatchEventKind<Path>(
 			"ENTRY_RENAME_TO", Path.class);
@@ -61,33 +110,135 @@ class MonitorFolderEntry {
 	}
 
 	public MonitorFolderEntry(MonitorFileFolder folder,
-			FileKeyDetector fileKeyDetector) {
+			FileKeyDetector fileKeyDetector, Executor dispatchExecutor,
+			int coalesceWindow, ScheduledExecutorService coalesceTimer) {
 		this.folder = folder;
 		this.fileKeyDetector = fileKeyDetector;
+		this.eventExecutor = new SerialExecutor(dispatchExecutor);
+		this.coalesceWindow = coalesceWindow;
+		this.coalesceTimer = coalesceWindow > 0 ? coalesceTimer : null;
+		this.dispatchCount = folder.getStatistics().dispatchCount(folder);
+	}
+
+	// called after folder is scanned, and events held during scan are
+	// dispatched, except created files which are found by scan already
+	void start() {
 		for (FileInstance file : folder.listInstances()) {
 			registerFileInstance(file);
 		}
-		log.trace("register {} file instance in folder {}", keyMapping.size(),
+		log.trace("register {} file instance in folder {}", folder.getFileKeyCount(),
 				folder.getFolder());
+		synchronized (pendingEvents) {
+			List<WatchEvent<?>> events = new ArrayList<WatchEvent<?>>(
+					heldEvents.size());
+			for (WatchEvent<?> event : heldEvents) {
+				if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+						&& event.context() instanceof Path
+						&& folder.getFileInstance(event.context().toString()) != null) {
+					log.trace("Ignore create event found by scan on {}",
+							event.context());
+					continue;
+				}
+				events.add(event);
+			}
+			if (events.size() < heldEvents.size()) {
+				dispatchCount.coalesced(heldEvents.size() - events.size());
+			}
+			heldEvents = null;
+			if (!events.isEmpty()) {
+				queueEvents(events, heldNanoTime);
+			}
+		}
 	}
 
 	private void registerFileInstance(FileInstance file) {
 		Path path = ((MonitorFileInstance) file).getFile().toPath();
-		FileKey fileKey = fileKeyDetector.detectFileKey(path);
+		BasicFileAttributes attributes = folder.getScanAttributes(file);
+		FileKey fileKey = attributes == null ? fileKeyDetector
+				.detectFileKey(path) : fileKeyDetector.detectFileKey(path,
+				attributes);
 		if (fileKey == null) {
 			throw new IllegalArgumentException("no file key found for file "
 					+ path);
 		}
 		log.trace("register file instance {} with file key {}", file, fileKey);
-		keyMapping.put(fileKey, file);
+		folder.putFileKey(fileKey, file);
 	}
 
-	public synchronized void processEvent(List<WatchEvent<?>> watchEvents) {
+	// events are delayed by coalesce window, and latency is from first one
+	void submitEvent(List<WatchEvent<?>> watchEvents, long eventNanoTime) {
+		int eventCount = 0;
+		for (WatchEvent<?> event : watchEvents) {
+			eventCount += event.count();
+		}
+		dispatchCount.received(eventCount);
+		if (eventCount > watchEvents.size()) {
+			// repeated events folded by watch service
+			dispatchCount.coalesced(eventCount - watchEvents.size());
+		}
+		synchronized (pendingEvents) {
+			if (heldEvents != null) {
+				// folder is in scan
+				if (heldEvents.isEmpty()) {
+					heldNanoTime = eventNanoTime;
+				}
+				heldEvents.addAll(watchEvents);
+				return;
+			}
+			if (coalesceTimer != null) {
+				queueEvents(watchEvents, eventNanoTime);
+				return;
+			}
+		}
+		dispatchEvents(watchEvents, eventNanoTime);
+	}
+
+	// caller holds pending events lock
+	private void queueEvents(List<WatchEvent<?>> watchEvents,
+			long eventNanoTime) {
+		if (coalesceTimer == null) {
+			dispatchEvents(watchEvents, eventNanoTime);
+			return;
+		}
+		pendingEvents.addAll(watchEvents);
+		if (!flushScheduled) {
+			flushScheduled = true;
+			pendingNanoTime = eventNanoTime;
+			coalesceTimer.schedule(flushTask, coalesceWindow,
+					TimeUnit.MILLISECONDS);
+		}
+	}
+
+	// process events in dispatch thread
+	private void dispatchEvents(final List<WatchEvent<?>> watchEvents,
+			final long eventNanoTime) {
+		dispatchCount.queued();
+		eventExecutor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				long startTime = System.nanoTime();
+				try {
+					processEvent(watchEvents, eventNanoTime);
+				} catch (RuntimeException e) {
+					log.error("process watch events on folder "
+							+ folder.getFolder() + " got error", e);
+				} finally {
+					dispatchCount.processed(System.nanoTime() - startTime);
+				}
+			}
+		});
+	}
+
+	public synchronized void processEvent(List<WatchEvent<?>> watchEvents,
+			long eventNanoTime) {
 		// filter events by file name
 		List<WatchEvent<?>> events = filterEventsByName(watchEvents);
 		// filter events
 		List<WatchEventKeys> newEvents = fileKeyDetector
 				.detectWatchEvents(events);
+		// resolve before any key mapping is changed (null is dropped)
+		Kind<?>[] kinds = resolveEventKinds(newEvents);
 		Map<Path, WatchEventKeys> pendingRenameFromEvents = new HashMap<Path, FileKeyDetector.WatchEventKeys>();
 		Map<Path, WatchEventKeys> pendingRenameToEvents = new HashMap<Path, FileKeyDetector.WatchEventKeys>();
 		for (int i = 0, n = newEvents.size(); i < n; i++) {
@@ -95,9 +246,12 @@ class MonitorFolderEntry {
 			log.trace("NEW Event - {}({})[({}){} -> ({}){}]", new Object[] {
 					e.event.kind(), e.event.context(), e.previousPath,
 					e.previousFileKey, e.currentPath, e.currentFileKey });
-			FileInstance oldFileInstance = keyMapping.get(e.previousFileKey);
-			FileInstance newFileInstance = keyMapping.get(e.currentFileKey);
-			Kind<?> kind = e.event.kind();
+			Kind<?> kind = kinds[i];
+			if (kind == null) {
+				continue;
+			}
+			FileInstance oldFileInstance = folder.getFileInstance(e.previousFileKey);
+			FileInstance newFileInstance = folder.getFileInstance(e.currentFileKey);
 			if (kind == StandardWatchEventKinds.ENTRY_MODIFY) {
 				// modify
 				if (newFileInstance == null) {
@@ -118,18 +272,18 @@ class MonitorFolderEntry {
 										we.currentFileKey });
 					}
 					log.warn("OLD FILE INSTANCE: {}", oldFileInstance);
-					keyMapping.remove(e.previousFileKey);
+					folder.removeFileKey(e.previousFileKey);
 					newFileInstance = oldFileInstance;
 					// newFileInstance = this.folder
 					// .getFileInstance(((Path) e.event.context())
 					// .toString());
-					keyMapping.put(e.currentFileKey, newFileInstance);
+					folder.putFileKey(e.currentFileKey, newFileInstance);
 				}
 				e.currentInstance = newFileInstance;
 			} else if (kind == StandardWatchEventKinds.ENTRY_DELETE
 					|| kind == ENTRY_RENAME_FROM) {
 				// delete or rename from
-				keyMapping.remove(e.previousFileKey);
+				folder.removeFileKey(e.previousFileKey);
 				e.previousInstance = oldFileInstance;
 				if (kind == ENTRY_RENAME_FROM) {
 					pendingRenameFromEvents.put(e.currentPath, e);
@@ -139,42 +293,55 @@ class MonitorFolderEntry {
 				// create or rename to
 				e.currentInstance = folder.makeFileInstance(e.currentPath
 						.toFile());
-				keyMapping.put(e.currentFileKey, e.currentInstance);
+				folder.putFileKey(e.currentFileKey, e.currentInstance);
 				if (kind == ENTRY_RENAME_TO) {
 					pendingRenameToEvents.put(e.previousPath, e);
-				} else {
-					// set read offset in start
+				} else if (e.event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+					// set read offset in start (not for unpaired rename to,
+					// as its content may be read by previous name)
 					MonitorFileStream.saveReadOffset(e.currentInstance, 0L);
 				}
 			}
 		}
 		for (int i = 0, n = newEvents.size(); i < n; i++) {
 			WatchEventKeys e = newEvents.get(i);
-			Kind<?> kind = e.event.kind();
+			Kind<?> kind = kinds[i];
 			if (kind == ENTRY_RENAME_FROM) {
-				pendingRenameToEvents.get(e.previousPath).previousInstance = e.previousInstance;
+				WatchEventKeys renameTo = pendingRenameToEvents
+						.get(e.previousPath);
+				if (renameTo != null) {
+					renameTo.previousInstance = e.previousInstance;
+				}
 			} else if (kind == ENTRY_RENAME_TO) {
-				pendingRenameFromEvents.get(e.currentPath).currentInstance = e.currentInstance;
+				WatchEventKeys renameFrom = pendingRenameFromEvents
+						.get(e.currentPath);
+				if (renameFrom != null) {
+					renameFrom.currentInstance = e.currentInstance;
+				}
 			}
 		}
 		for (int i = 0, n = newEvents.size(); i < n; i++) {
 			WatchEventKeys e = newEvents.get(i);
+			Kind<?> kind = kinds[i];
+			if (kind == null) {
+				continue;
+			}
 			FileInstance oldFileInstance = e.previousInstance;
 			FileInstance newFileInstance = e.currentInstance;
 			log.trace(
 					"Process {}({}) Event - [({}){} -> ({}){}] => [{} -> {}]",
-					new Object[] { e.event.kind(), e.event.context(),
+					new Object[] { kind, e.event.context(),
 							e.previousPath, e.previousFileKey, e.currentPath,
 							e.currentFileKey, oldFileInstance, newFileInstance });
-			if (e.event.kind() == StandardWatchEventKinds.ENTRY_MODIFY) {
+			if (kind == StandardWatchEventKinds.ENTRY_MODIFY) {
 				// no-op;
 				log.trace("dispatch file {} content change event",
 						newFileInstance);
-				folder.onContentChanged(newFileInstance);
+				dispatchContentChanged(newFileInstance, eventNanoTime);
 			} else {
 				boolean renamed = false;
-				if (e.event.kind() == StandardWatchEventKinds.ENTRY_DELETE
-						|| (renamed = (e.event.kind() == ENTRY_RENAME_FROM))) {
+				if (kind == StandardWatchEventKinds.ENTRY_DELETE
+						|| (renamed = (kind == ENTRY_RENAME_FROM))) {
 					// remove or rename from
 					log.trace("remove {} file instance key mapping: {} -> {}",
 							renamed ? "renamed" : "deleted", e.previousFileKey,
@@ -189,8 +356,8 @@ class MonitorFolderEntry {
 					folder.onFileInstanceDeleted(oldFileInstance,
 							renamed ? new FileChangeOption(newFileInstance)
 									: new FileChangeOption());
-				} else if (e.event.kind() == StandardWatchEventKinds.ENTRY_CREATE
-						|| (renamed = (e.event.kind() == ENTRY_RENAME_TO))) {
+				} else if (kind == StandardWatchEventKinds.ENTRY_CREATE
+						|| (renamed = (kind == ENTRY_RENAME_TO))) {
 					log.trace("add {} file instance key mapping: {} -> {}",
 							renamed ? "renaming" : "creating",
 							e.currentFileKey, newFileInstance);
@@ -207,36 +374,156 @@ class MonitorFolderEntry {
 					log.trace(
 							"try to dispatch content change event for new file {}",
 							newFileInstance);
-					folder.onContentChanged(newFileInstance);
+					dispatchContentChanged(newFileInstance, eventNanoTime);
+				}
+			}
+		}
+	}
+
+	// Watch is registered before scan, and watch key may be shared with other
+	// folder entry, so event may come after the file is indexed by scan:
+	// create or rename to of an indexed file (same key and name, not removed
+	// in this batch, as key may be path) is content change, and delete or
+	// rename from of a key indexed by other name is dropped. Then rename
+	// without its pair is create or delete.
+	private Kind<?>[] resolveEventKinds(List<WatchEventKeys> newEvents) {
+		int size = newEvents.size();
+		Kind<?>[] kinds = new Kind<?>[size];
+		Set<FileKey> removedKeys = new HashSet<FileKey>();
+		for (WatchEventKeys e : newEvents) {
+			Kind<?> kind = e.event.kind();
+			if (kind == StandardWatchEventKinds.ENTRY_DELETE
+					|| kind == ENTRY_RENAME_FROM) {
+				removedKeys.add(e.previousFileKey);
+			}
+		}
+		Set<Path> renameFromPaths = new HashSet<Path>();
+		Set<Path> renameToPaths = new HashSet<Path>();
+		for (int i = 0; i < size; i++) {
+			WatchEventKeys e = newEvents.get(i);
+			Kind<?> kind = e.event.kind();
+			if (kind == StandardWatchEventKinds.ENTRY_CREATE
+					|| kind == ENTRY_RENAME_TO) {
+				if (!removedKeys.contains(e.currentFileKey)
+						&& isIndexed(e.currentFileKey, e.currentPath)) {
+					log.trace("{} on indexed file {} is content change",
+							kind, e.currentPath);
+					kind = StandardWatchEventKinds.ENTRY_MODIFY;
+				} else if (kind == ENTRY_RENAME_TO) {
+					renameToPaths.add(e.previousPath);
+				}
+			} else if (kind == StandardWatchEventKinds.ENTRY_DELETE
+					|| kind == ENTRY_RENAME_FROM) {
+				FileInstance indexed = e.previousFileKey == null ? null
+						: folder.getFileInstance(e.previousFileKey);
+				if (indexed != null
+						&& !indexed.getName().equals(fileName(e.previousPath))) {
+					log.trace("drop {} on {}, key is indexed by {}",
+							new Object[] { kind, e.previousPath, indexed });
+					kind = null;
+				} else if (kind == ENTRY_RENAME_FROM) {
+					renameFromPaths.add(e.currentPath);
 				}
 			}
+			kinds[i] = kind;
+		}
+		for (int i = 0; i < size; i++) {
+			WatchEventKeys e = newEvents.get(i);
+			if (kinds[i] == ENTRY_RENAME_FROM
+					&& !renameToPaths.contains(e.previousPath)) {
+				log.debug("unpaired rename from {} is delete", e.previousPath);
+				kinds[i] = StandardWatchEventKinds.ENTRY_DELETE;
+			} else if (kinds[i] == ENTRY_RENAME_TO
+					&& !renameFromPaths.contains(e.currentPath)) {
+				log.debug("unpaired rename to {} is create", e.currentPath);
+				kinds[i] = StandardWatchEventKinds.ENTRY_CREATE;
+			}
 		}
+		return kinds;
+	}
+
+	private boolean isIndexed(FileKey fileKey, Path path) {
+		if (fileKey == null) {
+			return false;
+		}
+		FileInstance indexed = folder.getFileInstance(fileKey);
+		return indexed != null && indexed.getName().equals(fileName(path));
+	}
+
+	private static String fileName(Path path) {
+		return path == null ? null : String.valueOf(path.getFileName());
+	}
+
+	private void dispatchContentChanged(FileInstance instance,
+			long eventNanoTime) {
+		folder.getStatistics().watchDispatchLatency()
+				.record(System.nanoTime() - eventNanoTime);
+		folder.onContentChanged(instance);
 	}
 
-	// Also perform duplicate events remove for following case
-	// ... CREATE ... MODIFY ... on same path => ... CREATE .. 
+	// Also perform duplicate events remove for following case on same path
+	// ... CREATE ... MODIFY ... => ... CREATE ..
+	// ... MODIFY ... MODIFY ... => ... MODIFY ..
+	// ... CREATE ... DELETE ... => ......
+	// so replaced several times (DELETE CREATE DELETE CREATE) is one
+	// DELETE CREATE
 	private List<WatchEvent<?>> filterEventsByName(List<WatchEvent<?>> events) {
 		Set<Path> created = new HashSet<Path>(events.size());
 		List<WatchEvent<?>> newEvents = new ArrayList<WatchEvent<?>>(
 				events.size());
+		// index of last kept event on path, and previous one of each kept
+		Map<Path, Integer> lastIndex = new HashMap<Path, Integer>();
+		List<Integer> previousIndex = new ArrayList<Integer>(events.size());
+		int coalesced = 0;
 		for (int i = 0, n = events.size(); i < n; i++) {
 			WatchEvent<?> event = events.get(i);
 			if (!(event.context() instanceof Path)) {
 				continue;
 			}
 			Path path = (Path) event.context();
+			if (folder.onFolderEvent(event.kind(), path)) {
+				continue;
+			}
 			if (!folder.isIncluded(path.toFile())) {
 				continue;
 			}
+			Integer last = lastIndex.get(path);
+			Kind<?> lastKind = last == null ? null : newEvents.get(last)
+					.kind();
 			if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE){
 				created.add(path);
 			} else if (event.kind() == StandardWatchEventKinds.ENTRY_MODIFY && created.contains(path)) {
 				// ignore this modify event because of create event
 				log.trace("Ignore modify event because of create event present on {}", path);
+				coalesced++;
+				continue;
+			} else if (event.kind() == StandardWatchEventKinds.ENTRY_MODIFY
+					&& lastKind == StandardWatchEventKinds.ENTRY_MODIFY) {
+				log.trace("Merge modify event into previous one on {}", path);
+				coalesced++;
+				continue;
+			} else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE
+					&& lastKind == StandardWatchEventKinds.ENTRY_CREATE) {
+				// file not seen by key detector yet
+				log.trace("Ignore create and delete event on {}", path);
+				newEvents.set(last, null);
+				Integer previous = previousIndex.get(last);
+				if (previous == null) {
+					lastIndex.remove(path);
+				} else {
+					lastIndex.put(path, previous);
+				}
+				coalesced += 2;
 				continue;
 			}
+			previousIndex.add(last);
+			lastIndex.put(path, newEvents.size());
 			newEvents.add(event);
 		}
+		if (coalesced > 0) {
+			dispatchCount.coalesced(coalesced);
+			newEvents.removeAll(Collections.singleton(null));
+		}
 		return newEvents;
 	}
 
@@ -3,7 +3,6 @@ package com.hp.it.perf.monitor.files.nio;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.Constructor;
 import java.nio.file.FileStore;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
@@ -19,6 +18,8 @@ import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.hp.it.perf.monitor.files.DefaultFileStatistics.SignatureCount;
+
 class MultiMonitorFileService implements Closeable {
 
 	private static final Logger log = LoggerFactory
@@ -26,7 +27,12 @@ class MultiMonitorFileService implements Closeable {
 
 	private Map<FileStore, MonitorFileService> storeMonitors = new HashMap<FileStore, MonitorFileService>();
 
-	private Constructor<?> pollingWatchConstructor;
+	// created on first use, if not overridden
+	private SignatureCache signatureCache;
+
+	// milliseconds to collect folder events before processing
+	private int coalesceWindow = Integer.getInteger(
+			"monitor.event.coalesceWindow", 0);
 
 	private Map<Path, FileStore> storeMapCache = new LinkedHashMap<Path, FileStore>() {
 
@@ -59,6 +65,7 @@ class MultiMonitorFileService implements Closeable {
 		if (monitorService == null) {
 			WatchService watchService = createWatchService(store);
 			monitorService = new MonitorFileService(store.name(), watchService);
+			monitorService.setCoalesceWindow(coalesceWindow);
 			log.info("create watch service for store [({}){}]: {}",
 					new Object[] { store.type(), store.name(),
 							watchService.getClass().getName() });
@@ -68,7 +75,8 @@ class MultiMonitorFileService implements Closeable {
 
 							@Override
 							public FileKeyDetector create(Path basePath) {
-								return new ContentBasedFileKeyDetector(basePath);
+								return new ContentBasedFileKeyDetector(
+										basePath, getSignatureCache());
 							}
 						});
 			}
@@ -80,16 +88,10 @@ class MultiMonitorFileService implements Closeable {
 	private WatchService createWatchService(FileStore store) throws IOException {
 		if (isFuseType(store)) {
 			// make polling watch service as for fuse
-			try {
-				pollingWatchConstructor = Class.forName(
-						"sun.nio.fs.PollingWatchService")
-						.getDeclaredConstructor();
-				pollingWatchConstructor.setAccessible(true);
-				return (WatchService) pollingWatchConstructor.newInstance();
-			} catch (Exception e) {
-				log.warn("cannot create polling watch service on store "
-						+ store.name(), e);
-			}
+			return new AdaptivePollingWatchService(
+					AdaptivePollingWatchService.MIN_INTERVAL,
+					AdaptivePollingWatchService.MAX_INTERVAL,
+					AdaptivePollingWatchService.IDLE_INTERVAL);
 		}
 		return FileSystems.getDefault().newWatchService();
 	}
@@ -107,6 +109,25 @@ class MultiMonitorFileService implements Closeable {
 		}
 	}
 
+	public synchronized void setCoalesceWindow(int coalesceWindow) {
+		this.coalesceWindow = coalesceWindow;
+		for (MonitorFileService monitorService : storeMonitors.values()) {
+			monitorService.setCoalesceWindow(coalesceWindow);
+		}
+	}
+
+	public int getCoalesceWindow() {
+		return coalesceWindow;
+	}
+
+	protected synchronized SignatureCache getSignatureCache() {
+		if (signatureCache == null) {
+			signatureCache = new SignatureCache(SignatureCache.CACHE_SIZE,
+					new SignatureCount());
+		}
+		return signatureCache;
+	}
+
 	protected boolean isFuseType(FileStore store) {
 		return store.type().startsWith("fuse");
 	}
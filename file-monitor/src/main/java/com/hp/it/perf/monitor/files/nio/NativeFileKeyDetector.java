@@ -4,6 +4,7 @@ import java.nio.file.Path;
 import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchEvent;
 import java.nio.file.WatchEvent.Kind;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -24,6 +25,11 @@ class NativeFileKeyDetector implements FileKeyDetector {
 		return currentPathKeyResolver.resolvePathKey(path);
 	}
 
+	@Override
+	public FileKey detectFileKey(Path path, BasicFileAttributes attributes) {
+		return currentPathKeyResolver.resolvePathKey(path, attributes);
+	}
+
 	// Handle following special cases
 	// Poll Mode: Delete, Modify, Create (1,2 => 2',3)/Pair rename
 	// Poll Mode: Delete, Create (1 => 2)/Rename
@@ -38,11 +44,10 @@ class NativeFileKeyDetector implements FileKeyDetector {
 	public List<WatchEventKeys> detectWatchEvents(List<WatchEvent<?>> events) {
 		List<WatchEventKeys> processedEvents = new ArrayList<WatchEventKeys>(
 				events.size());
-		PathKeyResolver historyPathKeyResolver;
+		PathKeyResolver.Snapshot historyPathKeyResolver;
 		int version;
 		synchronized (this) {
-			historyPathKeyResolver = currentPathKeyResolver;
-			currentPathKeyResolver = new PathKeyResolver(historyPathKeyResolver);
+			historyPathKeyResolver = currentPathKeyResolver.snapshot();
 			version = currentPathKeyResolver.updateVersion();
 		}
 		// pre-load path file key by impacted path
@@ -0,0 +1,399 @@
+package com.hp.it.perf.monitor.files.nio;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// append-only store of read offset per file key, so read can be resumed
+// after restart; rotated or truncated file is detected by head signature
+class OffsetCheckpointStore implements Closeable {
+
+	private static final Logger log = LoggerFactory
+			.getLogger(OffsetCheckpointStore.class);
+
+	private static final int FLUSH_INTERVAL = Integer.getInteger(
+			"monitor.checkpoint.interval", 5000);
+
+	private static final int COMPACT_THRESHOLD = Integer.getInteger(
+			"monitor.checkpoint.compact", 1000);
+
+	private static final byte RECORD_MARK = 'C';
+
+	private static class Checkpoint {
+		private final String fileKey;
+		private final String path;
+		private final long offset;
+		private final int headLength;
+		private final long headChecksum;
+
+		Checkpoint(String fileKey, String path, long offset, int headLength,
+				long headChecksum) {
+			this.fileKey = fileKey;
+			this.path = path;
+			this.offset = offset;
+			this.headLength = headLength;
+			this.headChecksum = headChecksum;
+		}
+
+		void write(DataOutputStream out) throws IOException {
+			out.writeByte(RECORD_MARK);
+			out.writeUTF(fileKey);
+			out.writeUTF(path);
+			out.writeLong(offset);
+			out.writeInt(headLength);
+			out.writeLong(headChecksum);
+		}
+
+		static Checkpoint read(DataInputStream in) throws IOException {
+			int mark = in.read();
+			if (mark == -1) {
+				return null;
+			} else if (mark != RECORD_MARK) {
+				throw new IOException("invalid checkpoint record mark: "
+						+ mark);
+			}
+			return new Checkpoint(in.readUTF(), in.readUTF(), in.readLong(),
+					in.readInt(), in.readLong());
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s(%s)@%s", path, fileKey, offset);
+		}
+	}
+
+	// streams of one file, checkpoint is the least position of them
+	private static class TrackedFile {
+		private final MonitorFileInstance instance;
+		private final String fileKey;
+		private final List<MonitorFileStream> streams = new ArrayList<MonitorFileStream>();
+		private ContentSignature headSignature = new ContentSignature();
+		private long savedOffset = -1;
+
+		TrackedFile(MonitorFileInstance instance, String fileKey) {
+			this.instance = instance;
+			this.fileKey = fileKey;
+		}
+
+		// -1 if nothing taken by any stream
+		long position() {
+			long position = -1;
+			for (MonitorFileStream stream : streams) {
+				long taken = stream.takenPosition();
+				if (taken >= 0 && (position < 0 || taken < position)) {
+					position = taken;
+				}
+			}
+			return position;
+		}
+	}
+
+	private final File storeFile;
+
+	// guarded by this
+	private final Map<String, Checkpoint> checkpoints = new HashMap<String, Checkpoint>();
+
+	// guarded by this
+	private final Map<String, Checkpoint> pathIndex = new HashMap<String, Checkpoint>();
+
+	// guarded by this
+	private final Map<String, TrackedFile> trackedFiles = new HashMap<String, TrackedFile>();
+
+	// guarded by this
+	private final Map<MonitorFileStream, TrackedFile> trackedStreams = new HashMap<MonitorFileStream, TrackedFile>();
+
+	private DataOutputStream output;
+
+	private int recordCount;
+
+	private ScheduledExecutorService flushService;
+
+	public OffsetCheckpointStore(File storeFile) throws IOException {
+		this.storeFile = storeFile;
+		boolean damaged = load();
+		if (damaged) {
+			compact();
+		} else {
+			output = openOutput(storeFile, true);
+		}
+		log.info("load {} read offset checkpoints from {}",
+				checkpoints.size(), storeFile);
+		flushService = Executors
+				.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r,
+								"Offset checkpoint thread");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		flushService.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					flush();
+				} catch (IOException e) {
+					log.warn("flush offset checkpoint to {} got error: {}",
+							OffsetCheckpointStore.this.storeFile, e.toString());
+				}
+			}
+		}, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	// return true if not all records are loaded
+	private boolean load() throws IOException {
+		if (!storeFile.exists()) {
+			return false;
+		}
+		DataInputStream input = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(storeFile)));
+		try {
+			Checkpoint checkpoint;
+			while ((checkpoint = Checkpoint.read(input)) != null) {
+				// later record overrides previous one
+				putCheckpoint(checkpoint);
+				recordCount++;
+			}
+			return false;
+		} catch (EOFException e) {
+			log.warn("ignore incomplete checkpoint record in {}", storeFile);
+			return true;
+		} catch (IOException e) {
+			log.warn("ignore damaged checkpoint record in {}: {}", storeFile,
+					e.toString());
+			return true;
+		} finally {
+			input.close();
+		}
+	}
+
+	private static DataOutputStream openOutput(File file, boolean append)
+			throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file, append)));
+	}
+
+	private void putCheckpoint(Checkpoint checkpoint) {
+		Checkpoint previous = checkpoints.put(checkpoint.fileKey, checkpoint);
+		if (previous != null && !previous.path.equals(checkpoint.path)) {
+			pathIndex.remove(previous.path);
+		}
+		pathIndex.put(checkpoint.path, checkpoint);
+	}
+
+	private static String fileKeyOf(Path path) {
+		try {
+			BasicFileAttributes attr = Files.readAttributes(path,
+					BasicFileAttributes.class);
+			Object fileKey = attr.fileKey();
+			return new FileKey(fileKey == null ? path.toRealPath().toString()
+					: fileKey).toString();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private static String pathOf(MonitorFileInstance instance) {
+		return instance.getFile().getAbsolutePath();
+	}
+
+	// return saved offset, 0 if file is rotated or truncated, or null if
+	// not found
+	public Long resumeOffset(MonitorFileInstance instance) {
+		Path path = instance.getFile().toPath();
+		String fileKey = fileKeyOf(path);
+		Checkpoint checkpoint;
+		synchronized (this) {
+			checkpoint = fileKey == null ? null : checkpoints.get(fileKey);
+			if (checkpoint == null) {
+				checkpoint = pathIndex.get(pathOf(instance));
+			}
+		}
+		if (checkpoint == null) {
+			return null;
+		}
+		long length = instance.getFile().length();
+		if (length < checkpoint.offset) {
+			log.info("file {} is truncated since checkpoint {}", path,
+					checkpoint);
+			return 0L;
+		}
+		ContentSignature signature = new ContentSignature();
+		signature.sign(path, 0, checkpoint.headLength, true);
+		if (signature.getLength() != checkpoint.headLength
+				|| signature.getChecksum() != checkpoint.headChecksum) {
+			log.info("file {} is rotated since checkpoint {}", path,
+					checkpoint);
+			return 0L;
+		}
+		log.debug("resume file {} from checkpoint {}", path, checkpoint);
+		return checkpoint.offset;
+	}
+
+	public void track(MonitorFileInstance instance, MonitorFileStream stream) {
+		String fileKey = fileKeyOf(instance.getFile().toPath());
+		if (fileKey == null) {
+			log.debug("cannot get file key for {}, not tracked", instance);
+			return;
+		}
+		synchronized (this) {
+			TrackedFile trackedFile = trackedFiles.get(fileKey);
+			if (trackedFile == null) {
+				trackedFile = new TrackedFile(instance, fileKey);
+				trackedFiles.put(fileKey, trackedFile);
+			}
+			trackedFile.streams.add(stream);
+			trackedStreams.put(stream, trackedFile);
+		}
+	}
+
+	public synchronized void untrack(MonitorFileStream stream) {
+		TrackedFile trackedFile = trackedStreams.remove(stream);
+		if (trackedFile == null) {
+			return;
+		}
+		try {
+			// still counts the closing stream
+			save(trackedFile);
+		} catch (IOException e) {
+			log.warn("save offset checkpoint for {} got error: {}",
+					trackedFile.instance, e.toString());
+		}
+		trackedFile.streams.remove(stream);
+		if (trackedFile.streams.isEmpty()) {
+			trackedFiles.remove(trackedFile.fileKey);
+		}
+	}
+
+	// stream read from start of new content, so head is signed again
+	public synchronized void truncated(MonitorFileStream stream) {
+		TrackedFile trackedFile = trackedStreams.get(stream);
+		if (trackedFile != null) {
+			trackedFile.headSignature = new ContentSignature();
+			trackedFile.savedOffset = -1;
+		}
+	}
+
+	private void save(TrackedFile trackedFile) throws IOException {
+		if (output == null) {
+			// closed
+			return;
+		}
+		long position = trackedFile.position();
+		if (position < 0 || position == trackedFile.savedOffset) {
+			return;
+		}
+		Path path = trackedFile.instance.getFile().toPath();
+		ContentSignature signature = trackedFile.headSignature;
+		if (signature.getLength() < 0 || signature.isPartial()) {
+			// only sign content which is already read
+			signature.sign(path, 0,
+					(int) Math.min(ContentSignature.HEAD_SIZE, position),
+					false);
+		}
+		if (signature.getLength() < 0) {
+			return;
+		}
+		Checkpoint checkpoint = new Checkpoint(trackedFile.fileKey,
+				pathOf(trackedFile.instance), position, signature.getLength(),
+				signature.getChecksum());
+		checkpoint.write(output);
+		recordCount++;
+		putCheckpoint(checkpoint);
+		trackedFile.savedOffset = position;
+	}
+
+	public synchronized void flush() throws IOException {
+		if (output == null) {
+			return;
+		}
+		for (TrackedFile trackedFile : trackedFiles.values()) {
+			save(trackedFile);
+		}
+		output.flush();
+		if (recordCount > Math.max(COMPACT_THRESHOLD, checkpoints.size() * 4)) {
+			compact();
+		}
+	}
+
+	// rewrite latest checkpoints of existing files into new store
+	private synchronized void compact() throws IOException {
+		if (output != null) {
+			output.close();
+			output = null;
+		}
+		List<Checkpoint> removed = new ArrayList<Checkpoint>();
+		for (Iterator<Checkpoint> i = checkpoints.values().iterator(); i
+				.hasNext();) {
+			Checkpoint checkpoint = i.next();
+			if (!new File(checkpoint.path).exists()) {
+				removed.add(checkpoint);
+				i.remove();
+			}
+		}
+		for (Checkpoint checkpoint : removed) {
+			if (pathIndex.get(checkpoint.path) == checkpoint) {
+				pathIndex.remove(checkpoint.path);
+			}
+		}
+		File tmpFile = new File(storeFile.getPath() + ".tmp");
+		// not append to one left by crash
+		DataOutputStream tmpOutput = openOutput(tmpFile, false);
+		try {
+			for (Checkpoint checkpoint : checkpoints.values()) {
+				checkpoint.write(tmpOutput);
+			}
+		} finally {
+			tmpOutput.close();
+		}
+		Files.move(tmpFile.toPath(), storeFile.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		log.debug("compact {} checkpoint records into {} in {}", new Object[] {
+				recordCount, checkpoints.size(), storeFile });
+		recordCount = checkpoints.size();
+		output = openOutput(storeFile, true);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (flushService != null) {
+			flushService.shutdownNow();
+			flushService = null;
+		}
+		synchronized (this) {
+			if (output != null) {
+				flush();
+				output.close();
+				output = null;
+			}
+		}
+	}
+
+}
@@ -32,21 +32,93 @@ class PathKeyResolver {
 
 	}
 
+	// mappings at the time of snapshot, which is valid until next snapshot.
+	// it only keeps previous data of changed entries, so taking a snapshot
+	// costs by changed paths rather than all files in folder.
+	class Snapshot {
+
+		// previous mapping before first change, null value for absent
+		private final Map<Path, Versioned<FileKey>> pathKeyJournal = new HashMap<Path, Versioned<FileKey>>();
+
+		private final Map<FileKey, Versioned<Path>> keyPathJournal = new HashMap<FileKey, Versioned<Path>>();
+
+		private Versioned<FileKey> getPathKey(Path path) {
+			return pathKeyJournal.containsKey(path) ? pathKeyJournal.get(path)
+					: pathKeyMapping.get(path);
+		}
+
+		private Versioned<Path> getKeyPath(FileKey fileKey) {
+			return keyPathJournal.containsKey(fileKey) ? keyPathJournal
+					.get(fileKey) : keyPathMapping.get(fileKey);
+		}
+
+		public FileKey resolveCachedPathKey(Path path, int version) {
+			return dataOf(getPathKey(path), version);
+		}
+
+		public Path resolveCachedPath(FileKey fileKey, int version) {
+			return dataOf(getKeyPath(fileKey), version);
+		}
+
+	}
+
 	private Map<Path, Versioned<FileKey>> pathKeyMapping = new HashMap<Path, Versioned<FileKey>>();
 
 	private Map<FileKey, Versioned<Path>> keyPathMapping = new HashMap<FileKey, Versioned<Path>>();
 
 	private int currentVersion = 0;
 
-	public PathKeyResolver(PathKeyResolver base) {
-		pathKeyMapping.putAll(base.pathKeyMapping);
-		keyPathMapping.putAll(base.keyPathMapping);
-		currentVersion = base.currentVersion;
-	}
+	private Snapshot snapshot;
 
 	public PathKeyResolver() {
 	}
 
+	// start to record changes for new snapshot
+	public Snapshot snapshot() {
+		snapshot = new Snapshot();
+		return snapshot;
+	}
+
+	private static <T> T dataOf(Versioned<T> vData, int version) {
+		if (vData != null && vData.getVersion() >= version) {
+			return vData.getData();
+		} else {
+			return null;
+		}
+	}
+
+	private void putPathKey(Path path, Versioned<FileKey> vFileKey) {
+		journalPathKey(path);
+		pathKeyMapping.put(path, vFileKey);
+	}
+
+	private void removePathKey(Path path) {
+		journalPathKey(path);
+		pathKeyMapping.remove(path);
+	}
+
+	private void journalPathKey(Path path) {
+		if (snapshot != null && !snapshot.pathKeyJournal.containsKey(path)) {
+			snapshot.pathKeyJournal.put(path, pathKeyMapping.get(path));
+		}
+	}
+
+	private void putKeyPath(FileKey fileKey, Versioned<Path> vPath) {
+		journalKeyPath(fileKey);
+		keyPathMapping.put(fileKey, vPath);
+	}
+
+	private Versioned<Path> removeKeyPath(FileKey fileKey) {
+		journalKeyPath(fileKey);
+		return keyPathMapping.remove(fileKey);
+	}
+
+	private void journalKeyPath(FileKey fileKey) {
+		if (snapshot != null && !snapshot.keyPathJournal.containsKey(fileKey)) {
+			snapshot.keyPathJournal.put(fileKey, keyPathMapping.get(fileKey));
+		}
+	}
+
 	public int updateVersion() {
 		currentVersion++;
 		return currentVersion;
@@ -71,25 +143,35 @@ class PathKeyResolver {
 		return vFileKey.getData();
 	}
 
+	public FileKey resolvePathKey(Path path, BasicFileAttributes attributes) {
+		FileKey fileKey;
+		try {
+			fileKey = toFileKey(path, attributes);
+		} catch (IOException ignored) {
+			fileKey = null;
+		}
+		updatePathKey(path, fileKey);
+		return fileKey;
+	}
+
 	private void updatePathKey(Path path, FileKey currentKey) {
 		Versioned<FileKey> vHistoryKey = pathKeyMapping.get(path);
 		Versioned<Path> vHistoryPath = keyPathMapping.get(currentKey);
-		pathKeyMapping.remove(path);
+		removePathKey(path);
 		if (vHistoryPath != null) {
-			pathKeyMapping.remove(vHistoryPath.getData());
+			removePathKey(vHistoryPath.getData());
 		}
 		// not remove until get confirm
 		// keyPathMapping.remove(currentKey);
 		if (vHistoryKey != null) {
-			keyPathMapping.remove(vHistoryKey.getData());
+			removeKeyPath(vHistoryKey.getData());
 		}
 		if (currentKey != null) {
 			if (path != null) {
-				pathKeyMapping.put(path, new Versioned<FileKey>(currentKey,
+				putPathKey(path, new Versioned<FileKey>(currentKey,
 						currentVersion));
 			}
-			keyPathMapping.put(currentKey, new Versioned<Path>(path,
-					currentVersion));
+			putKeyPath(currentKey, new Versioned<Path>(path, currentVersion));
 		}
 	}
 
@@ -97,30 +179,17 @@ class PathKeyResolver {
 		try {
 			BasicFileAttributes attr = Files.readAttributes(path,
 					BasicFileAttributes.class);
-			Object nativeKey = attr.fileKey();
-			return new FileKey(nativeKey == null ? path.toRealPath().toString()
-					: nativeKey);
+			return toFileKey(path, attr);
 		} catch (IOException ignored) {
 			return null;
 		}
 	}
 
-	public FileKey resolveCachedPathKey(Path path, int version) {
-		Versioned<FileKey> vFileKey = pathKeyMapping.get(path);
-		if (vFileKey != null && vFileKey.getVersion() >= version) {
-			return vFileKey.getData();
-		} else {
-			return null;
-		}
-	}
-
-	public Path resolveCachedPath(FileKey fileKey, int version) {
-		Versioned<Path> vPath = keyPathMapping.get(fileKey);
-		if (vPath != null && vPath.getVersion() >= version) {
-			return vPath.getData();
-		} else {
-			return null;
-		}
+	private static FileKey toFileKey(Path path, BasicFileAttributes attr)
+			throws IOException {
+		Object nativeKey = attr.fileKey();
+		return new FileKey(nativeKey == null ? path.toRealPath().toString()
+				: nativeKey);
 	}
 
 	public Path resolvePathByKey(FileKey fileKey, int version) {
@@ -135,11 +204,11 @@ class PathKeyResolver {
 	}
 
 	private void removeDeletedPathKey(FileKey fileKey) {
-		Versioned<Path> vPath = keyPathMapping.remove(fileKey);
+		Versioned<Path> vPath = removeKeyPath(fileKey);
 		if (vPath != null && vPath.getData() != null) {
 			Versioned<FileKey> vFileKey = pathKeyMapping.get(vPath.getData());
 			if (vFileKey != null && isSameKey(vFileKey.getData(), fileKey)) {
-				pathKeyMapping.remove(vPath.getData());
+				removePathKey(vPath.getData());
 			}
 		}
 	}
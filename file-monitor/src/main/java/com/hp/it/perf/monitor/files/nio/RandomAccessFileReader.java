@@ -5,16 +5,16 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.lang.ref.WeakReference;
 import java.util.Arrays;
-import java.util.concurrent.DelayQueue;
-import java.util.concurrent.Delayed;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.hp.it.perf.monitor.files.ContentLine;
 import com.hp.it.perf.monitor.files.DefaultFileStatistics;
+import com.hp.it.perf.monitor.files.DefaultFileStatistics.FileReadCount;
 
 class RandomAccessFileReader implements Closeable {
 
@@ -31,90 +31,36 @@ class RandomAccessFileReader implements Closeable {
 
 	private byte[] readBuf = new byte[8 * 1024];
 
-	private long position;
+	// default 256K for one batch read
+	private static final int BATCH_READ_SIZE = Integer.getInteger(
+			"monitor.reader.batchSize", 256 * 1024);
 
-	private File file;
+	protected long position;
+
+	protected final File file;
 
 	private int idleTimeout = 0;
 
 	private boolean closed = true;
 
-	private volatile boolean inReading = false;
-
-	private static DelayQueue<TimeoutReaderReference> keepAliveQueue = new DelayQueue<TimeoutReaderReference>();
-
-	private TimeoutReaderReference timeoutReference;
-
-	private DefaultFileStatistics statistics;
+	// reading, guarded by this, and checked by keep alive and eviction
+	// without lock
+	private volatile boolean busy;
 
-	static {
-		Thread keepAliveThread = new Thread(new Runnable() {
-
-			@Override
-			public void run() {
-				while (true) {
-					try {
-						RandomAccessFileReader timeoutReader = keepAliveQueue
-								.take().getReader();
-						if (timeoutReader != null) {
-							timeoutReader.tryOffline();
-						}
-					} catch (InterruptedException e) {
-						break;
-					}
-				}
-			}
-		});
-		keepAliveThread.setDaemon(true);
-		keepAliveThread.setName("Reader keepalive thread");
-		keepAliveThread.start();
-	}
+	private volatile long lastAccessNanoTime;
 
-	private static class TimeoutReaderReference implements Delayed {
+	private final ReaderKeepAlive keepAlive = ReaderKeepAlive.getInstance();
 
-		private final WeakReference<RandomAccessFileReader> readerRef;
-		private final int timeout;
-		private volatile long delayTime;
-		private volatile long lastCheckNanoTime;
+	private final ReaderKeepAlive.Entry keepAliveEntry = new ReaderKeepAlive.Entry(
+			this);
 
-		public TimeoutReaderReference(RandomAccessFileReader reader,
-				int timeoutSec) {
-			this.readerRef = new WeakReference<RandomAccessFileReader>(reader);
-			this.timeout = timeoutSec;
-			ping();
-		}
-
-		public void ping() {
-			lastCheckNanoTime = System.nanoTime();
-			delayTime = TimeUnit.SECONDS.toNanos(timeout);
-		}
-
-		@Override
-		public int compareTo(Delayed o) {
-			long od = o.getDelay(TimeUnit.NANOSECONDS);
-			long md = getDelay(TimeUnit.NANOSECONDS);
-			if (md < od) {
-				return -1;
-			} else if (md > od) {
-				return 1;
-			} else {
-				return 0;
-			}
-		}
+	private DefaultFileStatistics statistics;
 
-		@Override
-		public long getDelay(TimeUnit unit) {
-			long current = System.nanoTime();
-			delayTime -= (current - lastCheckNanoTime);
-			lastCheckNanoTime = current;
-			return unit.convert(delayTime, TimeUnit.NANOSECONDS);
-		}
+	private FileHandlePool handlePool;
 
-		public RandomAccessFileReader getReader() {
-			return readerRef.get();
-		}
+	private FileReadCount readCount;
 
-	}
+	private boolean everOpened;
 
 	private static class BytesBuffer {
 
@@ -140,6 +86,16 @@ class RandomAccessFileReader implements Closeable {
 			return count;
 		}
 
+		// read into buffer directly, return -1 if end of file
+		public int append(RandomAccessFile in, int len) throws IOException {
+			ensureCapacityInternal(count + len);
+			int readLen = in.read(value, count, len);
+			if (readLen > 0) {
+				count += readLen;
+			}
+			return readLen;
+		}
+
 		public BytesBuffer append(byte[] data, int offset, int len) {
 			if (len > 0) {
 				int newLen = count + len;
@@ -165,6 +121,13 @@ class RandomAccessFileReader implements Closeable {
 			}
 		}
 
+		// release extra capacity, if more than given one
+		public void shrink(int capacity) {
+			if (value.length > capacity && count <= capacity) {
+				value = Arrays.copyOf(value, capacity);
+			}
+		}
+
 		public BytesBuffer delete(int start, int end) {
 			if (start < 0)
 				throw new IndexOutOfBoundsException("index out of range: "
@@ -211,48 +174,54 @@ class RandomAccessFileReader implements Closeable {
 		this.file = file;
 	}
 
-	private synchronized void tryOffline() {
-		if (timeoutReference.getDelay(TimeUnit.NANOSECONDS) > 0) {
-			// maybe just keep alive again
-			keepAliveQueue.add(timeoutReference);
-			log.trace("re-add file reader back to queue: {}", file);
-		} else if (inReading) {
-			// maybe in reading
+	// called by keep alive, return false if it is in reading
+	boolean tryOffline() {
+		if (busy) {
 			log.trace("file reader is in reading: {}", file);
-		} else {
-			timeoutReference = null;
-			// start off-line
-			log.trace("offline reader: {}", file);
-			// off access reader
+			return false;
+		}
+		synchronized (this) {
 			try {
+				// start off-line
+				log.trace("offline reader: {}", file);
 				close0(file);
 			} catch (IOException e) {
 				log.warn("close access file got error: {}", e.toString());
 			}
 		}
+		return true;
+	}
+
+	boolean isBusy() {
+		return busy;
+	}
 
+	long idleDeadline() {
+		return lastAccessNanoTime + TimeUnit.SECONDS.toNanos(idleTimeout);
 	}
 
-	private synchronized void tryKeepAlive() {
+	void tryKeepAlive() {
 		if (idleTimeout > 0) {
-			if (timeoutReference == null) {
-				timeoutReference = new TimeoutReaderReference(this, idleTimeout);
-				keepAliveQueue.add(timeoutReference);
-				log.trace("add file reader into keep alive queue: {}", file);
-			} else {
-				keepAliveQueue.remove(timeoutReference);
-				timeoutReference.ping();
-				keepAliveQueue.add(timeoutReference);
-				log.trace("ping file reader into keep alive queue: {}", file);
-			}
+			lastAccessNanoTime = System.nanoTime();
+			keepAlive.ping(keepAliveEntry, idleDeadline());
 		}
 	}
 
+	// called in lock
+	private void acquire() {
+		busy = true;
+	}
+
+	private void release() {
+		busy = false;
+	}
+
 	public void setKeepAlive(int idleTimeout) {
 		this.idleTimeout = idleTimeout;
 	}
 
-	public void open(long initOffset, boolean lazyOpen) throws IOException {
+	public synchronized void open(long initOffset, boolean lazyOpen)
+			throws IOException {
 		close();
 		this.closed = false;
 		if (!file.canRead()) {
@@ -264,16 +233,24 @@ class RandomAccessFileReader implements Closeable {
 		log.debug("open file {} at offset {} {} (init:{})", new Object[] {
 				file, position, lazyOpen ? "lazy" : "now", initOffset });
 		if (!lazyOpen) {
-			open0();
-			if (len == this.position) {
-				tryKeepAlive();
+			acquire();
+			try {
+				open0();
+			} finally {
+				release();
 			}
+			tryKeepAlive();
 		}
 	}
 
 	private void open0() throws FileNotFoundException, IOException {
-		this.access = new RandomAccessFile(file, "r");
+		this.access = handlePool.lease(this);
 		statistics.ioResourceCount().increment();
+		if (everOpened) {
+			// was off-line
+			readCount.reopened();
+		}
+		everOpened = true;
 		access.seek(position);
 		long newPosition = access.getFilePointer();
 		log.debug("open random access file {} at offset {} by reader@{}",
@@ -286,11 +263,14 @@ class RandomAccessFileReader implements Closeable {
 	}
 
 	@Override
-	public void close() throws IOException {
+	public synchronized void close() throws IOException {
 		closed = true;
-		keepAliveQueue.remove(timeoutReference);
-		timeoutReference = null;
-		close0(file);
+		acquire();
+		try {
+			close0(file);
+		} finally {
+			release();
+		}
 	}
 
 	private void close0(File fileName) throws IOException {
@@ -298,18 +278,33 @@ class RandomAccessFileReader implements Closeable {
 		access = null;
 		if (accessFile != null) {
 			// reset buffer
-			lineBufOffset = 0;
-			lineBuf.delete(0, lineBuf.count);
+			resetBuffer();
 			// close access
 			accessFile.close();
-			statistics.ioReaderCount().decrement();
+			statistics.ioResourceCount().decrement();
+			handlePool.release(this);
 			log.debug("close random access file {} at offset {} by reader@{}",
 					new Object[] { fileName, position, hashCode() });
 		}
 	}
 
+	protected void resetBuffer() {
+		lineBufOffset = 0;
+		// release large buffer used by batch read
+		lineBuf = new BytesBuffer();
+	}
+
+	protected RandomAccessFile getAccess() {
+		return access;
+	}
+
+	// true if no loaded data after position
+	protected boolean isBufferEmpty() {
+		return lineBufOffset == lineBuf.length();
+	}
+
 	// byte[] buf, int off, int len
-	private byte[] readLine0() throws IOException {
+	protected byte[] readLine0() throws IOException {
 		log.trace("readline for {}", file);
 		// check if new line in it
 		int checkOffset = lineBufOffset;
@@ -361,27 +356,124 @@ class RandomAccessFileReader implements Closeable {
 		return buf;
 	}
 
-	// null if no data load
-	public byte[] readLine() throws IOException {
+	// read line as content, which may be a view of shared buffer
+	protected ContentLine readContentLine0() throws IOException {
+		byte[] line = readLine0();
+		if (line == null) {
+			return null;
+		}
+		ContentLine contentLine = new ContentLine();
+		contentLine.setPosition(position - line.length);
+		contentLine.setLine(line);
+		return contentLine;
+	}
+
+	// split all complete lines in one large read, return loaded line count
+	protected int readContentLines0(List<ContentLine> lines, int maxSize)
+			throws IOException {
+		log.trace("readlines for {}", file);
+		RandomAccessFile lAccess = access;
+		int count = 0;
+		int checkOffset = lineBufOffset;
+		while (count < maxSize) {
+			int newLineOffset = lineBuf.indexOf((byte) '\n', checkOffset);
+			if (newLineOffset >= 0) {
+				// get data with new line
+				int rLen = newLineOffset + 1 - lineBufOffset;
+				byte[] buf = new byte[rLen];
+				lineBuf.getBytes(lineBufOffset, newLineOffset + 1, buf, 0);
+				ContentLine contentLine = new ContentLine();
+				contentLine.setPosition(position);
+				contentLine.setLine(buf);
+				lines.add(contentLine);
+				count++;
+				lineBufOffset += rLen;
+				checkOffset = lineBufOffset;
+				position += rLen;
+				continue;
+			}
+			// no complete line in buffer, trim loaded and load more
+			lineBuf.delete(0, lineBufOffset);
+			lineBufOffset = 0;
+			checkOffset = lineBuf.length();
+			// only use large buffer for backlog
+			long remaining = lAccess.length() - lAccess.getFilePointer();
+			if (remaining <= readBuf.length) {
+				// backlog drained, not keep large buffer for tailing
+				lineBuf.shrink(readBuf.length * 2);
+			}
+			int readSize = (int) Math.min(BATCH_READ_SIZE,
+					Math.max(readBuf.length, remaining));
+			if (lineBuf.append(lAccess, readSize) == -1) {
+				// no data read in underline reader
+				tryKeepAlive();
+				break;
+			}
+		}
+		return count;
+	}
+
+	// read lines one by one, for readers without batch support
+	protected final int readEachContentLine(List<ContentLine> lines,
+			int maxSize) throws IOException {
+		int count = 0;
+		ContentLine line;
+		while (count < maxSize && (line = readContentLine0()) != null) {
+			lines.add(line);
+			count++;
+		}
+		return count;
+	}
+
+	private boolean ensureOpen() throws IOException {
 		// check if it is open
 		if (closed) {
 			throw new IOException("file is not open or closed");
 		}
-		inReading = true;
+		if (access == null) {
+			// lazy open or was off-line
+			try {
+				open0();
+			} catch (FileNotFoundException e) {
+				// file renamed or deleted
+				log.info("file '{}' cannot open: {}", file, e.getMessage());
+				return false;
+			}
+		} else {
+			handlePool.hit(this);
+		}
+		return true;
+	}
+
+	// read at most maxSize lines into list, return loaded line count
+	public synchronized int readContentLines(List<ContentLine> lines,
+			int maxSize) throws IOException {
+		acquire();
 		try {
-			if (access == null) {
-				// lazy open or was off-line
-				try {
-					open0();
-				} catch (FileNotFoundException e) {
-					// file renamed or deleted
-					log.info("file '{}' cannot open: {}", file, e.getMessage());
-					return null;
-				}
+			if (!ensureOpen()) {
+				return 0;
+			}
+			tryKeepAlive();
+			int count = readContentLines0(lines, maxSize);
+			log.trace("readlines got {} lines", count);
+			loadedLineNumber += count;
+			return count;
+		} finally {
+			release();
+		}
+	}
+
+	// null if no data load
+	public synchronized ContentLine readContentLine() throws IOException {
+		acquire();
+		try {
+			if (!ensureOpen()) {
+				return null;
 			}
-			byte[] line = readLine0();
-			log.trace("readline got {} bytes",
-					(line == null ? "0" : Integer.toString(line.length)));
+			tryKeepAlive();
+			ContentLine line = readContentLine0();
+			log.trace("readline got {} bytes", (line == null ? "0"
+					: Integer.toString(line.getLineLength())));
 			if (line != null) {
 				loadedLineNumber++;
 				return line;
@@ -390,25 +482,83 @@ class RandomAccessFileReader implements Closeable {
 				return null;
 			}
 		} finally {
-			inReading = false;
+			release();
 		}
 	}
 
+	// capacity of loaded data buffer
+	int bufferCapacity() {
+		return lineBuf.value.length;
+	}
+
 	public int getLoadedLineNumber() {
 		return loadedLineNumber;
 	}
 
-	void pushBackLine(byte[] line) {
-		lineBuf.insert(0, line);
-		position -= line.length;
+	synchronized void pushBackLine(ContentLine line) {
+		acquire();
+		try {
+			if (access == null) {
+				// off-line, will re-read from position
+				position -= line.getLineLength();
+			} else {
+				pushBackLine0(line);
+			}
+		} finally {
+			release();
+		}
+	}
+
+	protected void pushBackLine0(ContentLine line) {
+		byte[] data = line.getLine();
+		// right before data not consumed yet
+		lineBuf.insert(lineBufOffset, data);
+		position -= data.length;
 	}
 
 	public long position() {
 		return position;
 	}
 
+	// file length refreshed by change event, so reader needs no stat for it
+	synchronized void lengthChanged(long length) throws IOException {
+		acquire();
+		try {
+			lengthChanged0(length);
+		} finally {
+			release();
+		}
+	}
+
+	protected void lengthChanged0(long length) throws IOException {
+	}
+
+	// file truncated, drop loaded data and read from start
+	synchronized void rewind() throws IOException {
+		acquire();
+		try {
+			resetBuffer();
+			log.debug("rewind file {} from offset {}", file, position);
+			position = 0;
+			RandomAccessFile lAccess = access;
+			if (lAccess != null) {
+				lAccess.seek(0);
+			}
+		} finally {
+			release();
+		}
+	}
+
 	void setStatisticis(DefaultFileStatistics statistics) {
 		this.statistics = statistics;
 	}
 
+	void setHandlePool(FileHandlePool handlePool) {
+		this.handlePool = handlePool;
+	}
+
+	void setReadCount(FileReadCount readCount) {
+		this.readCount = readCount;
+	}
+
 }
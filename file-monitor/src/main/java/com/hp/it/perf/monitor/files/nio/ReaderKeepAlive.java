@@ -0,0 +1,138 @@
+package com.hp.it.perf.monitor.files.nio;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Hashed timing wheel to off-line idle readers. Ping only updates access
+// time of reader, and entry is re-hashed lazily when its slot is expired.
+class ReaderKeepAlive {
+
+	private static final Logger log = LoggerFactory
+			.getLogger(ReaderKeepAlive.class);
+
+	private static final int TICK_MILLIS = Integer.getInteger(
+			"monitor.reader.keepAliveTick", 1000);
+
+	// power of 2
+	private static final int WHEEL_SIZE = 64;
+
+	private static final ReaderKeepAlive instance = new ReaderKeepAlive(
+			TICK_MILLIS);
+
+	static class Entry {
+
+		private final WeakReference<RandomAccessFileReader> readerRef;
+
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+
+		Entry(RandomAccessFileReader reader) {
+			this.readerRef = new WeakReference<RandomAccessFileReader>(reader);
+		}
+
+	}
+
+	private final long tickNanos;
+
+	private final Queue<Entry>[] wheel;
+
+	private final long startNanoTime = System.nanoTime();
+
+	// last processed tick
+	private volatile long currentTick;
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	ReaderKeepAlive(int tickMillis) {
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+		wheel = new Queue[WHEEL_SIZE];
+		for (int i = 0; i < WHEEL_SIZE; i++) {
+			wheel[i] = new ConcurrentLinkedQueue<Entry>();
+		}
+		ScheduledExecutorService tickService = Executors
+				.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "Reader keepalive thread");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		tickService.scheduleAtFixedRate(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					tick();
+				} catch (RuntimeException e) {
+					log.warn("keep alive tick got error", e);
+				}
+			}
+		}, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+	}
+
+	static ReaderKeepAlive getInstance() {
+		return instance;
+	}
+
+	// schedule once until it is expired
+	void ping(Entry entry, long deadlineNanoTime) {
+		if (entry.scheduled.compareAndSet(false, true)) {
+			schedule(entry, deadlineNanoTime);
+		}
+	}
+
+	private void schedule(Entry entry, long deadlineNanoTime) {
+		long deadlineTick = (deadlineNanoTime - startNanoTime + tickNanos - 1)
+				/ tickNanos;
+		deadlineTick = Math.max(deadlineTick, currentTick + 1);
+		wheel[(int) (deadlineTick & (WHEEL_SIZE - 1))].add(entry);
+	}
+
+	private void tick() {
+		long now = System.nanoTime();
+		long nowTick = (now - startNanoTime) / tickNanos;
+		while (currentTick < nowTick) {
+			long processTick = currentTick + 1;
+			Queue<Entry> slot = wheel[(int) (processTick & (WHEEL_SIZE - 1))];
+			// take current entries, as re-hashed one may be in same slot
+			List<Entry> expired = new ArrayList<Entry>();
+			Entry entry;
+			while ((entry = slot.poll()) != null) {
+				expired.add(entry);
+			}
+			currentTick = processTick;
+			for (Entry e : expired) {
+				RandomAccessFileReader reader = e.readerRef.get();
+				if (reader == null) {
+					continue;
+				}
+				long deadline = reader.idleDeadline();
+				if (deadline - now > 0) {
+					// pinged after scheduled, or not in this round
+					schedule(e, deadline);
+					continue;
+				}
+				// cleared before off-line, so ping of reader re-opened after
+				// it is scheduled again
+				e.scheduled.set(false);
+				if (!reader.tryOffline()
+						&& e.scheduled.compareAndSet(false, true)) {
+					// in reading, check later
+					schedule(e, now + tickNanos);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,64 @@
+package com.hp.it.perf.monitor.files.nio;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// run tasks one by one in submitted order on shared executor, and give up
+// the thread after some tasks so other folders are not starved
+class SerialExecutor implements Executor {
+
+	private static final int BATCH_SIZE = 16;
+
+	private final Executor executor;
+
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+
+	private final Runnable drainer = new Runnable() {
+
+		@Override
+		public void run() {
+			try {
+				Runnable task;
+				for (int i = 0; i < BATCH_SIZE && (task = tasks.poll()) != null; i++) {
+					task.run();
+				}
+			} finally {
+				scheduled.set(false);
+				try {
+					schedule();
+				} catch (RejectedExecutionException e) {
+					// shutdown, drop pending tasks
+					tasks.clear();
+				}
+			}
+		}
+	};
+
+	SerialExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	@Override
+	public void execute(Runnable task) {
+		tasks.add(task);
+		schedule();
+	}
+
+	private void schedule() {
+		if (!tasks.isEmpty() && scheduled.compareAndSet(false, true)) {
+			try {
+				executor.execute(drainer);
+			} catch (RejectedExecutionException e) {
+				// executor is shutdown
+				scheduled.set(false);
+				throw e;
+			}
+		}
+	}
+
+}
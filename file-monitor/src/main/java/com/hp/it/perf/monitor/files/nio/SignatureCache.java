@@ -0,0 +1,147 @@
+package com.hp.it.perf.monitor.files.nio;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import com.hp.it.perf.monitor.files.DefaultFileStatistics.SignatureCount;
+
+// Cache head signatures by file key, length and modified time, so unchanged
+// file is not opened again on next detection (costly on remote file system).
+// Concurrent requests on same file wait for the first one to read it.
+class SignatureCache {
+
+	static final int CACHE_SIZE = Integer.getInteger(
+			"monitor.signature.cacheSize", 1024);
+
+	private static final ThreadLocal<ByteBuffer> headBuffer = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocateDirect(ContentSignature.HEAD_SIZE);
+		}
+	};
+
+	private static class SignatureKey {
+		private final FileKey nativeKey;
+		private final long modified;
+		private final long length;
+
+		SignatureKey(FileKey nativeKey, long modified, long length) {
+			this.nativeKey = nativeKey;
+			this.modified = modified;
+			this.length = length;
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + nativeKey.hashCode();
+			result = prime * result + (int) (modified ^ (modified >>> 32));
+			result = prime * result + (int) (length ^ (length >>> 32));
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof SignatureKey))
+				return false;
+			SignatureKey other = (SignatureKey) obj;
+			return modified == other.modified && length == other.length
+					&& nativeKey.equals(other.nativeKey);
+		}
+	}
+
+	private final SignatureCount count;
+
+	// guarded by itself, in access order
+	private final Map<SignatureKey, FutureTask<ContentSignature>> signatures;
+
+	SignatureCache(final int maxSize, SignatureCount count) {
+		this.count = count;
+		this.signatures = new LinkedHashMap<SignatureKey, FutureTask<ContentSignature>>(
+				16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<SignatureKey, FutureTask<ContentSignature>> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	// null if file cannot be read
+	ContentSignature sign(final Path name, FileKey nativeKey, long modified,
+			long length) {
+		final int len = (int) Math.min(ContentSignature.HEAD_SIZE, length);
+		SignatureKey key = new SignatureKey(nativeKey, modified, length);
+		FutureTask<ContentSignature> task;
+		boolean loader = false;
+		synchronized (signatures) {
+			task = signatures.get(key);
+			if (task == null) {
+				task = new FutureTask<ContentSignature>(
+						new Callable<ContentSignature>() {
+
+							@Override
+							public ContentSignature call() throws Exception {
+								ContentSignature signature = new ContentSignature();
+								if (signature.sign(name, 0, len, headBuffer.get())) {
+									count.read(signature.getLength());
+									return signature;
+								} else {
+									return null;
+								}
+							}
+						});
+				signatures.put(key, task);
+				loader = true;
+			}
+		}
+		if (loader) {
+			count.missed();
+			task.run();
+		} else {
+			count.hit();
+		}
+		ContentSignature signature = getSignature(task);
+		if (signature == null) {
+			// not cache failure
+			synchronized (signatures) {
+				if (signatures.get(key) == task) {
+					signatures.remove(key);
+				}
+			}
+		}
+		return signature;
+	}
+
+	private static ContentSignature getSignature(
+			FutureTask<ContentSignature> task) {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return task.get();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					return null;
+				}
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,198 @@
+package com.hp.it.perf.monitor.files;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hp.it.perf.monitor.files.FileChangeQueue.ChangeEvent;
+import com.hp.it.perf.monitor.files.FileChangeQueue.ChangeMode;
+import com.hp.it.perf.monitor.files.FileInstanceChangeListener.FileChangeOption;
+
+// change events are fired by test provider
+public class FileChangeQueueTestCase {
+
+	private TestProvider provider;
+
+	private FileChangeQueue<TestProvider> queue;
+
+	private static class TestProvider implements ContentLineStreamProvider,
+			FileInstanceChangeAware {
+
+		private final List<FileContentChangeListener> contentListeners = new CopyOnWriteArrayList<FileContentChangeListener>();
+
+		private final List<FileInstanceChangeListener> instanceListeners = new CopyOnWriteArrayList<FileInstanceChangeListener>();
+
+		@Override
+		public ContentLineStream open(FileOpenOption option)
+				throws IOException {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void addFileContentChangeListener(
+				FileContentChangeListener listener) {
+			contentListeners.add(listener);
+		}
+
+		@Override
+		public void removeFileContentChangeListener(
+				FileContentChangeListener listener) {
+			contentListeners.remove(listener);
+		}
+
+		@Override
+		public void addFileInstanceChangeListener(
+				FileInstanceChangeListener listener) {
+			instanceListeners.add(listener);
+		}
+
+		@Override
+		public void removeFileInstanceChangeListener(
+				FileInstanceChangeListener listener) {
+			instanceListeners.remove(listener);
+		}
+
+		void changed(FileInstance instance) {
+			for (FileContentChangeListener listener : contentListeners) {
+				listener.onContentChanged(instance);
+			}
+		}
+
+		void deleted(FileInstance instance) {
+			for (FileInstanceChangeListener listener : instanceListeners) {
+				listener.onFileInstanceDeleted(instance, new FileChangeOption());
+			}
+		}
+	}
+
+	private static class TestInstance implements FileInstance {
+
+		private final String name;
+
+		private final Map<Object, Object> properties = new HashMap<Object, Object>();
+
+		TestInstance(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public void addFileInstanceChangeListener(
+				FileInstanceChangeListener listener) {
+		}
+
+		@Override
+		public void removeFileInstanceChangeListener(
+				FileInstanceChangeListener listener) {
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public FileCluster getFileCluster() {
+			return null;
+		}
+
+		@Override
+		public FileSet getFileSet() {
+			return null;
+		}
+
+		@Override
+		public FileMetadata getMetadata(boolean refresh) {
+			return null;
+		}
+
+		@Override
+		public synchronized void putClientProperty(Object key,
+				Object property) {
+			if (property == null) {
+				properties.remove(key);
+			} else {
+				properties.put(key, property);
+			}
+		}
+
+		@Override
+		public synchronized Object getClientProperty(Object key) {
+			return properties.get(key);
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		provider = new TestProvider();
+		queue = new FileChangeQueue<TestProvider>(false);
+		queue.addFileContentChangeAware(provider);
+		queue.addFileInstanceChangeAware(provider);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		queue.close();
+	}
+
+	@Test
+	public void testDuplicateChangedCoalesced() throws Exception {
+		FileInstance a = new TestInstance("a");
+		provider.changed(a);
+		provider.changed(a);
+		provider.changed(a);
+		assertEvent(queue.poll(false), ChangeMode.Changed, a);
+		assertThat(queue.poll(false), is(nullValue()));
+		// queued again once taken
+		provider.changed(a);
+		assertEvent(queue.poll(false), ChangeMode.Changed, a);
+		assertThat(queue.poll(false), is(nullValue()));
+	}
+
+	@Test
+	public void testPushBackToHead() throws Exception {
+		FileInstance a = new TestInstance("a");
+		FileInstance b = new TestInstance("b");
+		provider.changed(a);
+		provider.changed(b);
+		ChangeEvent<TestProvider> event = queue.poll(false);
+		assertEvent(event, ChangeMode.Changed, a);
+		queue.pushBack(event);
+		assertEvent(queue.poll(false), ChangeMode.Changed, a);
+		assertEvent(queue.poll(false), ChangeMode.Changed, b);
+		assertThat(queue.poll(false), is(nullValue()));
+	}
+
+	@Test
+	public void testDeletedInstanceChangedSkipped() throws Exception {
+		FileInstance a = new TestInstance("a");
+		FileInstance b = new TestInstance("b");
+		provider.changed(a);
+		provider.changed(b);
+		provider.deleted(a);
+		assertEvent(queue.poll(false), ChangeMode.Changed, b);
+		assertEvent(queue.poll(false), ChangeMode.Deleted, a);
+		assertThat(queue.poll(false), is(nullValue()));
+	}
+
+	private static void assertEvent(ChangeEvent<TestProvider> event,
+			ChangeMode mode, FileInstance instance) {
+		assertThat(event, is(notNullValue()));
+		assertThat(event.getMode(), is(equalTo(mode)));
+		assertThat(event.getInstance(), is(sameInstance(instance)));
+	}
+
+}
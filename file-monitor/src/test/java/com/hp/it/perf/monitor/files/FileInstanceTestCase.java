@@ -5,6 +5,7 @@ import static org.hamcrest.Matchers.*;
 
 import java.io.EOFException;
 import java.io.File;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.concurrent.TimeUnit;
 
@@ -162,6 +163,228 @@ public class FileInstanceTestCase {
 		lineStream.close();
 	}
 
+	@Test(timeout = 5000)
+	public void testUniqueFileBatchReadLines() throws Exception {
+		File testFile = helper.copy(new File("src/test/data/sample_file1.txt"));
+		FileInstance file = factory.getFileInstance(testFile.getPath());
+		ContentLineStream lineStream = ((ContentLineStreamProvider) file)
+				.open(new FileOpenOptionBuilder().tailMode().build());
+		helper.registerClosable(lineStream);
+		long offset = testFile.length();
+		StringBuilder data = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			data.append("line").append(i).append('\n');
+		}
+		data.append("line");
+		helper.print(data.toString(), testFile);
+		LinkedList<ContentLine> list = new LinkedList<ContentLine>();
+		assertThat(lineStream.drainTo(list, 400), is(equalTo(400)));
+		assertThat(lineStream.drainTo(list, 400), is(equalTo(400)));
+		assertThat(lineStream.drainTo(list, 400), is(equalTo(200)));
+		assertThat(lineStream.drainTo(list, 400), is(equalTo(0)));
+		for (int i = 0; i < 1000; i++) {
+			ContentLine line = list.get(i);
+			assertThat(line.getLine(), is(helper.line("line" + i)));
+			assertThat(line.getPosition(), is(equalTo(offset)));
+			offset += line.getLine().length;
+		}
+		helper.echo("1000", testFile);
+		list.clear();
+		assertThat(lineStream.drainTo(list, 400), is(equalTo(1)));
+		assertThat(list.get(0).getLine(), is(helper.line("line1000")));
+		assertThat(list.get(0).getPosition(), is(equalTo(offset)));
+		lineStream.close();
+	}
+
+	@Test(timeout = 10000)
+	public void testUniqueFileReadStatistics() throws Exception {
+		File testFile = helper.copy(new File("src/test/data/sample_file1.txt"));
+		FileInstance file = factory.getFileInstance(testFile.getPath());
+		ContentLineStream lineStream = ((ContentLineStreamProvider) file)
+				.open(new FileOpenOptionBuilder().tailMode().build());
+		helper.registerClosable(lineStream);
+		FileStatistics.ReadStatistics stats = factory.getStatistics()
+				.readStatistics(file);
+		assertThat(stats.lineCount(), is(equalTo(0L)));
+		assertThat(stats.bytesBehind(), is(equalTo(0L)));
+		helper.echo("line1\nline2", testFile);
+		// length is known after change event
+		while (stats.bytesBehind() != 12L) {
+			Thread.sleep(10L);
+		}
+		LinkedList<ContentLine> list = new LinkedList<ContentLine>();
+		assertThat(lineStream.drainTo(list, 10), is(equalTo(2)));
+		assertThat(stats.lineCount(), is(equalTo(2L)));
+		assertThat(stats.byteCount(), is(equalTo(12L)));
+		assertThat(stats.bytesBehind(), is(equalTo(0L)));
+		assertThat(stats.reopenCount(), is(equalTo(0L)));
+		lineStream.close();
+	}
+
+	@Test(timeout = 5000)
+	public void testUniqueFileLatencyStatistics() throws Exception {
+		File testFile = helper.copy(new File("src/test/data/sample_file1.txt"));
+		FileInstance file = factory.getFileInstance(testFile.getPath());
+		ContentLineStream lineStream = ((ContentLineStreamProvider) file)
+				.open(new FileOpenOptionBuilder().tailMode().build());
+		helper.registerClosable(lineStream);
+		helper.echoSync("newline", testFile, 500, TimeUnit.MILLISECONDS);
+		ContentLine line = lineStream.poll(3, TimeUnit.SECONDS);
+		assertThat(line, is(notNullValue()));
+		FileStatistics stats = factory.getStatistics();
+		assertThat(stats.watchDispatchLatency().count(), is(greaterThan(0L)));
+		assertThat(stats.dispatchReadLatency().count(), is(equalTo(1L)));
+		assertThat(stats.readLineLatency().count(), is(equalTo(1L)));
+		assertThat(stats.readLineLatency().percentile(100),
+				is(lessThanOrEqualTo(stats.readLineLatency().max())));
+		lineStream.close();
+	}
+
+	@Test(timeout = 10000)
+	public void testUniqueFileCheckpointResume() throws Exception {
+		File testFile = helper.copy(new File("src/test/data/sample_file1.txt"));
+		File checkpointFile = File.createTempFile("offset", ".checkpoint");
+		checkpointFile.deleteOnExit();
+		// first run
+		factory.setCheckpointFile(checkpointFile);
+		FileInstance file = factory.getFileInstance(testFile.getPath());
+		ContentLineStream lineStream = ((ContentLineStreamProvider) file)
+				.open(new FileOpenOptionBuilder().tailMode().build());
+		helper.echo("line1", testFile);
+		ContentLine line = lineStream.take();
+		assertThat(line.getLine(), is(helper.line("line1")));
+		lineStream.close();
+		factory.close();
+		// written when stopped
+		helper.echo("line2", testFile);
+		// second run
+		factory = new MonitorFileFactory();
+		factory.setCheckpointFile(checkpointFile);
+		file = factory.getFileInstance(testFile.getPath());
+		lineStream = ((ContentLineStreamProvider) file)
+				.open(new FileOpenOptionBuilder().tailMode().build());
+		line = lineStream.poll(1, TimeUnit.SECONDS);
+		assertThat(line, is(notNullValue()));
+		assertThat(line.getLine(), is(helper.line("line2")));
+		lineStream.close();
+		factory.close();
+		// truncated when stopped
+		testFile.delete();
+		helper.echo("newline1", testFile);
+		factory = new MonitorFileFactory();
+		factory.setCheckpointFile(checkpointFile);
+		file = factory.getFileInstance(testFile.getPath());
+		lineStream = ((ContentLineStreamProvider) file)
+				.open(new FileOpenOptionBuilder().tailMode().build());
+		helper.registerClosable(lineStream);
+		line = lineStream.poll(1, TimeUnit.SECONDS);
+		assertThat(line, is(notNullValue()));
+		assertThat(line.getLine(), is(helper.line("newline1")));
+		lineStream.close();
+	}
+
+	@Test(timeout = 10000)
+	public void testUniqueFileCheckpointAfterTruncate() throws Exception {
+		File testFile = helper.copy(new File("src/test/data/sample_file1.txt"));
+		File checkpointFile = File.createTempFile("offset", ".checkpoint");
+		checkpointFile.deleteOnExit();
+		factory.setCheckpointFile(checkpointFile);
+		FileInstance file = factory.getFileInstance(testFile.getPath());
+		ContentLineStream lineStream = ((ContentLineStreamProvider) file)
+				.open(new FileOpenOptionBuilder().tailMode().build());
+		ContentLineStream otherStream = ((ContentLineStreamProvider) file)
+				.open(new FileOpenOptionBuilder().tailMode().build());
+		helper.echo("line1", testFile);
+		assertThat(lineStream.take().getLine(), is(helper.line("line1")));
+		assertThat(otherStream.take().getLine(), is(helper.line("line1")));
+		// checkpoint is saved with head of old content
+		otherStream.close();
+		// copy truncate
+		helper.trancate(testFile, 0);
+		helper.echo("line2", testFile);
+		assertThat(lineStream.take().getLine(), is(helper.line("line2")));
+		lineStream.close();
+		factory.close();
+		// written when stopped
+		helper.echo("line3", testFile);
+		factory = new MonitorFileFactory();
+		factory.setCheckpointFile(checkpointFile);
+		file = factory.getFileInstance(testFile.getPath());
+		lineStream = ((ContentLineStreamProvider) file)
+				.open(new FileOpenOptionBuilder().tailMode().build());
+		helper.registerClosable(lineStream);
+		ContentLine line = lineStream.poll(1, TimeUnit.SECONDS);
+		assertThat(line, is(notNullValue()));
+		assertThat(line.getLine(), is(helper.line("line3")));
+		lineStream.close();
+	}
+
+	@Test(timeout = 10000)
+	public void testUniqueFileCheckpointOfSlowestStream() throws Exception {
+		File testFile = helper.copy(new File("src/test/data/sample_file1.txt"));
+		File checkpointFile = File.createTempFile("offset", ".checkpoint");
+		checkpointFile.deleteOnExit();
+		factory.setCheckpointFile(checkpointFile);
+		FileInstance file = factory.getFileInstance(testFile.getPath());
+		ContentLineStream slowStream = ((ContentLineStreamProvider) file)
+				.open(new FileOpenOptionBuilder().tailMode().build());
+		helper.registerClosable(slowStream);
+		ContentLineStream fastStream = ((ContentLineStreamProvider) file)
+				.open(new FileOpenOptionBuilder().tailMode().build());
+		helper.registerClosable(fastStream);
+		helper.echo("line1", testFile);
+		helper.echo("line2", testFile);
+		assertThat(slowStream.take().getLine(), is(helper.line("line1")));
+		assertThat(fastStream.take().getLine(), is(helper.line("line1")));
+		assertThat(fastStream.take().getLine(), is(helper.line("line2")));
+		factory.close();
+		// resume after the line taken by all streams
+		factory = new MonitorFileFactory();
+		factory.setCheckpointFile(checkpointFile);
+		file = factory.getFileInstance(testFile.getPath());
+		ContentLineStream lineStream = ((ContentLineStreamProvider) file)
+				.open(new FileOpenOptionBuilder().tailMode().build());
+		helper.registerClosable(lineStream);
+		ContentLine line = lineStream.poll(1, TimeUnit.SECONDS);
+		assertThat(line, is(notNullValue()));
+		assertThat(line.getLine(), is(helper.line("line2")));
+		lineStream.close();
+	}
+
+	@Test(timeout = 5000)
+	public void testUniqueFileHandlePoolEviction() throws Exception {
+		File testFile1 = helper.copy(new File("src/test/data/sample_file1.txt"),
+				"sample_file1.txt");
+		File testFile2 = helper.copy(new File("src/test/data/sample_file1.txt"),
+				"sample_file2.txt");
+		factory.setMaxOpenFiles(1);
+		FileInstance file1 = factory.getFileInstance(testFile1.getPath());
+		ContentLineStream lineStream1 = ((ContentLineStreamProvider) file1)
+				.open(new FileOpenOptionBuilder().tailMode().build());
+		helper.registerClosable(lineStream1);
+		FileInstance file2 = factory.getFileInstance(testFile2.getPath());
+		ContentLineStream lineStream2 = ((ContentLineStreamProvider) file2)
+				.open(new FileOpenOptionBuilder().tailMode().build());
+		helper.registerClosable(lineStream2);
+		FileStatistics.HandlePoolStatistics stats = factory.getStatistics()
+				.handlePoolStatistics();
+		// first one is evicted by second one
+		assertThat(factory.getStatistics().ioResourceCount().get(),
+				is(equalTo(1)));
+		assertThat(stats.evictionCount(), is(equalTo(1L)));
+		long missCount = stats.missCount();
+		helper.echo("line1", testFile1);
+		ContentLine line = lineStream1.take();
+		assertThat(line.getLine(), is(helper.line("line1")));
+		// re-open at saved position
+		assertThat(stats.missCount(), is(equalTo(missCount + 1)));
+		assertThat(stats.evictionCount(), is(equalTo(2L)));
+		assertThat(factory.getStatistics().ioResourceCount().get(),
+				is(equalTo(1)));
+		lineStream1.close();
+		lineStream2.close();
+	}
+
 	@Test
 	public void testUniqueFileGetContent() throws Exception {
 		File testFile = helper.copy(new File("src/test/data/sample_file1.txt"));
@@ -297,6 +520,230 @@ public class FileInstanceTestCase {
 		lineStream.close();
 	}
 
+	@Test(timeout = 5000)
+	public void testUniqueFileTruncate() throws Exception {
+		File testFile = helper.copy(new File("src/test/data/sample_file1.txt"));
+		FileInstance file = factory.getFileInstance(testFile.getPath());
+		ContentLineStream lineStream = ((ContentLineStreamProvider) file)
+				.open(new FileOpenOptionBuilder().tailMode().build());
+		helper.registerClosable(lineStream);
+		final LinkedList<FileInstance> truncated = new LinkedList<FileInstance>();
+		class TruncateObserver implements ContentLineSourceObserver,
+				ContentLineTruncateObserver {
+
+			@Override
+			public void sourceFileCreated(FileInstance file, Object provider) {
+			}
+
+			@Override
+			public void sourceFileDeleted(FileInstance file, Object provider) {
+			}
+
+			@Override
+			public void sourceFileTruncated(FileInstance file, Object provider) {
+				truncated.add(file);
+			}
+		}
+		lineStream.setSourceObserver(new TruncateObserver());
+		helper.echo("line1", testFile);
+		ContentLine line = lineStream.take();
+		assertThat(line.getLine(), is(helper.line("line1")));
+		// copy truncate, and new line is shorter than read offset
+		helper.trancate(testFile, 0);
+		helper.echo("line2", testFile);
+		line = lineStream.take();
+		assertThat(line.getLine(), is(helper.line("line2")));
+		assertThat(line.getPosition(), is(equalTo(0L)));
+		assertThat(truncated, contains(file));
+		assertThat(factory.getStatistics().readStatistics(file)
+				.truncateCount(), is(equalTo(1L)));
+		lineStream.close();
+	}
+
+	@Test(timeout = 5000)
+	public void testMappedFileTruncate() throws Exception {
+		File testFile = helper.copy(new File("src/test/data/sample_file1.txt"));
+		FileInstance file = factory.getFileInstance(testFile.getPath());
+		ContentLineStream lineStream = ((ContentLineStreamProvider) file)
+				.open(new FileOpenOptionBuilder().tailMode().mappedMode()
+						.build());
+		helper.registerClosable(lineStream);
+		helper.echo("line1", testFile);
+		ContentLine line = lineStream.take();
+		assertThat(line.getLine(), is(helper.line("line1")));
+		helper.trancate(testFile, 0);
+		helper.echo("line2", testFile);
+		line = lineStream.take();
+		assertThat(line.getLine(), is(helper.line("line2")));
+		assertThat(line.getPosition(), is(equalTo(0L)));
+		lineStream.close();
+	}
+
+	@Test(timeout = 5000)
+	public void testAppendNotReadHead() throws Exception {
+		File testFile = helper.copy(new File("src/test/data/sample_file1.txt"));
+		for (int i = 0; i < 200; i++) {
+			helper.echo("backlog line " + i, testFile);
+		}
+		FileInstance file = factory.getFileInstance(testFile.getPath());
+		ContentLineStream lineStream = ((ContentLineStreamProvider) file)
+				.open(new FileOpenOptionBuilder().tailMode().build());
+		helper.registerClosable(lineStream);
+		long headReads = factory.getStatistics().signatureStatistics()
+				.missCount();
+		for (int i = 0; i < 5; i++) {
+			helper.echo("line" + i, testFile);
+			ContentLine line = lineStream.take();
+			assertThat(line.getLine(), is(helper.line("line" + i)));
+		}
+		// head is read only once as base, small appends far from head
+		assertThat(factory.getStatistics().signatureStatistics().missCount()
+				- headReads, is(lessThanOrEqualTo(1L)));
+		lineStream.close();
+	}
+
+	@Test(timeout = 5000)
+	public void testUniqueFileMappedReadLines() throws Exception {
+		File testFile = helper.copy(new File("src/test/data/sample_file1.txt"));
+		FileInstance file = factory.getFileInstance(testFile.getPath());
+		ContentLineStream lineStream = ((ContentLineStreamProvider) file)
+				.open(new FileOpenOptionBuilder().tailMode().mappedMode()
+						.build());
+		helper.registerClosable(lineStream);
+		helper.echo("line1", testFile);
+		helper.print("line", testFile);
+		ContentLine line = lineStream.take();
+		assertThat(line.getLine(), is(helper.line("line1")));
+		line = lineStream.poll(1, TimeUnit.SECONDS);
+		assertThat(line, is(nullValue()));
+		helper.echo("2", testFile);
+		helper.echo("line3", testFile);
+		LinkedList<ContentLine> list = new LinkedList<ContentLine>();
+		int count = lineStream.drainTo(list, 3);
+		assertThat(count, is(equalTo(2)));
+		assertThat(list.get(0).getLine(), is(helper.line("line2")));
+		assertThat(list.get(1).getLine(), is(helper.line("line3")));
+		assertThat(list.get(1).getPosition() + list.get(1).getLine().length,
+				is(equalTo(testFile.length())));
+		lineStream.close();
+	}
+
+	@Test(timeout = 5000)
+	public void testDrainToPushBackNotAddedLines() throws Exception {
+		File testFile = helper.create("pushback.log");
+		helper.print(lines("line", 10), testFile);
+		FileInstance file = factory.getFileInstance(testFile.getPath());
+		ContentLineStream lineStream = ((ContentLineStreamProvider) file)
+				.open(new FileOpenOptionBuilder().build());
+		helper.registerClosable(lineStream);
+		// rejects third line, so 3 lines of the batch are pushed back
+		LinkedList<ContentLine> list = new LinkedList<ContentLine>() {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public boolean add(ContentLine line) {
+				if (size() == 2) {
+					throw new IllegalStateException("full");
+				}
+				return super.add(line);
+			}
+		};
+		try {
+			lineStream.drainTo(list, 5);
+			Assert.fail("expect add failure");
+		} catch (IllegalStateException e) {
+		}
+		LinkedList<ContentLine> rest = new LinkedList<ContentLine>();
+		assertThat(lineStream.drainTo(rest, 10), is(equalTo(8)));
+		for (int i = 0; i < 8; i++) {
+			assertThat(rest.get(i).getLine(), is(helper.line("line" + (i + 2))));
+		}
+		lineStream.close();
+	}
+
+	@Test(timeout = 10000)
+	public void testUniqueFileMappedBacklogAndTail() throws Exception {
+		File testFile = helper.create("mapped.log");
+		// backlog larger than mapped read threshold
+		helper.print(lines("backlog", 10000), testFile);
+		FileInstance file = factory.getFileInstance(testFile.getPath());
+		ContentLineStream lineStream = ((ContentLineStreamProvider) file)
+				.open(new FileOpenOptionBuilder().mappedMode().build());
+		helper.registerClosable(lineStream);
+		assertThat(drainLines(lineStream, 10000), is(equalTo(testFile.length())));
+		// small tail is read without mapping
+		helper.echo("tail1", testFile);
+		ContentLine line = lineStream.take();
+		assertThat(line.getLine(), is(helper.line("tail1")));
+		assertThat(line.getPosition() + line.getLineLength(),
+				is(equalTo(testFile.length())));
+		// large append is mapped again
+		helper.print(lines("more", 10000), testFile);
+		assertThat(drainLines(lineStream, 10000), is(equalTo(testFile.length())));
+		lineStream.close();
+	}
+
+	private String lines(String prefix, int count) {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			builder.append(new String(helper.line(prefix + i)));
+		}
+		return builder.toString();
+	}
+
+	// return end position of last line, lines must be contiguous
+	private long drainLines(ContentLineStream lineStream, int count)
+			throws Exception {
+		LinkedList<ContentLine> list = new LinkedList<ContentLine>();
+		while (list.size() < count) {
+			ContentLine line = lineStream.poll(1, TimeUnit.SECONDS);
+			assertThat(line, is(notNullValue()));
+			list.add(line);
+			lineStream.drainTo(list, count - list.size());
+		}
+		long position = list.getFirst().getPosition();
+		for (ContentLine line : list) {
+			assertThat(line.getPosition(), is(equalTo(position)));
+			position += line.getLineLength();
+		}
+		return position;
+	}
+
+	@Test(timeout = 5000)
+	public void testUniqueFileSharedBufferReadLines() throws Exception {
+		File testFile = helper.copy(new File("src/test/data/sample_file1.txt"));
+		FileInstance file = factory.getFileInstance(testFile.getPath());
+		ContentLineStream lineStream = ((ContentLineStreamProvider) file)
+				.open(new FileOpenOptionBuilder().tailMode().sharedBufferMode()
+						.build());
+		helper.registerClosable(lineStream);
+		helper.echo("line1", testFile);
+		helper.print("line", testFile);
+		ContentLine line = lineStream.take();
+		byte[] expected = helper.line("line1");
+		assertThat(line.getLineLength(), is(equalTo(expected.length)));
+		assertThat(Arrays.copyOfRange(line.getLineBuffer(),
+				line.getLineOffset(),
+				line.getLineOffset() + line.getLineLength()), is(expected));
+		line.release();
+		line = lineStream.poll(1, TimeUnit.SECONDS);
+		assertThat(line, is(nullValue()));
+		helper.echo("2", testFile);
+		helper.echo("line3", testFile);
+		LinkedList<ContentLine> list = new LinkedList<ContentLine>();
+		int count = lineStream.drainTo(list, 3);
+		assertThat(count, is(equalTo(2)));
+		assertThat(list.get(0).getLine(), is(helper.line("line2")));
+		assertThat(list.get(1).getLine(), is(helper.line("line3")));
+		assertThat(list.get(1).getPosition() + list.get(1).getLine().length,
+				is(equalTo(testFile.length())));
+		// materialized content is kept after release
+		list.get(0).release();
+		assertThat(list.get(0).getLine(), is(helper.line("line2")));
+		lineStream.close();
+	}
+
 	@Test(timeout = 5000)
 	public void testUniqueFilePartialLineRead() throws Exception {
 		File testFile = helper.copy(new File("src/test/data/sample_file1.txt"));
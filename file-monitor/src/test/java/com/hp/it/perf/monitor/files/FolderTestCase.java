@@ -7,8 +7,10 @@ import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.lessThan;
 import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
 
 import java.io.EOFException;
 import java.io.File;
@@ -19,6 +21,8 @@ import java.util.List;
 import java.util.Queue;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 import org.junit.After;
@@ -98,6 +102,185 @@ public class FolderTestCase {
 		lineStream.close();
 	}
 
+	@Test(timeout = 5000)
+	public void testFolderDispatchStatistics() throws Exception {
+		File testFile1 = helper
+				.copy(new File("src/test/data/sample_file1.txt"));
+		FileSet folder = factory.getFileSet(testFile1.getParent());
+		ContentLineStream lineStream = createLineStream(folder);
+		helper.registerClosable(lineStream);
+		String data = "newline";
+		helper.echo(data, testFile1);
+		ContentLine line = lineStream.take();
+		assertThat(line, is(notNullValue()));
+		FileStatistics.DispatchStatistics stats = factory.getStatistics()
+				.dispatchStatistics(folder);
+		// processed in dispatch thread after content change dispatched
+		while (stats.queueDepth() > 0) {
+			Thread.sleep(10);
+		}
+		assertThat(stats.processLatency().count(),
+				is(greaterThanOrEqualTo(1L)));
+		assertThat(stats.processLatency().max(), is(greaterThan(0L)));
+		lineStream.close();
+	}
+
+	@Test(timeout = 5000)
+	public void testEventCoalesceWindow() throws Exception {
+		factory.setCoalesceWindow(50);
+		File testFile1 = helper
+				.copy(new File("src/test/data/sample_file1.txt"));
+		FileSet folder = factory.getFileSet(testFile1.getParent());
+		ContentLineStream lineStream = createLineStream(folder);
+		helper.registerClosable(lineStream);
+		int count = 100;
+		for (int i = 0; i < count; i++) {
+			helper.echo("line" + i, testFile1);
+		}
+		for (int i = 0; i < count; i++) {
+			ContentLine line = lineStream.take();
+			assertThat(line.getLine(), is(helper.line("line" + i)));
+		}
+		FileStatistics.DispatchStatistics stats = factory.getStatistics()
+				.dispatchStatistics(folder);
+		// merged count depends on watch polls, see MonitorFolderEntryTestCase
+		assertThat(stats.eventCount(), is(greaterThan(0L)));
+		lineStream.close();
+	}
+
+	@Test(timeout = 8000)
+	public void testFolderTree() throws Exception {
+		File testFile1 = helper
+				.copy(new File("src/test/data/sample_file1.txt"));
+		File subFolder1 = new File(testFile1.getParentFile(), "day1");
+		subFolder1.mkdirs();
+		File testFile2 = helper.copy(
+				new File("src/test/data/sample_file2.txt"),
+				"day1/sample_file2.txt");
+		FileSet tree = factory.getFileTree(testFile1.getParent(),
+				new FilenameFilter() {
+
+					@Override
+					public boolean accept(String name) {
+						return name.startsWith("sample_file");
+					}
+				});
+		assertThat(tree.listInstances().size(), is(equalTo(2)));
+		ContentLineStream lineStream = createLineStream(tree);
+		helper.registerClosable(lineStream);
+		helper.echo("line1", testFile2);
+		ContentLine line = lineStream.take();
+		assertThat(line, is(notNullValue()));
+		assertThat(line.getLine(), is(helper.line("line1")));
+		// file set of folder in tree has its own name filter, and watch of
+		// tree is kept
+		File otherFile = new File(subFolder1, "other.log");
+		helper.echo("other", otherFile);
+		assertThat(factory.getFileInstance(otherFile.getPath()).getName(),
+				is(equalTo(otherFile.getName())));
+		FileSet subSet = factory.getFileSet(subFolder1.getPath());
+		assertThat(subSet.listInstances().size(), is(equalTo(2)));
+		final BlockingQueue<FileInstance> changed = new LinkedBlockingQueue<FileInstance>();
+		((ContentLineStreamProvider) subSet)
+				.addFileContentChangeListener(new FileContentChangeListener() {
+
+					@Override
+					public void onContentChanged(FileInstance instance) {
+						changed.add(instance);
+					}
+				});
+		helper.echo("line3", testFile2);
+		// other.log may be notified before
+		while (!changed.take().getName().equals(testFile2.getName())) {
+		}
+		line = lineStream.take();
+		assertThat(line.getLine(), is(helper.line("line3")));
+		// new sub-folder is monitored, and read from start (file created
+		// right after folder)
+		File subFolder2 = new File(testFile1.getParentFile(), "day2");
+		subFolder2.mkdirs();
+		File testFile3 = new File(subFolder2, "sample_file3.txt");
+		helper.echo("line2", testFile3);
+		line = lineStream.take();
+		assertThat(line, is(notNullValue()));
+		assertThat(line.getLine(), is(helper.line("line2")));
+		assertThat(tree.listInstances().size(), is(equalTo(3)));
+		assertThat(testFile3.delete(), is(true));
+		assertThat(subFolder2.delete(), is(true));
+		while (tree.listInstances().size() > 2) {
+			Thread.sleep(100L);
+		}
+		lineStream.close();
+	}
+
+	@Test(timeout = 10000)
+	public void testLargeFolderScan() throws Exception {
+		File testFile1 = helper
+				.copy(new File("src/test/data/sample_file1.txt"));
+		int count = 600;
+		for (int i = 2; i <= count; i++) {
+			helper.echo("line" + i, new File(testFile1.getParentFile(),
+					"sample_file" + i + ".txt"));
+		}
+		FileSet folder = factory.getFileSet(testFile1.getParent());
+		List<? extends FileInstance> instances = folder.listInstances();
+		assertThat(instances.size(), is(equalTo(count)));
+		for (FileInstance instance : instances) {
+			FileMetadata metadata = instance.getMetadata(false);
+			File file = new File(metadata.getPath());
+			assertThat(metadata.getLength(),
+					is(equalTo(String.valueOf(file.length()))));
+			assertThat(metadata.getLastModifiedDate(),
+					is(equalTo(file.lastModified())));
+			assertThat(metadata.getRealPath(),
+					is(equalTo(file.getCanonicalPath())));
+			assertThat(metadata.toURL(), is(equalTo(file.toURI().toURL())));
+		}
+		ContentLineStream lineStream = createLineStream(folder);
+		helper.registerClosable(lineStream);
+		helper.echo("newline", testFile1);
+		ContentLine line = lineStream.take();
+		assertThat(line, is(notNullValue()));
+		assertThat(line.getLine(), is(helper.line("newline")));
+		lineStream.close();
+	}
+
+	@Test(timeout = 8000)
+	public void testFileInstanceLookup() throws Exception {
+		File testFile1 = helper
+				.copy(new File("src/test/data/sample_file1.txt"));
+		int count = 200;
+		for (int i = 2; i <= count; i++) {
+			helper.echo("line" + i, new File(testFile1.getParentFile(),
+					"sample_file" + i + ".txt"));
+		}
+		FileSet folder = factory.getFileSet(testFile1.getParent());
+		List<? extends FileInstance> instances = folder.listInstances();
+		assertThat(instances.size(), is(equalTo(count)));
+		// not changed, so same list
+		Assert.assertSame(instances, folder.listInstances());
+		ContentLineStream lineStream = createLineStream(folder);
+		helper.registerClosable(lineStream);
+		File newFile = new File(testFile1.getParentFile(), "sample_file0.txt");
+		helper.echo("newfile", newFile);
+		ContentLine line = lineStream.take();
+		assertThat(line.getLine(), is(helper.line("newfile")));
+		assertThat(instances.size(), is(equalTo(count)));
+		assertThat(folder.listInstances().size(), is(equalTo(count + 1)));
+		assertThat(line.getFileInstance().getName(),
+				is(equalTo(newFile.getName())));
+		lineStream.close();
+		// factory looks up by name in a new scanned folder
+		for (FileInstance instance : new FileInstance[] { instances.get(0),
+				instances.get(count - 1) }) {
+			String path = instance.getMetadata(false).getPath();
+			assertThat(factory.getFileInstance(path).getName(),
+					is(equalTo(instance.getName())));
+		}
+		assertThat(factory.getFileInstance(newFile.getPath()).getName(),
+				is(equalTo(newFile.getName())));
+	}
+
 	protected ContentLineStream createLineStream(FileSet folder)
 			throws IOException {
 		return ((ContentLineStreamProvider) folder)
@@ -461,4 +644,33 @@ public class FolderTestCase {
 		lineStream.close();
 	}
 
+	@Test(timeout = 8000)
+	public void testRoundRobinRead() throws Exception {
+		File testFile1 = helper
+				.copy(new File("src/test/data/sample_file1.txt"));
+		File testFile2 = helper.copy(
+				new File("src/test/data/sample_file1.txt"), "sample_file2.txt");
+		FileSet folder = factory.getFileSet(testFile1.getParent());
+		ContentLineStream lineStream = ((ContentLineStreamProvider) folder)
+				.open(new FileOpenOptionBuilder().tailMode()
+						.schedulePolicy(ReadSchedulePolicies.roundRobin())
+						.build());
+		helper.registerClosable(lineStream);
+		helper.print("line1\nline2\nline3\n", testFile1);
+		helper.print("line1\nline2\nline3\n", testFile2);
+		// let both files in change queue
+		Thread.sleep(1000L);
+		FileInstance lastFile = null;
+		for (int i = 0; i < 6; i++) {
+			ContentLine line = lineStream.take();
+			assertThat(line, is(notNullValue()));
+			assertThat(line.getFileInstance(), is(not(lastFile)));
+			lastFile = line.getFileInstance();
+		}
+		ScheduleLag lag = ScheduleLag.of(lastFile);
+		assertThat(lag, is(notNullValue()));
+		assertThat(lag.getCount(), is(greaterThanOrEqualTo(3L)));
+		lineStream.close();
+	}
+
 }
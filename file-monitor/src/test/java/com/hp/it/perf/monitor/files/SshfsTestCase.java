@@ -388,4 +388,24 @@ public class SshfsTestCase {
 		assertThat(infos.size(), is(equalTo(1)));
 		lineStream.close();
 	}
+
+	@Test(timeout = 10000)
+	public void testSignatureStatistics() throws Exception {
+		File testFile1 = helper
+				.copy(new File("src/test/data/sample_file1.txt"));
+		FileSet folder = factory.getFileSet(testFile1.getParent());
+		assertThat(folder.listInstances().size(), is(equalTo(1)));
+		FileStatistics.SignatureStatistics signatureStatistics = factory
+				.getStatistics().signatureStatistics();
+		long missCount = signatureStatistics.missCount();
+		// new file is checked by content signature
+		File testFile2 = helper
+				.copy(new File("src/test/data/sample_file2.txt"));
+		while (folder.listInstances().size() < 2) {
+			Thread.sleep(100L);
+		}
+		assertThat(signatureStatistics.missCount(),
+				is(greaterThan(missCount)));
+		assertThat(signatureStatistics.bytesRead(), is(greaterThan(0L)));
+	}
 }
@@ -0,0 +1,237 @@
+package com.hp.it.perf.monitor.files.nio;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hp.it.perf.monitor.files.nio.AdaptivePollingWatchService.PollingWatchKey;
+
+// poll is driven by test with given time, and intervals are long enough to
+// keep poll thread away
+public class AdaptivePollingWatchServiceTestCase {
+
+	private static final long MIN = TimeUnit.MINUTES.toNanos(1);
+
+	private static final long MAX = MIN * 8;
+
+	private static final long IDLE = MAX * 4;
+
+	private Path folder;
+
+	private AdaptivePollingWatchService watchService;
+
+	@Before
+	public void setUp() throws Exception {
+		folder = Files.createTempDirectory("adaptive-polling");
+		watchService = new AdaptivePollingWatchService(
+				(int) TimeUnit.NANOSECONDS.toMillis(MIN),
+				(int) TimeUnit.NANOSECONDS.toMillis(MAX),
+				(int) TimeUnit.NANOSECONDS.toMillis(IDLE));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		watchService.close();
+		File[] files = folder.toFile().listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		Files.deleteIfExists(folder);
+	}
+
+	@Test(timeout = 10000)
+	public void testCreateModifyDelete() throws Exception {
+		write("a.log", "a1");
+		PollingWatchKey key = register();
+		long t = key.nextPollNanoTime;
+
+		write("b.log", "b1");
+		key.poll(t);
+		// created is held until folder is quiet
+		assertThat(watchService.poll(), is(nullValue()));
+		key.poll(t + MIN);
+		assertThat(events(key), contains("ENTRY_CREATE b.log"));
+
+		write("a.log", "a2");
+		key.poll(t + 2 * MIN);
+		assertThat(events(key), contains("ENTRY_MODIFY a.log"));
+
+		delete("b.log");
+		key.poll(t + 3 * MIN);
+		assertThat(watchService.poll(), is(nullValue()));
+		key.poll(t + 4 * MIN);
+		assertThat(events(key), contains("ENTRY_DELETE b.log"));
+	}
+
+	@Test(timeout = 10000)
+	public void testCreateAndDeleteInSameBatch() throws Exception {
+		PollingWatchKey key = register();
+		long t = key.nextPollNanoTime;
+
+		write("a.log", "a1");
+		key.poll(t);
+		delete("a.log");
+		write("a.log.1", "a1");
+		key.poll(t + MIN);
+		assertThat(watchService.poll(), is(nullValue()));
+		key.poll(t + 2 * MIN);
+		// net change only
+		assertThat(events(key), contains("ENTRY_CREATE a.log.1"));
+	}
+
+	@Test(timeout = 10000)
+	public void testHoldUntilMaxInterval() throws Exception {
+		PollingWatchKey key = register();
+		long t = key.nextPollNanoTime;
+
+		for (int i = 0; i < 8; i++) {
+			write("a.log." + i, "a");
+			key.poll(t + i * MIN);
+			assertThat(watchService.poll(), is(nullValue()));
+		}
+		write("a.log.8", "a");
+		// still changing, but held for max interval
+		key.poll(t + 8 * MIN);
+		assertThat(events(key), hasSize(9));
+	}
+
+	@Test(timeout = 10000)
+	public void testBackoffInterval() throws Exception {
+		write("a.log", "a1");
+		PollingWatchKey key = register();
+		assertThat(key.intervalNanos, is(equalTo(MIN)));
+
+		key.poll(key.nextPollNanoTime);
+		assertThat(key.intervalNanos, is(equalTo(2 * MIN)));
+		key.poll(key.nextPollNanoTime);
+		assertThat(key.intervalNanos, is(equalTo(4 * MIN)));
+		key.poll(key.nextPollNanoTime);
+		assertThat(key.intervalNanos, is(equalTo(MAX)));
+		key.poll(key.nextPollNanoTime);
+		assertThat(key.intervalNanos, is(equalTo(MAX)));
+
+		write("b.log", "b1");
+		key.poll(key.nextPollNanoTime);
+		assertThat(key.intervalNanos, is(equalTo(MIN)));
+		key.poll(key.nextPollNanoTime);
+		assertThat(key.intervalNanos, is(equalTo(2 * MIN)));
+		assertThat(events(key), contains("ENTRY_CREATE b.log"));
+	}
+
+	@Test(timeout = 10000)
+	public void testQuietFilesBackedOffPastMaxInterval() throws Exception {
+		for (int i = 0; i < 20; i++) {
+			write("a.log." + i, "a");
+		}
+		PollingWatchKey key = register();
+		long t = key.nextPollNanoTime - key.intervalNanos;
+
+		// folder and all files, without listing
+		long stats = watchService.statCount();
+		key.poll(t + MIN);
+		assertThat(watchService.statCount() - stats, is(equalTo(21L)));
+
+		// quiet files are backed off
+		stats = watchService.statCount();
+		key.poll(t + 2 * MIN);
+		assertThat(watchService.statCount() - stats, is(equalTo(1L)));
+		key.poll(t + 3 * MIN);
+		key.poll(t + 7 * MIN);
+		key.poll(t + 15 * MIN);
+
+		// and past max interval
+		stats = watchService.statCount();
+		key.poll(t + 15 * MIN + MAX);
+		assertThat(watchService.statCount() - stats, is(equalTo(1L)));
+
+		// checked together in one batch, and append is found in own interval
+		write("a.log.0", "a2");
+		stats = watchService.statCount();
+		key.poll(t + 31 * MIN);
+		assertThat(watchService.statCount() - stats, is(equalTo(21L)));
+		assertThat(events(key), contains("ENTRY_MODIFY a.log.0"));
+	}
+
+	@Test(timeout = 10000)
+	public void testCreatedWithFolderTimeNotChanged() throws Exception {
+		write("a.log", "a1");
+		PollingWatchKey key = register();
+		long t = key.nextPollNanoTime - key.intervalNanos;
+
+		FileTime folderTime = Files.getLastModifiedTime(folder);
+		write("b.log", "b1");
+		Files.setLastModifiedTime(folder, folderTime);
+		key.poll(t + MIN);
+		assertThat(watchService.poll(), is(nullValue()));
+		// listed in sweep
+		key.poll(t + IDLE);
+		key.poll(t + IDLE + MIN);
+		assertThat(events(key), contains("ENTRY_CREATE b.log"));
+	}
+
+	@Test(timeout = 10000)
+	public void testRemovedWithFolderTimeNotChanged() throws Exception {
+		write("a.log", "a1");
+		write("b.log", "b1");
+		PollingWatchKey key = register();
+		long t = key.nextPollNanoTime;
+		key.poll(t);
+
+		FileTime folderTime = Files.getLastModifiedTime(folder);
+		delete("b.log");
+		Files.setLastModifiedTime(folder, folderTime);
+		key.poll(t + MIN);
+		// found when quiet b.log is checked again, and held one more poll
+		key.poll(t + 2 * MIN);
+		key.poll(t + 3 * MIN);
+		assertThat(events(key), contains("ENTRY_DELETE b.log"));
+	}
+
+	private PollingWatchKey register() throws Exception {
+		return (PollingWatchKey) watchService.register(folder, ENTRY_CREATE,
+				ENTRY_MODIFY, ENTRY_DELETE);
+	}
+
+	private List<String> events(PollingWatchKey key) throws Exception {
+		WatchKey signalled = watchService.poll();
+		assertThat(signalled, is(sameInstance((WatchKey) key)));
+		List<String> events = new ArrayList<String>();
+		for (WatchEvent<?> event : key.pollEvents()) {
+			events.add(event.kind().name() + " " + event.context());
+		}
+		key.reset();
+		return events;
+	}
+
+	private void write(String name, String line) throws Exception {
+		// let folder and file modified time changed
+		Thread.sleep(20L);
+		Files.write(folder.resolve(name),
+				(line + "\n").getBytes(Charset.forName("UTF-8")),
+				StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+	}
+
+	private void delete(String name) throws Exception {
+		Thread.sleep(20L);
+		Files.delete(folder.resolve(name));
+	}
+
+}
@@ -0,0 +1,105 @@
+package com.hp.it.perf.monitor.files.nio;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.WatchEvent;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hp.it.perf.monitor.files.DefaultFileStatistics.SignatureCount;
+import com.hp.it.perf.monitor.files.nio.FileKeyDetector.WatchEventKeys;
+
+// small rotation of RotationStormBenchmark, run in build
+public class ContentBasedFileKeyDetectorTestCase {
+
+	private static final int FILES = 30;
+
+	private Path folder;
+
+	@Before
+	public void setUp() throws Exception {
+		folder = Files.createTempDirectory("content-key");
+		long now = System.currentTimeMillis();
+		for (int i = FILES; i >= 0; i--) {
+			Path file = logFile(i);
+			Files.write(file, ("rotated content " + i + "\n")
+					.getBytes(Charset.forName("UTF-8")));
+			file.toFile().setLastModified(now - (i + 1) * 1000L);
+		}
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		File[] files = folder.toFile().listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		Files.deleteIfExists(folder);
+	}
+
+	@Test(timeout = 30000)
+	public void testIndexedMatchSameAsScan() throws Exception {
+		ContentBasedFileKeyDetector scanDetector = createDetector(false);
+		ContentBasedFileKeyDetector indexedDetector = createDetector(true);
+		List<WatchEvent<?>> events = new ArrayList<WatchEvent<?>>();
+		for (int i = 0; i <= FILES; i++) {
+			events.add(RotationStormBenchmark.modifyEvent(folder
+					.relativize(logFile(i))));
+		}
+		for (int round = 0; round < 3; round++) {
+			rotate(round);
+			List<WatchEventKeys> scanKeys = scanDetector
+					.detectWatchEvents(events);
+			List<WatchEventKeys> indexedKeys = indexedDetector
+					.detectWatchEvents(events);
+			assertThat(RotationStormBenchmark.describe(indexedKeys),
+					is(equalTo(RotationStormBenchmark.describe(scanKeys))));
+			int renamed = 0;
+			for (WatchEventKeys keys : indexedKeys) {
+				if (keys.event.kind() == MonitorFolderEntry.ENTRY_RENAME_TO) {
+					renamed++;
+				}
+			}
+			assertThat(renamed, is(greaterThanOrEqualTo(FILES)));
+		}
+	}
+
+	private ContentBasedFileKeyDetector createDetector(boolean indexedMatch) {
+		ContentBasedFileKeyDetector detector = new ContentBasedFileKeyDetector(
+				folder, new SignatureCache(SignatureCache.CACHE_SIZE,
+						new SignatureCount()));
+		detector.setIndexedMatch(indexedMatch);
+		for (int i = 0; i <= FILES; i++) {
+			detector.detectFileKey(logFile(i));
+		}
+		return detector;
+	}
+
+	private void rotate(int round) throws IOException {
+		Files.delete(logFile(FILES));
+		for (int i = FILES - 1; i >= 0; i--) {
+			Files.move(logFile(i), logFile(i + 1),
+					StandardCopyOption.ATOMIC_MOVE);
+		}
+		Files.write(logFile(0), ("new content " + round + "\n")
+				.getBytes(Charset.forName("UTF-8")));
+	}
+
+	private Path logFile(int index) {
+		return folder.resolve(index == 0 ? "app.log" : "app.log." + index);
+	}
+
+}
@@ -0,0 +1,70 @@
+package com.hp.it.perf.monitor.files.nio;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hp.it.perf.monitor.files.DefaultFileStatistics.HandlePoolCount;
+
+public class FileHandlePoolTestCase {
+
+	private File file;
+
+	private HandlePoolCount count;
+
+	private FileHandlePool pool;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("handle-pool", ".log");
+		count = new HandlePoolCount();
+		pool = new FileHandlePool(1, count);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		file.delete();
+	}
+
+	@Test
+	public void testEvictIdleReader() throws Exception {
+		RandomAccessFileReader reader1 = new RandomAccessFileReader(file);
+		RandomAccessFileReader reader2 = new RandomAccessFileReader(file);
+		RandomAccessFile handle1 = pool.lease(reader1);
+		RandomAccessFile handle2 = pool.lease(reader2);
+		try {
+			assertThat(count.evictionCount(), is(equalTo(1L)));
+			assertThat(count.overCapCount(), is(equalTo(0L)));
+		} finally {
+			handle1.close();
+			handle2.close();
+		}
+	}
+
+	@Test
+	public void testOverCapOnBusyReader() throws Exception {
+		RandomAccessFileReader reader1 = new RandomAccessFileReader(file) {
+			@Override
+			boolean isBusy() {
+				return true;
+			}
+		};
+		RandomAccessFileReader reader2 = new RandomAccessFileReader(file);
+		RandomAccessFile handle1 = pool.lease(reader1);
+		RandomAccessFile handle2 = pool.lease(reader2);
+		try {
+			assertThat(count.evictionCount(), is(equalTo(0L)));
+			assertThat(count.overCapCount(), is(equalTo(1L)));
+		} finally {
+			handle1.close();
+			handle2.close();
+		}
+	}
+
+}
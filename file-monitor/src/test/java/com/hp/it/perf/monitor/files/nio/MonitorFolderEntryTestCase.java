@@ -0,0 +1,151 @@
+package com.hp.it.perf.monitor.files.nio;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hp.it.perf.monitor.files.FileInstance;
+import com.hp.it.perf.monitor.files.FileStatistics.DispatchStatistics;
+
+// watch events are submitted by test, not by watch service
+public class MonitorFolderEntryTestCase {
+
+	private Path folder;
+
+	private MonitorFileFactory factory;
+
+	@Before
+	public void setUp() throws Exception {
+		folder = Files.createTempDirectory("folder-entry");
+		Files.write(folder.resolve("a.log"),
+				"line\n".getBytes(Charset.forName("UTF-8")));
+		factory = new MonitorFileFactory();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		factory.close();
+		File[] files = folder.toFile().listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		Files.deleteIfExists(folder);
+	}
+
+	@Test(timeout = 5000)
+	public void testFoldedEventsCoalesced() throws Exception {
+		MonitorFileFolder fileFolder = (MonitorFileFolder) factory
+				.getFileSet(folder.toString());
+		DispatchStatistics stats = factory.getStatistics()
+				.dispatchStatistics(fileFolder);
+		long events = stats.eventCount();
+		long coalesced = stats.coalescedCount();
+		long batches = stats.processLatency().count();
+		List<WatchEvent<?>> watchEvents = new ArrayList<WatchEvent<?>>();
+		watchEvents.add(modifyEvent("a.log", 3));
+		watchEvents.add(modifyEvent("a.log", 2));
+		fileFolder.getWatchEntry().submitEvent(watchEvents, System.nanoTime());
+		awaitBatches(stats, batches + 1);
+		assertThat(stats.eventCount() - events, is(equalTo(5L)));
+		// 3 folded by watch service, and 2 merged into first one
+		assertThat(stats.coalescedCount() - coalesced, is(equalTo(4L)));
+	}
+
+	@Test(timeout = 5000)
+	public void testEventCoalesceWindow() throws Exception {
+		factory.setCoalesceWindow(1000);
+		MonitorFileFolder fileFolder = (MonitorFileFolder) factory
+				.getFileSet(folder.toString());
+		DispatchStatistics stats = factory.getStatistics()
+				.dispatchStatistics(fileFolder);
+		long events = stats.eventCount();
+		long coalesced = stats.coalescedCount();
+		long batches = stats.processLatency().count();
+		for (int i = 0; i < 4; i++) {
+			fileFolder.getWatchEntry().submitEvent(
+					Collections.<WatchEvent<?>> singletonList(modifyEvent(
+							"a.log", 1)), System.nanoTime());
+		}
+		awaitBatches(stats, batches + 1);
+		// all in one batch
+		Thread.sleep(100L);
+		assertThat(stats.processLatency().count(), is(equalTo(batches + 1)));
+		assertThat(stats.eventCount() - events, is(equalTo(4L)));
+		assertThat(stats.coalescedCount() - coalesced, is(equalTo(3L)));
+	}
+
+	// watch is registered before scan, so create may come after file is
+	// scanned
+	@Test(timeout = 5000)
+	public void testCreateOfScannedFileIsContentChange() throws Exception {
+		MonitorFileFolder fileFolder = (MonitorFileFolder) factory
+				.getFileSet(folder.toString());
+		DispatchStatistics stats = factory.getStatistics()
+				.dispatchStatistics(fileFolder);
+		List<? extends FileInstance> instances = fileFolder.listInstances();
+		assertThat(instances.size(), is(equalTo(1)));
+		long batches = stats.processLatency().count();
+		fileFolder.getWatchEntry().submitEvent(
+				Collections.<WatchEvent<?>> singletonList(watchEvent(
+						StandardWatchEventKinds.ENTRY_CREATE, "a.log", 1)),
+				System.nanoTime());
+		awaitBatches(stats, batches + 1);
+		List<? extends FileInstance> newInstances = fileFolder.listInstances();
+		assertThat(newInstances.size(), is(equalTo(1)));
+		assertThat(newInstances.get(0), is(sameInstance(instances.get(0))));
+		// key mapping is kept
+		MonitorFileInstance instance = (MonitorFileInstance) instances.get(0);
+		assertThat(fileFolder.getFileInstance(instance.getFileKey()),
+				is(sameInstance((FileInstance) instance)));
+	}
+
+	private static void awaitBatches(DispatchStatistics stats, long batches)
+			throws InterruptedException {
+		while (stats.processLatency().count() < batches) {
+			Thread.sleep(10L);
+		}
+	}
+
+	private static WatchEvent<Path> modifyEvent(String name, int count) {
+		return watchEvent(StandardWatchEventKinds.ENTRY_MODIFY, name, count);
+	}
+
+	private static WatchEvent<Path> watchEvent(final WatchEvent.Kind<Path> kind,
+			String name, final int count) {
+		final Path path = Paths.get(name);
+		return new WatchEvent<Path>() {
+
+			@Override
+			public Kind<Path> kind() {
+				return kind;
+			}
+
+			@Override
+			public int count() {
+				return count;
+			}
+
+			@Override
+			public Path context() {
+				return path;
+			}
+		};
+	}
+
+}
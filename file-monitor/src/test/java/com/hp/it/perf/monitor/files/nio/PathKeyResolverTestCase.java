@@ -0,0 +1,100 @@
+package com.hp.it.perf.monitor.files.nio;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+// snapshot is taken at start of each event batch, as key detector does
+public class PathKeyResolverTestCase {
+
+	private Path folder;
+
+	private Path a;
+
+	private Path b;
+
+	private PathKeyResolver resolver;
+
+	@Before
+	public void setUp() throws Exception {
+		folder = Files.createTempDirectory("path-key");
+		a = folder.resolve("a.log");
+		b = folder.resolve("b.log");
+		Files.write(a, "a\n".getBytes(Charset.forName("UTF-8")));
+		Files.write(b, "b\n".getBytes(Charset.forName("UTF-8")));
+		resolver = new PathKeyResolver();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		for (File file : folder.toFile().listFiles()) {
+			file.delete();
+		}
+		Files.deleteIfExists(folder);
+	}
+
+	@Test
+	public void testSnapshotKeepsMappingAfterRename() throws Exception {
+		FileKey keyA = resolver.resolvePathKey(a);
+		assertThat(keyA, is(notNullValue()));
+		PathKeyResolver.Snapshot snapshot = resolver.snapshot();
+		int version = resolver.updateVersion();
+		Path c = folder.resolve("c.log");
+		Files.move(a, c);
+		// updated in same batch
+		assertThat(resolver.resolvePathKey(a, version), is(nullValue()));
+		assertThat(resolver.resolvePathKey(c, version), is(equalTo(keyA)));
+		assertThat(resolver.resolvePathByKey(keyA, version), is(equalTo(c)));
+		// snapshot is still before batch
+		assertThat(snapshot.resolveCachedPathKey(a, 0), is(equalTo(keyA)));
+		assertThat(snapshot.resolveCachedPath(keyA, 0), is(equalTo(a)));
+		assertThat(snapshot.resolveCachedPathKey(c, 0), is(nullValue()));
+		// next batch sees it
+		PathKeyResolver.Snapshot next = resolver.snapshot();
+		assertThat(next.resolveCachedPathKey(a, 0), is(nullValue()));
+		assertThat(next.resolveCachedPath(keyA, 0), is(equalTo(c)));
+	}
+
+	@Test
+	public void testSnapshotKeepsMappingAfterDeletedKeyRemoved()
+			throws Exception {
+		FileKey keyB = resolver.resolvePathKey(b);
+		PathKeyResolver.Snapshot snapshot = resolver.snapshot();
+		int version = resolver.updateVersion();
+		Files.delete(b);
+		// not resolved in this batch, so removed as deleted
+		assertThat(resolver.resolvePathByKey(keyB, version), is(nullValue()));
+		assertThat(resolver.resolvePathByKey(keyB, 0), is(nullValue()));
+		assertThat(snapshot.resolveCachedPathKey(b, 0), is(equalTo(keyB)));
+		assertThat(snapshot.resolveCachedPath(keyB, 0), is(equalTo(b)));
+		PathKeyResolver.Snapshot next = resolver.snapshot();
+		assertThat(next.resolveCachedPathKey(b, 0), is(nullValue()));
+		assertThat(next.resolveCachedPath(keyB, 0), is(nullValue()));
+	}
+
+	@Test
+	public void testSnapshotKeepsMappingAfterPathReplaced() throws Exception {
+		FileKey keyA = resolver.resolvePathKey(a);
+		FileKey keyB = resolver.resolvePathKey(b);
+		PathKeyResolver.Snapshot snapshot = resolver.snapshot();
+		int version = resolver.updateVersion();
+		// rotate: b is replaced by a
+		Files.delete(b);
+		Files.move(a, b);
+		assertThat(resolver.resolvePathKey(b, version), is(equalTo(keyA)));
+		assertThat(resolver.resolvePathByKey(keyB, version), is(nullValue()));
+		assertThat(snapshot.resolveCachedPathKey(a, 0), is(equalTo(keyA)));
+		assertThat(snapshot.resolveCachedPathKey(b, 0), is(equalTo(keyB)));
+		assertThat(snapshot.resolveCachedPath(keyA, 0), is(equalTo(a)));
+		assertThat(snapshot.resolveCachedPath(keyB, 0), is(equalTo(b)));
+	}
+
+}
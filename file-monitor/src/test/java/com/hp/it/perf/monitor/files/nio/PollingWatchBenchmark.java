@@ -0,0 +1,204 @@
+package com.hp.it.perf.monitor.files.nio;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchKey;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Poll one folder with many rotated files and one active file, by adaptive
+// polling and by full polling of jdk (list and read attributes of all files in
+// each 2s). Adaptive polling checks active file more often, but rotated files
+// are backed off to idle interval in warm up, and folder is listed only in
+// sweep, so it must take an order of magnitude less stats, and a fraction of
+// cpu (most of the rest is waking up for active file). Not run in build, run
+// it by
+// mvn test -Dtest=PollingWatchBenchmark [-Dbenchmark.files=2000]
+public class PollingWatchBenchmark {
+
+	private static final Logger log = LoggerFactory
+			.getLogger(PollingWatchBenchmark.class);
+
+	private static final int FILES = Integer.getInteger("benchmark.files",
+			2000);
+
+	private static final int SECONDS = Integer.getInteger(
+			"benchmark.seconds", 60);
+
+	// jdk polling watch service in high sensitivity
+	private static final int FULL_POLL_INTERVAL = 2000;
+
+	private static final int WRITE_INTERVAL = 100;
+
+	// until rotated files are backed off to idle interval
+	private static final int WARMUP_SECONDS = Integer.getInteger(
+			"benchmark.warmupSeconds", 35);
+
+	private static final ThreadMXBean threadBean = ManagementFactory
+			.getThreadMXBean();
+
+	private Path folder;
+
+	@Before
+	public void setUp() throws Exception {
+		folder = Files.createTempDirectory("polling-watch");
+		for (int i = 1; i <= FILES; i++) {
+			Files.write(folder.resolve("app.log." + i), ("rotated content "
+					+ i + "\n").getBytes(Charset.forName("UTF-8")));
+		}
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		File[] files = folder.toFile().listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		Files.deleteIfExists(folder);
+	}
+
+	@Test
+	public void testPollingWatch() throws Exception {
+		AdaptivePollingWatchService watchService = new AdaptivePollingWatchService(
+				AdaptivePollingWatchService.MIN_INTERVAL,
+				AdaptivePollingWatchService.MAX_INTERVAL,
+				AdaptivePollingWatchService.IDLE_INTERVAL);
+		long adaptiveStats;
+		long adaptiveCpuNanos;
+		int adaptiveSignals = 0;
+		try {
+			WatchKey key = watchService.register(folder, ENTRY_CREATE,
+					ENTRY_MODIFY, ENTRY_DELETE);
+			Thread pollThread = findThread("Polling watch thread");
+			long startTime = System.nanoTime()
+					+ TimeUnit.SECONDS.toNanos(WARMUP_SECONDS);
+			long endTime = startTime + TimeUnit.SECONDS.toNanos(SECONDS);
+			long stats = -1;
+			long cpuNanos = 0;
+			while (System.nanoTime() < endTime) {
+				if (stats < 0 && System.nanoTime() - startTime >= 0) {
+					stats = watchService.statCount();
+					cpuNanos = threadBean.getThreadCpuTime(pollThread.getId());
+					adaptiveSignals = 0;
+				}
+				write();
+				if (watchService.poll(WRITE_INTERVAL, TimeUnit.MILLISECONDS) != null) {
+					key.pollEvents();
+					key.reset();
+					adaptiveSignals++;
+				}
+			}
+			adaptiveStats = watchService.statCount() - stats;
+			adaptiveCpuNanos = threadBean.getThreadCpuTime(pollThread.getId())
+					- cpuNanos;
+		} finally {
+			watchService.close();
+		}
+
+		// scheduled in own thread like jdk, so wake up is counted too
+		final AtomicLong fullStatCount = new AtomicLong();
+		ScheduledExecutorService fullPollService = Executors
+				.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+					@Override
+					public Thread newThread(Runnable r) {
+						return new Thread(r, "Full polling thread");
+					}
+				});
+		long fullStats;
+		long fullCpuNanos;
+		try {
+			fullPollService.scheduleAtFixedRate(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						fullStatCount.addAndGet(fullPoll());
+					} catch (Exception e) {
+						log.warn("full poll got error", e);
+					}
+				}
+			}, 0, FULL_POLL_INTERVAL, TimeUnit.MILLISECONDS);
+			Thread pollThread = findThread("Full polling thread");
+			long startTime = System.nanoTime()
+					+ TimeUnit.SECONDS.toNanos(WARMUP_SECONDS);
+			long endTime = startTime + TimeUnit.SECONDS.toNanos(SECONDS);
+			long stats = -1;
+			long cpuNanos = 0;
+			while (System.nanoTime() < endTime) {
+				if (stats < 0 && System.nanoTime() - startTime >= 0) {
+					stats = fullStatCount.get();
+					cpuNanos = threadBean.getThreadCpuTime(pollThread.getId());
+				}
+				write();
+				Thread.sleep(WRITE_INTERVAL);
+			}
+			fullStats = fullStatCount.get() - stats;
+			fullCpuNanos = threadBean.getThreadCpuTime(pollThread.getId())
+					- cpuNanos;
+		} finally {
+			fullPollService.shutdownNow();
+		}
+
+		log.info(
+				"polling {} files for {} s: adaptive {} stats, {} ms cpu, {} signals; full {} stats, {} ms cpu",
+				new Object[] { FILES + 1, SECONDS, adaptiveStats,
+						adaptiveCpuNanos / 1000000, adaptiveSignals, fullStats,
+						fullCpuNanos / 1000000 });
+		assertThat(adaptiveSignals, is(greaterThan(0)));
+		assertThat(adaptiveStats, is(lessThan(fullStats / 10)));
+		assertThat(adaptiveCpuNanos, is(lessThan(fullCpuNanos / 3)));
+	}
+
+	private void write() throws Exception {
+		Files.write(folder.resolve("app.log"),
+				"active content\n".getBytes(Charset.forName("UTF-8")),
+				StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+	}
+
+	private int fullPoll() throws Exception {
+		int stats = 0;
+		DirectoryStream<Path> stream = Files.newDirectoryStream(folder);
+		try {
+			for (Path file : stream) {
+				Files.readAttributes(file, BasicFileAttributes.class);
+				stats++;
+			}
+		} finally {
+			stream.close();
+		}
+		return stats;
+	}
+
+	private static Thread findThread(String name) {
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (name.equals(thread.getName())) {
+				return thread;
+			}
+		}
+		throw new IllegalStateException("thread not found: " + name);
+	}
+
+}
@@ -0,0 +1,72 @@
+package com.hp.it.perf.monitor.files.nio;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hp.it.perf.monitor.files.ContentLine;
+import com.hp.it.perf.monitor.files.DefaultFileStatistics;
+
+public class RandomAccessFileReaderTestCase {
+
+	private File file;
+
+	private RandomAccessFileReader reader;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("file-reader", ".log");
+		DefaultFileStatistics statistics = new DefaultFileStatistics();
+		reader = new RandomAccessFileReader(file);
+		reader.setStatisticis(statistics);
+		reader.setHandlePool(new FileHandlePool(10,
+				statistics.handlePoolCount()));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		reader.close();
+		file.delete();
+	}
+
+	@Test
+	public void testBatchBufferReleasedAfterBacklog() throws Exception {
+		// backlog of 1M
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i < 99; i++) {
+			line.append('x');
+		}
+		line.append('\n');
+		append(line.toString(), 10 * 1024);
+		reader.open(0, false);
+		List<ContentLine> lines = new ArrayList<ContentLine>();
+		while (reader.readContentLines(lines, 1000) > 0) {
+			lines.clear();
+		}
+		// tailing after backlog read
+		append(line.toString(), 1);
+		assertThat(reader.readContentLines(lines, 1000), is(equalTo(1)));
+		assertThat(reader.bufferCapacity(), is(lessThanOrEqualTo(16 * 1024)));
+	}
+
+	private void append(String line, int count) throws Exception {
+		FileOutputStream out = new FileOutputStream(file, true);
+		try {
+			byte[] data = line.getBytes("UTF-8");
+			for (int i = 0; i < count; i++) {
+				out.write(data);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+}
@@ -0,0 +1,175 @@
+package com.hp.it.perf.monitor.files.nio;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hp.it.perf.monitor.files.DefaultFileStatistics.SignatureCount;
+import com.hp.it.perf.monitor.files.nio.FileKeyDetector.WatchEventKeys;
+
+// Replay rotation of many files in one folder on content based key detector,
+// with pair scan and indexed matcher. Not run in build, run it by
+// mvn test -Dtest=RotationStormBenchmark [-Dbenchmark.files=2000]
+public class RotationStormBenchmark {
+
+	private static final Logger log = LoggerFactory
+			.getLogger(RotationStormBenchmark.class);
+
+	private static final int FILES = Integer.getInteger("benchmark.files",
+			2000);
+
+	private static final int ROUNDS = Integer.getInteger("benchmark.rounds",
+			3);
+
+	private Path folder;
+
+	@Before
+	public void setUp() throws Exception {
+		folder = Files.createTempDirectory("rotation-storm");
+		long now = System.currentTimeMillis();
+		for (int i = FILES; i >= 0; i--) {
+			Path file = logFile(i);
+			Files.write(file, ("rotated content " + i + "\n")
+					.getBytes(Charset.forName("UTF-8")));
+			// every file has different modified time
+			file.toFile().setLastModified(now - (i + 1) * 1000L);
+		}
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		File[] files = folder.toFile().listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		Files.deleteIfExists(folder);
+	}
+
+	@Test
+	public void testRotationStorm() throws Exception {
+		replayRotationStorm(false);
+	}
+
+	// files are appended just before rotation, so modified/length are not
+	// matched, and left to signature and rename proposal
+	@Test
+	public void testRotationStormAppended() throws Exception {
+		replayRotationStorm(true);
+	}
+
+	private void replayRotationStorm(boolean append) throws Exception {
+		ContentBasedFileKeyDetector scanDetector = createDetector(false);
+		ContentBasedFileKeyDetector indexedDetector = createDetector(true);
+		List<WatchEvent<?>> events = new ArrayList<WatchEvent<?>>();
+		for (int i = 0; i <= FILES; i++) {
+			events.add(modifyEvent(folder.relativize(logFile(i))));
+		}
+		long scanNanos = 0;
+		long indexedNanos = 0;
+		for (int round = 0; round < ROUNDS; round++) {
+			rotate(round, append);
+			long startTime = System.nanoTime();
+			List<WatchEventKeys> scanKeys = scanDetector
+					.detectWatchEvents(events);
+			scanNanos += System.nanoTime() - startTime;
+			startTime = System.nanoTime();
+			List<WatchEventKeys> indexedKeys = indexedDetector
+					.detectWatchEvents(events);
+			indexedNanos += System.nanoTime() - startTime;
+			assertThat(describe(indexedKeys), is(equalTo(describe(scanKeys))));
+			// all rotated files are detected as renamed
+			int renamed = 0;
+			for (WatchEventKeys keys : indexedKeys) {
+				if (keys.event.kind() == MonitorFolderEntry.ENTRY_RENAME_TO) {
+					renamed++;
+				}
+			}
+			assertThat(renamed, is(greaterThanOrEqualTo(FILES)));
+		}
+		log.info(
+				"rotation storm of {} files in {} rounds (append {}): scan {} ms, indexed {} ms",
+				new Object[] { FILES, ROUNDS, append, scanNanos / 1000000,
+						indexedNanos / 1000000 });
+	}
+
+	private ContentBasedFileKeyDetector createDetector(boolean indexedMatch) {
+		ContentBasedFileKeyDetector detector = new ContentBasedFileKeyDetector(
+				folder, new SignatureCache(SignatureCache.CACHE_SIZE,
+						new SignatureCount()));
+		detector.setIndexedMatch(indexedMatch);
+		for (int i = 0; i <= FILES; i++) {
+			detector.detectFileKey(logFile(i));
+		}
+		return detector;
+	}
+
+	// app.log => app.log.1 => ... => app.log.N (dropped)
+	private void rotate(int round, boolean append) throws IOException {
+		Files.delete(logFile(FILES));
+		for (int i = FILES - 1; i >= 0; i--) {
+			if (append) {
+				Files.write(logFile(i), ("appended " + round + "\n")
+						.getBytes(Charset.forName("UTF-8")),
+						StandardOpenOption.APPEND);
+			}
+			Files.move(logFile(i), logFile(i + 1),
+					StandardCopyOption.ATOMIC_MOVE);
+		}
+		Files.write(logFile(0), ("new content " + round + "\n")
+				.getBytes(Charset.forName("UTF-8")));
+	}
+
+	private Path logFile(int index) {
+		return folder.resolve(index == 0 ? "app.log" : "app.log." + index);
+	}
+
+	static List<String> describe(List<WatchEventKeys> keysList) {
+		List<String> list = new ArrayList<String>(keysList.size());
+		for (WatchEventKeys keys : keysList) {
+			list.add(Arrays.asList(keys.event.kind().name(),
+					keys.previousPath, keys.currentPath).toString());
+		}
+		return list;
+	}
+
+	static WatchEvent<Path> modifyEvent(final Path path) {
+		return new WatchEvent<Path>() {
+
+			@Override
+			public Kind<Path> kind() {
+				return StandardWatchEventKinds.ENTRY_MODIFY;
+			}
+
+			@Override
+			public int count() {
+				return 1;
+			}
+
+			@Override
+			public Path context() {
+				return path;
+			}
+		};
+	}
+
+}
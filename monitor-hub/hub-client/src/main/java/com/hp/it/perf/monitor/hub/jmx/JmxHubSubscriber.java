@@ -14,12 +14,15 @@ import javax.management.NotificationFilter;
 import javax.management.NotificationListener;
 
 import com.hp.it.perf.monitor.hub.HubEvent;
+import com.hp.it.perf.monitor.hub.HubEvent.HubStatus;
 import com.hp.it.perf.monitor.hub.HubSubscribeOption;
 import com.hp.it.perf.monitor.hub.HubSubscriber;
 import com.hp.it.perf.monitor.hub.MonitorEndpoint;
 import com.hp.it.perf.monitor.hub.MonitorEvent;
+import com.hp.it.perf.monitor.hub.MonitorFilter;
 import com.hp.it.perf.monitor.hub.MonitorHub;
 import com.hp.it.perf.monitor.hub.support.DefaultHubSubscribeOption;
+import com.hp.it.perf.monitor.hub.support.MonitorFilterExpression;
 
 class JmxHubSubscriber implements NotificationListener {
 
@@ -29,28 +32,41 @@ class JmxHubSubscriber implements NotificationListener {
 
 	private Map<MonitorEndpoint, MonitorHubEndpointServiceMXBean> endpoints = new HashMap<MonitorEndpoint, MonitorHubEndpointServiceMXBean>();
 
-	// TODO filter
-	private NotificationFilter filter = null;
-
 	private volatile boolean running;
 
 	private MonitorHub monitorHub;
 
+	private final MonitorFilter filter;
+
+	// only filter expression is sent to server (other filter classes may be
+	// not in server class path), and server filter leaves sequence gaps
+	private final boolean serverFiltered;
+
+	// sequence of last monitor event received by endpoint, 0 if unknown
+	private Map<MonitorEndpoint, Long> lastSequences = new HashMap<MonitorEndpoint, Long>();
+
+	// hub instance of last sequences, sequences start again in a new one
+	private Map<MonitorEndpoint, Long> epochs = new HashMap<MonitorEndpoint, Long>();
+
 	public JmxHubSubscriber(MonitorHub monitorHub, HubSubscriber subscriber,
 			HubSubscribeOption option) {
 		this.monitorHub = monitorHub;
 		this.subscriber = subscriber;
 		this.option = option;
+		this.filter = option == null ? null : option.getMonitorFilter();
+		this.serverFiltered = filter instanceof MonitorFilterExpression;
 	}
 
 	@Override
 	@SuppressWarnings("unchecked")
-	public void handleNotification(Notification notification, Object handback) {
+	public synchronized void handleNotification(Notification notification,
+			Object handback) {
 		if (!running) {
 			return;
 		}
 		try {
 			MonitorEndpoint me = (MonitorEndpoint) handback;
+			boolean restarted = updateEpoch(me, HubJMX.getEpoch(notification));
 			HubJMX.deserializeNotification(notification);
 			notification = HubJMX.decompressNotification(notification);
 			List<Notification> list = null;
@@ -59,16 +75,49 @@ class JmxHubSubscriber implements NotificationListener {
 			} else {
 				list = Collections.singletonList((Notification) notification);
 			}
+			// events in batch may not be contiguous, as server lane drops
+			// (and reports) some under load
+			long[] sequences = getMonitorEventSequences(notification, list);
+			int count = sequences.length;
+			// before first monitor event
+			long sequence = count == 0 ? 0 : sequences[0] - 1;
+			long lastSequence = getLastSequence(me);
+			if (restarted) {
+				// received sequences are of old hub instance
+				lastSequences.remove(me);
+				if (!serverFiltered && count > 0 && sequence > 0) {
+					catchUp(me, 0, sequence + 1);
+				}
+			} else if (!serverFiltered && count > 0 && lastSequence > 0
+					&& sequence > lastSequence) {
+				// missed events in between, e.g. notification lost. Not
+				// checked with server filter, as events rejected in server
+				// leave gaps, and lost notifications are reported by
+				// connection
+				catchUp(me, lastSequence, sequence + 1);
+			}
 			List<MonitorEvent> events = new ArrayList<MonitorEvent>();
+			int index = 0;
 			for (Notification newNotification : list) {
 				MonitorHubContentData data = (MonitorHubContentData) newNotification
 						.getUserData();
 				if (MonitorHubEndpointServiceMXBean.NOTIFICATION_MONITOR_EVENT
 						.equals(newNotification.getType())) {
+					sequence = sequences[index++];
+					if (sequence > 0 && sequence <= getLastSequence(me)) {
+						// already replayed
+						continue;
+					}
+					if (sequence > 0) {
+						lastSequences.put(me, sequence);
+					}
 					MonitorEvent event = new MonitorEvent(me);
 					event.setTime(newNotification.getTimeStamp());
 					HubJMX.getMonitorEventContent(event, data);
-					events.add(event);
+					// compressed batch is filtered in server only as a whole
+					if (filter == null || filter.accept(me, event)) {
+						events.add(event);
+					}
 				} else if (MonitorHubEndpointServiceMXBean.NOTIFICATION_HUB_EVENT
 						.equals(newNotification.getType())) {
 					sendEvents(events);
@@ -93,7 +142,128 @@ class JmxHubSubscriber implements NotificationListener {
 		}
 	}
 
+	// sequence of each monitor event in list, as sent in compressed record.
+	// Numbered back from the last if not sent (by old server)
+	private static long[] getMonitorEventSequences(Notification notification,
+			List<Notification> list) {
+		int count = 0;
+		boolean sent = false;
+		for (Notification item : list) {
+			if (MonitorHubEndpointServiceMXBean.NOTIFICATION_MONITOR_EVENT
+					.equals(item.getType())) {
+				count++;
+				sent |= item.getSequenceNumber() > 0;
+			}
+		}
+		long[] sequences = new long[count];
+		long sequence = notification.getSequenceNumber() - count;
+		int index = 0;
+		for (Notification item : list) {
+			if (MonitorHubEndpointServiceMXBean.NOTIFICATION_MONITOR_EVENT
+					.equals(item.getType())) {
+				sequences[index++] = sent ? item.getSequenceNumber()
+						: ++sequence;
+			}
+		}
+		return sequences;
+	}
+
+	private long getLastSequence(MonitorEndpoint me) {
+		Long lastSequence = lastSequences.get(me);
+		return lastSequence == null ? 0 : lastSequence;
+	}
+
+	// true if endpoint was tracked in another hub instance
+	private boolean updateEpoch(MonitorEndpoint me, long epoch) {
+		if (epoch == 0) {
+			// not sent by server
+			return false;
+		}
+		Long lastEpoch = epochs.put(me, epoch);
+		return lastEpoch != null && lastEpoch.longValue() != epoch;
+	}
+
+	// replay retained events of endpoint after given sequence, and before
+	// given sequence (exclusive)
+	private void catchUp(MonitorEndpoint me, long lastSequence,
+			long beforeSequence) {
+		MonitorHubEndpointServiceMXBean endpointService = endpoints.get(me);
+		if (endpointService == null) {
+			return;
+		}
+		MonitorHubReplayData replayData = endpointService.replay(lastSequence);
+		if (replayData.getLastSequence() <= 0) {
+			// not supported by server
+			return;
+		}
+		boolean restarted = updateEpoch(me, replayData.getEpoch());
+		if (lastSequence > 0
+				&& (restarted || replayData.getLastSequence() < lastSequence)) {
+			// hub restarted (e.g. resume sequence is kept from old one), so
+			// replay from first sequence of new one
+			lastSequence = 0;
+			replayData = endpointService.replay(lastSequence);
+		}
+		long firstSequence = replayData.getFirstSequence();
+		if (firstSequence > lastSequence + 1) {
+			long lost = Math.min(firstSequence, beforeSequence) - lastSequence
+					- 1;
+			onHubEvent(new HubEvent(monitorHub, HubStatus.DataLost, me, lost));
+			lastSequence = Math.min(firstSequence, beforeSequence) - 1;
+		}
+		Notification notification = new Notification(
+				MonitorHubEndpointServiceMXBean.NOTIFICATION_COMPRESSED_EVENT,
+				me, replayData.getLastSequence());
+		notification.setUserData(replayData.getContent());
+		@SuppressWarnings("unchecked")
+		List<Notification> list = (List<Notification>) HubJMX
+				.decompressNotification(notification).getUserData();
+		List<MonitorEvent> events = new ArrayList<MonitorEvent>();
+		long sequence = firstSequence - 1;
+		for (Notification newNotification : list) {
+			sequence = newNotification.getSequenceNumber() > 0 ? newNotification
+					.getSequenceNumber() : sequence + 1;
+			if (sequence <= lastSequence) {
+				continue;
+			}
+			if (sequence >= beforeSequence) {
+				break;
+			}
+			lastSequence = sequence;
+			MonitorEvent event = new MonitorEvent(me);
+			event.setTime(newNotification.getTimeStamp());
+			HubJMX.getMonitorEventContent(event,
+					(MonitorHubContentData) newNotification.getUserData());
+			if (filter == null || filter.accept(me, event)) {
+				events.add(event);
+			}
+		}
+		sendEvents(events);
+		lastSequences.put(me, lastSequence);
+	}
+
+	// catch up all endpoints after reconnected or notification lost
+	synchronized void resume() {
+		if (!running) {
+			return;
+		}
+		for (MonitorEndpoint me : endpoints.keySet()) {
+			long lastSequence = getLastSequence(me);
+			if (lastSequence <= 0) {
+				continue;
+			}
+			try {
+				catchUp(me, lastSequence, Long.MAX_VALUE);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
 	private void sendEvents(List<MonitorEvent> events) {
+		if (events.isEmpty()) {
+			return;
+		}
 		DefaultHubSubscribeOption.batchOnData(subscriber, option,
 				events.toArray(new MonitorEvent[events.size()]));
 		events.clear();
@@ -113,12 +283,23 @@ class JmxHubSubscriber implements NotificationListener {
 
 	public void addNotificationService(MonitorEndpoint me,
 			MonitorHubEndpointServiceMXBean endpointService) {
+		// filter expression is sent to and evaluated in server, others are
+		// only evaluated in client
+		NotificationFilter notificationFilter = serverFiltered ? new MonitorEventNotificationFilter(
+				me, filter) : null;
 		((NotificationEmitter) endpointService).addNotificationListener(this,
-				filter, me);
-		endpoints.put(me, endpointService);
+				notificationFilter, me);
+		synchronized (this) {
+			endpoints.put(me, endpointService);
+			long resumeSequence = option == null ? 0 : option
+					.getResumeSequence(me);
+			if (resumeSequence > 0) {
+				lastSequences.put(me, resumeSequence);
+			}
+		}
 	}
 
-	public void removeNotificationServices() {
+	public synchronized void removeNotificationServices() {
 		for (Entry<MonitorEndpoint, MonitorHubEndpointServiceMXBean> entry : endpoints
 				.entrySet()) {
 			try {
@@ -130,6 +311,8 @@ class JmxHubSubscriber implements NotificationListener {
 			}
 		}
 		endpoints.clear();
+		lastSequences.clear();
+		epochs.clear();
 	}
 
 	public void stopSubscribe() {
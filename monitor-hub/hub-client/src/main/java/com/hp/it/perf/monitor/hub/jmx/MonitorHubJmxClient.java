@@ -78,6 +78,8 @@ class MonitorHubJmxClient implements MonitorHub, NotificationListener {
 			}
 			this.subscribers.put(subscriber, jmxSubscriber);
 			jmxSubscriber.startSubscribe();
+			// endpoints with resume sequence
+			jmxSubscriber.resume();
 		}
 		return new DefaultHubSubscriberHandler(this, subscriber, option);
 	}
@@ -110,6 +112,12 @@ class MonitorHubJmxClient implements MonitorHub, NotificationListener {
 		}
 	}
 
+	private void resumeSubscribers() {
+		for (JmxHubSubscriber subscriber : subscribers.values()) {
+			subscriber.resume();
+		}
+	}
+
 	@Override
 	public void handleNotification(Notification notification, Object handback) {
 		if (notification instanceof JMXConnectionNotification) {
@@ -119,6 +127,8 @@ class MonitorHubJmxClient implements MonitorHub, NotificationListener {
 				HubEvent event = new HubEvent(this, HubStatus.DataLost, null,
 						(Long) jmxConnNotification.getUserData());
 				sendHubEvent(event);
+				// lost ones are replayed if still retained by server
+				resumeSubscribers();
 			} else if (JMXConnectionNotification.CLOSED
 					.equals(jmxConnNotification.getType())) {
 				HubEvent event = new HubEvent(this, HubStatus.Disconnected,
@@ -129,6 +139,7 @@ class MonitorHubJmxClient implements MonitorHub, NotificationListener {
 				HubEvent event = new HubEvent(this, HubStatus.Connected, null,
 						jmxConnNotification.getMessage());
 				sendHubEvent(event);
+				resumeSubscribers();
 			} else if (JMXConnectionNotification.FAILED
 					.equals(jmxConnNotification.getType())) {
 				// TODO
@@ -0,0 +1,219 @@
+package com.hp.it.perf.monitor.hub.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.hp.it.perf.monitor.hub.HubEvent;
+import com.hp.it.perf.monitor.hub.HubEvent.HubStatus;
+import com.hp.it.perf.monitor.hub.MonitorEvent;
+
+// Bounded ring of pending deliveries (event batch or hub event) for one
+// subscriber, drained by its own thread. So a slow subscriber only delays
+// itself, and publisher is blocked only under block policy.
+class DeliveryLane implements Runnable {
+
+	enum OverflowPolicy {
+		// wait publisher until space available
+		Block,
+		// discard oldest pending delivery
+		DropOldest,
+		// discard the new delivery
+		Drop
+	}
+
+	private static class EventBatch {
+		final MonitorEvent[] events;
+
+		EventBatch(MonitorEvent[] events) {
+			this.events = events;
+		}
+	}
+
+	private final InternalMonitorHub hub;
+
+	private final InternalHubSubscriber subscriber;
+
+	private final OverflowPolicy policy;
+
+	private final Object[] ring;
+
+	private int head;
+
+	private int count;
+
+	// events dropped and not reported to subscriber yet
+	private long lostEvents;
+
+	private boolean closed;
+
+	private Thread thread;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final Condition notEmpty = lock.newCondition();
+
+	private final Condition notFull = lock.newCondition();
+
+	private final AtomicLong droppedCount = new AtomicLong();
+
+	private final AtomicLong deliveredCount = new AtomicLong();
+
+	DeliveryLane(InternalMonitorHub hub, InternalHubSubscriber subscriber,
+			int size, OverflowPolicy policy) {
+		this.hub = hub;
+		this.subscriber = subscriber;
+		this.ring = new Object[size];
+		this.policy = policy;
+	}
+
+	void start(String name) {
+		lock.lock();
+		try {
+			if (thread != null || closed) {
+				return;
+			}
+			thread = new Thread(this, "Hub Delivery - " + name);
+			thread.setDaemon(true);
+			thread.start();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	void offer(MonitorEvent[] events) {
+		enqueue(new EventBatch(events), events.length);
+	}
+
+	void offer(HubEvent event) {
+		enqueue(event, 0);
+	}
+
+	private void enqueue(Object delivery, int eventCount) {
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			if (count == ring.length) {
+				switch (policy) {
+				case Block:
+					while (count == ring.length && !closed) {
+						try {
+							notFull.await();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							dropped(eventCount);
+							return;
+						}
+					}
+					if (closed) {
+						return;
+					}
+					break;
+				case DropOldest:
+					Object oldest = ring[head];
+					ring[head] = null;
+					head = (head + 1) % ring.length;
+					count--;
+					if (oldest instanceof EventBatch) {
+						dropped(((EventBatch) oldest).events.length);
+					}
+					break;
+				default:
+					dropped(eventCount);
+					return;
+				}
+			}
+			ring[(head + count) % ring.length] = delivery;
+			count++;
+			notEmpty.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// lock is held
+	private void dropped(int eventCount) {
+		if (eventCount > 0) {
+			lostEvents += eventCount;
+			droppedCount.addAndGet(eventCount);
+		}
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			Object delivery;
+			long lost;
+			lock.lock();
+			try {
+				while (count == 0 && !closed) {
+					notEmpty.awaitUninterruptibly();
+				}
+				if (closed) {
+					return;
+				}
+				delivery = ring[head];
+				ring[head] = null;
+				head = (head + 1) % ring.length;
+				count--;
+				lost = lostEvents;
+				lostEvents = 0;
+				notFull.signal();
+			} finally {
+				lock.unlock();
+			}
+			try {
+				if (lost > 0) {
+					subscriber.onHubEvent(new HubEvent(hub, HubStatus.DataLost,
+							null, lost));
+				}
+				if (delivery instanceof EventBatch) {
+					EventBatch batch = (EventBatch) delivery;
+					subscriber.onData(batch.events);
+					deliveredCount.addAndGet(batch.events.length);
+				} else {
+					subscriber.onHubEvent((HubEvent) delivery);
+				}
+			} catch (RuntimeException e) {
+				// keep draining for other deliveries
+				e.printStackTrace();
+			}
+		}
+	}
+
+	// pending deliveries are discarded
+	void close() {
+		lock.lock();
+		try {
+			closed = true;
+			for (int i = 0; i < count; i++) {
+				ring[(head + i) % ring.length] = null;
+			}
+			count = 0;
+			notEmpty.signalAll();
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	int getQueueDepth() {
+		lock.lock();
+		try {
+			return count;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	long getDeliveredCount() {
+		return deliveredCount.get();
+	}
+
+}
@@ -1,13 +1,14 @@
 package com.hp.it.perf.monitor.hub.internal;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.Executor;
 
 import com.hp.it.perf.monitor.hub.GatewayPayload;
 import com.hp.it.perf.monitor.hub.GatewayStatus;
 import com.hp.it.perf.monitor.hub.HubEvent;
+import com.hp.it.perf.monitor.hub.HubEvent.HubStatus;
 import com.hp.it.perf.monitor.hub.MonitorEndpoint;
 import com.hp.it.perf.monitor.hub.MonitorEvent;
 
@@ -19,50 +20,24 @@ class InternalHubProcessor {
 
 	private List<InternalHubSubscriber> subscribers = new CopyOnWriteArrayList<InternalHubSubscriber>();
 
-	private Executor executor;
-
 	private InternalMonitorHub monitorHub;
 
-	private static class SendMonitorEvent implements Runnable {
-
-		private final List<MonitorEvent> events;
-		private final InternalHubSubscriber subscriber;
-
-		SendMonitorEvent(List<MonitorEvent> events,
-				InternalHubSubscriber subscriber) {
-			this.events = events;
-			this.subscriber = subscriber;
-		}
-
-		@Override
-		public void run() {
-			subscriber.onData(events.toArray(new MonitorEvent[events.size()]));
-		}
-
-	}
-
-	private static class SendHubEvent implements Runnable {
+	// null if replay is disabled
+	private final ReplayRing replayRing;
 
-		private HubEvent event;
-		private InternalHubSubscriber subscriber;
-
-		SendHubEvent(HubEvent event, InternalHubSubscriber subscriber) {
-			this.event = event;
-			this.subscriber = subscriber;
-		}
-
-		@Override
-		public void run() {
-			subscriber.onHubEvent(event);
-		}
-
-	}
+	// sequence of last event, guarded by this
+	private long lastSequence;
 
 	public InternalHubProcessor(InternalMonitorHub monitorHub,
-			MonitorEndpoint endpoint, Executor executor) {
+			MonitorEndpoint endpoint) {
 		this.monitorHub = monitorHub;
 		this.endpoint = endpoint;
-		this.executor = executor;
+		if (monitorHub.getReplaySize() > 0) {
+			replayRing = new ReplayRing(monitorHub.getReplaySize(),
+					monitorHub.getReplayMemoryLimit());
+		} else {
+			replayRing = null;
+		}
 	}
 
 	void addPublisher(InternalHubPublisher publisher) {
@@ -77,60 +52,100 @@ class InternalHubProcessor {
 		return endpoint;
 	}
 
-	void onData(InternalHubPublisher publisher, GatewayPayload... payloads) {
+	// events are numbered, retained and sent in one lock, so resumed
+	// subscriber gets no gap or duplicate between replayed and new events
+	synchronized void onData(InternalHubPublisher publisher,
+			GatewayPayload... payloads) {
 		if (payloads.length == 0) {
 			return;
 		}
+		if (subscribers.isEmpty() && replayRing == null) {
+			// no need to materialize payload content
+			lastSequence += payloads.length;
+			return;
+		}
 
-		List<MonitorEvent> masterEvents = new ArrayList<MonitorEvent>(
-				payloads.length);
-
-		for (GatewayPayload payload : payloads) {
-			MonitorEvent event = new MonitorEvent(endpoint);
-			event.setContent(payload.getContent());
-			event.setContentSource(payload.getContentSource());
-			event.setContentType(payload.getContentType());
-			event.setTime(System.currentTimeMillis());
-			event.setContentId(payload.getContentId());
-			masterEvents.add(event);
+		// events are read-only and shared by all subscribers
+		long time = System.currentTimeMillis();
+		MonitorEvent[] events = new MonitorEvent[payloads.length];
+		for (int i = 0; i < payloads.length; i++) {
+			GatewayPayload payload = payloads[i];
+			events[i] = new MonitorEvent(endpoint, time, payload.getContent(),
+					payload.getContentId(), payload.getContentType(),
+					payload.getContentSource(), ++lastSequence);
+			if (replayRing != null) {
+				replayRing.add(events[i]);
+			}
 		}
+		sendEvents(events, subscribers);
+	}
 
+	private void sendEvents(MonitorEvent[] events,
+			List<InternalHubSubscriber> subscribers) {
+		// filter predicates shared by subscribers are evaluated once
+		SharedFilterTree.Evaluation evaluation = monitorHub.getFilterTree()
+				.newEvaluation(events);
 		for (InternalHubSubscriber subscriber : subscribers) {
-			// avoid event content change
-			List<MonitorEvent> events = new ArrayList<MonitorEvent>(
-					masterEvents.size());
-			for (MonitorEvent masterEvent : masterEvents) {
-				MonitorEvent event = new MonitorEvent(endpoint);
-				event.setContent(masterEvent.getContent());
-				event.setContentSource(masterEvent.getContentSource());
-				event.setContentType(masterEvent.getContentType());
-				event.setTime(masterEvent.getTime());
-				event.setContentId(masterEvent.getContentId());
-				events.add(event);
-			}
+			MonitorEvent[] accepted;
 			try {
-				events = subscriber.filterEvents(endpoint, events);
+				accepted = subscriber.filterEvents(endpoint, events,
+						evaluation);
 			} catch (Exception e) {
 				continue;
 			}
 
-			if (events != null) {
-				executor.execute(new SendMonitorEvent(events, subscriber));
+			if (accepted != null && accepted.length > 0) {
+				subscriber.deliver(accepted);
 			}
 		}
 	}
 
+	// retained events after given sequence
+	synchronized MonitorEvent[] replay(long sequence) {
+		if (replayRing == null) {
+			return new MonitorEvent[0];
+		}
+		return replayRing.after(sequence);
+	}
+
+	synchronized long getLastSequence() {
+		return lastSequence;
+	}
+
+	synchronized long getReplayMemory() {
+		return replayRing == null ? 0 : replayRing.getMemory();
+	}
+
 	void onStatus(InternalHubPublisher publisher, GatewayStatus status) {
 		monitorHub.broadcastStatus(endpoint, endpoint, status);
 	}
 
 	void onHubEvent(HubEvent event) {
 		for (InternalHubSubscriber subscriber : subscribers) {
-			executor.execute(new SendHubEvent(event, subscriber));
+			subscriber.deliver(event);
 		}
 	}
 
 	void addSubscriber(InternalHubSubscriber subscriber) {
+		addSubscriber(subscriber, 0);
+	}
+
+	// replay events after resume sequence (if > 0) before new events
+	synchronized void addSubscriber(InternalHubSubscriber subscriber,
+			long resumeSequence) {
+		if (resumeSequence > 0 && resumeSequence < lastSequence) {
+			MonitorEvent[] events = replay(resumeSequence);
+			long firstSequence = events.length == 0 ? lastSequence + 1
+					: events[0].getSequence();
+			if (firstSequence > resumeSequence + 1) {
+				subscriber.deliver(new HubEvent(monitorHub,
+						HubStatus.DataLost, endpoint, firstSequence
+								- resumeSequence - 1));
+			}
+			if (events.length > 0) {
+				sendEvents(events, Collections.singletonList(subscriber));
+			}
+		}
 		subscribers.add(subscriber);
 		subscriber.addProcessor(this);
 	}
@@ -1,8 +1,10 @@
 package com.hp.it.perf.monitor.hub.internal;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+import com.hp.it.perf.monitor.hub.CopyOnDataSubscriber;
 import com.hp.it.perf.monitor.hub.HubEvent;
 import com.hp.it.perf.monitor.hub.HubSubscribeOption;
 import com.hp.it.perf.monitor.hub.HubSubscriber;
@@ -10,22 +12,66 @@ import com.hp.it.perf.monitor.hub.MonitorEndpoint;
 import com.hp.it.perf.monitor.hub.MonitorEvent;
 import com.hp.it.perf.monitor.hub.MonitorFilter;
 import com.hp.it.perf.monitor.hub.support.DefaultHubSubscribeOption;
+import com.hp.it.perf.monitor.hub.support.MonitorFilterExpression;
 
 class InternalHubSubscriber implements HubSubscriber {
 
 	// keep use ArrayList
 	private List<InternalHubProcessor> processors = new ArrayList<InternalHubProcessor>();
 
-	private boolean running = false;
+	private volatile boolean running = false;
 
 	private final HubSubscriber subscriber;
 
 	private final HubSubscribeOption option;
 
-	public InternalHubSubscriber(HubSubscriber subscriber,
-			HubSubscribeOption option) {
+	// null to deliver in publisher thread
+	private final DeliveryLane lane;
+
+	private final SharedFilterTree filterTree;
+
+	// compiled filter expression, or null
+	private final SharedFilterTree.Predicate predicate;
+
+	// subscriber may change given array
+	private final boolean copyOnData;
+
+	public InternalHubSubscriber(InternalMonitorHub hub,
+			HubSubscriber subscriber, HubSubscribeOption option) {
 		this.subscriber = subscriber;
 		this.option = option;
+		this.copyOnData = subscriber instanceof CopyOnDataSubscriber;
+		if (hub.getDeliveryQueueSize() > 0) {
+			lane = new DeliveryLane(hub, this, hub.getDeliveryQueueSize(),
+					DeliveryLane.OverflowPolicy.valueOf(hub
+							.getOverflowPolicy()));
+		} else {
+			lane = null;
+		}
+		this.filterTree = hub.getFilterTree();
+		if (option != null
+				&& option.getMonitorFilter() instanceof MonitorFilterExpression) {
+			predicate = filterTree.register(((MonitorFilterExpression) option
+					.getMonitorFilter()).getRoot());
+		} else {
+			predicate = null;
+		}
+	}
+
+	void deliver(MonitorEvent[] events) {
+		if (lane != null) {
+			lane.offer(events);
+		} else {
+			onData(events);
+		}
+	}
+
+	void deliver(HubEvent event) {
+		if (lane != null) {
+			lane.offer(event);
+		} else {
+			onHubEvent(event);
+		}
 	}
 
 	@Override
@@ -43,11 +89,32 @@ class InternalHubSubscriber implements HubSubscriber {
 	public void startSubscribe(HubEvent event) {
 		running = true;
 		subscriber.onHubEvent(event);
+		if (lane != null) {
+			lane.start(String.valueOf(subscriber));
+		}
 	}
 
 	public void stopSubscribe(HubEvent event) {
-		subscriber.onHubEvent(event);
 		running = false;
+		if (lane != null) {
+			lane.close();
+		}
+		if (predicate != null) {
+			filterTree.release(predicate);
+		}
+		subscriber.onHubEvent(event);
+	}
+
+	HubSubscriber getSubscriber() {
+		return subscriber;
+	}
+
+	int getQueueDepth() {
+		return lane == null ? 0 : lane.getQueueDepth();
+	}
+
+	long getDroppedCount() {
+		return lane == null ? 0 : lane.getDroppedCount();
 	}
 
 	void removeProcessors() {
@@ -65,22 +132,47 @@ class InternalHubSubscriber implements HubSubscriber {
 		processors.remove(processor);
 	}
 
-	public List<MonitorEvent> filterEvents(MonitorEndpoint endpoint,
-			List<MonitorEvent> events) {
+	// return given array if all accepted, otherwise array of accepted ones.
+	// Given array is shared by lanes of all subscribers, and only copied for
+	// subscriber which may change it
+	public MonitorEvent[] filterEvents(MonitorEndpoint endpoint,
+			MonitorEvent[] events, SharedFilterTree.Evaluation evaluation) {
 		if (!running) {
 			return null;
 		}
 		if (option == null || option.getMonitorFilter() == null) {
-			return events;
+			return share(events);
 		}
 		MonitorFilter filter = option.getMonitorFilter();
-		List<MonitorEvent> eventList = new ArrayList<MonitorEvent>(
-				events.size());
-		for (MonitorEvent event : events) {
-			if (filter.accept(endpoint, event)) {
-				eventList.add(event);
+		boolean[] mask = null;
+		int count = 0;
+		for (int i = 0; i < events.length; i++) {
+			boolean accept = predicate != null ? evaluation.accept(
+					predicate, i) : filter.accept(endpoint, events[i]);
+			if (accept) {
+				count++;
+			} else if (mask == null) {
+				// first rejected, mark accepted ones before
+				mask = new boolean[events.length];
+				Arrays.fill(mask, 0, i, true);
+			}
+			if (mask != null) {
+				mask[i] = accept;
 			}
 		}
-		return eventList;
+		if (mask == null) {
+			return share(events);
+		}
+		MonitorEvent[] accepted = new MonitorEvent[count];
+		for (int i = 0, j = 0; j < count; i++) {
+			if (mask[i]) {
+				accepted[j++] = events[i];
+			}
+		}
+		return accepted;
+	}
+
+	private MonitorEvent[] share(MonitorEvent[] events) {
+		return copyOnData ? events.clone() : events;
 	}
 }
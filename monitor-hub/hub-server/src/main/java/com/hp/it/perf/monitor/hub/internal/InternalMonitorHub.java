@@ -1,13 +1,16 @@
 package com.hp.it.perf.monitor.hub.internal;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.Executor;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
 
 import com.hp.it.perf.monitor.hub.GatewayStatus;
 import com.hp.it.perf.monitor.hub.HubEvent;
@@ -18,15 +21,145 @@ import com.hp.it.perf.monitor.hub.HubSubscribeOption;
 import com.hp.it.perf.monitor.hub.HubSubscriber;
 import com.hp.it.perf.monitor.hub.HubSubscriberHandler;
 import com.hp.it.perf.monitor.hub.MonitorEndpoint;
+import com.hp.it.perf.monitor.hub.MonitorEvent;
 import com.hp.it.perf.monitor.hub.MonitorHub;
 import com.hp.it.perf.monitor.hub.support.DefaultHubSubscriberHandler;
 
-public class InternalMonitorHub implements MonitorHub {
+public class InternalMonitorHub implements MonitorHub,
+		InternalMonitorHubMXBean {
 
 	private ConcurrentMap<MonitorEndpoint, InternalHubProcessor> endpoints = new ConcurrentHashMap<MonitorEndpoint, InternalHubProcessor>();
 
 	private Map<HubSubscriber, InternalHubSubscriber> subscribers = new ConcurrentHashMap<HubSubscriber, InternalHubSubscriber>();
 
+	// pending deliveries of each subscriber, 0 to deliver in publisher thread
+	private volatile int deliveryQueueSize = Integer.getInteger(
+			"monitor.hub.queueSize", 1024);
+
+	// Block, DropOldest or Drop when subscriber queue is full. Not block by
+	// default, so a stalled subscriber never holds back publisher (and other
+	// subscribers of the endpoint); dropped events are reported as DataLost
+	private volatile String overflowPolicy = System.getProperty(
+			"monitor.hub.overflowPolicy", "DropOldest");
+
+	// retained events of each endpoint for resume, 0 to disable. Disabled by
+	// default, as each posted event is copied and kept even if no subscriber
+	private volatile int replaySize = Integer.getInteger(
+			"monitor.hub.replaySize", 0);
+
+	// memory ceiling (bytes) of retained events of each endpoint
+	private volatile long replayMemoryLimit = Long.getLong(
+			"monitor.hub.replayMemory", 16L * 1024 * 1024);
+
+	private final SharedFilterTree filterTree = new SharedFilterTree();
+
+	// sequences start again in each hub instance
+	private final long epoch = System.currentTimeMillis();
+
+	public static ObjectName getObjectName() {
+		try {
+			return ObjectName.getInstance("com.hp.it.perf.monitor.hub",
+					"type", "InternalMonitorHub");
+		} catch (MalformedObjectNameException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	// applied to subscribers subscribed later
+	public void setDeliveryQueueSize(int deliveryQueueSize) {
+		this.deliveryQueueSize = deliveryQueueSize;
+	}
+
+	@Override
+	public int getDeliveryQueueSize() {
+		return deliveryQueueSize;
+	}
+
+	public void setOverflowPolicy(String overflowPolicy) {
+		DeliveryLane.OverflowPolicy.valueOf(overflowPolicy);
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	@Override
+	public String getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	// applied to endpoints created later
+	public void setReplaySize(int replaySize) {
+		this.replaySize = replaySize;
+	}
+
+	@Override
+	public int getReplaySize() {
+		return replaySize;
+	}
+
+	public void setReplayMemoryLimit(long replayMemoryLimit) {
+		this.replayMemoryLimit = replayMemoryLimit;
+	}
+
+	@Override
+	public long getReplayMemoryLimit() {
+		return replayMemoryLimit;
+	}
+
+	@Override
+	public long getReplayMemory() {
+		long memory = 0;
+		for (InternalHubProcessor processor : endpoints.values()) {
+			memory += processor.getReplayMemory();
+		}
+		return memory;
+	}
+
+	// retained events of endpoint after given sequence
+	public MonitorEvent[] replay(MonitorEndpoint endpoint, long sequence) {
+		InternalHubProcessor processor = endpoints.get(endpoint);
+		return processor == null ? new MonitorEvent[0] : processor
+				.replay(sequence);
+	}
+
+	@Override
+	public long getEpoch() {
+		return epoch;
+	}
+
+	// 0 if no event
+	public long getLastSequence(MonitorEndpoint endpoint) {
+		InternalHubProcessor processor = endpoints.get(endpoint);
+		return processor == null ? 0 : processor.getLastSequence();
+	}
+
+	SharedFilterTree getFilterTree() {
+		return filterTree;
+	}
+
+	@Override
+	public int getFilterPredicateCount() {
+		return filterTree.size();
+	}
+
+	@Override
+	public Map<String, Integer> getSubscriberQueueDepth() {
+		Map<String, Integer> depths = new LinkedHashMap<String, Integer>();
+		for (InternalHubSubscriber subscriber : subscribers.values()) {
+			depths.put(String.valueOf(subscriber.getSubscriber()),
+					subscriber.getQueueDepth());
+		}
+		return depths;
+	}
+
+	@Override
+	public Map<String, Long> getSubscriberDroppedCount() {
+		Map<String, Long> drops = new LinkedHashMap<String, Long>();
+		for (InternalHubSubscriber subscriber : subscribers.values()) {
+			drops.put(String.valueOf(subscriber.getSubscriber()),
+					subscriber.getDroppedCount());
+		}
+		return drops;
+	}
+
 	@Override
 	public MonitorEndpoint[] listEndpoints(String domainFilter) {
 		List<MonitorEndpoint> ret = new ArrayList<MonitorEndpoint>();
@@ -52,7 +185,13 @@ public class InternalMonitorHub implements MonitorHub {
 	public HubSubscriberHandler subscribe(HubSubscriber subscriber,
 			HubSubscribeOption option) {
 		InternalHubSubscriber internalSubscriber = new InternalHubSubscriber(
-				subscriber, option);
+				this, subscriber, option);
+		subscribers.put(subscriber, internalSubscriber);
+		// started before added to endpoints, so replayed and new events
+		// are all accepted
+		HubEvent hubEvent = new HubEvent(this, HubStatus.Connected, null,
+				"start subscribe");
+		internalSubscriber.startSubscribe(hubEvent);
 		if (option != null) {
 			MonitorEndpoint[] preferedEndpoints = option.getPreferedEndpoints();
 			if (preferedEndpoints.length != 0) {
@@ -60,7 +199,8 @@ public class InternalMonitorHub implements MonitorHub {
 				for (MonitorEndpoint endpoint : preferedEndpoints) {
 					InternalHubProcessor processor = endpoints.get(endpoint);
 					if (processor != null) {
-						processor.addSubscriber(internalSubscriber);
+						processor.addSubscriber(internalSubscriber,
+								option.getResumeSequence(endpoint));
 					}
 				}
 			} else {
@@ -68,7 +208,8 @@ public class InternalMonitorHub implements MonitorHub {
 					if (option.isSubscribeEnabled(endpoint)) {
 						InternalHubProcessor processor = endpoints
 								.get(endpoint);
-						processor.addSubscriber(internalSubscriber);
+						processor.addSubscriber(internalSubscriber,
+								option.getResumeSequence(endpoint));
 					}
 				}
 			}
@@ -78,10 +219,6 @@ public class InternalMonitorHub implements MonitorHub {
 				processor.addSubscriber(internalSubscriber);
 			}
 		}
-		subscribers.put(subscriber, internalSubscriber);
-		HubEvent hubEvent = new HubEvent(this, HubStatus.Connected, null,
-				"start subscribe");
-		internalSubscriber.startSubscribe(hubEvent);
 		return new DefaultHubSubscriberHandler(this, subscriber, option);
 	}
 
@@ -100,16 +237,12 @@ public class InternalMonitorHub implements MonitorHub {
 	@Override
 	public HubPublisher createPublisher(MonitorEndpoint endpoint,
 			HubPublishOption option) {
-		InternalHubProcessor processor = new InternalHubProcessor(this,
-				endpoint, new Executor() {
-
-					@Override
-					public void execute(Runnable command) {
-						command.run();
-					}
-				});
-		endpoints.putIfAbsent(endpoint, processor);
-		processor = endpoints.get(endpoint);
+		InternalHubProcessor processor = endpoints.get(endpoint);
+		if (processor == null) {
+			endpoints.putIfAbsent(endpoint, new InternalHubProcessor(this,
+					endpoint));
+			processor = endpoints.get(endpoint);
+		}
 		InternalHubPublisher publisher = new InternalHubPublisher(processor,
 				option);
 		processor.addPublisher(publisher);
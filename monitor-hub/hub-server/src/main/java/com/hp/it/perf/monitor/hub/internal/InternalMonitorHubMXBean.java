@@ -0,0 +1,29 @@
+package com.hp.it.perf.monitor.hub.internal;
+
+import java.util.Map;
+
+public interface InternalMonitorHubMXBean {
+
+	public int getDeliveryQueueSize();
+
+	public String getOverflowPolicy();
+
+	// start time of hub instance
+	public long getEpoch();
+
+	public int getReplaySize();
+
+	public long getReplayMemoryLimit();
+
+	// retained events of all endpoints
+	public long getReplayMemory();
+
+	// distinct predicates of subscriber filter expressions
+	public int getFilterPredicateCount();
+
+	// keyed by subscriber
+	public Map<String, Integer> getSubscriberQueueDepth();
+
+	public Map<String, Long> getSubscriberDroppedCount();
+
+}
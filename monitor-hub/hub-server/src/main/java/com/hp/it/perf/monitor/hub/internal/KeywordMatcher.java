@@ -0,0 +1,139 @@
+package com.hp.it.perf.monitor.hub.internal;
+
+import java.util.Arrays;
+
+// Aho-Corasick automaton of keywords on raw bytes, so all keywords are
+// searched in one pass of content. Transitions are a full DFA on byte
+// classes (bytes not in any keyword share one class) to keep table small.
+class KeywordMatcher {
+
+	private final int[] byteClass = new int[256];
+
+	private final int classCount;
+
+	// next state by state * classCount + class
+	private final int[] next;
+
+	// keyword indexes found when entering state, null if none
+	private final int[][] outputs;
+
+	private final int keywordCount;
+
+	KeywordMatcher(byte[][] keywords) {
+		this.keywordCount = keywords.length;
+		int classes = 1;
+		for (byte[] keyword : keywords) {
+			for (byte b : keyword) {
+				if (byteClass[b & 0xFF] == 0) {
+					byteClass[b & 0xFF] = classes++;
+				}
+			}
+		}
+		this.classCount = classes;
+
+		// trie
+		int maxStates = 1;
+		for (byte[] keyword : keywords) {
+			maxStates += keyword.length;
+		}
+		int[] trie = new int[maxStates * classCount];
+		Arrays.fill(trie, -1);
+		int[][] found = new int[maxStates][];
+		int states = 1;
+		for (int k = 0; k < keywords.length; k++) {
+			int state = 0;
+			for (byte b : keywords[k]) {
+				int index = state * classCount + byteClass[b & 0xFF];
+				if (trie[index] == -1) {
+					trie[index] = states++;
+				}
+				state = trie[index];
+			}
+			found[state] = append(found[state], k);
+		}
+
+		// failure links in breadth first order, missing transition is
+		// resolved to transition of failure state
+		int[] fail = new int[states];
+		int[] queue = new int[states];
+		int head = 0;
+		int tail = 0;
+		for (int c = 0; c < classCount; c++) {
+			int child = trie[c];
+			if (child == -1) {
+				trie[c] = 0;
+			} else {
+				fail[child] = 0;
+				queue[tail++] = child;
+			}
+		}
+		while (head < tail) {
+			int state = queue[head++];
+			found[state] = merge(found[state], found[fail[state]]);
+			for (int c = 0; c < classCount; c++) {
+				int index = state * classCount + c;
+				int child = trie[index];
+				if (child == -1) {
+					trie[index] = trie[fail[state] * classCount + c];
+				} else {
+					fail[child] = trie[fail[state] * classCount + c];
+					queue[tail++] = child;
+				}
+			}
+		}
+
+		this.next = Arrays.copyOf(trie, states * classCount);
+		this.outputs = Arrays.copyOf(found, states);
+	}
+
+	// set bit of each keyword found in data
+	void match(byte[] data, long[] hits) {
+		int state = 0;
+		int[] next = this.next;
+		int[] byteClass = this.byteClass;
+		int classCount = this.classCount;
+		for (byte b : data) {
+			state = next[state * classCount + byteClass[b & 0xFF]];
+			int[] found = outputs[state];
+			if (found != null) {
+				for (int k : found) {
+					hits[k >>> 6] |= 1L << k;
+				}
+			}
+		}
+	}
+
+	long[] newHits() {
+		return new long[(keywordCount + 63) >>> 6];
+	}
+
+	int getKeywordCount() {
+		return keywordCount;
+	}
+
+	int getStateCount() {
+		return outputs.length;
+	}
+
+	private static int[] append(int[] array, int value) {
+		if (array == null) {
+			return new int[] { value };
+		}
+		int[] result = Arrays.copyOf(array, array.length + 1);
+		result[array.length] = value;
+		return result;
+	}
+
+	private static int[] merge(int[] array, int[] others) {
+		if (others == null) {
+			return array;
+		}
+		if (array == null) {
+			return others;
+		}
+		int[] result = Arrays.copyOf(array, array.length + others.length);
+		System.arraycopy(others, 0, result, array.length, others.length);
+		return result;
+	}
+
+}
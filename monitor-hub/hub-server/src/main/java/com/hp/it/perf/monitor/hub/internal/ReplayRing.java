@@ -0,0 +1,86 @@
+package com.hp.it.perf.monitor.hub.internal;
+
+import com.hp.it.perf.monitor.hub.MonitorEvent;
+
+// Recent events of one endpoint in sequence order, bounded by count and by
+// estimated memory, so reconnected subscriber can resume after the last
+// sequence it received. Guarded by its processor.
+class ReplayRing {
+
+	// object headers and fields of event
+	private static final int EVENT_OVERHEAD = 96;
+
+	private final MonitorEvent[] ring;
+
+	private final long memoryLimit;
+
+	private int head;
+
+	private int count;
+
+	private long memory;
+
+	ReplayRing(int size, long memoryLimit) {
+		this.ring = new MonitorEvent[size];
+		this.memoryLimit = memoryLimit;
+	}
+
+	// event sequence is next to last added one
+	void add(MonitorEvent event) {
+		long size = estimateSize(event);
+		while (count > 0
+				&& (count == ring.length || memory + size > memoryLimit)) {
+			removeOldest();
+		}
+		if (size > memoryLimit) {
+			// too large to retain, and ring is emptied to keep sequences
+			// contiguous
+			return;
+		}
+		ring[(head + count) % ring.length] = event;
+		count++;
+		memory += size;
+	}
+
+	private void removeOldest() {
+		memory -= estimateSize(ring[head]);
+		ring[head] = null;
+		head = (head + 1) % ring.length;
+		count--;
+	}
+
+	// retained events after given sequence
+	MonitorEvent[] after(long sequence) {
+		int skip = 0;
+		if (count > 0) {
+			long first = ring[head].getSequence();
+			skip = (int) Math.max(0, Math.min(count, sequence - first + 1));
+		}
+		MonitorEvent[] events = new MonitorEvent[count - skip];
+		for (int i = 0; i < events.length; i++) {
+			events[i] = ring[(head + skip + i) % ring.length];
+		}
+		return events;
+	}
+
+	// 0 if empty
+	long getFirstSequence() {
+		return count == 0 ? 0 : ring[head].getSequence();
+	}
+
+	long getMemory() {
+		return memory;
+	}
+
+	private static long estimateSize(MonitorEvent event) {
+		Object content = event.getContent();
+		if (content instanceof byte[]) {
+			return EVENT_OVERHEAD + ((byte[]) content).length;
+		} else if (content instanceof String) {
+			return EVENT_OVERHEAD + 2L * ((String) content).length();
+		} else {
+			return EVENT_OVERHEAD;
+		}
+	}
+
+}
@@ -0,0 +1,289 @@
+package com.hp.it.perf.monitor.hub.internal;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.hp.it.perf.monitor.hub.MonitorEvent;
+import com.hp.it.perf.monitor.hub.support.MonitorFilterExpression;
+import com.hp.it.perf.monitor.hub.support.MonitorFilterExpression.And;
+import com.hp.it.perf.monitor.hub.support.MonitorFilterExpression.ContentContains;
+import com.hp.it.perf.monitor.hub.support.MonitorFilterExpression.Node;
+import com.hp.it.perf.monitor.hub.support.MonitorFilterExpression.Not;
+import com.hp.it.perf.monitor.hub.support.MonitorFilterExpression.Or;
+
+// Filter expressions of all subscribers are interned into one predicate
+// graph, so identical predicate (or sub-expression) used by several
+// subscribers is evaluated once per event.
+class SharedFilterTree {
+
+	// all 'content contains' predicates are searched by one automaton
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	static final boolean KEYWORD_MATCH = !Boolean
+			.getBoolean("monitor.hub.noKeywordMatch");
+
+	// keyword matcher of predicates registered when built
+	private static class KeywordIndex {
+		final KeywordMatcher matcher;
+		// keyword index by predicate id, -1 if not a keyword
+		final int[] keywords;
+		// to skip predicate registered later on reused id
+		final Node[] nodes;
+
+		KeywordIndex(KeywordMatcher matcher, int[] keywords, Node[] nodes) {
+			this.matcher = matcher;
+			this.keywords = keywords;
+			this.nodes = nodes;
+		}
+
+		int keyword(Predicate predicate) {
+			if (predicate.id < keywords.length) {
+				int keyword = keywords[predicate.id];
+				if (keyword >= 0 && nodes[keyword] == predicate.node) {
+					return keyword;
+				}
+			}
+			return -1;
+		}
+	}
+
+	static class Predicate {
+		final int id;
+		final Node node;
+		final Predicate[] children;
+		private int refCount;
+
+		Predicate(int id, Node node, Predicate[] children) {
+			this.id = id;
+			this.node = node;
+			this.children = children;
+		}
+	}
+
+	// evaluation of one event batch, shared by subscribers
+	class Evaluation implements MonitorFilterExpression.Context {
+
+		private final MonitorEvent[] events;
+
+		private final int slots;
+
+		// per event: 0 - not evaluated, 1 - true, 2 - false
+		private final byte[][] results;
+
+		// predicate memoized in each slot, as id of predicate released during
+		// evaluation may be reused by one registered then
+		private final Predicate[] owners;
+
+		private final String[] texts;
+
+		private final KeywordIndex keywordIndex;
+
+		// per event: bitmap of matched keywords
+		private final long[][] hits;
+
+		private int current;
+
+		Evaluation(MonitorEvent[] events) {
+			this.events = events;
+			this.results = new byte[events.length][];
+			this.texts = new String[events.length];
+			this.slots = slotCount;
+			this.owners = new Predicate[slots];
+			this.keywordIndex = getKeywordIndex();
+			this.hits = keywordIndex == null ? null
+					: new long[events.length][];
+		}
+
+		boolean accept(Predicate predicate, int index) {
+			current = index;
+			return test(predicate);
+		}
+
+		private boolean test(Predicate predicate) {
+			if (predicate.id >= slots || !own(predicate)) {
+				// registered after evaluation started, or on id reused then
+				return evaluate(predicate);
+			}
+			byte[] result = results[current];
+			if (result == null) {
+				result = results[current] = new byte[slots];
+			}
+			if (result[predicate.id] == 0) {
+				result[predicate.id] = evaluate(predicate) ? (byte) 1
+						: (byte) 2;
+			}
+			return result[predicate.id] == 1;
+		}
+
+		private boolean own(Predicate predicate) {
+			Predicate owner = owners[predicate.id];
+			if (owner == null) {
+				owners[predicate.id] = predicate;
+				return true;
+			}
+			return owner == predicate;
+		}
+
+		private boolean evaluate(Predicate predicate) {
+			Node node = predicate.node;
+			if (node instanceof And) {
+				for (Predicate child : predicate.children) {
+					if (!test(child)) {
+						return false;
+					}
+				}
+				return true;
+			} else if (node instanceof Or) {
+				for (Predicate child : predicate.children) {
+					if (test(child)) {
+						return true;
+					}
+				}
+				return false;
+			} else if (node instanceof Not) {
+				return !test(predicate.children[0]);
+			} else if (node instanceof ContentContains && keywordIndex != null
+					&& events[current].getContent() instanceof byte[]
+					&& keywordIndex.keyword(predicate) >= 0) {
+				// all keywords are searched in first test on the event
+				long[] eventHits = hits[current];
+				if (eventHits == null) {
+					eventHits = hits[current] = keywordIndex.matcher.newHits();
+					keywordIndex.matcher.match((byte[]) events[current]
+							.getContent(), eventHits);
+				}
+				int keyword = keywordIndex.keyword(predicate);
+				return (eventHits[keyword >>> 6] & (1L << keyword)) != 0;
+			} else {
+				return node.evaluate(events[current], this);
+			}
+		}
+
+		@Override
+		public boolean test(Node node, MonitorEvent event) {
+			// only composite node evaluates children
+			return node.evaluate(event, this);
+		}
+
+		@Override
+		public String getText(MonitorEvent event) {
+			// decoded once for all regex on the event
+			if (texts[current] == null) {
+				texts[current] = MonitorFilterExpression.toText(event
+						.getContent());
+			}
+			return texts[current];
+		}
+	}
+
+	private final Map<Node, Predicate> interned = new HashMap<Node, Predicate>();
+
+	private final BitSet ids = new BitSet();
+
+	private volatile int slotCount;
+
+	private final boolean keywordMatch;
+
+	// null if need rebuild
+	private volatile KeywordIndex keywordIndex;
+
+	SharedFilterTree() {
+		this(KEYWORD_MATCH);
+	}
+
+	SharedFilterTree(boolean keywordMatch) {
+		this.keywordMatch = keywordMatch;
+	}
+
+	synchronized Predicate register(Node node) {
+		Node[] children = node.getChildren();
+		Predicate[] childPredicates = new Predicate[children.length];
+		for (int i = 0; i < children.length; i++) {
+			childPredicates[i] = register(children[i]);
+		}
+		Predicate predicate = interned.get(node);
+		if (predicate == null) {
+			int id = ids.nextClearBit(0);
+			ids.set(id);
+			slotCount = Math.max(slotCount, id + 1);
+			predicate = new Predicate(id, node, childPredicates);
+			interned.put(node, predicate);
+			if (node instanceof ContentContains) {
+				keywordIndex = null;
+			}
+		} else {
+			// already counted by interned one
+			for (Predicate child : childPredicates) {
+				release(child);
+			}
+		}
+		predicate.refCount++;
+		return predicate;
+	}
+
+	synchronized void release(Predicate predicate) {
+		if (--predicate.refCount == 0) {
+			interned.remove(predicate.node);
+			ids.clear(predicate.id);
+			if (predicate.node instanceof ContentContains) {
+				keywordIndex = null;
+			}
+			for (Predicate child : predicate.children) {
+				release(child);
+			}
+		}
+	}
+
+	synchronized int size() {
+		return interned.size();
+	}
+
+	private KeywordIndex getKeywordIndex() {
+		if (!keywordMatch) {
+			return null;
+		}
+		KeywordIndex index = keywordIndex;
+		if (index == null) {
+			index = buildKeywordIndex();
+		}
+		return index.matcher == null ? null : index;
+	}
+
+	// rebuilt lazily, as subscribers are often added in bulk
+	private synchronized KeywordIndex buildKeywordIndex() {
+		if (keywordIndex == null) {
+			List<byte[]> keywords = new ArrayList<byte[]>();
+			List<Node> nodes = new ArrayList<Node>();
+			int[] keywordIds = new int[slotCount];
+			Arrays.fill(keywordIds, -1);
+			for (Predicate predicate : interned.values()) {
+				if (predicate.node instanceof ContentContains) {
+					byte[] keyword = ((ContentContains) predicate.node)
+							.getValue().getBytes(UTF8);
+					if (keyword.length > 0) {
+						keywordIds[predicate.id] = keywords.size();
+						keywords.add(keyword);
+						nodes.add(predicate.node);
+					}
+				}
+			}
+			// single keyword is faster by plain search
+			KeywordMatcher matcher = keywords.size() < 2 ? null
+					: new KeywordMatcher(keywords.toArray(new byte[keywords
+							.size()][]));
+			keywordIndex = new KeywordIndex(matcher, keywordIds,
+					nodes.toArray(new Node[nodes.size()]));
+		}
+		return keywordIndex;
+	}
+
+	Evaluation newEvaluation(MonitorEvent[] events) {
+		return new Evaluation(events);
+	}
+
+}
@@ -16,6 +16,7 @@ import com.hp.it.perf.monitor.hub.HubSubscriber;
 import com.hp.it.perf.monitor.hub.MonitorEndpoint;
 import com.hp.it.perf.monitor.hub.MonitorEvent;
 import com.hp.it.perf.monitor.hub.MonitorHub;
+import com.hp.it.perf.monitor.hub.internal.InternalMonitorHub;
 import com.hp.it.perf.monitor.hub.support.DefaultHubSubscribeOption;
 
 public class MonitorHubEndpointService extends NotificationBroadcasterSupport
@@ -26,6 +27,11 @@ public class MonitorHubEndpointService extends NotificationBroadcasterSupport
 
 	private AtomicLong seq = new AtomicLong();
 
+	// sequence of last monitor event sent
+	private volatile long lastSequence;
+
+	private MonitorHub coreHub;
+
 	private boolean notificationCompressEnabled;
 
 	private boolean notificationOpenTypeEnabled;
@@ -45,6 +51,7 @@ public class MonitorHubEndpointService extends NotificationBroadcasterSupport
 	}
 
 	void substribe(MonitorHub coreHub) {
+		this.coreHub = coreHub;
 		startScheduler();
 		coreHub.subscribe(this, new DefaultHubSubscribeOption(endpoint));
 	}
@@ -84,9 +91,13 @@ public class MonitorHubEndpointService extends NotificationBroadcasterSupport
 	@Override
 	public void onData(MonitorEvent... events) {
 		for (MonitorEvent event : events) {
+			// hub sequence of event, so client can resume after it
 			Notification notification = new Notification(
-					NOTIFICATION_MONITOR_EVENT, this, 0);
-			notification.setTimeStamp(event.getTime());
+					NOTIFICATION_MONITOR_EVENT, this, event.getSequence(),
+					event.getTime(), HubJMX.toEpochMessage(getEpoch()));
+			if (event.getSequence() > 0) {
+				lastSequence = event.getSequence();
+			}
 			MonitorHubContentData data = new MonitorHubContentData();
 			HubJMX.setMonitorEventContent(data, event);
 			notification.setUserData(data);
@@ -97,8 +108,8 @@ public class MonitorHubEndpointService extends NotificationBroadcasterSupport
 	@Override
 	public void onHubEvent(HubEvent event) {
 		Notification notification = new Notification(NOTIFICATION_HUB_EVENT,
-				this, 0);
-		notification.setTimeStamp(System.currentTimeMillis());
+				this, lastSequence, System.currentTimeMillis(),
+				HubJMX.toEpochMessage(getEpoch()));
 		MonitorHubContentData data = new MonitorHubContentData();
 		HubJMX.setHubEventContent(data, event);
 		notification.setUserData(data);
@@ -115,17 +126,23 @@ public class MonitorHubEndpointService extends NotificationBroadcasterSupport
 							@Override
 							public void handleBuffer(Queue<Notification> buffer) {
 								try {
-									Notification notification = new Notification(
-											NOTIFICATION_COMPRESSED_EVENT,
-											MonitorHubEndpointService.this, seq
-													.incrementAndGet(), System
-													.currentTimeMillis());
 									ArrayList<Notification> list = new ArrayList<Notification>(
 											buffer.size());
+									long sequence = 0;
 									Notification data;
 									while ((data = buffer.poll()) != null) {
 										list.add(data);
+										sequence = Math.max(sequence,
+												data.getSequenceNumber());
 									}
+									seq.incrementAndGet();
+									// sequence of last monitor event in batch
+									Notification notification = new Notification(
+											NOTIFICATION_COMPRESSED_EVENT,
+											MonitorHubEndpointService.this,
+											sequence, System
+													.currentTimeMillis(),
+											HubJMX.toEpochMessage(getEpoch()));
 									notification.setUserData(list);
 									notification = HubJMX
 											.compressNotification(notification);
@@ -146,7 +163,7 @@ public class MonitorHubEndpointService extends NotificationBroadcasterSupport
 				eventBuffer.flush();
 				eventBuffer = null;
 			}
-			notification.setSequenceNumber(seq.incrementAndGet());
+			seq.incrementAndGet();
 			if (isNotificationOpenTypeEnabled()) {
 				HubJMX.serializeNotification(notification);
 			}
@@ -158,6 +175,60 @@ public class MonitorHubEndpointService extends NotificationBroadcasterSupport
 		return seq.get();
 	}
 
+	@Override
+	public long getLastSequence() {
+		if (coreHub instanceof InternalMonitorHub) {
+			return ((InternalMonitorHub) coreHub).getLastSequence(endpoint);
+		}
+		return 0;
+	}
+
+	@Override
+	public long getEpoch() {
+		if (coreHub instanceof InternalMonitorHub) {
+			return ((InternalMonitorHub) coreHub).getEpoch();
+		}
+		return 0;
+	}
+
+	@Override
+	public MonitorHubReplayData replay(long afterSequence) {
+		MonitorHubReplayData replayData = new MonitorHubReplayData();
+		MonitorEvent[] events;
+		if (coreHub instanceof InternalMonitorHub) {
+			InternalMonitorHub hub = (InternalMonitorHub) coreHub;
+			replayData.setEpoch(hub.getEpoch());
+			// last sequence first, events after it are sent as notification
+			replayData.setLastSequence(hub.getLastSequence(endpoint));
+			events = hub.replay(endpoint, afterSequence);
+		} else {
+			events = new MonitorEvent[0];
+		}
+		replayData.setFirstSequence(events.length == 0 ? replayData
+				.getLastSequence() + 1 : events[0].getSequence());
+		ArrayList<Notification> list = new ArrayList<Notification>(
+				events.length);
+		for (MonitorEvent event : events) {
+			if (event.getSequence() > replayData.getLastSequence()) {
+				break;
+			}
+			Notification notification = new Notification(
+					NOTIFICATION_MONITOR_EVENT, this, event.getSequence(),
+					event.getTime());
+			MonitorHubContentData data = new MonitorHubContentData();
+			HubJMX.setMonitorEventContent(data, event);
+			notification.setUserData(data);
+			list.add(notification);
+		}
+		Notification notification = new Notification(
+				NOTIFICATION_COMPRESSED_EVENT, this,
+				replayData.getLastSequence());
+		notification.setUserData(list);
+		replayData.setContent((MonitorHubContentData) HubJMX
+				.compressNotification(notification).getUserData());
+		return replayData;
+	}
+
 	MonitorEndpoint getEndpoint() {
 		return endpoint;
 	}
@@ -197,4 +268,10 @@ public class MonitorHubEndpointService extends NotificationBroadcasterSupport
 		return notificationCompressEnabled;
 	}
 
+	@Override
+	public String toString() {
+		return String.format("MonitorHubEndpointService [endpoint=%s]",
+				endpoint);
+	}
+
 }
@@ -15,6 +15,7 @@ import javax.ws.rs.PathParam;
 import com.hp.it.perf.monitor.hub.MonitorEndpoint;
 import com.hp.it.perf.monitor.hub.MonitorHub;
 import com.hp.it.perf.monitor.hub.support.DefaultHubSubscribeOption;
+import com.hp.it.perf.monitor.hub.support.MonitorFilterExpression;
 
 @Path("/hub")
 public class HubResource {
@@ -78,7 +79,8 @@ public class HubResource {
 		DefaultHubSubscribeOption option;
 		if (subscribeParam.getEndpoints().isEmpty()) {
 			// all listened
-			option = null;
+			option = subscribeParam.getFilter() == null ? null
+					: new DefaultHubSubscribeOption(coreHub.listEndpoints(null));
 		} else {
 			Set<MonitorEndpoint> endpoints = new HashSet<MonitorEndpoint>();
 			for (String endpointSpec : subscribeParam.getEndpoints()) {
@@ -92,6 +94,15 @@ public class HubResource {
 			option = new DefaultHubSubscribeOption(
 					endpoints.toArray(new MonitorEndpoint[endpoints.size()]));
 		}
+		if (subscribeParam.getFilter() != null) {
+			try {
+				option.setMonitorFilter(MonitorFilterExpression
+						.compile(subscribeParam.getFilter()));
+			} catch (IllegalArgumentException e) {
+				throw new BadRequestException("invalid filter: "
+						+ e.getMessage());
+			}
+		}
 		coreHub.subscribe(broadcasterResource, option);
 		return broadcasterResource;
 	}
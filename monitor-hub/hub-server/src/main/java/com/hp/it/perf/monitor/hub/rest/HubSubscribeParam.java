@@ -9,8 +9,16 @@ public class HubSubscribeParam {
 	@QueryParam("endpoint")
 	private List<String> endpoints;
 
+	// filter expression, see MonitorFilterExpression
+	@QueryParam("filter")
+	private String filter;
+
 	public List<String> getEndpoints() {
 		return endpoints;
 	}
 
+	public String getFilter() {
+		return filter;
+	}
+
 }
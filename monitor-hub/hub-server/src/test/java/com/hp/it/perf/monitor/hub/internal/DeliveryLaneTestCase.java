@@ -0,0 +1,188 @@
+package com.hp.it.perf.monitor.hub.internal;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hp.it.perf.monitor.hub.HubEvent;
+import com.hp.it.perf.monitor.hub.HubEvent.HubStatus;
+import com.hp.it.perf.monitor.hub.HubSubscriber;
+import com.hp.it.perf.monitor.hub.MonitorEndpoint;
+import com.hp.it.perf.monitor.hub.MonitorEvent;
+
+// first delivery is held in subscriber, so later ones stay in lane
+public class DeliveryLaneTestCase {
+
+	private static final MonitorEndpoint endpoint = new MonitorEndpoint(
+			"test", "lane");
+
+	private InternalMonitorHub hub;
+
+	private StalledSubscriber subscriber;
+
+	private DeliveryLane lane;
+
+	private static class StalledSubscriber implements HubSubscriber {
+
+		final CountDownLatch entered = new CountDownLatch(1);
+
+		final CountDownLatch gate = new CountDownLatch(1);
+
+		// sequence of events, or "lost n"
+		final List<String> received = new ArrayList<String>();
+
+		@Override
+		public void onData(MonitorEvent... events) {
+			entered.countDown();
+			try {
+				gate.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			synchronized (received) {
+				for (MonitorEvent event : events) {
+					received.add(String.valueOf(event.getSequence()));
+				}
+				received.notifyAll();
+			}
+		}
+
+		@Override
+		public void onHubEvent(HubEvent event) {
+			if (event.getStatus() == HubStatus.DataLost) {
+				synchronized (received) {
+					received.add("lost " + event.getData());
+					received.notifyAll();
+				}
+			}
+		}
+
+		List<String> awaitReceived(int size) throws InterruptedException {
+			synchronized (received) {
+				while (received.size() < size) {
+					received.wait();
+				}
+				return new ArrayList<String>(received);
+			}
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		hub = new InternalMonitorHub();
+		// deliver in caller, lane is driven by test
+		hub.setDeliveryQueueSize(0);
+		subscriber = new StalledSubscriber();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		subscriber.gate.countDown();
+		if (lane != null) {
+			lane.close();
+		}
+	}
+
+	@Test
+	public void testDefaultPolicyNotBlock() throws Exception {
+		assertThat(new InternalMonitorHub().getOverflowPolicy(),
+				is(equalTo("DropOldest")));
+	}
+
+	@Test(timeout = 5000)
+	public void testDropOldest() throws Exception {
+		startLane(2, DeliveryLane.OverflowPolicy.DropOldest);
+		lane.offer(events(2));
+		lane.offer(events(3));
+		lane.offer(events(4));
+		assertThat(lane.getDroppedCount(), is(equalTo(1L)));
+		assertThat(lane.getQueueDepth(), is(equalTo(2)));
+		subscriber.gate.countDown();
+		assertThat(subscriber.awaitReceived(4),
+				contains("1", "lost 1", "3", "4"));
+	}
+
+	@Test(timeout = 5000)
+	public void testDrop() throws Exception {
+		startLane(2, DeliveryLane.OverflowPolicy.Drop);
+		lane.offer(events(2));
+		lane.offer(events(3));
+		lane.offer(events(4));
+		assertThat(lane.getDroppedCount(), is(equalTo(1L)));
+		subscriber.gate.countDown();
+		assertThat(subscriber.awaitReceived(4),
+				contains("1", "lost 1", "2", "3"));
+	}
+
+	@Test(timeout = 5000)
+	public void testBlock() throws Exception {
+		startLane(1, DeliveryLane.OverflowPolicy.Block);
+		lane.offer(events(2));
+		Thread publisher = offerInThread(3);
+		awaitWaiting(publisher);
+		subscriber.gate.countDown();
+		publisher.join();
+		assertThat(subscriber.awaitReceived(3), contains("1", "2", "3"));
+		assertThat(lane.getDroppedCount(), is(equalTo(0L)));
+	}
+
+	@Test(timeout = 5000)
+	public void testCloseReleaseBlockedPublisher() throws Exception {
+		startLane(1, DeliveryLane.OverflowPolicy.Block);
+		lane.offer(events(2));
+		Thread publisher = offerInThread(3);
+		awaitWaiting(publisher);
+		lane.close();
+		publisher.join();
+		assertThat(lane.getQueueDepth(), is(equalTo(0)));
+		// closed lane takes no more
+		lane.offer(events(4));
+		assertThat(lane.getQueueDepth(), is(equalTo(0)));
+	}
+
+	// first batch is taken and held by subscriber
+	private void startLane(int size, DeliveryLane.OverflowPolicy policy)
+			throws InterruptedException {
+		InternalHubSubscriber hubSubscriber = new InternalHubSubscriber(hub,
+				subscriber, null);
+		hubSubscriber.startSubscribe(new HubEvent(hub, HubStatus.Connected,
+				endpoint, null));
+		lane = new DeliveryLane(hub, hubSubscriber, size, policy);
+		lane.start("test");
+		lane.offer(events(1));
+		subscriber.entered.await();
+	}
+
+	private Thread offerInThread(final long sequence) {
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				lane.offer(events(sequence));
+			}
+		};
+		thread.start();
+		return thread;
+	}
+
+	private static void awaitWaiting(Thread thread)
+			throws InterruptedException {
+		while (thread.getState() != Thread.State.WAITING) {
+			TimeUnit.MILLISECONDS.sleep(10L);
+		}
+	}
+
+	private static MonitorEvent[] events(long sequence) {
+		MonitorEvent event = new MonitorEvent(endpoint);
+		event.setSequence(sequence);
+		return new MonitorEvent[] { event };
+	}
+
+}
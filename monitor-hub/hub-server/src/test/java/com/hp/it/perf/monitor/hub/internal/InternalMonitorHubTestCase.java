@@ -0,0 +1,130 @@
+package com.hp.it.perf.monitor.hub.internal;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hp.it.perf.monitor.hub.CopyOnDataSubscriber;
+import com.hp.it.perf.monitor.hub.GatewayPayload;
+import com.hp.it.perf.monitor.hub.HubEvent;
+import com.hp.it.perf.monitor.hub.HubPublisher;
+import com.hp.it.perf.monitor.hub.HubSubscriber;
+import com.hp.it.perf.monitor.hub.MonitorEndpoint;
+import com.hp.it.perf.monitor.hub.MonitorEvent;
+import com.hp.it.perf.monitor.hub.support.DefaultHubSubscribeOption;
+
+public class InternalMonitorHubTestCase {
+
+	private static final MonitorEndpoint endpoint1 = new MonitorEndpoint(
+			"test", "e1");
+
+	private static final MonitorEndpoint endpoint2 = new MonitorEndpoint(
+			"test", "e2");
+
+	private InternalMonitorHub hub;
+
+	// endpoint name and sequence of received events
+	private final List<String> received = new ArrayList<String>();
+
+	private final HubSubscriber subscriber = new HubSubscriber() {
+
+		@Override
+		public void onData(MonitorEvent... events) {
+			for (MonitorEvent event : events) {
+				received.add(((MonitorEndpoint) event.getSource()).getName()
+						+ ":" + event.getSequence());
+			}
+		}
+
+		@Override
+		public void onHubEvent(HubEvent event) {
+		}
+	};
+
+	@Before
+	public void setUp() throws Exception {
+		hub = new InternalMonitorHub();
+		// deliver in caller
+		hub.setDeliveryQueueSize(0);
+		hub.setReplaySize(10);
+	}
+
+	@Test
+	public void testResumeSequenceOfEachEndpoint() throws Exception {
+		HubPublisher publisher1 = hub.createPublisher(endpoint1, null);
+		HubPublisher publisher2 = hub.createPublisher(endpoint2, null);
+		post(publisher1, 3);
+		post(publisher2, 3);
+		DefaultHubSubscribeOption option = new DefaultHubSubscribeOption(
+				endpoint1, endpoint2);
+		option.setResumeSequence(endpoint1, 1);
+		option.setResumeSequence(endpoint2, 2);
+		hub.subscribe(subscriber, option);
+		assertThat(received, containsInAnyOrder("e1:2", "e1:3", "e2:3"));
+		received.clear();
+		post(publisher1, 1);
+		post(publisher2, 1);
+		assertThat(received, contains("e1:4", "e2:4"));
+		hub.unsubscribe(subscriber);
+	}
+
+	@Test
+	public void testNoResumeSequence() throws Exception {
+		HubPublisher publisher1 = hub.createPublisher(endpoint1, null);
+		post(publisher1, 2);
+		hub.subscribe(subscriber, new DefaultHubSubscribeOption(endpoint1));
+		assertThat(received, is(empty()));
+		post(publisher1, 1);
+		assertThat(received, contains("e1:3"));
+		hub.unsubscribe(subscriber);
+	}
+
+	@Test
+	public void testEventArraySharedUnlessCopyOnData() throws Exception {
+		final List<MonitorEvent[]> arrays = new ArrayList<MonitorEvent[]>();
+		class ArraySubscriber implements HubSubscriber {
+
+			@Override
+			public void onData(MonitorEvent... events) {
+				arrays.add(events);
+			}
+
+			@Override
+			public void onHubEvent(HubEvent event) {
+			}
+		}
+		class CopyArraySubscriber extends ArraySubscriber implements
+				CopyOnDataSubscriber {
+		}
+		HubPublisher publisher1 = hub.createPublisher(endpoint1, null);
+		HubSubscriber subscriber1 = new ArraySubscriber();
+		HubSubscriber subscriber2 = new ArraySubscriber();
+		HubSubscriber subscriber3 = new CopyArraySubscriber();
+		hub.subscribe(subscriber1, new DefaultHubSubscribeOption(endpoint1));
+		hub.subscribe(subscriber2, new DefaultHubSubscribeOption(endpoint1));
+		hub.subscribe(subscriber3, new DefaultHubSubscribeOption(endpoint1));
+		post(publisher1, 2);
+		assertThat(arrays, hasSize(3));
+		assertThat(arrays.get(0), is(sameInstance(arrays.get(1))));
+		assertThat(arrays.get(2), is(not(sameInstance(arrays.get(0)))));
+		assertThat(arrays.get(2), is(equalTo(arrays.get(0))));
+		hub.unsubscribe(subscriber1);
+		hub.unsubscribe(subscriber2);
+		hub.unsubscribe(subscriber3);
+	}
+
+	private static void post(HubPublisher publisher, int count) {
+		GatewayPayload[] payloads = new GatewayPayload[count];
+		for (int i = 0; i < count; i++) {
+			payloads[i] = new GatewayPayload();
+			payloads[i].setContent(new byte[] { (byte) i });
+		}
+		publisher.post(payloads);
+	}
+
+}
@@ -0,0 +1,146 @@
+package com.hp.it.perf.monitor.hub.internal;
+
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import com.hp.it.perf.monitor.hub.MonitorEndpoint;
+import com.hp.it.perf.monitor.hub.MonitorEvent;
+import com.hp.it.perf.monitor.hub.support.MonitorFilterExpression;
+
+// Keyword filters of 1, 100 and 1000 subscribers on log lines, evaluated
+// one by one, by shared filter tree, and by shared filter tree with keyword
+// automaton. Run main with -Dbenchmark.lines=20000 -Dbenchmark.rounds=5
+public class KeywordMatchBenchmark {
+
+	private static final int LINES = Integer.getInteger("benchmark.lines",
+			20000);
+
+	private static final int ROUNDS = Integer.getInteger("benchmark.rounds",
+			5);
+
+	private static final int BATCH = 100;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	public static void main(String[] args) {
+		MonitorEvent[] events = createEvents();
+		System.out.println(String.format("%8s %14s %14s %14s %8s",
+				"filters", "each ns/line", "tree ns/line", "ac ns/line",
+				"matched"));
+		for (int filters : new int[] { 1, 100, 1000 }) {
+			MonitorFilterExpression[] expressions = createFilters(filters);
+			long[] each = new long[2];
+			long[] tree = new long[2];
+			long[] automaton = new long[2];
+			for (int round = 0; round < ROUNDS; round++) {
+				// first round is warm up
+				boolean measure = round > 0;
+				add(each, measure, runEach(expressions, events));
+				add(tree, measure,
+						runTree(new SharedFilterTree(false), expressions,
+								events));
+				add(automaton, measure,
+						runTree(new SharedFilterTree(true), expressions,
+								events));
+			}
+			if (each[1] != tree[1] || each[1] != automaton[1]) {
+				throw new IllegalStateException("different matched count: "
+						+ each[1] + ", " + tree[1] + ", " + automaton[1]);
+			}
+			long lines = (long) LINES * (ROUNDS - 1);
+			System.out.println(String.format("%8d %14d %14d %14d %8d",
+					filters, each[0] / lines, tree[0] / lines, automaton[0]
+							/ lines, each[1] / (ROUNDS - 1)));
+		}
+	}
+
+	private static void add(long[] total, boolean measure, long[] result) {
+		if (measure) {
+			total[0] += result[0];
+			total[1] += result[1];
+		}
+	}
+
+	// return {nanos, matched}
+	private static long[] runEach(MonitorFilterExpression[] expressions,
+			MonitorEvent[] events) {
+		long matched = 0;
+		long startTime = System.nanoTime();
+		for (MonitorEvent event : events) {
+			for (MonitorFilterExpression expression : expressions) {
+				if (expression.accept(null, event)) {
+					matched++;
+				}
+			}
+		}
+		return new long[] { System.nanoTime() - startTime, matched };
+	}
+
+	private static long[] runTree(SharedFilterTree filterTree,
+			MonitorFilterExpression[] expressions, MonitorEvent[] events) {
+		SharedFilterTree.Predicate[] predicates = new SharedFilterTree.Predicate[expressions.length];
+		for (int i = 0; i < expressions.length; i++) {
+			predicates[i] = filterTree.register(expressions[i].getRoot());
+		}
+		long matched = 0;
+		long startTime = System.nanoTime();
+		for (int offset = 0; offset < events.length; offset += BATCH) {
+			MonitorEvent[] batch = new MonitorEvent[Math.min(BATCH,
+					events.length - offset)];
+			System.arraycopy(events, offset, batch, 0, batch.length);
+			SharedFilterTree.Evaluation evaluation = filterTree
+					.newEvaluation(batch);
+			// as hub processor: subscribers in outer loop
+			for (SharedFilterTree.Predicate predicate : predicates) {
+				for (int i = 0; i < batch.length; i++) {
+					if (evaluation.accept(predicate, i)) {
+						matched++;
+					}
+				}
+			}
+		}
+		return new long[] { System.nanoTime() - startTime, matched };
+	}
+
+	// customer id keywords, and common ones
+	private static MonitorFilterExpression[] createFilters(int count) {
+		MonitorFilterExpression[] expressions = new MonitorFilterExpression[count];
+		for (int i = 0; i < count; i++) {
+			String keyword;
+			if (i == 0) {
+				keyword = "ERROR";
+			} else if (i == 1) {
+				keyword = "OutOfMemory";
+			} else {
+				keyword = customerId(i * 7);
+			}
+			expressions[i] = MonitorFilterExpression.compile("content contains '"
+					+ keyword + "'");
+		}
+		return expressions;
+	}
+
+	private static MonitorEvent[] createEvents() {
+		Random random = new Random(0);
+		MonitorEndpoint endpoint = new MonitorEndpoint("benchmark", "lines");
+		MonitorEvent[] events = new MonitorEvent[LINES];
+		for (int i = 0; i < LINES; i++) {
+			int level = random.nextInt(100);
+			String line = String.format(
+					"2014-06-01 12:%02d:%02d,%03d %s [http-%d] com.hp.it.perf.Service - "
+							+ "request of customer %s took %dms%s",
+					i / 60 % 60, i % 60, i % 1000, level < 2 ? "ERROR"
+							: "INFO", random.nextInt(50),
+					customerId(random.nextInt(10000)), random.nextInt(5000),
+					level == 0 ? " java.lang.OutOfMemoryError" : "");
+			events[i] = new MonitorEvent(endpoint, i, line.getBytes(UTF8), i,
+					0, "service.log");
+		}
+		return events;
+	}
+
+	private static String customerId(int id) {
+		return String.format("C%07d", id);
+	}
+
+}
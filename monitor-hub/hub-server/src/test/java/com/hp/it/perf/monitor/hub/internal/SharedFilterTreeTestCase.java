@@ -0,0 +1,118 @@
+package com.hp.it.perf.monitor.hub.internal;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+import com.hp.it.perf.monitor.hub.MonitorEndpoint;
+import com.hp.it.perf.monitor.hub.MonitorEvent;
+import com.hp.it.perf.monitor.hub.support.MonitorFilterExpression;
+
+public class SharedFilterTreeTestCase {
+
+	private static final MonitorEndpoint endpoint = new MonitorEndpoint(
+			"test", "filter");
+
+	@Test
+	public void testSameExpressionInterned() throws Exception {
+		SharedFilterTree tree = new SharedFilterTree(false);
+		SharedFilterTree.Predicate p1 = tree
+				.register(node("content contains 'a' and type = 1"));
+		SharedFilterTree.Predicate p2 = tree
+				.register(node("content contains 'a' and type = 1"));
+		assertThat(p2, is(sameInstance(p1)));
+		// and, contains, type
+		assertThat(tree.size(), is(equalTo(3)));
+		tree.release(p1);
+		assertThat(tree.size(), is(equalTo(3)));
+		tree.release(p2);
+		assertThat(tree.size(), is(equalTo(0)));
+	}
+
+	@Test
+	public void testSharedSubExpression() throws Exception {
+		SharedFilterTree tree = new SharedFilterTree(false);
+		SharedFilterTree.Predicate p1 = tree
+				.register(node("content contains 'a' and content contains 'b'"));
+		SharedFilterTree.Predicate p2 = tree
+				.register(node("content contains 'a' or content contains 'c'"));
+		assertThat(p2.children[0], is(sameInstance(p1.children[0])));
+		// a, b, c, and, or
+		assertThat(tree.size(), is(equalTo(5)));
+		tree.release(p1);
+		// a is still used
+		assertThat(tree.size(), is(equalTo(3)));
+		SharedFilterTree.Predicate p3 = tree
+				.register(node("content contains 'a'"));
+		assertThat(p3, is(sameInstance(p2.children[0])));
+		tree.release(p2);
+		assertThat(tree.size(), is(equalTo(1)));
+		tree.release(p3);
+		assertThat(tree.size(), is(equalTo(0)));
+	}
+
+	@Test
+	public void testReleasedIdReused() throws Exception {
+		SharedFilterTree tree = new SharedFilterTree(false);
+		SharedFilterTree.Predicate p1 = tree.register(node("type = 1"));
+		SharedFilterTree.Predicate p2 = tree.register(node("type = 2"));
+		tree.release(p1);
+		SharedFilterTree.Predicate p3 = tree.register(node("type = 3"));
+		assertThat(p3.id, is(equalTo(p1.id)));
+		assertThat(p3.id, is(not(equalTo(p2.id))));
+	}
+
+	@Test
+	public void testEvaluation() throws Exception {
+		for (boolean keywordMatch : new boolean[] { false, true }) {
+			SharedFilterTree tree = new SharedFilterTree(keywordMatch);
+			SharedFilterTree.Predicate p1 = tree
+					.register(node("content contains 'ERROR' and not content contains 'ignore'"));
+			SharedFilterTree.Predicate p2 = tree
+					.register(node("content contains 'ERROR' or content contains 'WARN'"));
+			SharedFilterTree.Evaluation evaluation = tree
+					.newEvaluation(new MonitorEvent[] { event("ERROR x"),
+							event("ERROR ignore"), event("WARN y"),
+							event("INFO z") });
+			assertThat(evaluation.accept(p1, 0), is(true));
+			assertThat(evaluation.accept(p2, 0), is(true));
+			assertThat(evaluation.accept(p1, 1), is(false));
+			assertThat(evaluation.accept(p2, 1), is(true));
+			assertThat(evaluation.accept(p1, 2), is(false));
+			assertThat(evaluation.accept(p2, 2), is(true));
+			assertThat(evaluation.accept(p1, 3), is(false));
+			assertThat(evaluation.accept(p2, 3), is(false));
+		}
+	}
+
+	// subscriber replaced while a batch is being evaluated
+	@Test
+	public void testIdReusedDuringEvaluation() throws Exception {
+		SharedFilterTree tree = new SharedFilterTree(false);
+		SharedFilterTree.Predicate p1 = tree.register(node("type = 1"));
+		SharedFilterTree.Evaluation evaluation = tree
+				.newEvaluation(new MonitorEvent[] { event("x") });
+		assertThat(evaluation.accept(p1, 0), is(true));
+		tree.release(p1);
+		SharedFilterTree.Predicate p2 = tree.register(node("type = 2"));
+		assertThat(p2.id, is(equalTo(p1.id)));
+		// not the result of released one on same id
+		assertThat(evaluation.accept(p2, 0), is(false));
+		assertThat(evaluation.accept(p1, 0), is(true));
+	}
+
+	private static MonitorFilterExpression.Node node(String expression) {
+		return MonitorFilterExpression.compile(expression).getRoot();
+	}
+
+	private static MonitorEvent event(String content) {
+		MonitorEvent event = new MonitorEvent(endpoint);
+		event.setContentType(1);
+		event.setContent(content.getBytes(Charset.forName("UTF-8")));
+		return event;
+	}
+
+}
@@ -0,0 +1,138 @@
+package com.hp.it.perf.monitor.hub.jmx;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.Notification;
+import javax.management.NotificationListener;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hp.it.perf.monitor.hub.GatewayPayload;
+import com.hp.it.perf.monitor.hub.HubPublisher;
+import com.hp.it.perf.monitor.hub.MonitorEndpoint;
+import com.hp.it.perf.monitor.hub.internal.InternalMonitorHub;
+
+public class MonitorHubEndpointServiceTestCase {
+
+	private static final MonitorEndpoint endpoint = new MonitorEndpoint(
+			"test", "service");
+
+	private InternalMonitorHub hub;
+
+	private MonitorHubEndpointService service;
+
+	private HubPublisher publisher;
+
+	private final List<Notification> notifications = new ArrayList<Notification>();
+
+	@Before
+	public void setUp() throws Exception {
+		hub = new InternalMonitorHub();
+		// deliver in caller
+		hub.setDeliveryQueueSize(0);
+		publisher = hub.createPublisher(endpoint, null);
+		service = new MonitorHubEndpointService(endpoint);
+		service.addNotificationListener(new NotificationListener() {
+
+			@Override
+			public void handleNotification(Notification notification,
+					Object handback) {
+				notifications.add(notification);
+			}
+		}, null, null);
+		service.substribe(hub);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		service.unsubstribe(hub);
+		publisher.close();
+	}
+
+	@Test
+	public void testReplayDisabledByDefault() throws Exception {
+		assertThat(hub.getReplaySize(), is(equalTo(0)));
+		post("a", "b");
+		MonitorHubReplayData replayData = service.replay(0);
+		assertThat(replayData.getLastSequence(), is(equalTo(2L)));
+		// nothing retained
+		assertThat(replayData.getFirstSequence(), is(equalTo(3L)));
+		assertThat(replayData.getEpoch(), is(equalTo(hub.getEpoch())));
+	}
+
+	@Test
+	public void testEpochInNotification() throws Exception {
+		post("a");
+		// hub event of subscription, and monitor event
+		assertThat(notifications, hasSize(2));
+		for (Notification notification : notifications) {
+			assertThat(HubJMX.getEpoch(notification),
+					is(equalTo(hub.getEpoch())));
+		}
+		assertThat(service.getEpoch(), is(equalTo(hub.getEpoch())));
+	}
+
+	@Test
+	public void testEpochKeptInCompressedNotification() throws Exception {
+		post("a", "b");
+		Notification batch = new Notification(
+				MonitorHubEndpointServiceMXBean.NOTIFICATION_COMPRESSED_EVENT,
+				service, 2, 0, HubJMX.toEpochMessage(hub.getEpoch()));
+		batch.setUserData(monitorEvents());
+		Notification compressed = HubJMX.compressNotification(batch);
+		assertThat(HubJMX.getEpoch(compressed), is(equalTo(hub.getEpoch())));
+		assertThat(compressed.getSequenceNumber(), is(equalTo(2L)));
+		// not sent by server
+		assertThat(HubJMX.getEpoch(new Notification(
+				MonitorHubEndpointServiceMXBean.NOTIFICATION_MONITOR_EVENT,
+				service, 1)), is(equalTo(0L)));
+	}
+
+	@Test
+	public void testSequenceKeptInCompressedNotification() throws Exception {
+		post("a", "b", "c");
+		List<Notification> list = monitorEvents();
+		// second one dropped in delivery
+		list.remove(1);
+		Notification batch = new Notification(
+				MonitorHubEndpointServiceMXBean.NOTIFICATION_COMPRESSED_EVENT,
+				service, 3, 0, HubJMX.toEpochMessage(hub.getEpoch()));
+		batch.setUserData(list);
+		@SuppressWarnings("unchecked")
+		List<Notification> decompressed = (List<Notification>) HubJMX
+				.decompressNotification(HubJMX.compressNotification(batch))
+				.getUserData();
+		assertThat(decompressed, hasSize(2));
+		assertThat(decompressed.get(0).getSequenceNumber(), is(equalTo(1L)));
+		assertThat(decompressed.get(1).getSequenceNumber(), is(equalTo(3L)));
+	}
+
+	private List<Notification> monitorEvents() {
+		List<Notification> list = new ArrayList<Notification>();
+		for (Notification notification : notifications) {
+			if (MonitorHubEndpointServiceMXBean.NOTIFICATION_MONITOR_EVENT
+					.equals(notification.getType())) {
+				list.add(notification);
+			}
+		}
+		return list;
+	}
+
+	private void post(String... lines) {
+		GatewayPayload[] payloads = new GatewayPayload[lines.length];
+		for (int i = 0; i < lines.length; i++) {
+			payloads[i] = new GatewayPayload();
+			payloads[i].setContentSource("test.log");
+			payloads[i].setContent(lines[i].getBytes(Charset.forName("UTF-8")));
+		}
+		publisher.post(payloads);
+	}
+
+}
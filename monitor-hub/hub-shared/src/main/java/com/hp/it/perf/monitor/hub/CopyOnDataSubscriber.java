@@ -0,0 +1,7 @@
+package com.hp.it.perf.monitor.hub;
+
+// subscriber which may change the event array passed to onData, so it gets
+// its own copy. Other subscribers share one array of each published batch
+public interface CopyOnDataSubscriber extends HubSubscriber {
+
+}
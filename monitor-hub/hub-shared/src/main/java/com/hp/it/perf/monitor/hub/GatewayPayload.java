@@ -1,6 +1,9 @@
 package com.hp.it.perf.monitor.hub;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.Arrays;
 
 public class GatewayPayload implements Serializable {
 
@@ -16,6 +19,13 @@ public class GatewayPayload implements Serializable {
 
 	private String contentSource;
 
+	// content slice on shared buffer, only valid during post
+	private transient byte[] contentBuffer;
+
+	private transient int contentOffset;
+
+	private transient int contentLength;
+
 	public long getContentId() {
 		return contentId;
 	}
@@ -25,11 +35,47 @@ public class GatewayPayload implements Serializable {
 	}
 
 	public Object getContent() {
+		if (contentBuffer != null) {
+			// materialize slice as content is kept after post
+			content = Arrays.copyOfRange(contentBuffer, contentOffset,
+					contentOffset + contentLength);
+			contentBuffer = null;
+		}
 		return content;
 	}
 
 	public void setContent(Object content) {
 		this.content = content;
+		this.contentBuffer = null;
+	}
+
+	public void setContent(byte[] buffer, int offset, int length) {
+		this.content = null;
+		this.contentBuffer = buffer;
+		this.contentOffset = offset;
+		this.contentLength = length;
+	}
+
+	public boolean isContentSlice() {
+		return contentBuffer != null;
+	}
+
+	public byte[] getContentBuffer() {
+		if (contentBuffer != null) {
+			return contentBuffer;
+		}
+		return content instanceof byte[] ? (byte[]) content : null;
+	}
+
+	public int getContentOffset() {
+		return contentBuffer != null ? contentOffset : 0;
+	}
+
+	public int getContentLength() {
+		if (contentBuffer != null) {
+			return contentLength;
+		}
+		return content instanceof byte[] ? ((byte[]) content).length : 0;
 	}
 
 	public int getContentType() {
@@ -48,4 +94,9 @@ public class GatewayPayload implements Serializable {
 		this.contentSource = contentSource;
 	}
 
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		getContent();
+		out.defaultWriteObject();
+	}
+
 }
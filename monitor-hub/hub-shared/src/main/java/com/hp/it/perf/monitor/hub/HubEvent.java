@@ -18,6 +18,7 @@ public class HubEvent extends EventObject {
 			MonitorEndpoint endpoint, Object data) {
 		super(source);
 		this.status = status;
+		this.endpoint = endpoint;
 		this.data = data;
 	}
 
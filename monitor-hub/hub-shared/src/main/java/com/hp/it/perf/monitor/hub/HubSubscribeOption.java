@@ -14,4 +14,8 @@ public interface HubSubscribeOption extends Serializable {
 	// <=0 is no restriction
 	public int getBatchSize();
 
+	// replay retained events of endpoint after given sequence, <=0 is not.
+	// Sequences are numbered in each endpoint
+	public long getResumeSequence(MonitorEndpoint endpoint);
+
 }
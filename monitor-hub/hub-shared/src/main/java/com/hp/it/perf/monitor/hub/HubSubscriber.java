@@ -2,6 +2,8 @@ package com.hp.it.perf.monitor.hub;
 
 public interface HubSubscriber {
 
+	// events (and the array) may be shared with other subscribers, so they
+	// are read-only; see CopyOnDataSubscriber for own array
 	public void onData(MonitorEvent... event);
 
 	public void onHubEvent(HubEvent event);
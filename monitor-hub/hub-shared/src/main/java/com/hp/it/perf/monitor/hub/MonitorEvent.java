@@ -16,10 +16,46 @@ public class MonitorEvent extends EventObject {
 
 	private String contentSource;
 
+	// position in events of endpoint, 0 if unknown
+	private long sequence;
+
+	// shared by hub subscribers, so setters are rejected
+	private transient boolean readOnly;
+
 	public MonitorEvent(MonitorEndpoint endpoint) {
 		super(endpoint);
 	}
 
+	// read-only event
+	public MonitorEvent(MonitorEndpoint endpoint, long time, Object content,
+			long contentId, int contentType, String contentSource) {
+		this(endpoint, time, content, contentId, contentType, contentSource, 0);
+	}
+
+	// read-only event
+	public MonitorEvent(MonitorEndpoint endpoint, long time, Object content,
+			long contentId, int contentType, String contentSource,
+			long sequence) {
+		super(endpoint);
+		this.sequence = sequence;
+		this.time = time;
+		this.content = content;
+		this.contentId = contentId;
+		this.contentType = contentType;
+		this.contentSource = contentSource;
+		this.readOnly = true;
+	}
+
+	public boolean isReadOnly() {
+		return readOnly;
+	}
+
+	private void checkWritable() {
+		if (readOnly) {
+			throw new UnsupportedOperationException("read-only event");
+		}
+	}
+
 	public long getTime() {
 		return time;
 	}
@@ -40,24 +76,38 @@ public class MonitorEvent extends EventObject {
 		return contentSource;
 	}
 
+	public long getSequence() {
+		return sequence;
+	}
+
 	public void setTime(long time) {
+		checkWritable();
 		this.time = time;
 	}
 
 	public void setContent(Object content) {
+		checkWritable();
 		this.content = content;
 	}
 
 	public void setContentId(long contentId) {
+		checkWritable();
 		this.contentId = contentId;
 	}
 
 	public void setContentType(int contentType) {
+		checkWritable();
 		this.contentType = contentType;
 	}
 
 	public void setContentSource(String contentSource) {
+		checkWritable();
 		this.contentSource = contentSource;
 	}
 
+	public void setSequence(long sequence) {
+		checkWritable();
+		this.sequence = sequence;
+	}
+
 }
@@ -34,6 +34,8 @@ import com.hp.it.perf.monitor.hub.MonitorHub;
 
 public class HubJMX {
 
+	private static final String EPOCH_MESSAGE = "epoch ";
+
 	public static ObjectName createEndpointObjectName(ObjectName hubObjectName,
 			MonitorEndpoint me) {
 		Hashtable<String, String> prop = new Hashtable<String, String>();
@@ -64,10 +66,13 @@ public class HubJMX {
 			data.setId(count);
 			byte[] compressedData = compressData(list);
 			data.setContent(compressedData);
+			// keep hub epoch
+			String message = getEpoch(notification) != 0 ? notification
+					.getMessage() : "Compressed count - " + count;
 			Notification newNotification = new Notification(
 					MonitorHubEndpointServiceMXBean.NOTIFICATION_COMPRESSED_EVENT,
 					notification.getSource(), notification.getSequenceNumber(),
-					notification.getTimeStamp(), "Compressed count - " + count);
+					notification.getTimeStamp(), message);
 			newNotification.setUserData(data);
 			return newNotification;
 		} else {
@@ -75,6 +80,24 @@ public class HubJMX {
 		}
 	}
 
+	public static String toEpochMessage(long epoch) {
+		return EPOCH_MESSAGE + epoch;
+	}
+
+	// hub epoch in notification message, 0 if not sent
+	public static long getEpoch(Notification notification) {
+		String message = notification.getMessage();
+		if (message != null && message.startsWith(EPOCH_MESSAGE)) {
+			try {
+				return Long.parseLong(message.substring(EPOCH_MESSAGE
+						.length()));
+			} catch (NumberFormatException e) {
+				// not a epoch
+			}
+		}
+		return 0;
+	}
+
 	private static byte[] compressData(List<Notification> list) {
 		ByteArrayOutputStream baOut = new ByteArrayOutputStream();
 		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
@@ -119,6 +142,12 @@ public class HubJMX {
 				out.writeInt(data.getContent().length);
 				out.write(data.getContent());
 			}
+			// section: sequence of each notification, as events in batch may
+			// not be contiguous (read as end sign by old reader)
+			out.writeInt(list.size());
+			for (Notification notification : list) {
+				out.writeLong(notification.getSequenceNumber());
+			}
 			// secton: end sign
 			out.writeInt(-1);
 			out.close();
@@ -184,8 +213,14 @@ public class HubJMX {
 				notification.setUserData(data);
 				list.add(notification);
 			}
-			// section: read end sign
-			input.readInt();
+			// section: sequence list, or end sign if not written
+			if (input.readInt() >= 0) {
+				for (Notification notification : list) {
+					notification.setSequenceNumber(input.readLong());
+				}
+				// section: read end sign
+				input.readInt();
+			}
 			input.close();
 			return list;
 		} catch (IOException e) {
@@ -244,7 +279,7 @@ public class HubJMX {
 		}
 	}
 
-	private static MonitorHubContentData fromCompositeData(
+	static MonitorHubContentData fromCompositeData(
 			CompositeData userData) {
 		MonitorHubContentData data = new MonitorHubContentData();
 		data.setDataType((Byte) userData.get("dataType"));
@@ -0,0 +1,81 @@
+package com.hp.it.perf.monitor.hub.jmx;
+
+import java.util.List;
+
+import javax.management.Notification;
+import javax.management.NotificationFilter;
+import javax.management.openmbean.CompositeData;
+
+import com.hp.it.perf.monitor.hub.MonitorEndpoint;
+import com.hp.it.perf.monitor.hub.MonitorEvent;
+import com.hp.it.perf.monitor.hub.MonitorFilter;
+
+// Apply subscriber filter on endpoint notifications in server side. Hub event
+// is always sent, and compressed batch is sent if any event in it is accepted
+// (so subscriber still needs to filter events in batch).
+public class MonitorEventNotificationFilter implements NotificationFilter {
+
+	private static final long serialVersionUID = 2210482939446012376L;
+
+	private final MonitorEndpoint endpoint;
+
+	private final MonitorFilter filter;
+
+	public MonitorEventNotificationFilter(MonitorEndpoint endpoint,
+			MonitorFilter filter) {
+		this.endpoint = endpoint;
+		this.filter = filter;
+	}
+
+	@Override
+	public boolean isNotificationEnabled(Notification notification) {
+		String type = notification.getType();
+		if (MonitorHubEndpointServiceMXBean.NOTIFICATION_MONITOR_EVENT
+				.equals(type)) {
+			return accept(notification);
+		} else if (MonitorHubEndpointServiceMXBean.NOTIFICATION_COMPRESSED_EVENT
+				.equals(type)) {
+			@SuppressWarnings("unchecked")
+			List<Notification> list = (List<Notification>) HubJMX
+					.decompressNotification(toContentNotification(notification))
+					.getUserData();
+			for (Notification item : list) {
+				if (!MonitorHubEndpointServiceMXBean.NOTIFICATION_MONITOR_EVENT
+						.equals(item.getType()) || accept(item)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		return true;
+	}
+
+	private boolean accept(Notification notification) {
+		MonitorHubContentData data = toContentData(notification.getUserData());
+		MonitorEvent event = new MonitorEvent(endpoint);
+		event.setTime(notification.getTimeStamp());
+		HubJMX.getMonitorEventContent(event, data);
+		return filter.accept(endpoint, event);
+	}
+
+	// notification is shared with other listeners, so keep it unchanged
+	private static Notification toContentNotification(Notification notification) {
+		if (notification.getUserData() instanceof CompositeData) {
+			Notification copy = new Notification(notification.getType(),
+					notification.getSource(),
+					notification.getSequenceNumber(),
+					notification.getTimeStamp(), notification.getMessage());
+			copy.setUserData(toContentData(notification.getUserData()));
+			return copy;
+		}
+		return notification;
+	}
+
+	private static MonitorHubContentData toContentData(Object userData) {
+		if (userData instanceof CompositeData) {
+			return HubJMX.fromCompositeData((CompositeData) userData);
+		}
+		return (MonitorHubContentData) userData;
+	}
+
+}
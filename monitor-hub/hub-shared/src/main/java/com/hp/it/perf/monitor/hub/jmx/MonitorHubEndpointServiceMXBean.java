@@ -22,4 +22,14 @@ public interface MonitorHubEndpointServiceMXBean {
 
 	public boolean isNotificationCompressEnabled();
 
+	// sequence of last monitor event, as notification sequence number
+	public long getLastSequence();
+
+	// start time of hub instance, 0 if unknown. Sequences start again in a
+	// new instance, and notification message carries it (see HubJMX.getEpoch)
+	public long getEpoch();
+
+	// retained monitor events after given sequence
+	public MonitorHubReplayData replay(long afterSequence);
+
 }
@@ -0,0 +1,53 @@
+package com.hp.it.perf.monitor.hub.jmx;
+
+import java.io.Serializable;
+
+public class MonitorHubReplayData implements Serializable {
+
+	private static final long serialVersionUID = 2893041863270918817L;
+
+	// sequence of first replayed event, or next sequence if nothing retained
+	private long firstSequence;
+
+	// sequence of last event of endpoint, 0 if replay is not supported
+	private long lastSequence;
+
+	// hub instance of sequences, 0 if unknown
+	private long epoch;
+
+	// compressed monitor event notifications
+	private MonitorHubContentData content;
+
+	public long getEpoch() {
+		return epoch;
+	}
+
+	public void setEpoch(long epoch) {
+		this.epoch = epoch;
+	}
+
+	public long getFirstSequence() {
+		return firstSequence;
+	}
+
+	public void setFirstSequence(long firstSequence) {
+		this.firstSequence = firstSequence;
+	}
+
+	public long getLastSequence() {
+		return lastSequence;
+	}
+
+	public void setLastSequence(long lastSequence) {
+		this.lastSequence = lastSequence;
+	}
+
+	public MonitorHubContentData getContent() {
+		return content;
+	}
+
+	public void setContent(MonitorHubContentData content) {
+		this.content = content;
+	}
+
+}
@@ -1,5 +1,8 @@
 package com.hp.it.perf.monitor.hub.support;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import com.hp.it.perf.monitor.hub.HubSubscribeOption;
 import com.hp.it.perf.monitor.hub.HubSubscriber;
 import com.hp.it.perf.monitor.hub.MonitorEndpoint;
@@ -14,6 +17,8 @@ public class DefaultHubSubscribeOption implements HubSubscribeOption {
 
 	private int batchSize = 0;
 
+	private Map<MonitorEndpoint, Long> resumeSequences = new HashMap<MonitorEndpoint, Long>();
+
 	public DefaultHubSubscribeOption(MonitorEndpoint... endpoints) {
 		this.endpoints = endpoints;
 	}
@@ -22,6 +27,10 @@ public class DefaultHubSubscribeOption implements HubSubscribeOption {
 		this.batchSize = batchSize;
 	}
 
+	public void setResumeSequence(MonitorEndpoint endpoint, long resumeSequence) {
+		resumeSequences.put(endpoint, resumeSequence);
+	}
+
 	@Override
 	public boolean isSubscribeEnabled(MonitorEndpoint endpoint) {
 		for (MonitorEndpoint me : endpoints) {
@@ -69,4 +78,10 @@ public class DefaultHubSubscribeOption implements HubSubscribeOption {
 		return batchSize;
 	}
 
+	@Override
+	public long getResumeSequence(MonitorEndpoint endpoint) {
+		Long resumeSequence = resumeSequences.get(endpoint);
+		return resumeSequence == null ? 0 : resumeSequence;
+	}
+
 }
@@ -0,0 +1,663 @@
+package com.hp.it.perf.monitor.hub.support;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import com.hp.it.perf.monitor.hub.MonitorEndpoint;
+import com.hp.it.perf.monitor.hub.MonitorEvent;
+import com.hp.it.perf.monitor.hub.MonitorFilter;
+
+// Declarative filter on monitor event, like:
+// source contains 'access' and (content contains 'ERROR' or content ~ 'took [0-9]{4,}ms')
+//
+// term: source = | contains | ~ 'text', type = number,
+// content contains | ~ 'text' (content bytes as UTF-8)
+// combined by not, and, or (in precedence order) and parentheses.
+//
+// Only expression text is serialized, so it can be evaluated by hub server.
+public class MonitorFilterExpression implements MonitorFilter {
+
+	private static final long serialVersionUID = -2736453358240516791L;
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final String expression;
+
+	private transient Node root;
+
+	// evaluation of node on one event
+	public static interface Context {
+
+		// evaluate given child node
+		public boolean test(Node node, MonitorEvent event);
+
+		// content decoded as text
+		public String getText(MonitorEvent event);
+
+	}
+
+	public static abstract class Node implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private static final Node[] NO_CHILDREN = new Node[0];
+
+		public abstract boolean evaluate(MonitorEvent event, Context context);
+
+		public Node[] getChildren() {
+			return NO_CHILDREN;
+		}
+
+	}
+
+	public static final class And extends Node {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Node[] children;
+
+		public And(Node... children) {
+			this.children = children;
+		}
+
+		@Override
+		public boolean evaluate(MonitorEvent event, Context context) {
+			for (Node child : children) {
+				if (!context.test(child, event)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public Node[] getChildren() {
+			return children;
+		}
+
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(children);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof And
+					&& Arrays.equals(children, ((And) obj).children);
+		}
+
+		@Override
+		public String toString() {
+			return join(children, " and ");
+		}
+	}
+
+	public static final class Or extends Node {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Node[] children;
+
+		public Or(Node... children) {
+			this.children = children;
+		}
+
+		@Override
+		public boolean evaluate(MonitorEvent event, Context context) {
+			for (Node child : children) {
+				if (context.test(child, event)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public Node[] getChildren() {
+			return children;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * Arrays.hashCode(children) + 1;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Or
+					&& Arrays.equals(children, ((Or) obj).children);
+		}
+
+		@Override
+		public String toString() {
+			return join(children, " or ");
+		}
+	}
+
+	public static final class Not extends Node {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Node child;
+
+		public Not(Node child) {
+			this.child = child;
+		}
+
+		@Override
+		public boolean evaluate(MonitorEvent event, Context context) {
+			return !context.test(child, event);
+		}
+
+		@Override
+		public Node[] getChildren() {
+			return new Node[] { child };
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * child.hashCode() + 2;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Not && child.equals(((Not) obj).child);
+		}
+
+		@Override
+		public String toString() {
+			return "not " + child;
+		}
+	}
+
+	public static final class SourceEquals extends Node {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String value;
+
+		public SourceEquals(String value) {
+			this.value = value;
+		}
+
+		@Override
+		public boolean evaluate(MonitorEvent event, Context context) {
+			return value.equals(event.getContentSource());
+		}
+
+		@Override
+		public int hashCode() {
+			return value.hashCode() + 3;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof SourceEquals
+					&& value.equals(((SourceEquals) obj).value);
+		}
+
+		@Override
+		public String toString() {
+			return "source = " + quote(value);
+		}
+	}
+
+	public static final class SourceContains extends Node {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String value;
+
+		public SourceContains(String value) {
+			this.value = value;
+		}
+
+		@Override
+		public boolean evaluate(MonitorEvent event, Context context) {
+			String source = event.getContentSource();
+			return source != null && source.contains(value);
+		}
+
+		@Override
+		public int hashCode() {
+			return value.hashCode() + 4;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof SourceContains
+					&& value.equals(((SourceContains) obj).value);
+		}
+
+		@Override
+		public String toString() {
+			return "source contains " + quote(value);
+		}
+	}
+
+	public static final class SourceMatches extends Node {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Pattern pattern;
+
+		public SourceMatches(String regex) {
+			this.pattern = Pattern.compile(regex);
+		}
+
+		@Override
+		public boolean evaluate(MonitorEvent event, Context context) {
+			String source = event.getContentSource();
+			return source != null && pattern.matcher(source).find();
+		}
+
+		@Override
+		public int hashCode() {
+			return pattern.pattern().hashCode() + 5;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof SourceMatches
+					&& pattern.pattern().equals(
+							((SourceMatches) obj).pattern.pattern());
+		}
+
+		@Override
+		public String toString() {
+			return "source ~ " + quote(pattern.pattern());
+		}
+	}
+
+	public static final class TypeEquals extends Node {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int value;
+
+		public TypeEquals(int value) {
+			this.value = value;
+		}
+
+		@Override
+		public boolean evaluate(MonitorEvent event, Context context) {
+			return event.getContentType() == value;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * value + 6;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof TypeEquals
+					&& value == ((TypeEquals) obj).value;
+		}
+
+		@Override
+		public String toString() {
+			return "type = " + value;
+		}
+	}
+
+	public static final class ContentContains extends Node {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String value;
+
+		private final byte[] bytes;
+
+		public ContentContains(String value) {
+			this.value = value;
+			this.bytes = value.getBytes(UTF8);
+		}
+
+		public String getValue() {
+			return value;
+		}
+
+		@Override
+		public boolean evaluate(MonitorEvent event, Context context) {
+			Object content = event.getContent();
+			if (content instanceof byte[]) {
+				// no need to decode
+				return indexOf((byte[]) content, bytes) >= 0;
+			}
+			return context.getText(event).contains(value);
+		}
+
+		@Override
+		public int hashCode() {
+			return value.hashCode() + 7;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof ContentContains
+					&& value.equals(((ContentContains) obj).value);
+		}
+
+		@Override
+		public String toString() {
+			return "content contains " + quote(value);
+		}
+	}
+
+	public static final class ContentMatches extends Node {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Pattern pattern;
+
+		public ContentMatches(String regex) {
+			this.pattern = Pattern.compile(regex);
+		}
+
+		@Override
+		public boolean evaluate(MonitorEvent event, Context context) {
+			return pattern.matcher(context.getText(event)).find();
+		}
+
+		@Override
+		public int hashCode() {
+			return pattern.pattern().hashCode() + 8;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof ContentMatches
+					&& pattern.pattern().equals(
+							((ContentMatches) obj).pattern.pattern());
+		}
+
+		@Override
+		public String toString() {
+			return "content ~ " + quote(pattern.pattern());
+		}
+	}
+
+	// evaluate each node once per call
+	private static final Context DIRECT = new Context() {
+
+		@Override
+		public boolean test(Node node, MonitorEvent event) {
+			return node.evaluate(event, this);
+		}
+
+		@Override
+		public String getText(MonitorEvent event) {
+			return toText(event.getContent());
+		}
+	};
+
+	private MonitorFilterExpression(String expression, Node root) {
+		this.expression = expression;
+		this.root = root;
+	}
+
+	public static MonitorFilterExpression compile(String expression)
+			throws IllegalArgumentException {
+		return new MonitorFilterExpression(expression,
+				new Parser(expression).parse());
+	}
+
+	public String getExpression() {
+		return expression;
+	}
+
+	public Node getRoot() {
+		return root;
+	}
+
+	@Override
+	public boolean accept(MonitorEndpoint endpoint, MonitorEvent event) {
+		return root.evaluate(event, DIRECT);
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException,
+			ClassNotFoundException {
+		in.defaultReadObject();
+		root = new Parser(expression).parse();
+	}
+
+	@Override
+	public String toString() {
+		return expression;
+	}
+
+	public static String toText(Object content) {
+		if (content instanceof byte[]) {
+			return new String((byte[]) content, UTF8);
+		} else if (content == null) {
+			return "";
+		} else {
+			return content.toString();
+		}
+	}
+
+	static int indexOf(byte[] data, byte[] pattern) {
+		if (pattern.length == 0) {
+			return 0;
+		}
+		byte first = pattern[0];
+		int max = data.length - pattern.length;
+		for (int i = 0; i <= max; i++) {
+			if (data[i] != first) {
+				continue;
+			}
+			int j = 1;
+			while (j < pattern.length && data[i + j] == pattern[j]) {
+				j++;
+			}
+			if (j == pattern.length) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static String join(Node[] nodes, String separator) {
+		StringBuilder builder = new StringBuilder("(");
+		for (int i = 0; i < nodes.length; i++) {
+			if (i > 0) {
+				builder.append(separator);
+			}
+			builder.append(nodes[i]);
+		}
+		return builder.append(')').toString();
+	}
+
+	private static String quote(String value) {
+		return "'" + value.replace("\\", "\\\\").replace("'", "\\'") + "'";
+	}
+
+	private static class Parser {
+
+		private final String text;
+
+		private int pos;
+
+		Parser(String text) {
+			this.text = text;
+		}
+
+		Node parse() {
+			Node node = parseOr();
+			skipSpaces();
+			if (pos < text.length()) {
+				throw error("unexpected '" + text.charAt(pos) + "'");
+			}
+			return node;
+		}
+
+		private Node parseOr() {
+			List<Node> nodes = new ArrayList<Node>();
+			nodes.add(parseAnd());
+			while (acceptWord("or")) {
+				nodes.add(parseAnd());
+			}
+			return nodes.size() == 1 ? nodes.get(0) : new Or(
+					nodes.toArray(new Node[nodes.size()]));
+		}
+
+		private Node parseAnd() {
+			List<Node> nodes = new ArrayList<Node>();
+			nodes.add(parseNot());
+			while (acceptWord("and")) {
+				nodes.add(parseNot());
+			}
+			return nodes.size() == 1 ? nodes.get(0) : new And(
+					nodes.toArray(new Node[nodes.size()]));
+		}
+
+		private Node parseNot() {
+			if (acceptWord("not")) {
+				return new Not(parseNot());
+			}
+			skipSpaces();
+			if (pos < text.length() && text.charAt(pos) == '(') {
+				pos++;
+				Node node = parseOr();
+				skipSpaces();
+				if (pos >= text.length() || text.charAt(pos) != ')') {
+					throw error("missing ')'");
+				}
+				pos++;
+				return node;
+			}
+			return parseTerm();
+		}
+
+		private Node parseTerm() {
+			String field = readWord();
+			String operator = readOperator();
+			try {
+				if ("source".equals(field)) {
+					String value = readString();
+					if ("=".equals(operator)) {
+						return new SourceEquals(value);
+					} else if ("contains".equals(operator)) {
+						return new SourceContains(value);
+					} else if ("~".equals(operator)) {
+						return new SourceMatches(value);
+					}
+				} else if ("content".equals(field)) {
+					String value = readString();
+					if ("contains".equals(operator)) {
+						return new ContentContains(value);
+					} else if ("~".equals(operator)) {
+						return new ContentMatches(value);
+					}
+				} else if ("type".equals(field)) {
+					if ("=".equals(operator)) {
+						return new TypeEquals(readNumber());
+					}
+				} else {
+					throw error("unknown field '" + field + "'");
+				}
+			} catch (PatternSyntaxException e) {
+				throw error("invalid regex: " + e.getDescription());
+			}
+			throw error("unsupported operator '" + operator + "' on " + field);
+		}
+
+		private void skipSpaces() {
+			while (pos < text.length()
+					&& Character.isWhitespace(text.charAt(pos))) {
+				pos++;
+			}
+		}
+
+		private boolean acceptWord(String word) {
+			skipSpaces();
+			int end = pos + word.length();
+			if (text.regionMatches(true, pos, word, 0, word.length())
+					&& (end == text.length() || !Character
+							.isLetterOrDigit(text.charAt(end)))) {
+				pos = end;
+				return true;
+			}
+			return false;
+		}
+
+		private String readWord() {
+			skipSpaces();
+			int start = pos;
+			while (pos < text.length()
+					&& Character.isLetter(text.charAt(pos))) {
+				pos++;
+			}
+			if (start == pos) {
+				throw error("expect field");
+			}
+			return text.substring(start, pos).toLowerCase();
+		}
+
+		private String readOperator() {
+			skipSpaces();
+			if (pos < text.length()
+					&& (text.charAt(pos) == '=' || text.charAt(pos) == '~')) {
+				return String.valueOf(text.charAt(pos++));
+			}
+			if (acceptWord("contains")) {
+				return "contains";
+			}
+			throw error("expect operator");
+		}
+
+		private String readString() {
+			skipSpaces();
+			if (pos >= text.length()
+					|| (text.charAt(pos) != '\'' && text.charAt(pos) != '"')) {
+				throw error("expect quoted text");
+			}
+			char quote = text.charAt(pos++);
+			StringBuilder builder = new StringBuilder();
+			while (pos < text.length()) {
+				char c = text.charAt(pos++);
+				if (c == quote) {
+					return builder.toString();
+				}
+				// escape quote and backslash only, as used in regex
+				if (c == '\\'
+						&& pos < text.length()
+						&& (text.charAt(pos) == quote || text.charAt(pos) == '\\')) {
+					c = text.charAt(pos++);
+				}
+				builder.append(c);
+			}
+			throw error("unterminated text");
+		}
+
+		private int readNumber() {
+			skipSpaces();
+			int start = pos;
+			if (pos < text.length() && text.charAt(pos) == '-') {
+				pos++;
+			}
+			while (pos < text.length() && Character.isDigit(text.charAt(pos))) {
+				pos++;
+			}
+			try {
+				return Integer.parseInt(text.substring(start, pos));
+			} catch (NumberFormatException e) {
+				throw error("expect number");
+			}
+		}
+
+		private IllegalArgumentException error(String message) {
+			return new IllegalArgumentException(message + " at " + pos
+					+ " in filter: " + text);
+		}
+	}
+
+}
@@ -0,0 +1,179 @@
+package com.hp.it.perf.monitor.hub.support;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+import com.hp.it.perf.monitor.hub.MonitorEndpoint;
+import com.hp.it.perf.monitor.hub.MonitorEvent;
+import com.hp.it.perf.monitor.hub.support.MonitorFilterExpression.And;
+import com.hp.it.perf.monitor.hub.support.MonitorFilterExpression.ContentContains;
+import com.hp.it.perf.monitor.hub.support.MonitorFilterExpression.ContentMatches;
+import com.hp.it.perf.monitor.hub.support.MonitorFilterExpression.Node;
+import com.hp.it.perf.monitor.hub.support.MonitorFilterExpression.Not;
+import com.hp.it.perf.monitor.hub.support.MonitorFilterExpression.Or;
+import com.hp.it.perf.monitor.hub.support.MonitorFilterExpression.SourceContains;
+import com.hp.it.perf.monitor.hub.support.MonitorFilterExpression.SourceEquals;
+import com.hp.it.perf.monitor.hub.support.MonitorFilterExpression.SourceMatches;
+import com.hp.it.perf.monitor.hub.support.MonitorFilterExpression.TypeEquals;
+
+public class MonitorFilterExpressionTestCase {
+
+	private static final MonitorEndpoint endpoint = new MonitorEndpoint(
+			"test", "filter");
+
+	private static final Node A = new ContentContains("a");
+
+	private static final Node B = new ContentContains("b");
+
+	private static final Node C = new ContentContains("c");
+
+	@Test
+	public void testTerms() throws Exception {
+		assertThat(root("source = 'app.log'"),
+				is((Node) new SourceEquals("app.log")));
+		assertThat(root("source contains 'app'"),
+				is((Node) new SourceContains("app")));
+		assertThat(root("source ~ 'app\\.log\\.[0-9]'"),
+				is((Node) new SourceMatches("app\\.log\\.[0-9]")));
+		assertThat(root("type = -1"), is((Node) new TypeEquals(-1)));
+		assertThat(root("content contains 'a'"), is(A));
+		assertThat(root("content ~ 'took [0-9]+ms'"),
+				is((Node) new ContentMatches("took [0-9]+ms")));
+	}
+
+	@Test
+	public void testPrecedence() throws Exception {
+		// not > and > or
+		assertThat(
+				root("content contains 'a' or content contains 'b' and content contains 'c'"),
+				is((Node) new Or(A, new And(B, C))));
+		assertThat(
+				root("not content contains 'a' and content contains 'b'"),
+				is((Node) new And(new Not(A), B)));
+		assertThat(
+				root("not not content contains 'a' or content contains 'b'"),
+				is((Node) new Or(new Not(new Not(A)), B)));
+		assertThat(
+				root("(content contains 'a' or content contains 'b') and content contains 'c'"),
+				is((Node) new And(new Or(A, B), C)));
+		assertThat(
+				root("not (content contains 'a' or content contains 'b')"),
+				is((Node) new Not(new Or(A, B))));
+		// same operator is flattened
+		assertThat(
+				root("content contains 'a' and content contains 'b' and content contains 'c'"),
+				is((Node) new And(A, B, C)));
+	}
+
+	@Test
+	public void testKeywordsAndSpaces() throws Exception {
+		assertThat(root("  CONTENT Contains 'a'OR(content contains'b')  "),
+				is((Node) new Or(A, B)));
+		// keyword must end at word boundary
+		assertInvalid("content contains 'a' order", "unexpected 'o'");
+	}
+
+	@Test
+	public void testQuoting() throws Exception {
+		assertThat(root("content contains 'it\\'s'"),
+				is((Node) new ContentContains("it's")));
+		assertThat(root("content contains \"say 'hi'\""),
+				is((Node) new ContentContains("say 'hi'")));
+		assertThat(root("content contains 'a\\\\b'"),
+				is((Node) new ContentContains("a\\b")));
+		// other escapes are kept for regex
+		assertThat(root("content ~ 'took \\d+ms'"),
+				is((Node) new ContentMatches("took \\d+ms")));
+		assertThat(root("content contains ''"),
+				is((Node) new ContentContains("")));
+	}
+
+	@Test
+	public void testErrors() throws Exception {
+		assertInvalid("", "expect field");
+		assertInvalid("content", "expect operator");
+		assertInvalid("content contains", "expect quoted text");
+		assertInvalid("content contains 'a", "unterminated text");
+		assertInvalid("content = 'a'", "unsupported operator '=' on content");
+		assertInvalid("type contains 'a'",
+				"unsupported operator 'contains' on type");
+		assertInvalid("host = 'a'", "unknown field 'host'");
+		assertInvalid("type = x", "expect number");
+		assertInvalid("content ~ '['", "invalid regex");
+		assertInvalid("(type = 1", "missing ')'");
+		assertInvalid("type = 1)", "unexpected ')'");
+		assertInvalid("type = 1 and", "expect field");
+	}
+
+	@Test
+	public void testToStringRoundTrip() throws Exception {
+		String[] expressions = {
+				"source = 'a\\'b\\\\c' or not type = 3",
+				"(content contains 'a' or content ~ 'x\\d') and source contains \"it's\"",
+				"not (type = 1 and (source ~ '^app' or content contains 'b'))" };
+		for (String expression : expressions) {
+			Node node = root(expression);
+			assertThat(expression, root(node.toString()), is(equalTo(node)));
+		}
+	}
+
+	@Test
+	public void testSerialization() throws Exception {
+		MonitorFilterExpression filter = MonitorFilterExpression
+				.compile("content contains 'a' and not source = 'x'");
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ObjectOutputStream objectOut = new ObjectOutputStream(out);
+		objectOut.writeObject(filter);
+		objectOut.close();
+		MonitorFilterExpression copy = (MonitorFilterExpression) new ObjectInputStream(
+				new ByteArrayInputStream(out.toByteArray())).readObject();
+		assertThat(copy.getExpression(), is(equalTo(filter.getExpression())));
+		assertThat(copy.getRoot(), is(equalTo(filter.getRoot())));
+	}
+
+	@Test
+	public void testAccept() throws Exception {
+		MonitorFilterExpression filter = MonitorFilterExpression
+				.compile("source contains 'access' and (content contains 'ERROR' or content ~ 'took [0-9]{4,}ms')");
+		assertThat(filter.accept(endpoint, event("access.log", "ERROR x")),
+				is(true));
+		assertThat(
+				filter.accept(endpoint, event("access.log", "took 1200ms")),
+				is(true));
+		assertThat(filter.accept(endpoint, event("access.log", "took 12ms")),
+				is(false));
+		assertThat(filter.accept(endpoint, event("app.log", "ERROR x")),
+				is(false));
+		assertThat(filter.accept(endpoint, event(null, "ERROR x")), is(false));
+	}
+
+	private static Node root(String expression) {
+		return MonitorFilterExpression.compile(expression).getRoot();
+	}
+
+	private static void assertInvalid(String expression, String message) {
+		try {
+			MonitorFilterExpression.compile(expression);
+		} catch (IllegalArgumentException e) {
+			assertThat(e.getMessage(), containsString(message));
+			return;
+		}
+		throw new AssertionError("expect invalid filter: " + expression);
+	}
+
+	private static MonitorEvent event(String source, String content) {
+		MonitorEvent event = new MonitorEvent(endpoint);
+		event.setContentSource(source);
+		event.setContent(content.getBytes(Charset.forName("UTF-8")));
+		return event;
+	}
+
+}